@@ -1,30 +1,78 @@
 package org.davidgeorgehope;
 
+import org.davidgeorgehope.backfill.BackfillRunner;
+import org.davidgeorgehope.backfill.BulkFileRunner;
+import org.davidgeorgehope.backfill.RateProfile;
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.davidgeorgehope.mysql.MySQLErrorLogEntry;
 import org.davidgeorgehope.mysql.MySQLErrorLogGenerator;
+import org.davidgeorgehope.mysql.MySQLGeneralLogEntry;
 import org.davidgeorgehope.mysql.MySQLGeneralLogGenerator;
+import org.davidgeorgehope.mysql.MySQLSlowLogEntry;
 import org.davidgeorgehope.mysql.MySQLSlowLogGenerator;
+import org.davidgeorgehope.nginx.logs.AccessLogEntry;
 import org.davidgeorgehope.nginx.logs.AccessLogGenerator;
+import org.davidgeorgehope.nginx.logs.ErrorLogEntry;
 import org.davidgeorgehope.nginx.logs.ErrorLogGenerator;
+import org.davidgeorgehope.nginx.logs.HostFanOut;
+import org.davidgeorgehope.nginx.logs.IngressAccessLogEntry;
 import org.davidgeorgehope.nginx.logs.IngressAccessLogGenerator;
+import org.davidgeorgehope.nginx.logs.IngressErrorLogEntry;
 import org.davidgeorgehope.nginx.logs.IngressErrorLogGenerator;
 import org.davidgeorgehope.nginx.logs.LogSender;
+import org.davidgeorgehope.nginx.logs.NginxLogFormat;
+import org.davidgeorgehope.nginx.logs.SlowConsumerPolicy;
 import org.davidgeorgehope.nginx.metrics.BackendMetricsServer;
 import org.davidgeorgehope.nginx.metrics.FrontendMetricsServer;
+import org.davidgeorgehope.pacing.PacedStream;
+import org.davidgeorgehope.pacing.ShardedStream;
+import org.davidgeorgehope.pacing.StreamScheduler;
+import org.davidgeorgehope.pacing.SurgeController;
+import org.davidgeorgehope.random.LogRandom;
+import org.davidgeorgehope.sampling.ExponentialSampler;
+import org.davidgeorgehope.sink.AsyncSink;
+import org.davidgeorgehope.sink.ElasticsearchSink;
+import org.davidgeorgehope.sink.FileHandleCache;
+import org.davidgeorgehope.sink.FileSink;
+import org.davidgeorgehope.sink.LogSink;
+import org.davidgeorgehope.sink.MappedSegmentSink;
+import org.davidgeorgehope.sink.RingFileSink;
+import org.davidgeorgehope.sink.RotationStrategy;
+import org.davidgeorgehope.sink.SegmentCompactor;
+import org.davidgeorgehope.sink.SyslogSink;
+import org.davidgeorgehope.sink.WaitStrategy;
+import org.davidgeorgehope.time.LogClock;
+import org.davidgeorgehope.time.WarpedClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.Random;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.util.concurrent.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
 
 public class DataGenerator {
     private static final Logger logger = LoggerFactory.getLogger(DataGenerator.class);
     private static final long applicationStartTime = System.currentTimeMillis();
 
-    private static final Random random = new Random();
+    private static Random random = new Random();
+    // Mean time between anomalies of 2 hours, at most 3 hours
+    private static final ExponentialSampler anomalyDelaySampler = new ExponentialSampler(7200, 10800);
+    // Mean anomaly duration of 5 minutes, at most 10 minutes
+    private static final ExponentialSampler anomalyDurationSampler = new ExponentialSampler(300, 600);
     private static boolean disableAnomalies = false; // Moved from local variable to static field
 
     // Configuration parameter with default value
@@ -45,15 +93,135 @@ public class DataGenerator {
     private static int nginxIngressErrorPort = -1; // New port for Ingress error logs
     private static String logFormat = "standard"; // Can be "standard" or "ingress"
 
+    // Standard log directories
+    private static final String nginxFrontEndLogDir = "/var/log/nginx_frontend";
+    private static final String nginxBackendLogDir = "/var/log/nginx_backend";
+    private static final String mysqlLogDir = "/var/log/mysql";
+    private static final String nginxIngressLogDir = "/var/log/nginx_ingress";
+
+    // Pacing configuration
+    private static final Map<LogStream, Double> streamRates = new EnumMap<>(LogStream.class);
+    private static boolean paretoBursts = true; // Pareto burst model layered on top of the steady access log rate
+    private static long pacingTickMillis = 10; // How often each stream is ticked to emit the events that are due
+    private static final Map<LogStream, Integer> streamShards = new EnumMap<>(LogStream.class);
+    private static final List<ShardedStream> shardedStreams = new ArrayList<>();
+
+    // Surge configuration: how fast anomaly multipliers ramp up and decay, and the hard ceilings for all streams
+    private static double surgeRampSeconds = 30;
+    private static double surgeDecaySeconds = 60;
+    private static double maxEventsPerSecond = 0; // 0 for no ceiling
+    private static long maxInFlightBytes = 64L * 1024 * 1024;
+    private static SurgeController surgeController;
+
+    // File sink configuration: every log file has one shared writer that buffers lines and flushes them on
+    // size or time, and optionally forces them to disk on a fixed period
+    private static int sinkBufferBytes = 1024 * 1024;
+    private static int flushBytes = 1024 * 1024;
+    private static long flushIntervalMillis = 1000;
+    private static long fsyncIntervalMillis = 0; // 0 to never fsync
+    private static long rotateBytes = 0; // 0 to not rotate on size
+    private static long rotateIntervalSeconds = 0; // 0 to not rotate on time
+    private static RotationStrategy rotationStrategy = RotationStrategy.RENAME;
+    private static int rotateKeep = 10;
+
+    // Background compression of rotated files and published segments into each log directory's archive
+    private static SegmentCompactor.Format compression = null; // null to leave them uncompressed
+    private static int compressionLevel = -1; // Deflate default
+    private static int compressionThreads = 1;
+    private static long compressionDelaySeconds = 60;
+    private static long compressionStatsSeconds = 60;
+
+    // Many-host fan-out: the nginx access and error streams are spread over this many host directories, written
+    // through a cache that holds at most maxOpenFiles of their files open
+    private static int hosts = 0; // 0 for a single host
+    private static int maxOpenFiles = 512;
+
+    // Access log streams written as memory-mapped segment files instead of through a file sink
+    private static final List<LogStream> mappedSegmentStreams = new ArrayList<>();
+    private static long mappedSegmentBytes = 64L * 1024 * 1024;
+    private static long segmentPublishMillis = 5000;
+
+    // Asynchronous sinks: generators hand their lines to a ring per target and a consumer thread writes them
+    private static boolean asyncSinks = false;
+    private static int sinkRingSize = 1024;
+    private static WaitStrategy sinkWaitStrategy = WaitStrategy.PARK;
+    private static long sinkStatsSeconds = 0; // 0 to not log the ring counters
+
+    // Port spool: what is sent to the ports is also appended to segment files under spoolDirectory, so clients
+    // that reconnect are served the lines they missed
+    private static String spoolDirectory = null; // null to not spool
+    private static long spoolSegmentBytes = 64L * 1024 * 1024;
+    private static long spoolMaxBytes = 1024L * 1024 * 1024;
+
+    // Port clients: each has a bounded queue the event loop drains, and the policy handles those that fall behind
+    private static long senderQueueBytes = 8L * 1024 * 1024;
+    private static SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DISCONNECT;
+    private static long slowConsumerLagMillis = 10_000;
+    private static long senderStatsSeconds = 0; // 0 to not log the client counters
+    private static int senderBatchBytes = 64 * 1024;
+    private static long senderLingerMillis = 5; // 0 to write every send as it comes
+
+    // Multiplexed port: one connection carries framed batches of any of the ports above
+    private static int muxPort = -1;
+    private static boolean muxOnly = false; // The ports above are only stream ids on the multiplexed port
+
+    // Unix domain sockets: the ports also listen on a socket per port in socketDirectory, for same-host clients
+    private static String socketDirectory = null; // null for TCP only
+
+    // Syslog: the streams are pushed to a collector as RFC 5424 messages instead of the files and ports
+    private static String syslogTarget = null; // udp://host:port or tcp://host:port, null for the files
+    private static int syslogMtu = 1500;
+    private static boolean syslogPackDatagrams = false;
+
+    // Elasticsearch: the streams are indexed into data streams with _bulk requests instead of the files and ports
+    private static String elasticsearchUrl = null; // null for the files
+    private static String elasticsearchApiKey = null;
+    private static String elasticsearchNamespace = "default";
+    private static int elasticsearchBulkBytes = 5 * 1024 * 1024;
+    private static int elasticsearchBulkDocs = 5000;
+    private static int elasticsearchConcurrency = 4;
+    private static boolean elasticsearchGzip = false;
+    private static long elasticsearchStatsSeconds = 10;
+
+    // Ring files: the ports are written to memory-mapped rings under ringDirectory, for clients on the same host,
+    // instead of TCP
+    private static String ringDirectory = null; // null to use TCP
+    private static int ringBytes = 64 * 1024 * 1024;
+    private static long ringMaxWaitMillis = 1000;
+
+    // Execution configuration
+    private static StreamScheduler.ExecutionMode executionMode = StreamScheduler.ExecutionMode.PLATFORM;
+    private static int schedulerThreads = 5; // Platform mode thread pool size
+    private static int carrierThreads = -1; // Virtual mode carrier threads, defaults to the number of cores
+
+    // Backfill configuration, a backfill runs instead of live generation when a start time is given
+    private static Instant backfillStart = null;
+    private static Instant backfillEnd = null;
+    private static RateProfile backfillProfile = RateProfile.DIURNAL;
+    private static long backfillSliceMinutes = 60;
+    private static int backfillThreads = Runtime.getRuntime().availableProcessors();
+
+    // Bulk file configuration, a single large file of one access log stream is written instead of live generation
+    // when a path is given
+    private static String bulkFile = null;
+    private static LogStream bulkStream = LogStream.NGINX_FRONTEND_ACCESS;
+    private static long bulkLines = 0;
+    private static long bulkBytes = 0;
+    private static int bulkChunkLines = 100_000;
+    private static int bulkThreads = Runtime.getRuntime().availableProcessors();
+    private static double bulkLinesPerSecond = 1000; // Spreads the timestamps, --stream-rate overrides it
+    private static Instant bulkStart = null; // Defaults to the current time
+
+    // Time-warp configuration for live generation, entries are stamped from a clock starting at clockStart
+    // and running clockSpeed times faster than real time
+    private static Instant clockStart = null;
+    private static double clockSpeed = 1.0;
+
     public static void main(String[] args) {
         // Parse command-line arguments
-
-        ScheduledExecutorService executor = Executors.newScheduledThreadPool(5);
-
         for (String arg : args) {
             if (arg.equalsIgnoreCase("--no-anomalies")) {
                 disableAnomalies = true;
-                scheduleAnomalyReenabling(executor);
                 logger.info("Anomaly generation and database outages are disabled for 24 hours.");
             } else if (arg.startsWith("--mean-requests-per-second=")) {
                 meanRequestsPerSecond = Double.parseDouble(arg.split("=")[1]);
@@ -92,6 +260,261 @@ public class DataGenerator {
                 logger.info("Nginx Ingress error logs will be sent to port " + nginxIngressErrorPort);
                 enablePortStreaming = true;
                 enableIngressLogs = true;
+            } else if (arg.startsWith("--stream-rate=")) {
+                // Comma separated list of <stream-id>:<events-per-second>
+                for (String streamRate : arg.split("=")[1].split(",")) {
+                    String[] parts = streamRate.split(":");
+                    LogStream stream = LogStream.fromId(parts[0].trim());
+                    streamRates.put(stream, Double.parseDouble(parts[1].trim()));
+                    logger.info("Set rate for " + stream.getId() + " to " + parts[1].trim() + " events per second");
+                }
+            } else if (arg.startsWith("--stream-shards=")) {
+                // Comma separated list of <stream-id>:<shard-count>, applies to the access log streams
+                for (String streamShard : arg.split("=")[1].split(",")) {
+                    String[] parts = streamShard.split(":");
+                    LogStream stream = LogStream.fromId(parts[0].trim());
+                    streamShards.put(stream, Integer.parseInt(parts[1].trim()));
+                    logger.info("Set shard count for " + stream.getId() + " to " + parts[1].trim());
+                }
+            } else if (arg.startsWith("--burst-model=")) {
+                paretoBursts = arg.split("=")[1].equalsIgnoreCase("pareto");
+                logger.info("Pareto burst model " + (paretoBursts ? "enabled" : "disabled"));
+            } else if (arg.startsWith("--pacing-tick-ms=")) {
+                pacingTickMillis = Math.max(1, Long.parseLong(arg.split("=")[1]));
+                logger.info("Set pacing tick to " + pacingTickMillis + " ms");
+            } else if (arg.startsWith("--surge-ramp-seconds=")) {
+                surgeRampSeconds = Double.parseDouble(arg.split("=")[1]);
+                logger.info("Set surge ramp-up to " + surgeRampSeconds + " seconds");
+            } else if (arg.startsWith("--surge-decay-seconds=")) {
+                surgeDecaySeconds = Double.parseDouble(arg.split("=")[1]);
+                logger.info("Set surge decay to " + surgeDecaySeconds + " seconds");
+            } else if (arg.startsWith("--max-events-per-second=")) {
+                maxEventsPerSecond = Double.parseDouble(arg.split("=")[1]);
+                logger.info("Set ceiling of " + maxEventsPerSecond + " events per second");
+            } else if (arg.startsWith("--max-in-flight-bytes=")) {
+                maxInFlightBytes = Long.parseLong(arg.split("=")[1]);
+                logger.info("Set ceiling of " + maxInFlightBytes + " bytes in flight");
+            } else if (arg.startsWith("--sink-buffer-bytes=")) {
+                sinkBufferBytes = Integer.parseInt(arg.split("=")[1]);
+                logger.info("File sink buffer set to " + sinkBufferBytes + " bytes");
+            } else if (arg.startsWith("--flush-bytes=")) {
+                flushBytes = Integer.parseInt(arg.split("=")[1]);
+                logger.info("File sinks flush every " + flushBytes + " bytes");
+            } else if (arg.startsWith("--flush-interval-ms=")) {
+                flushIntervalMillis = Long.parseLong(arg.split("=")[1]);
+                logger.info("File sinks flush every " + flushIntervalMillis + " ms");
+            } else if (arg.startsWith("--fsync-interval-ms=")) {
+                fsyncIntervalMillis = Long.parseLong(arg.split("=")[1]);
+                logger.info("File sinks fsync every " + fsyncIntervalMillis + " ms");
+            } else if (arg.startsWith("--rotate-bytes=")) {
+                rotateBytes = Long.parseLong(arg.split("=")[1]);
+                logger.info("Log files rotate at " + rotateBytes + " bytes");
+            } else if (arg.startsWith("--rotate-interval-seconds=")) {
+                rotateIntervalSeconds = Long.parseLong(arg.split("=")[1]);
+                logger.info("Log files rotate every " + rotateIntervalSeconds + " seconds");
+            } else if (arg.startsWith("--rotate-strategy=")) {
+                rotationStrategy = RotationStrategy.valueOf(arg.split("=")[1].toUpperCase());
+                logger.info("Log file rotation strategy set to " + rotationStrategy);
+            } else if (arg.startsWith("--rotate-keep=")) {
+                rotateKeep = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Keeping " + rotateKeep + " rotated files or published segments per log");
+            } else if (arg.startsWith("--compress=")) {
+                String format = arg.split("=")[1];
+                compression = format.equalsIgnoreCase("none") ? null
+                        : SegmentCompactor.Format.valueOf(format.toUpperCase());
+                logger.info("Rotated log compression set to " + format);
+            } else if (arg.startsWith("--compress-level=")) {
+                compressionLevel = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Compression level set to " + compressionLevel);
+            } else if (arg.startsWith("--compress-threads=")) {
+                compressionThreads = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Compressing on " + compressionThreads + " threads");
+            } else if (arg.startsWith("--compress-delay-seconds=")) {
+                compressionDelaySeconds = Long.parseLong(arg.split("=")[1]);
+                logger.info("Compressing rotated files " + compressionDelaySeconds + " seconds after rotation");
+            } else if (arg.startsWith("--compress-stats-seconds=")) {
+                compressionStatsSeconds = Long.parseLong(arg.split("=")[1]);
+                logger.info("Logging compression throughput every " + compressionStatsSeconds + " seconds");
+            } else if (arg.startsWith("--hosts=")) {
+                hosts = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Spreading the nginx logs over " + hosts + " hosts");
+            } else if (arg.startsWith("--max-open-files=")) {
+                maxOpenFiles = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Host log files open at once limited to " + maxOpenFiles);
+            } else if (arg.startsWith("--mmap-segments=")) {
+                // Comma separated list of access log stream ids
+                for (String id : arg.split("=")[1].split(",")) {
+                    LogStream stream = LogStream.fromId(id.trim());
+                    accessLogPath(stream); // Fails early for streams without segment support
+                    mappedSegmentStreams.add(stream);
+                    logger.info("Writing " + stream.getId() + " as memory-mapped segments");
+                }
+            } else if (arg.startsWith("--mmap-segment-bytes=")) {
+                mappedSegmentBytes = Long.parseLong(arg.split("=")[1]);
+                logger.info("Memory-mapped segment size set to " + mappedSegmentBytes + " bytes");
+            } else if (arg.startsWith("--segment-publish-ms=")) {
+                segmentPublishMillis = Long.parseLong(arg.split("=")[1]);
+                logger.info("Memory-mapped segments publish at least every " + segmentPublishMillis + " ms");
+            } else if (arg.equalsIgnoreCase("--async-sinks")) {
+                asyncSinks = true;
+                logger.info("Writing through asynchronous sinks");
+            } else if (arg.startsWith("--sink-ring-size=")) {
+                sinkRingSize = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Sink ring size set to " + sinkRingSize + " batches");
+            } else if (arg.startsWith("--sink-wait-strategy=")) {
+                sinkWaitStrategy = WaitStrategy.valueOf(arg.split("=")[1].toUpperCase());
+                logger.info("Sink consumers wait strategy set to " + sinkWaitStrategy);
+            } else if (arg.startsWith("--sink-stats-seconds=")) {
+                sinkStatsSeconds = Long.parseLong(arg.split("=")[1]);
+                logger.info("Logging sink ring counters every " + sinkStatsSeconds + " seconds");
+            } else if (arg.startsWith("--spool-dir=")) {
+                spoolDirectory = arg.split("=")[1];
+                logger.info("Spooling port output to " + spoolDirectory);
+            } else if (arg.startsWith("--spool-segment-bytes=")) {
+                spoolSegmentBytes = Long.parseLong(arg.split("=")[1]);
+                logger.info("Spool segment size set to " + spoolSegmentBytes + " bytes");
+            } else if (arg.startsWith("--spool-max-bytes=")) {
+                spoolMaxBytes = Long.parseLong(arg.split("=")[1]);
+                logger.info("Keeping at most " + spoolMaxBytes + " spooled bytes per port");
+            } else if (arg.startsWith("--sender-queue-bytes=")) {
+                senderQueueBytes = Long.parseLong(arg.split("=")[1]);
+                logger.info("Queueing at most " + senderQueueBytes + " bytes per port client");
+            } else if (arg.startsWith("--slow-consumer-policy=")) {
+                slowConsumerPolicy = SlowConsumerPolicy.parse(arg.split("=")[1]);
+                logger.info("Slow consumer policy set to " + slowConsumerPolicy);
+            } else if (arg.startsWith("--slow-consumer-lag-ms=")) {
+                slowConsumerLagMillis = Long.parseLong(arg.split("=")[1]);
+                logger.info("Disconnecting port clients more than " + slowConsumerLagMillis + " ms behind");
+            } else if (arg.startsWith("--sender-stats-seconds=")) {
+                senderStatsSeconds = Long.parseLong(arg.split("=")[1]);
+                logger.info("Logging port client counters every " + senderStatsSeconds + " seconds");
+            } else if (arg.startsWith("--sender-batch-bytes=")) {
+                senderBatchBytes = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Port batches are written once they reach " + senderBatchBytes + " bytes");
+            } else if (arg.startsWith("--sender-linger-ms=")) {
+                senderLingerMillis = Long.parseLong(arg.split("=")[1]);
+                logger.info("Port batches are written at most " + senderLingerMillis + " ms after their first line");
+            } else if (arg.startsWith("--mux-port=")) {
+                muxPort = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Multiplexed log stream will be served on port " + muxPort);
+            } else if (arg.equalsIgnoreCase("--mux-only")) {
+                muxOnly = true;
+                logger.info("Log ports are served only through the multiplexed port, without their own listeners");
+            } else if (arg.startsWith("--syslog=")) {
+                syslogTarget = arg.split("=")[1];
+                logger.info("Logs will be sent to syslog collector " + syslogTarget);
+            } else if (arg.startsWith("--syslog-mtu=")) {
+                syslogMtu = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Syslog UDP datagrams are limited to an MTU of " + syslogMtu + " bytes");
+            } else if (arg.equalsIgnoreCase("--syslog-pack-datagrams")) {
+                syslogPackDatagrams = true;
+                logger.info("Packing several syslog messages into each UDP datagram");
+            } else if (arg.startsWith("--elasticsearch=")) {
+                elasticsearchUrl = arg.substring("--elasticsearch=".length());
+                logger.info("Logs will be indexed into Elasticsearch at " + elasticsearchUrl);
+            } else if (arg.startsWith("--es-api-key=")) {
+                elasticsearchApiKey = arg.substring("--es-api-key=".length());
+                logger.info("Authenticating to Elasticsearch with an API key");
+            } else if (arg.startsWith("--es-namespace=")) {
+                elasticsearchNamespace = arg.split("=")[1];
+                logger.info("Elasticsearch data stream namespace set to " + elasticsearchNamespace);
+            } else if (arg.startsWith("--es-bulk-bytes=")) {
+                elasticsearchBulkBytes = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Elasticsearch bulk requests are sent once they reach " + elasticsearchBulkBytes +
+                        " bytes");
+            } else if (arg.startsWith("--es-bulk-docs=")) {
+                elasticsearchBulkDocs = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Elasticsearch bulk requests are sent once they hold " + elasticsearchBulkDocs +
+                        " documents");
+            } else if (arg.startsWith("--es-concurrency=")) {
+                elasticsearchConcurrency = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Up to " + elasticsearchConcurrency + " Elasticsearch bulk requests in flight");
+            } else if (arg.equalsIgnoreCase("--es-gzip")) {
+                elasticsearchGzip = true;
+                logger.info("Elasticsearch bulk requests will be gzipped");
+            } else if (arg.startsWith("--es-stats-seconds=")) {
+                elasticsearchStatsSeconds = Long.parseLong(arg.split("=")[1]);
+                logger.info("Logging Elasticsearch ingest stats every " + elasticsearchStatsSeconds + " seconds");
+            } else if (arg.startsWith("--socket-dir=")) {
+                socketDirectory = arg.split("=")[1];
+                logger.info("Ports will also listen on Unix domain sockets in " + socketDirectory);
+            } else if (arg.startsWith("--ring-dir=")) {
+                ringDirectory = arg.split("=")[1];
+                logger.info("Writing port output to ring files in " + ringDirectory);
+            } else if (arg.startsWith("--ring-bytes=")) {
+                ringBytes = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Ring file size set to " + ringBytes + " bytes");
+            } else if (arg.startsWith("--ring-max-wait-ms=")) {
+                ringMaxWaitMillis = Long.parseLong(arg.split("=")[1]);
+                logger.info("Ring file writes wait at most " + ringMaxWaitMillis + " ms for a slow reader before " +
+                        "overwriting its unread bytes");
+            } else if (arg.startsWith("--execution-mode=")) {
+                executionMode = StreamScheduler.ExecutionMode.valueOf(arg.split("=")[1].toUpperCase());
+                logger.info("Execution mode set to " + executionMode);
+            } else if (arg.startsWith("--scheduler-threads=")) {
+                schedulerThreads = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Set scheduler threads to " + schedulerThreads);
+            } else if (arg.startsWith("--carrier-threads=")) {
+                carrierThreads = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Set virtual thread carrier threads to " + carrierThreads);
+            } else if (arg.startsWith("--backfill-start=")) {
+                backfillStart = Instant.parse(arg.split("=")[1]);
+                logger.info("Backfill start set to " + backfillStart);
+            } else if (arg.startsWith("--backfill-end=")) {
+                backfillEnd = Instant.parse(arg.split("=")[1]);
+                logger.info("Backfill end set to " + backfillEnd);
+            } else if (arg.startsWith("--backfill-profile=")) {
+                backfillProfile = RateProfile.valueOf(arg.split("=")[1].toUpperCase());
+                logger.info("Backfill rate profile set to " + backfillProfile);
+            } else if (arg.startsWith("--backfill-slice-minutes=")) {
+                backfillSliceMinutes = Long.parseLong(arg.split("=")[1]);
+                logger.info("Backfill slice set to " + backfillSliceMinutes + " minutes");
+            } else if (arg.startsWith("--backfill-threads=")) {
+                backfillThreads = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Backfill threads set to " + backfillThreads);
+            } else if (arg.startsWith("--bulk-file=")) {
+                bulkFile = arg.split("=")[1];
+                logger.info("Writing a bulk file to " + bulkFile);
+            } else if (arg.startsWith("--bulk-stream=")) {
+                bulkStream = LogStream.fromId(arg.split("=")[1]);
+                accessLogPath(bulkStream); // Fails early for streams other than access logs
+                logger.info("Bulk file stream set to " + bulkStream.getId());
+            } else if (arg.startsWith("--bulk-lines=")) {
+                bulkLines = Long.parseLong(arg.split("=")[1]);
+                logger.info("Bulk file size set to " + bulkLines + " lines");
+            } else if (arg.startsWith("--bulk-bytes=")) {
+                bulkBytes = Long.parseLong(arg.split("=")[1]);
+                logger.info("Bulk file size set to " + bulkBytes + " bytes");
+            } else if (arg.startsWith("--bulk-chunk-lines=")) {
+                bulkChunkLines = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Bulk file chunk set to " + bulkChunkLines + " lines");
+            } else if (arg.startsWith("--bulk-threads=")) {
+                bulkThreads = Integer.parseInt(arg.split("=")[1]);
+                logger.info("Bulk file threads set to " + bulkThreads);
+            } else if (arg.startsWith("--bulk-start=")) {
+                bulkStart = Instant.parse(arg.split("=")[1]);
+                logger.info("Bulk file start set to " + bulkStart);
+            } else if (arg.startsWith("--clock-start=")) {
+                clockStart = Instant.parse(arg.split("=")[1]);
+                logger.info("Clock start set to " + clockStart);
+            } else if (arg.startsWith("--clock-speed=")) {
+                clockSpeed = Double.parseDouble(arg.split("=")[1]);
+                logger.info("Clock speed set to " + clockSpeed + "x");
+            } else if (arg.startsWith("--seed=")) {
+                long seed = Long.parseLong(arg.split("=")[1]);
+                LogRandom.setSeed(seed);
+                random = new Random(LogRandom.stableHash("anomalies"));
+                logger.info("Seeded generation with seed " + seed + ", reproducible for --backfill-start and " +
+                        "--bulk-file runs only, live output also depends on timing");
+            } else if (arg.startsWith("--access-log-format=")) {
+                // An nginx log_format string, which may itself contain '='
+                String format = arg.substring(arg.indexOf('=') + 1);
+                AccessLogEntry.setLogFormat(NginxLogFormat.compile(format));
+                logger.info("Access log format set to: " + format);
+            } else if (arg.startsWith("--ingress-access-log-format=")) {
+                String format = arg.substring(arg.indexOf('=') + 1);
+                IngressAccessLogEntry.setLogFormat(NginxLogFormat.compile(format));
+                logger.info("Ingress access log format set to: " + format);
             } else if (arg.startsWith("--log-format=")) {
                 logFormat = arg.split("=")[1];
                 if (logFormat.equalsIgnoreCase("ingress")) {
@@ -104,23 +527,24 @@ public class DataGenerator {
             }
         }
 
-        // Initialize TCP log senders if port streaming is enabled
-        if (enablePortStreaming) {
-            if (mysqlErrorPort > 0) LogSender.initializePort(mysqlErrorPort);
-            if (mysqlStdoutPort > 0) LogSender.initializePort(mysqlStdoutPort);
-            if (nginxBackendErrorPort > 0) LogSender.initializePort(nginxBackendErrorPort);
-            if (nginxBackendStdoutPort > 0) LogSender.initializePort(nginxBackendStdoutPort);
-            if (nginxFrontendErrorPort > 0) LogSender.initializePort(nginxFrontendErrorPort);
-            if (nginxFrontendStdoutPort > 0) LogSender.initializePort(nginxFrontendStdoutPort);
-            if (nginxIngressPort > 0) LogSender.initializePort(nginxIngressPort);
-            if (nginxIngressErrorPort > 0) LogSender.initializePort(nginxIngressErrorPort);
+        if (muxPort > 0 && ringDirectory != null) {
+            // Ring files replace the sockets, there is no event loop to serve the multiplexed port
+            throw new IllegalArgumentException("--mux-port can't be combined with --ring-dir");
+        }
+        if (muxOnly && muxPort <= 0) {
+            throw new IllegalArgumentException("--mux-only needs --mux-port");
+        }
+        if (LogRandom.isSeeded() && bulkFile == null && backfillStart == null &&
+                streamShards.values().stream().anyMatch(shards -> shards > 1)) {
+            // Each shard draws from its own generator, so the lines would change with the shard count
+            throw new IllegalArgumentException("--seed can't be combined with --stream-shards in live generation");
         }
 
-        // Standard log directories
-        String nginxFrontEndLogDir = "/var/log/nginx_frontend";
-        String nginxBackendLogDir = "/var/log/nginx_backend";
-        String mysqlLogDir = "/var/log/mysql";
-        String nginxIngressLogDir = "/var/log/nginx_ingress";
+        String fanOutConflict = hostFanOutConflict();
+        if (hosts > 0 && fanOutConflict != null) {
+            // The host files are written through the file handle cache, which none of these apply to
+            throw new IllegalArgumentException("--hosts can't be combined with " + fanOutConflict);
+        }
 
         // Create directories if they don't exist (requires appropriate permissions)
         new File(nginxFrontEndLogDir).mkdirs();
@@ -128,7 +552,83 @@ public class DataGenerator {
         new File(mysqlLogDir).mkdirs();
         new File(nginxIngressLogDir).mkdirs();
 
+        SegmentCompactor.configure(compression, compressionLevel, compressionThreads,
+                TimeUnit.SECONDS.toMillis(compressionDelaySeconds), compressionStatsSeconds);
+        FileSink.configure(sinkBufferBytes, flushBytes, flushIntervalMillis, fsyncIntervalMillis);
+        FileSink.configureRotation(rotateBytes, TimeUnit.SECONDS.toMillis(rotateIntervalSeconds), rotationStrategy,
+                rotateKeep);
+        MappedSegmentSink.configure(mappedSegmentBytes, segmentPublishMillis, rotateKeep);
+        AsyncSink.configure(asyncSinks, sinkRingSize, sinkWaitStrategy, sinkStatsSeconds);
+        HostFanOut.configure(hosts, maxOpenFiles);
+        FileHandleCache.configure(maxOpenFiles);
+        for (LogStream stream : mappedSegmentStreams) {
+            MappedSegmentSink.enable(accessLogPath(stream));
+        }
+
+        if (bulkFile != null) {
+            runBulkFile(new UserSessionManager());
+            return;
+        }
+
+        if (backfillStart != null) {
+            runBackfill(new UserSessionManager());
+            return;
+        }
+
+        if (clockStart != null || clockSpeed != 1.0) {
+            Instant origin = clockStart != null ? clockStart : Instant.now();
+            LogClock.setDefaultClock(new WarpedClock(origin, clockSpeed, ZoneId.systemDefault()));
+        }
+
+        boolean virtualThreads = executionMode == StreamScheduler.ExecutionMode.VIRTUAL;
+        if (virtualThreads && carrierThreads > 0) {
+            // Must be set before the first virtual thread is created
+            System.setProperty("jdk.virtualThreadScheduler.parallelism", String.valueOf(carrierThreads));
+        }
+        StreamScheduler scheduler = new StreamScheduler(executionMode, schedulerThreads);
+        ScheduledExecutorService executor = scheduler.getTimer();
+
+        if (disableAnomalies) {
+            scheduleAnomalyReenabling(executor);
+        }
+
+        // Initialize TCP log senders if port streaming is enabled
+        LogSender.setVirtualThreads(virtualThreads);
+        LogSender.configureSpool(spoolDirectory != null ? Paths.get(spoolDirectory) : null, spoolSegmentBytes,
+                spoolMaxBytes);
+        LogSender.configureClientQueues(senderQueueBytes, slowConsumerPolicy, slowConsumerLagMillis,
+                senderStatsSeconds);
+        LogSender.configureBatching(senderBatchBytes, senderLingerMillis);
+        LogSender.configureUnixSockets(socketDirectory != null ? Paths.get(socketDirectory) : null);
+        ElasticsearchSink.configure(elasticsearchUrl, elasticsearchApiKey, elasticsearchNamespace,
+                elasticsearchBulkBytes, elasticsearchBulkDocs, elasticsearchConcurrency, elasticsearchGzip,
+                elasticsearchStatsSeconds);
+        SyslogSink.configure(syslogTarget, syslogMtu, syslogPackDatagrams);
+        RingFileSink.configure(ringDirectory != null ? Paths.get(ringDirectory) : null, ringBytes,
+                ringMaxWaitMillis);
+        if (enablePortStreaming && !RingFileSink.isEnabled()) {
+            int[] ports = {mysqlErrorPort, mysqlStdoutPort, nginxBackendErrorPort, nginxBackendStdoutPort,
+                    nginxFrontendErrorPort, nginxFrontendStdoutPort, nginxIngressPort, nginxIngressErrorPort};
+            for (int port : ports) {
+                if (port <= 0) {
+                    continue;
+                }
+                if (!muxOnly) {
+                    LogSender.initializePort(port);
+                    continue;
+                }
+                try {
+                    LogSender.registerStream(port);
+                } catch (IOException e) {
+                    logger.error("Failed to register stream " + port + " on the multiplexed port", e);
+                }
+            }
+            if (muxPort > 0) LogSender.initializeMuxPort(muxPort);
+        }
+
         UserSessionManager userSessionManager = new UserSessionManager();
+        surgeController = new SurgeController(surgeRampSeconds, surgeDecaySeconds, maxEventsPerSecond,
+                maxInFlightBytes, LogSink::queuedBytes);
 
         // Start the random scheduling of anomaly configuration updates if anomalies are enabled
         if (!disableAnomalies) {
@@ -138,100 +638,99 @@ public class DataGenerator {
             resetAnomalyConfig();
         }
 
-        // Generate both standard NGINX access logs and Ingress logs
-        
+        // Generate both standard NGINX access logs and Ingress logs.
+        // Access streams follow meanRequestsPerSecond with Pareto bursts and anomaly multipliers on top,
+        // the error and MySQL streams keep their previous fixed rates (e.g. one entry every 5 seconds).
+
         // Standard NGINX access logs generation
-        executor.scheduleAtFixedRate(() -> {
-            int logsToGenerate = LogGeneratorUtils.getLogsToGenerate(meanRequestsPerSecond);
-            AccessLogGenerator.generateAccessLogs(
-                logsToGenerate,
-                nginxFrontEndLogDir + "/access.log",
-                true,
-                userSessionManager,
-                nginxFrontendStdoutPort
-            );
-        }, 0, 1, TimeUnit.SECONDS);
-
-        executor.scheduleAtFixedRate(() -> {
-            int logsToGenerate = LogGeneratorUtils.getLogsToGenerate(meanRequestsPerSecond);
-            AccessLogGenerator.generateAccessLogs(
-                logsToGenerate,
-                nginxBackendLogDir + "/access.log",
-                false,
-                userSessionManager,
-                nginxBackendStdoutPort
-            );
-        }, 0, 1, TimeUnit.SECONDS);
+        schedulePacedStream(scheduler, LogStream.NGINX_FRONTEND_ACCESS, meanRequestsPerSecond, true,
+            shardedOr(scheduler, LogStream.NGINX_FRONTEND_ACCESS,
+                logsToGenerate -> AccessLogGenerator.generateAccessLogs(
+                    logsToGenerate,
+                    nginxFrontEndLogDir + "/access.log",
+                    true,
+                    userSessionManager,
+                    nginxFrontendStdoutPort
+                ),
+                logsToGenerate -> AccessLogGenerator.createEntries(logsToGenerate, true, userSessionManager),
+                lines -> AccessLogGenerator.writeLogs(lines, nginxFrontEndLogDir + "/access.log", nginxFrontendStdoutPort)));
+
+        schedulePacedStream(scheduler, LogStream.NGINX_BACKEND_ACCESS, meanRequestsPerSecond, true,
+            shardedOr(scheduler, LogStream.NGINX_BACKEND_ACCESS,
+                logsToGenerate -> AccessLogGenerator.generateAccessLogs(
+                    logsToGenerate,
+                    nginxBackendLogDir + "/access.log",
+                    false,
+                    userSessionManager,
+                    nginxBackendStdoutPort
+                ),
+                logsToGenerate -> AccessLogGenerator.createEntries(logsToGenerate, false, userSessionManager),
+                lines -> AccessLogGenerator.writeLogs(lines, nginxBackendLogDir + "/access.log", nginxBackendStdoutPort)));
         
         // Generate NGINX Ingress logs if enabled
         if (enableIngressLogs) {
-            executor.scheduleAtFixedRate(() -> {
-                int logsToGenerate = LogGeneratorUtils.getLogsToGenerate(meanRequestsPerSecond);
-                IngressAccessLogGenerator.generateIngressLogs(
-                    logsToGenerate,
-                    nginxIngressLogDir + "/ingress-access.log",
-                    true,  // Frontend
-                    userSessionManager,
-                    nginxIngressPort
-                );
-            }, 0, 1, TimeUnit.SECONDS);
+            schedulePacedStream(scheduler, LogStream.NGINX_INGRESS_ACCESS, meanRequestsPerSecond, true,
+                shardedOr(scheduler, LogStream.NGINX_INGRESS_ACCESS,
+                    logsToGenerate -> IngressAccessLogGenerator.generateIngressLogs(
+                        logsToGenerate,
+                        nginxIngressLogDir + "/ingress-access.log",
+                        true,  // Frontend
+                        userSessionManager,
+                        nginxIngressPort
+                    ),
+                    logsToGenerate -> IngressAccessLogGenerator.createEntries(logsToGenerate, true, userSessionManager),
+                    lines -> IngressAccessLogGenerator.writeLogs(lines, nginxIngressLogDir + "/ingress-access.log", nginxIngressPort)));
             
             // Generate NGINX Ingress error logs
-            executor.scheduleAtFixedRate(() -> {
-                IngressErrorLogGenerator.generateIngressErrorLogs(
-                    1,
+            schedulePacedStream(scheduler, LogStream.NGINX_INGRESS_ERROR, 1.0 / 5, false,
+                count -> IngressErrorLogGenerator.generateIngressErrorLogs(
+                    count,
                     nginxIngressLogDir + "/ingress-error.log",
                     true,  // Frontend
                     nginxIngressErrorPort
-                );
-            }, 0, 5, TimeUnit.SECONDS);
+                ));
         }
 
         // Generate Nginx error logs less frequently for frontend and backend
-        executor.scheduleAtFixedRate(() -> {
-            ErrorLogGenerator.generateErrorLogs(
-                1,
+        schedulePacedStream(scheduler, LogStream.NGINX_FRONTEND_ERROR, 1.0 / 5, false,
+            count -> ErrorLogGenerator.generateErrorLogs(
+                count,
                 nginxFrontEndLogDir + "/error.log",
                 true,
                 nginxFrontendErrorPort
-            );
-        }, 0, 5, TimeUnit.SECONDS);
+            ));
 
-        executor.scheduleAtFixedRate(() -> {
-            ErrorLogGenerator.generateErrorLogs(
-                1,
+        schedulePacedStream(scheduler, LogStream.NGINX_BACKEND_ERROR, 1.0 / 5, false,
+            count -> ErrorLogGenerator.generateErrorLogs(
+                count,
                 nginxBackendLogDir + "/error.log",
                 false,
                 nginxBackendErrorPort
-            );
-        }, 0, 5, TimeUnit.SECONDS);
+            ));
 
         // Generate MySQL logs at fixed rates
-        executor.scheduleAtFixedRate(() -> {
-            MySQLErrorLogGenerator.generateErrorLogs(
-                1,
+        schedulePacedStream(scheduler, LogStream.MYSQL_ERROR, 1.0 / 10, false,
+            count -> MySQLErrorLogGenerator.generateErrorLogs(
+                count,
                 mysqlLogDir + "/error.log",
                 executor,
                 disableAnomalies,
                 mysqlErrorPort
-            );
-        }, 0, 10, TimeUnit.SECONDS);
+            ));
 
-        executor.scheduleAtFixedRate(() -> {
-            MySQLSlowLogGenerator.generateSlowLogs(
-                1,
+        schedulePacedStream(scheduler, LogStream.MYSQL_SLOW, 1.0 / 15, false,
+            count -> MySQLSlowLogGenerator.generateSlowLogs(
+                count,
                 mysqlLogDir + "/mysql-slow.log",
                 mysqlStdoutPort
-            );
-        }, 0, 15, TimeUnit.SECONDS);
+            ));
 
-        executor.scheduleAtFixedRate(() -> {
-            MySQLGeneralLogGenerator.generateGeneralLogs(
-                1,
+        schedulePacedStream(scheduler, LogStream.MYSQL_GENERAL, 1.0 / 5, false,
+            count -> MySQLGeneralLogGenerator.generateGeneralLogs(
+                count,
                 mysqlLogDir + "/mysql.log",
                 mysqlErrorPort
-            );
-        }, 0, 5, TimeUnit.SECONDS);
+            ));
 
         // Start the metrics servers
         int frontendPort = 8080;
@@ -245,17 +744,22 @@ public class DataGenerator {
 
         // Add shutdown hook to gracefully shut down the executor
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            executor.shutdown();
             try {
-                if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
-                    executor.shutdownNow();
-                }
+                scheduler.shutdown(5, TimeUnit.SECONDS);
             } catch (InterruptedException e) {
                 logger.error("Error during executor shutdown", e);
-                executor.shutdownNow();
+                scheduler.shutdownNow();
                 Thread.currentThread().interrupt();
             }
             
+            for (ShardedStream shardedStream : shardedStreams) {
+                shardedStream.shutdown();
+            }
+
+            // Write out whatever the sinks still buffer
+            LogSink.closeAll();
+            SegmentCompactor.shutdown();
+
             // Shutdown the LogSender
             if (enablePortStreaming) {
                 LogSender.shutdown();
@@ -263,19 +767,167 @@ public class DataGenerator {
         }));
     }
 
+    /**
+     * Schedules a stream on the pacing engine. The stream is ticked every {@code pacingTickMillis} and emits
+     * the events that are due at its target rate, which can be overridden per stream with --stream-rate.
+     */
+    private static void schedulePacedStream(StreamScheduler scheduler, LogStream stream,
+                                            double defaultRatePerSecond, boolean accessStream, IntConsumer emitter) {
+        double ratePerSecond = streamRates.getOrDefault(stream, defaultRatePerSecond);
+        PacedStream pacedStream = new PacedStream(stream.getId(), ratePerSecond,
+                accessStream && paretoBursts, accessStream, emitter, surgeController);
+        scheduler.scheduleAtFixedRate(pacedStream, 0, pacingTickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The first option given that the sink layer implements, so it would not apply to the {@link HostFanOut} files
+     */
+    private static String hostFanOutConflict() {
+        if (asyncSinks) {
+            return "--async-sinks";
+        } else if (rotateBytes > 0 || rotateIntervalSeconds > 0) {
+            return "--rotate-bytes or --rotate-interval-seconds";
+        } else if (compression != null) {
+            return "--compress";
+        } else if (mappedSegmentStreams.contains(LogStream.NGINX_FRONTEND_ACCESS) ||
+                mappedSegmentStreams.contains(LogStream.NGINX_BACKEND_ACCESS)) {
+            return "--mmap-segments for the nginx frontend or backend";
+        } else if (syslogTarget != null) {
+            return "--syslog";
+        } else if (elasticsearchUrl != null) {
+            return "--elasticsearch";
+        }
+        return null;
+    }
+
+    /**
+     * The file an access log stream writes to when it is not streamed to a port
+     */
+    private static String accessLogPath(LogStream stream) {
+        switch (stream) {
+            case NGINX_FRONTEND_ACCESS:
+                return nginxFrontEndLogDir + "/access.log";
+            case NGINX_BACKEND_ACCESS:
+                return nginxBackendLogDir + "/access.log";
+            case NGINX_INGRESS_ACCESS:
+                return nginxIngressLogDir + "/ingress-access.log";
+            default:
+                throw new IllegalArgumentException("Not an access log stream: " + stream.getId());
+        }
+    }
+
+    /**
+     * Generates the configured backfill range for every stream, stamping entries from a synthetic clock,
+     * then returns without starting live generation.
+     */
+    private static void runBackfill(UserSessionManager userSessionManager) {
+        Instant end = backfillEnd != null ? backfillEnd : Instant.now();
+        BackfillRunner backfill = new BackfillRunner(backfillStart, end, Duration.ofMinutes(backfillSliceMinutes),
+                backfillProfile, paretoBursts, backfillThreads);
+
+        backfill.addStream(LogStream.NGINX_FRONTEND_ACCESS, Paths.get(nginxFrontEndLogDir, "access.log"),
+                streamRates.getOrDefault(LogStream.NGINX_FRONTEND_ACCESS, meanRequestsPerSecond), true,
+                lines -> lines.append(AccessLogEntry.createRandomEntry(true, userSessionManager)));
+        backfill.addStream(LogStream.NGINX_BACKEND_ACCESS, Paths.get(nginxBackendLogDir, "access.log"),
+                streamRates.getOrDefault(LogStream.NGINX_BACKEND_ACCESS, meanRequestsPerSecond), true,
+                lines -> lines.append(AccessLogEntry.createRandomEntry(false, userSessionManager)));
+        if (enableIngressLogs) {
+            backfill.addStream(LogStream.NGINX_INGRESS_ACCESS, Paths.get(nginxIngressLogDir, "ingress-access.log"),
+                    streamRates.getOrDefault(LogStream.NGINX_INGRESS_ACCESS, meanRequestsPerSecond), true,
+                    lines -> lines.append(IngressAccessLogEntry.createRandomEntry(true, userSessionManager)));
+            backfill.addStream(LogStream.NGINX_INGRESS_ERROR, Paths.get(nginxIngressLogDir, "ingress-error.log"),
+                    streamRates.getOrDefault(LogStream.NGINX_INGRESS_ERROR, 1.0 / 5), false,
+                    lines -> lines.append(IngressErrorLogEntry.createRandomEntry(true)));
+        }
+        backfill.addStream(LogStream.NGINX_FRONTEND_ERROR, Paths.get(nginxFrontEndLogDir, "error.log"),
+                streamRates.getOrDefault(LogStream.NGINX_FRONTEND_ERROR, 1.0 / 5), false,
+                lines -> lines.append(ErrorLogEntry.createRandomEntry(true)));
+        backfill.addStream(LogStream.NGINX_BACKEND_ERROR, Paths.get(nginxBackendLogDir, "error.log"),
+                streamRates.getOrDefault(LogStream.NGINX_BACKEND_ERROR, 1.0 / 5), false,
+                lines -> lines.append(ErrorLogEntry.createRandomEntry(false)));
+        // Anomalies are not simulated in a backfill, it produces baseline history
+        backfill.addStream(LogStream.MYSQL_ERROR, Paths.get(mysqlLogDir, "error.log"),
+                streamRates.getOrDefault(LogStream.MYSQL_ERROR, 1.0 / 10), false,
+                lines -> MySQLErrorLogEntry.createRandomEntries(true).forEach(lines::append));
+        backfill.addStream(LogStream.MYSQL_SLOW, Paths.get(mysqlLogDir, "mysql-slow.log"),
+                streamRates.getOrDefault(LogStream.MYSQL_SLOW, 1.0 / 15), false,
+                lines -> lines.append(MySQLSlowLogEntry.createRandomEntry()));
+        backfill.addStream(LogStream.MYSQL_GENERAL, Paths.get(mysqlLogDir, "mysql.log"),
+                streamRates.getOrDefault(LogStream.MYSQL_GENERAL, 1.0 / 5), false,
+                lines -> lines.append(MySQLGeneralLogEntry.createRandomEntry()));
+
+        try {
+            backfill.run();
+        } catch (IOException e) {
+            logger.error("Backfill failed", e);
+        } catch (InterruptedException e) {
+            logger.error("Backfill interrupted", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the configured bulk file of one access log stream, then returns without starting live generation.
+     */
+    private static void runBulkFile(UserSessionManager userSessionManager) {
+        Consumer<LineBuffer> generator;
+        switch (bulkStream) {
+            case NGINX_FRONTEND_ACCESS:
+                generator = lines -> lines.append(AccessLogEntry.createRandomEntry(true, userSessionManager));
+                break;
+            case NGINX_BACKEND_ACCESS:
+                generator = lines -> lines.append(AccessLogEntry.createRandomEntry(false, userSessionManager));
+                break;
+            case NGINX_INGRESS_ACCESS:
+                generator = lines -> lines.append(IngressAccessLogEntry.createRandomEntry(true, userSessionManager));
+                break;
+            default:
+                throw new IllegalArgumentException("Not an access log stream: " + bulkStream.getId());
+        }
+        BulkFileRunner bulk = new BulkFileRunner(bulkStream, Paths.get(bulkFile), generator,
+                bulkStart != null ? bulkStart : Instant.now(), streamRates.getOrDefault(bulkStream, bulkLinesPerSecond),
+                bulkLines, bulkBytes, bulkChunkLines, bulkThreads);
+        try {
+            bulk.run();
+        } catch (IOException e) {
+            logger.error("Bulk file failed", e);
+        } catch (InterruptedException e) {
+            logger.error("Bulk file interrupted", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns a sharded emitter for the stream when --stream-shards gives it more than one shard,
+     * otherwise the stream's single-threaded emitter.
+     */
+    private static IntConsumer shardedOr(StreamScheduler scheduler, LogStream stream, IntConsumer singleThreaded,
+                                         IntFunction<? extends List<? extends LogEntry>> entryFactory,
+                                         Consumer<LineBuffer> writer) {
+        int shards = streamShards.getOrDefault(stream, 1);
+        if (shards <= 1) {
+            return singleThreaded;
+        }
+        if (HostFanOut.isEnabled() && stream != LogStream.NGINX_INGRESS_ACCESS) {
+            // Shards merge their lines into the single-host file, the hosts spread the load instead
+            logger.warn("Ignoring --stream-shards for " + stream.getId() + " with --hosts");
+            return singleThreaded;
+        }
+        ShardedStream shardedStream = new ShardedStream(stream.getId(), shards,
+                scheduler.newThreadFactory(stream.getId() + "-shard"), entryFactory, writer);
+        shardedStreams.add(shardedStream);
+        return shardedStream;
+    }
+
     private static void scheduleAnomalyConfigUpdate(ScheduledExecutorService executor) {
         // Use exponential distribution for delay
-        double meanDelay = 7200; // Mean time between anomalies (e.g., 2 hours)
-        double maxDelay = 10800; // Maximum delay (e.g., 3 hours)
-        double delay = getTruncatedExponentialRandom(meanDelay, maxDelay);
+        double delay = anomalyDelaySampler.sample(random);
 
         executor.schedule(() -> {
             updateAnomalyConfig();
 
             // Schedule to reset the anomaly after a random duration
-            double meanAnomalyDuration = 300; // Mean anomaly duration (e.g., 5 minutes)
-            double maxAnomalyDuration = 600;  // Maximum anomaly duration (e.g., 10 minutes)
-            double anomalyDuration = getTruncatedExponentialRandom(meanAnomalyDuration, maxAnomalyDuration);
+            double anomalyDuration = anomalyDurationSampler.sample(random);
 
             executor.schedule(() -> {
                 resetAnomalyConfig();
@@ -287,7 +939,6 @@ public class DataGenerator {
     }
 
     private static void updateAnomalyConfig() {
-        Random random = new Random();
         int numberOfAnomalies = random.nextInt(3) + 1; // 1 to 3 anomalies
 
         // Reset all anomalies first
@@ -302,7 +953,7 @@ public class DataGenerator {
             () -> AnomalyConfig.setInduceLowRequestRate(true)        );
 
         // Shuffle and activate anomalies
-        Collections.shuffle(anomalies);
+        Collections.shuffle(anomalies, random);
         for (int i = 0; i < numberOfAnomalies; i++) {
             anomalies.get(i).run();
         }
@@ -311,13 +962,6 @@ public class DataGenerator {
         logger.info("Anomalies activated.");
     }
 
-    private static double getTruncatedExponentialRandom(double mean, double maxDelay) {
-        double u = random.nextDouble();
-        double Fmax = 1 - Math.exp(-maxDelay / mean);
-        double delay = -mean * Math.log(1 - u * Fmax);
-        return delay;
-    }
-
     private static void resetAnomalyConfig() {
         // Reset all anomalies to normal state
         AnomalyConfig.setInduceHighVisitorRate(false);
@@ -1,5 +1,58 @@
 package org.davidgeorgehope;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+
 public abstract class LogEntry {
     // Common fields and methods for log entries can be placed here if needed
-}
\ No newline at end of file
+    private final long timestampMicros;
+    private final ZoneId zone;
+
+    protected LogEntry(long timestampMicros, ZoneId zone) {
+        this.timestampMicros = timestampMicros;
+        this.zone = zone;
+    }
+
+    /**
+     * Epoch microseconds of the entry's timestamp, rendered through {@link org.davidgeorgehope.time.TimestampFormat}
+     */
+    public long getTimestampMicros() {
+        return timestampMicros;
+    }
+
+    /**
+     * Epoch milliseconds of the entry's timestamp, used to merge the output of several generator shards in order
+     */
+    public long getTimestampMillis() {
+        return Math.floorDiv(timestampMicros, 1000L);
+    }
+
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    /**
+     * Writes the entry as ASCII at the buffer's position, ending with a newline. Entries that span several
+     * lines (e.g. a slow query record) write all of them. Throws {@link BufferOverflowException} when the
+     * entry does not fit, leaving the buffer's position unspecified.
+     */
+    public abstract void encode(ByteBuffer buffer);
+
+    /**
+     * The encoded entry as text, including the trailing newline
+     */
+    @Override
+    public String toString() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        while (true) {
+            try {
+                encode(buffer);
+                return new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII);
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+    }
+}
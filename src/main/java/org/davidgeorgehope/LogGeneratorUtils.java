@@ -4,7 +4,12 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalTime;
 import java.util.*;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+import org.davidgeorgehope.random.LogRandom;
+import org.davidgeorgehope.sampling.AliasTable;
+import org.davidgeorgehope.sampling.ParetoSampler;
+import org.davidgeorgehope.sampling.ZipfDistribution;
 
 public class LogGeneratorUtils {
     private static final Map<String, String> ipToCountryMap = new HashMap<>();
@@ -28,9 +33,24 @@ public class LogGeneratorUtils {
             "/api/auth/login", "/api/auth/register", "/api/payment/process", "/api/shipping/calculate",
             "/api/inventory/check", "/api/recommendations", "/api/reviews/{productId}"
     };
+    private static final HttpMethod[] httpMethods = HttpMethod.values();
     public static final String anomalousHighRequestIP = "192.0.2.1"; // Reserved IP for documentation
-    private static final Random RANDOM = new Random();
-    private static List<String> ipPool;
+    private static final int ipPoolSize = 1000;
+    private static volatile List<String> ipPool;
+
+    // Precomputed distributions, so every choice below is a constant-time draw
+    private static final ZipfDistribution anomalousIpRanks = new ZipfDistribution(ipPoolSize, 1.0);
+    private static final AliasTable userAgentTable = AliasTable.uniform(userAgents.length);
+    private static final AliasTable frontendUrlTable = AliasTable.uniform(frontendUrls.length);
+    private static final AliasTable backendUrlTable = AliasTable.uniform(backendUrls.length);
+    // 90% success (of which 90% 200 and 10% 201), 10% spread evenly over the error codes
+    private static final int[] statusCodes = {200, 201, 400, 401, 403, 404, 500, 502, 503, 504};
+    private static final AliasTable statusCodeTable = new AliasTable(
+            new double[]{81, 9, 1.25, 1.25, 1.25, 1.25, 1.25, 1.25, 1.25, 1.25});
+    private static final int[] errorStatusCodes = {400, 401, 403, 404, 500, 502, 503, 504};
+    private static final AliasTable errorStatusCodeTable = AliasTable.uniform(errorStatusCodes.length);
+    // Parameters for the Pareto distribution of burst sizes, lower shapes produce heavier tails
+    private static final ParetoSampler burstFactor = new ParetoSampler(1.0, 1.5);
 
     // First octets for USA IP ranges
     private static final List<Integer> usaIpFirstOctets = List.of(3, 4, 12, 13, 17);
@@ -45,64 +65,46 @@ public class LogGeneratorUtils {
 
     private static List<String> generateIpPool() {
         List<String> ips = new ArrayList<>();
+
+        // The pool is shared by every stream, so a seeded run derives it from the seed alone
+        Random random = LogRandom.isSeeded() ? new Random(LogRandom.stableHash("ip-pool")) : new Random();
         
         // Total number of IPs to generate
-        int totalIps = 1000;
+        int totalIps = ipPoolSize;
         
         // Number of IPs per region
         int ipsPerRegion = totalIps / 2;
         
         // Generate USA IPs
         for (int i = 0; i < ipsPerRegion; i++) {
-            String ip = generateRandomIp(usaIpFirstOctets);
+            String ip = generateRandomIp(random, usaIpFirstOctets);
             ips.add(ip);
         }
 
         // Generate Europe IPs
         for (int i = 0; i < ipsPerRegion; i++) {
-            String ip = generateRandomIp(europeIpFirstOctets);
+            String ip = generateRandomIp(random, europeIpFirstOctets);
             ips.add(ip);
         }
 
         return ips;
     }
 
-    private static String generateRandomIp(List<Integer> firstOctetPool) {
-        int firstOctet = firstOctetPool.get(RANDOM.nextInt(firstOctetPool.size()));
-        int secondOctet = RANDOM.nextInt(256);
-        int thirdOctet = RANDOM.nextInt(256);
-        int fourthOctet = RANDOM.nextInt(256);
+    private static String generateRandomIp(Random random, List<Integer> firstOctetPool) {
+        int firstOctet = firstOctetPool.get(random.nextInt(firstOctetPool.size()));
+        int secondOctet = random.nextInt(256);
+        int thirdOctet = random.nextInt(256);
+        int fourthOctet = random.nextInt(256);
         return firstOctet + "." + secondOctet + "." + thirdOctet + "." + fourthOctet;
     }
 
     public static String generateRandomIP(boolean includeAnomalous) {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RandomGenerator random = LogRandom.current();
         List<String> ipPool = getIpPool();
 
         if (AnomalyConfig.isInduceHighRequestRateFromSingleIP()) {
             // Generate a Zipf-distributed index
-            int size = ipPool.size();
-            double exponent = 1.0; // Adjust the exponent as needed
-            double harmonic = 0.0;
-
-            // Calculate the harmonic number for normalization
-            for (int i = 1; i <= size; i++) {
-                harmonic += 1.0 / Math.pow(i, exponent);
-            }
-
-            // Generate a random value
-            double rand = random.nextDouble();
-
-            // Find the index corresponding to the random value
-            double cumulativeProbability = 0.0;
-            int index = 0;
-            for (int i = 1; i <= size; i++) {
-                cumulativeProbability += (1.0 / Math.pow(i, exponent)) / harmonic;
-                if (rand <= cumulativeProbability) {
-                    index = i - 1;
-                    break;
-                }
-            }
+            int index = anomalousIpRanks.sample(random);
 
             // Ensure the anomalous IP is at the top
             if (index == 0) {
@@ -116,11 +118,19 @@ public class LogGeneratorUtils {
         }
     }
 
-    public static synchronized List<String> getIpPool() {
-        if (ipPool == null) {
-            ipPool = generateIpPool();
+    public static List<String> getIpPool() {
+        // Called for every log line, so only synchronize while the pool is first generated
+        List<String> pool = ipPool;
+        if (pool == null) {
+            synchronized (LogGeneratorUtils.class) {
+                pool = ipPool;
+                if (pool == null) {
+                    pool = generateIpPool();
+                    ipPool = pool;
+                }
+            }
         }
-        return ipPool;
+        return pool;
     }
 
     public static String getCountryCode(String ip) {
@@ -128,11 +138,11 @@ public class LogGeneratorUtils {
     }
 
     public static HttpMethod getRandomHttpMethod() {
-        return HttpMethod.values()[ThreadLocalRandom.current().nextInt(HttpMethod.values().length)];
+        return httpMethods[LogRandom.current().nextInt(httpMethods.length)];
     }
 
     public static String getRandomUserAgent() {
-        return getRandomElement(userAgents);
+        return userAgents[userAgentTable.sample(LogRandom.current())];
     }
 
     public static String getRandomURL(String username, boolean isFrontend) {
@@ -143,10 +153,11 @@ public class LogGeneratorUtils {
         if (AnomalyConfig.isInduceHighDistinctURLsFromSingleIP()
             && UserSessionManager.currentIP.equals(anomalousHighRequestIP)) {
             // Access a wide range of URLs by iterating through the list
-            baseUrl = urls[RANDOM.nextInt(urls.length)];
+            baseUrl = urls[LogRandom.current().nextInt(urls.length)];
         } else {
             // Normal behavior
-            baseUrl = getRandomElement(urls);
+            AliasTable urlTable = isFrontend ? frontendUrlTable : backendUrlTable;
+            baseUrl = urls[urlTable.sample(LogRandom.current())];
         }
 
         // Replace placeholders with random values
@@ -155,7 +166,7 @@ public class LogGeneratorUtils {
     }
 
     private static String replaceUrlPlaceholders(String baseUrl) {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RandomGenerator random = LogRandom.current();
 
         if (baseUrl.contains("{id}")) {
             baseUrl = baseUrl.replace("{id}", String.valueOf(random.nextInt(1000) + 1));
@@ -181,32 +192,10 @@ public class LogGeneratorUtils {
         return baseUrl;
     }
 
-    public static List<String> generateHeadersList(String username) {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
-
-        List<String> headers = new ArrayList<>();
-        headers.add("Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8");
-        headers.add("Accept-Encoding: gzip, deflate, br");
-        headers.add("Accept-Language: en-US,en;q=0.5");
-
-        if (!username.equals("-")) {
-            headers.add("Authorization: Bearer " + generateRandomString(32));
-            headers.add("X-User-ID: " + username);
-        }
-        if (random.nextDouble() < 0.5) {
-            headers.add("X-Request-ID: " + UUID.randomUUID().toString());
-        }
-        if (random.nextDouble() < 0.3) {
-            headers.add("X-Forwarded-For: " + generateRandomIP(false));
-        }
-
-        return headers;
-    }
-
     private static Integer cachedErrorStatusCode = null;
 
     public static int getStatusCode(String ip, boolean isAnomalous) {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RandomGenerator random = LogRandom.current();
 
         if (AnomalyConfig.isInduceDatabaseOutage()) {
             // Select a specific error code for database outage
@@ -234,57 +223,31 @@ public class LogGeneratorUtils {
         }
     }
 
-    private static int getRandomSuccessStatusCode() {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
-        int chance = random.nextInt(100);
-        if (chance < 90) {
-            return 200; // 90% chance
-        } else {
-            return 201; // 10% chance
-        }
-    }
-
     private static int getRandomErrorStatusCode() {
-        // Define possible error status codes
-        int[] errorCodes = {400, 401, 403, 404, 500, 502, 503, 504};
-        return errorCodes[ThreadLocalRandom.current().nextInt(errorCodes.length)];
+        return errorStatusCodes[errorStatusCodeTable.sample(LogRandom.current())];
     }
 
     private static int getRandomStatusCode(boolean isAnomalous) {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
-        int chance = random.nextInt(100);
-        if (chance < 90) {
-            return getRandomSuccessStatusCode(); // 90% chance of success
-        } else {
-            return getRandomErrorStatusCode();   // 10% chance of error
-        }
+        return statusCodes[statusCodeTable.sample(LogRandom.current())];
     }
 
     public static double generateResponseTime() {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RandomGenerator random = LogRandom.current();
         // Generate response time between 0.100 and 1.500 seconds
         return 0.100 + (1.500 - 0.100) * random.nextDouble();
     }
 
-    public static int getLogsToGenerate(double meanRequestsPerSecond) {
+    public static double getAnomalyRateMultiplier() {
         if (AnomalyConfig.isInduceHighVisitorRate()) {
-            meanRequestsPerSecond *= 10; // Increase by a factor, adjust as needed
+            return 10; // Increase by a factor, adjust as needed
         } else if (AnomalyConfig.isInduceLowRequestRate()) {
-            meanRequestsPerSecond *= 0.1; // Decrease by a factor, adjust as needed
+            return 0.1; // Decrease by a factor, adjust as needed
         }
+        return 1;
+    }
 
-        // Parameters for the Pareto distribution
-        double scale = 1.0;
-        double shape = 1.5; // Lower values produce heavier tails
-
-        // Generate a Pareto-distributed random number
-        double u = RANDOM.nextDouble();
-        double paretoValue = scale / Math.pow(u, 1.0 / shape);
-
-        // Adjust the mean requests per second based on the Pareto value
-        int logsToGenerate = (int) Math.round(meanRequestsPerSecond * paretoValue);
-
-        return logsToGenerate;
+    public static double getParetoBurstFactor() {
+        return burstFactor.sample(LogRandom.current());
     }
 
     public static String getRandomErrorMessage(boolean isFrontend, String url) {
@@ -311,7 +274,7 @@ public class LogGeneratorUtils {
     }
 
     public static String generateRandomString(int length) {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RandomGenerator random = LogRandom.current();
         String characters = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
         StringBuilder sb = new StringBuilder(length);
 
@@ -325,7 +288,7 @@ public class LogGeneratorUtils {
         if (array == null || array.length == 0) {
             throw new IllegalArgumentException("Array must not be null or empty");
         }
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RandomGenerator random = LogRandom.current();
         return array[random.nextInt(array.length)];
     }
 
@@ -333,7 +296,7 @@ public class LogGeneratorUtils {
         if (list == null || list.isEmpty()) {
             throw new IllegalArgumentException("List must not be null or empty");
         }
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RandomGenerator random = LogRandom.current();
         return list.get(random.nextInt(list.size()));
     }
 
@@ -379,7 +342,7 @@ public class LogGeneratorUtils {
     }
 
     private static String replaceSQLPlaceholders(String sql) {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RandomGenerator random = LogRandom.current();
 
         if (sql.contains("{id}")) {
             sql = sql.replace("{id}", String.valueOf(random.nextInt(1, 10000)));
@@ -394,14 +357,31 @@ public class LogGeneratorUtils {
     }
 
     public static String getRandomElement(String[] array) {
-        return array[ThreadLocalRandom.current().nextInt(array.length)];
+        return array[LogRandom.current().nextInt(array.length)];
     }
 
 
 
     public static String generateRandomSessionId() {
         // Generate a random session ID (alphanumeric string)
-        return java.util.UUID.randomUUID().toString().replaceAll("-", "");
+        UUID uuid = randomUUID();
+        char[] hex = new char[32];
+        for (int i = 0; i < 16; i++) {
+            hex[i] = Character.forDigit((int) (uuid.getMostSignificantBits() >>> (60 - 4 * i)) & 0xF, 16);
+            hex[16 + i] = Character.forDigit((int) (uuid.getLeastSignificantBits() >>> (60 - 4 * i)) & 0xF, 16);
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Random (version 4) UUID drawn from the calling thread's random generator. UUID.randomUUID() goes through
+     * a shared SecureRandom, which serializes generator shards running on different cores.
+     */
+    public static UUID randomUUID() {
+        RandomGenerator random = LogRandom.current();
+        long mostSigBits = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long leastSigBits = (random.nextLong() & ~(0xC000000000000000L)) | 0x8000000000000000L;
+        return new UUID(mostSigBits, leastSigBits);
     }
 
     public static double round(double value, int places) {
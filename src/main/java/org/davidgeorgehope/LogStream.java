@@ -0,0 +1,36 @@
+package org.davidgeorgehope;
+
+/**
+ * The log streams produced by the generator, identified on the command line by their id
+ * (for example {@code --stream-rate=nginx-frontend-access:5000}).
+ */
+public enum LogStream {
+    NGINX_FRONTEND_ACCESS("nginx-frontend-access"),
+    NGINX_BACKEND_ACCESS("nginx-backend-access"),
+    NGINX_INGRESS_ACCESS("nginx-ingress-access"),
+    NGINX_INGRESS_ERROR("nginx-ingress-error"),
+    NGINX_FRONTEND_ERROR("nginx-frontend-error"),
+    NGINX_BACKEND_ERROR("nginx-backend-error"),
+    MYSQL_ERROR("mysql-error"),
+    MYSQL_SLOW("mysql-slow"),
+    MYSQL_GENERAL("mysql-general");
+
+    private final String id;
+
+    LogStream(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public static LogStream fromId(String id) {
+        for (LogStream stream : values()) {
+            if (stream.id.equalsIgnoreCase(id)) {
+                return stream;
+            }
+        }
+        throw new IllegalArgumentException("Unknown log stream: " + id);
+    }
+}
@@ -5,6 +5,8 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.HashMap;
 
+import org.davidgeorgehope.random.LogRandom;
+
 public class UserSessionManager {
     private static final Map<String, String> activeUsers = new ConcurrentHashMap<>();
     private static final String[] usernames = {"alice", "bob", "charlie", "david", "emma", "frank", "grace", "henry"};
@@ -12,6 +14,10 @@ public class UserSessionManager {
     public static String currentIP = "";
 
     public String getOrCreateActiveUser(String ip) {
+        if (LogRandom.isSeeded()) {
+            // Whichever stream sees an IP first would otherwise pick its user, which depends on thread timing
+            return usernames[Math.floorMod(LogRandom.stableHash(ip), usernames.length)];
+        }
         return activeUsers.computeIfAbsent(ip, k -> LogGeneratorUtils.getRandomElement(usernames));
     }
 
@@ -0,0 +1,215 @@
+package org.davidgeorgehope.backfill;
+
+import org.davidgeorgehope.LogGeneratorUtils;
+import org.davidgeorgehope.LogStream;
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.davidgeorgehope.random.LogRandom;
+import org.davidgeorgehope.time.LogClock;
+import org.davidgeorgehope.time.SyntheticClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Generates a historical time range as fast as possible instead of in real time.
+ *
+ * <p>The range is cut into slices that are generated in parallel. Each slice runs on one worker thread with its
+ * own {@link SyntheticClock}, so every entry is stamped with its synthetic time, and writes each stream to a
+ * part file. Slices are appended to the stream's log file strictly in slice order as they complete, so the
+ * final files are in timestamp order just like a live run would have produced them. With {@code --seed} the
+ * output is byte-identical whatever the number of threads.
+ */
+public class BackfillRunner {
+    private static final Logger logger = LoggerFactory.getLogger(BackfillRunner.class);
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final int FLUSH_BYTES = 1024 * 1024;
+
+    private final Instant start;
+    private final Instant end;
+    private final Duration sliceDuration;
+    private final RateProfile profile;
+    private final boolean paretoBursts;
+    private final int threads;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final List<BackfillStream> streams = new ArrayList<>();
+
+    public BackfillRunner(Instant start, Instant end, Duration sliceDuration, RateProfile profile,
+                          boolean paretoBursts, int threads) {
+        if (!end.isAfter(start)) {
+            throw new IllegalArgumentException("Backfill end " + end + " must be after start " + start);
+        }
+        this.start = start;
+        this.end = end;
+        this.sliceDuration = sliceDuration;
+        this.profile = profile;
+        this.paretoBursts = paretoBursts;
+        this.threads = threads;
+    }
+
+    /**
+     * @param stream The stream being backfilled
+     * @param outputFile Log file the stream is appended to
+     * @param ratePerSecond Mean events per second
+     * @param accessStream Whether the rate profile and Pareto bursts apply to this stream
+     * @param generator Appends the entries of one event, stamped from the calling thread's clock
+     */
+    public void addStream(LogStream stream, Path outputFile, double ratePerSecond, boolean accessStream,
+                          Consumer<LineBuffer> generator) {
+        streams.add(new BackfillStream(stream, outputFile, ratePerSecond, accessStream, generator));
+    }
+
+    public void run() throws IOException, InterruptedException {
+        long startSecond = start.getEpochSecond();
+        long endSecond = end.getEpochSecond();
+        long sliceSeconds = Math.max(1, sliceDuration.getSeconds());
+        int sliceCount = (int) ((endSecond - startSecond + sliceSeconds - 1) / sliceSeconds);
+
+        logger.info("Backfilling " + start + " to " + end + " in " + sliceCount + " slices on " + threads + " threads");
+        for (BackfillStream stream : streams) {
+            Files.createDirectories(stream.outputFile.getParent());
+            if (Files.exists(stream.outputFile) && Files.size(stream.outputFile) > 0) {
+                logger.warn("Appending backfill to non-empty log file " + stream.outputFile);
+            }
+        }
+
+        long began = System.nanoTime();
+        long totalLines = 0;
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<long[]>> slices = new ArrayList<>(sliceCount);
+            for (int slice = 0; slice < sliceCount; slice++) {
+                long sliceStart = startSecond + slice * sliceSeconds;
+                long sliceEnd = Math.min(endSecond, sliceStart + sliceSeconds);
+                int sliceIndex = slice;
+                slices.add(workers.submit(() -> generateSlice(sliceIndex, sliceStart, sliceEnd)));
+            }
+
+            // Append the slices in order while the later ones are still being generated
+            for (int slice = 0; slice < sliceCount; slice++) {
+                long[] lines = slices.get(slice).get();
+                for (int s = 0; s < streams.size(); s++) {
+                    appendPart(streams.get(s), slice);
+                    totalLines += lines[s];
+                }
+                logger.info("Backfill slice " + (slice + 1) + "/" + sliceCount + " written");
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Backfill slice failed", e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+
+        double seconds = (System.nanoTime() - began) / (double) NANOS_PER_SECOND;
+        logger.info(String.format("Backfill complete: %d lines in %.1f s (%.0f lines/s)",
+                totalLines, seconds, totalLines / seconds));
+    }
+
+    private long[] generateSlice(int slice, long sliceStartSecond, long sliceEndSecond) throws IOException {
+        SyntheticClock clock = new SyntheticClock(zone, sliceStartSecond * NANOS_PER_SECOND);
+        LogClock.setThreadClock(clock);
+        try {
+            long[] lines = new long[streams.size()];
+            for (int s = 0; s < streams.size(); s++) {
+                BackfillStream stream = streams.get(s);
+                // Each stream of each slice gets its own seeded generator, so slices are independent of each other
+                if (LogRandom.isSeeded()) {
+                    LogRandom.bind(LogRandom.newGenerator(stream.stream.getId(), slice));
+                }
+                LineBuffer buffer = LineBuffer.acquire();
+                try (OutputStream out = Files.newOutputStream(partFile(stream, slice))) {
+                    lines[s] = generateStreamSlice(stream, clock, buffer, out, sliceStartSecond, sliceEndSecond);
+                } finally {
+                    buffer.release();
+                    LogRandom.unbind();
+                }
+            }
+            return lines;
+        } finally {
+            LogClock.clearThreadClock();
+        }
+    }
+
+    private long generateStreamSlice(BackfillStream stream, SyntheticClock clock, LineBuffer buffer, OutputStream out,
+                                     long sliceStartSecond, long sliceEndSecond) throws IOException {
+        long lines = 0;
+        double tokens = 0.5; // Round rather than truncate the fractional events of each slice
+        for (long second = sliceStartSecond; second < sliceEndSecond; second++) {
+            double rate = stream.ratePerSecond;
+            if (stream.accessStream) {
+                rate *= profile.factorAt(ZonedDateTime.ofInstant(Instant.ofEpochSecond(second), zone));
+                if (paretoBursts) {
+                    rate *= LogGeneratorUtils.getParetoBurstFactor();
+                }
+            }
+            tokens += rate;
+            int events = (int) tokens;
+            tokens -= events;
+
+            // Spread the second's events evenly across the second
+            for (int i = 0; i < events; i++) {
+                clock.setEpochNanos(second * NANOS_PER_SECOND + i * NANOS_PER_SECOND / events);
+                stream.generator.accept(buffer);
+            }
+            lines += events;
+            if (buffer.length() >= FLUSH_BYTES) {
+                buffer.writeTo(out);
+                buffer.clear();
+            }
+        }
+        buffer.writeTo(out);
+        buffer.clear();
+        return lines;
+    }
+
+    private void appendPart(BackfillStream stream, int slice) throws IOException {
+        Path part = partFile(stream, slice);
+        try (FileChannel source = FileChannel.open(part, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(stream.outputFile,
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long position = 0;
+            long size = source.size();
+            while (position < size) {
+                position += source.transferTo(position, size - position, target);
+            }
+        }
+        Files.delete(part);
+    }
+
+    private static Path partFile(BackfillStream stream, int slice) {
+        return stream.outputFile.resolveSibling("." + stream.outputFile.getFileName() + ".backfill-" + slice);
+    }
+
+    private static class BackfillStream {
+        private final LogStream stream;
+        private final Path outputFile;
+        private final double ratePerSecond;
+        private final boolean accessStream;
+        private final Consumer<LineBuffer> generator;
+
+        private BackfillStream(LogStream stream, Path outputFile, double ratePerSecond, boolean accessStream,
+                               Consumer<LineBuffer> generator) {
+            this.stream = stream;
+            this.outputFile = outputFile;
+            this.ratePerSecond = ratePerSecond;
+            this.accessStream = accessStream;
+            this.generator = generator;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package org.davidgeorgehope.backfill;
+
+import org.davidgeorgehope.LogStream;
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.davidgeorgehope.random.LogRandom;
+import org.davidgeorgehope.time.LogClock;
+import org.davidgeorgehope.time.SyntheticClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Generates one large log file of a single stream as fast as the disk takes it.
+ *
+ * <p>The file is cut into chunks of a fixed number of lines. Worker threads take the chunks in order, generate
+ * each one into memory with its own {@link SyntheticClock} (line {@code n} of the file is stamped
+ * {@code n / ratePerSecond} seconds after the start) and, in seeded runs, its own random generator. Once the
+ * chunks before it have been generated the chunk's file offset is known, and it is written there with positional
+ * writes while the other workers keep generating. Chunks are placed end to end on whole lines, so no line ever
+ * straddles two chunks, and with {@code --seed} the file is byte-identical whatever the number of threads, one
+ * thread being the plain sequential append.
+ *
+ * <p>The target is either a line count or a byte size. A byte target ends the file on the first line that
+ * reaches it, so the file is at most one line longer than the target.
+ */
+public class BulkFileRunner {
+    private static final Logger logger = LoggerFactory.getLogger(BulkFileRunner.class);
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final int WRITE_SLICE_BYTES = 8 * 1024 * 1024; // Keeps the JDK's temporary direct buffers small
+    private static final long PROGRESS_BYTES = 1024L * 1024 * 1024;
+
+    private final LogStream stream;
+    private final Path outputFile;
+    private final Consumer<LineBuffer> generator;
+    private final Instant start;
+    private final double ratePerSecond;
+    private final long targetLines; // 0 when the target is a byte size
+    private final long targetBytes; // 0 when the target is a line count
+    private final int chunkLines;
+    private final int threads;
+    private final ZoneId zone = ZoneId.systemDefault();
+
+    // Offsets of the chunks generated so far, chunks reserve their place strictly in order
+    private final Object ledger = new Object();
+    private long reservedChunks = 0;
+    private long reservedBytes = 0;
+    private boolean complete = false;
+
+    private final AtomicLong nextChunk = new AtomicLong();
+    private final AtomicLong writtenBytes = new AtomicLong();
+    private final AtomicLong writtenLines = new AtomicLong();
+
+    /**
+     * @param stream The stream the file holds
+     * @param outputFile File to write, replaced if it exists
+     * @param generator Appends the entries of one event, stamped from the calling thread's clock
+     * @param start Timestamp of the first line
+     * @param ratePerSecond Lines per second of log time, spreading the timestamps
+     * @param targetLines Number of lines to write, or 0 to write up to targetBytes
+     * @param targetBytes Size to write up to when targetLines is 0
+     * @param chunkLines Lines per chunk, each worker holds one chunk in memory
+     * @param threads Number of worker threads
+     */
+    public BulkFileRunner(LogStream stream, Path outputFile, Consumer<LineBuffer> generator, Instant start,
+                          double ratePerSecond, long targetLines, long targetBytes, int chunkLines, int threads) {
+        if (targetLines <= 0 && targetBytes <= 0) {
+            throw new IllegalArgumentException("Bulk file needs a line count or a byte size");
+        }
+        if (ratePerSecond <= 0) {
+            throw new IllegalArgumentException("Bulk file rate must be positive, got " + ratePerSecond);
+        }
+        this.stream = stream;
+        this.outputFile = outputFile;
+        this.generator = generator;
+        this.start = start;
+        this.ratePerSecond = ratePerSecond;
+        this.targetLines = Math.max(0, targetLines);
+        this.targetBytes = this.targetLines > 0 ? 0 : targetBytes;
+        this.chunkLines = Math.max(1, chunkLines);
+        this.threads = Math.max(1, threads);
+    }
+
+    public void run() throws IOException, InterruptedException {
+        if (outputFile.getParent() != null) {
+            Files.createDirectories(outputFile.getParent());
+        }
+        if (Files.exists(outputFile) && Files.size(outputFile) > 0) {
+            logger.warn("Replacing non-empty file " + outputFile);
+        }
+        logger.info("Writing " + (targetLines > 0 ? targetLines + " lines" : targetBytes + " bytes") + " of " +
+                stream.getId() + " to " + outputFile + " in chunks of " + chunkLines + " lines on " + threads +
+                " threads");
+
+        long began = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(outputFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ExecutorService workers = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> running = new ArrayList<>(threads);
+                for (int i = 0; i < threads; i++) {
+                    running.add(workers.submit(() -> {
+                        work(channel);
+                        return null;
+                    }));
+                }
+                for (Future<?> worker : running) {
+                    worker.get();
+                }
+            } catch (ExecutionException e) {
+                throw new IOException("Bulk file chunk failed", e.getCause());
+            } finally {
+                synchronized (ledger) {
+                    complete = true;
+                    ledger.notifyAll();
+                }
+                workers.shutdownNow();
+            }
+            channel.truncate(reservedBytes);
+        }
+
+        double seconds = (System.nanoTime() - began) / (double) NANOS_PER_SECOND;
+        logger.info(String.format("Bulk file complete: %d lines, %d bytes in %.1f s (%.0f lines/s, %.1f MB/s)",
+                writtenLines.get(), writtenBytes.get(), seconds, writtenLines.get() / seconds,
+                writtenBytes.get() / seconds / (1024 * 1024)));
+    }
+
+    private void work(FileChannel channel) throws IOException, InterruptedException {
+        LineBuffer buffer = new LineBuffer((int) Math.min(chunkLines * 256L, 1 << 30), chunkLines);
+        SyntheticClock clock = new SyntheticClock(zone, 0);
+        LogClock.setThreadClock(clock);
+        try {
+            while (true) {
+                long chunk = nextChunk.getAndIncrement();
+                long firstLine = chunk * chunkLines;
+                if ((targetLines > 0 && firstLine >= targetLines) || isComplete()) {
+                    return;
+                }
+                int lines = targetLines > 0 ? (int) Math.min(chunkLines, targetLines - firstLine) : chunkLines;
+                generateChunk(chunk, firstLine, lines, clock, buffer);
+
+                long[] placement = reserve(chunk, buffer);
+                if (placement == null) {
+                    return;
+                }
+                write(channel, buffer, placement[0], (int) placement[1]);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Release the workers waiting for this worker's chunk
+            synchronized (ledger) {
+                complete = true;
+                ledger.notifyAll();
+            }
+            throw e;
+        } finally {
+            LogClock.clearThreadClock();
+        }
+    }
+
+    private void generateChunk(long chunk, long firstLine, int lines, SyntheticClock clock, LineBuffer buffer) {
+        buffer.clear();
+        // Each chunk gets its own seeded generator, so its content doesn't depend on the thread that generates it
+        if (LogRandom.isSeeded()) {
+            LogRandom.bind(LogRandom.newGenerator(stream.getId() + "-bulk", chunk));
+        }
+        try {
+            long startNanos = start.getEpochSecond() * NANOS_PER_SECOND + start.getNano();
+            for (long line = firstLine; line < firstLine + lines; line++) {
+                clock.setEpochNanos(startNanos + (long) (line * NANOS_PER_SECOND / ratePerSecond));
+                generator.accept(buffer);
+            }
+        } finally {
+            LogRandom.unbind();
+        }
+    }
+
+    /**
+     * Waits until every earlier chunk has its place, then takes the next one in the file
+     * @return The chunk's offset and the number of its bytes to write, or null when the file is already complete
+     */
+    private long[] reserve(long chunk, LineBuffer buffer) throws InterruptedException {
+        synchronized (ledger) {
+            while (reservedChunks != chunk && !complete) {
+                ledger.wait();
+            }
+            if (complete) {
+                return null;
+            }
+            long position = reservedBytes;
+            int length = buffer.length();
+            int lines = buffer.lineCount();
+            if (targetBytes > 0 && position + length >= targetBytes) {
+                // Stop on the first line that reaches the target
+                lines = 0;
+                while (position + buffer.lineEnd(lines) < targetBytes) {
+                    lines++;
+                }
+                lines++;
+                length = buffer.lineEnd(lines - 1);
+                complete = true;
+            }
+            reservedChunks++;
+            reservedBytes += length;
+            writtenLines.addAndGet(lines);
+            ledger.notifyAll();
+            return new long[] {position, length};
+        }
+    }
+
+    private void write(FileChannel channel, LineBuffer buffer, long position, int length) throws IOException {
+        byte[] bytes = buffer.array();
+        for (int offset = 0; offset < length; ) {
+            ByteBuffer slice = ByteBuffer.wrap(bytes, offset, Math.min(WRITE_SLICE_BYTES, length - offset));
+            while (slice.hasRemaining()) {
+                offset += channel.write(slice, position + offset);
+            }
+        }
+        long written = writtenBytes.addAndGet(length);
+        if (written / PROGRESS_BYTES != (written - length) / PROGRESS_BYTES) {
+            logger.info("Bulk file: " + written / (1024 * 1024) + " MB written");
+        }
+    }
+
+    private boolean isComplete() {
+        synchronized (ledger) {
+            return complete;
+        }
+    }
+}
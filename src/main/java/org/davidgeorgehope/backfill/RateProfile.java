@@ -0,0 +1,37 @@
+package org.davidgeorgehope.backfill;
+
+import java.time.DayOfWeek;
+import java.time.ZonedDateTime;
+
+/**
+ * Shapes the access log rate over a backfill range. Every profile averages to roughly 1.0, so the configured
+ * rate stays the mean rate over a full day (or week).
+ */
+public enum RateProfile {
+    /** Constant rate */
+    FLAT {
+        @Override
+        public double factorAt(ZonedDateTime time) {
+            return 1.0;
+        }
+    },
+    /** Daily traffic curve, quietest around 02:00 and busiest around 14:00 local time */
+    DIURNAL {
+        @Override
+        public double factorAt(ZonedDateTime time) {
+            double hour = time.getHour() + time.getMinute() / 60.0 + time.getSecond() / 3600.0;
+            return 1.0 + 0.7 * Math.cos(2 * Math.PI * (hour - 14) / 24);
+        }
+    },
+    /** Daily traffic curve with quieter weekends */
+    WEEKLY {
+        @Override
+        public double factorAt(ZonedDateTime time) {
+            DayOfWeek day = time.getDayOfWeek();
+            boolean weekend = day == DayOfWeek.SATURDAY || day == DayOfWeek.SUNDAY;
+            return DIURNAL.factorAt(time) * (weekend ? 0.6 : 1.16);
+        }
+    };
+
+    public abstract double factorAt(ZonedDateTime time);
+}
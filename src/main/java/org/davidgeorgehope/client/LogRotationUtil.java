@@ -1,5 +1,6 @@
 package org.davidgeorgehope.client;
 
+import org.davidgeorgehope.sink.SegmentCompactor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,15 +16,35 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 /**
  * Utility class for log rotation and cleanup of old logs.
  * Supports daily rotation and retention of logs for a configurable number of days.
+ * Rotated logs are compressed into the {@code archive} directory in the background when the
+ * {@code LOG_COMPRESSION} environment variable is set to {@code gzip} or {@code deflate}.
  */
 public class LogRotationUtil {
     private static final Logger logger = LoggerFactory.getLogger(LogRotationUtil.class);
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final Set<Path> scannedLogs = ConcurrentHashMap.newKeySet();
+
+    static {
+        String compression = System.getenv().getOrDefault("LOG_COMPRESSION", "none").toUpperCase(Locale.ROOT);
+        if (!compression.equals("NONE")) {
+            try {
+                SegmentCompactor.configure(SegmentCompactor.Format.valueOf(compression),
+                        Integer.parseInt(System.getenv().getOrDefault("LOG_COMPRESSION_LEVEL", "-1")), 1,
+                        Long.parseLong(System.getenv().getOrDefault("LOG_COMPRESSION_DELAY_SECONDS", "60")) * 1000,
+                        60);
+            } catch (IllegalArgumentException e) {
+                logger.error("Invalid log compression settings, rotated logs stay uncompressed: {}", e.getMessage());
+            }
+        }
+    }
     
     /**
      * Performs log rotation and cleanup:
@@ -76,8 +97,14 @@ public class LogRotationUtil {
                     }
                     
                     logger.info("Rotated log file {} to {}", logFileName, rotatedPath.getFileName());
+                    SegmentCompactor.submit(rotatedPath);
                 }
             }
+
+            // Compress what a previous run rotated but didn't get to compress
+            if (scannedLogs.add(currentLogPath)) {
+                SegmentCompactor.submitExisting(logDirPath, fileName -> isRotatedLog(fileName, logFileName));
+            }
             
             // Delete old log files beyond retention period
             deleteOldLogs(logDirPath, logFileName, retentionDays);
@@ -106,17 +133,24 @@ public class LogRotationUtil {
         try {
             LocalDate cutoffDate = LocalDate.now().minusDays(retentionDays);
             
-            // Find and delete old rotated log files
-            try (Stream<Path> files = Files.list(logDirPath)) {
+            // Find and delete old rotated log files, compressed ones included
+            Path archivePath = SegmentCompactor.archiveDirectory(logDirPath);
+            try (Stream<Path> files = Files.isDirectory(archivePath)
+                    ? Stream.concat(Files.list(logDirPath), Files.list(archivePath))
+                    : Files.list(logDirPath)) {
                 files.filter(path -> {
-                    String fileName = path.getFileName().toString();
-                    // Only consider files that match our pattern: logFileName.yyyy-MM-dd
-                    return fileName.startsWith(logFileName + ".") && 
-                           fileName.length() == logFileName.length() + 11; // +11 for ".yyyy-MM-dd"
+                    String fileName = SegmentCompactor.uncompressedName(path);
+                    // Only consider files that match our pattern: logFileName.yyyy-MM-dd, in the archive
+                    // possibly followed by a counter when the same day was rotated twice
+                    return path.getParent().equals(archivePath)
+                            ? fileName.startsWith(logFileName + ".") &&
+                              fileName.length() >= logFileName.length() + 11
+                            : isRotatedLog(fileName, logFileName);
                 }).forEach(path -> {
                     try {
                         // Extract date from filename
-                        String dateStr = path.getFileName().toString().substring(logFileName.length() + 1);
+                        String dateStr = SegmentCompactor.uncompressedName(path)
+                                .substring(logFileName.length() + 1, logFileName.length() + 11);
                         LocalDate fileDate = LocalDate.parse(dateStr, DATE_FORMATTER);
                         
                         // Delete if older than retention period
@@ -134,6 +168,11 @@ public class LogRotationUtil {
         }
     }
     
+    private static boolean isRotatedLog(String fileName, String logFileName) {
+        return fileName.startsWith(logFileName + ".") &&
+               fileName.length() == logFileName.length() + 11; // +11 for ".yyyy-MM-dd"
+    }
+
     /**
      * Shorthand method to rotate logs with default retention of 1 day
      */
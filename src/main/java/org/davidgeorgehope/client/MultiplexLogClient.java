@@ -0,0 +1,179 @@
+package org.davidgeorgehope.client;
+
+import org.davidgeorgehope.nginx.logs.MuxFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Receives several ports over the generator's multiplexed port ({@code --mux-port}) and writes each to its own log
+ * file, e.g. {@code MultiplexLogClient 9100 9005=/var/log/nginx_frontend/access.log
+ * 9006=/var/log/nginx_frontend/error.log}. The lines of each {@link MuxFrame} go to the file as they are, without
+ * splitting them into lines, and a gap in a stream's sequence numbers, which means the generator dropped batches for
+ * this client, is logged. Lines sent while the client is disconnected are not replayed. With {@code --stdout} the
+ * lines are also copied to standard output, like the per-port clients do, for collectors reading container logs.
+ */
+public class MultiplexLogClient {
+    private static final Logger logger = LoggerFactory.getLogger(MultiplexLogClient.class);
+    private static final int LOG_RETENTION_DAYS = 1; // Keep logs for 1 day
+    private static String hostName = "localhost"; // Default to localhost if not specified
+    private static boolean copyToStdout = false;
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: java org.davidgeorgehope.client.MultiplexLogClient <mux-port> " +
+                    "<stream-port>=<log-file>... [--host=hostname] [--stdout]");
+            System.exit(1);
+        }
+
+        int muxPort = Integer.parseInt(args[0]);
+        Map<Integer, StreamLog> streams = new LinkedHashMap<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--host=")) {
+                hostName = args[i].substring("--host=".length()).trim();
+                logger.info("Using host: " + hostName);
+                continue;
+            }
+            if (args[i].equals("--stdout")) {
+                copyToStdout = true;
+                logger.info("Copying the lines to standard output");
+                continue;
+            }
+            String[] stream = args[i].split("=", 2);
+            if (stream.length != 2) {
+                System.err.println("Invalid stream " + args[i] + ", expected <stream-port>=<log-file>");
+                System.exit(1);
+            }
+            streams.put(Integer.parseInt(stream[0].trim()), new StreamLog(Paths.get(stream[1].trim())));
+        }
+
+        StringBuilder subscribe = new StringBuilder(MuxFrame.SUBSCRIBE);
+        for (Integer stream : streams.keySet()) {
+            if (subscribe.length() > MuxFrame.SUBSCRIBE.length()) {
+                subscribe.append(',');
+            }
+            subscribe.append(stream);
+        }
+        subscribe.append('\n');
+
+        while (!Thread.currentThread().isInterrupted()) {
+            logger.info("Connecting to " + hostName + ":" + muxPort + " for streams " + streams.keySet());
+            try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(hostName, muxPort))) {
+                channel.write(ByteBuffer.wrap(subscribe.toString().getBytes(StandardCharsets.US_ASCII)));
+                // Each port numbers its batches for as long as it is open, so the first frame of a connection
+                // skips the batches sent while disconnected, or starts over after a generator restart; it is
+                // not checked for a gap
+                streams.values().forEach(log -> log.sequence = 0);
+                readFrames(channel, streams);
+            } catch (IOException e) {
+                logger.error("Error reading from " + hostName + ":" + muxPort + ", retrying in 5 seconds", e);
+            } finally {
+                streams.values().forEach(StreamLog::close);
+            }
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void readFrames(SocketChannel channel, Map<Integer, StreamLog> streams) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(MuxFrame.HEADER_BYTES);
+        ByteBuffer lines = ByteBuffer.allocate(64 * 1024);
+        while (true) {
+            header.clear();
+            readFully(channel, header);
+            header.flip();
+            int length = header.getInt() - (MuxFrame.HEADER_BYTES - 4);
+            int stream = header.getInt();
+            long sequence = header.getLong();
+            header.getInt(); // Line count, not needed to copy the lines
+            if (length < 0) {
+                throw new IOException("Invalid frame length " + length + " for stream " + stream);
+            }
+            if (lines.capacity() < length) {
+                lines = ByteBuffer.allocate(Math.max(length, lines.capacity() * 2));
+            }
+            lines.clear().limit(length);
+            readFully(channel, lines);
+            lines.flip();
+
+            StreamLog log = streams.get(stream);
+            if (log == null) {
+                continue; // Not subscribed
+            }
+            if (log.sequence > 0 && sequence != log.sequence + 1) {
+                logger.warn("Stream " + stream + " skipped " + (sequence - log.sequence - 1) +
+                        " batches dropped by the generator");
+            }
+            log.sequence = sequence;
+            if (copyToStdout) {
+                System.out.write(lines.array(), 0, lines.limit());
+                System.out.flush();
+            }
+            log.write(lines);
+        }
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Connection closed by the generator");
+            }
+        }
+    }
+
+    /**
+     * The log file of one stream, rotated daily
+     */
+    private static final class StreamLog {
+        private final Path path;
+        private FileChannel out;
+        private LocalDate day;
+        long sequence = 0;
+
+        StreamLog(Path path) {
+            this.path = path.toAbsolutePath();
+        }
+
+        void write(ByteBuffer lines) throws IOException {
+            if (out == null || !LocalDate.now().equals(day)) {
+                close();
+                Path logPath = LogRotationUtil.rotateAndCleanupLogs(path.getParent().toString(),
+                        path.getFileName().toString(), LOG_RETENTION_DAYS);
+                logger.info("Writing logs to: " + logPath);
+                out = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND);
+                day = LocalDate.now();
+            }
+            while (lines.hasRemaining()) {
+                out.write(lines);
+            }
+        }
+
+        void close() {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+                out = null;
+            }
+        }
+    }
+}
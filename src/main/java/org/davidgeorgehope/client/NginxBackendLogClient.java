@@ -8,7 +8,6 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
-import java.net.Socket;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -74,19 +73,31 @@ public class NginxBackendLogClient {
         try {
             logger.info("Connecting to " + hostName + ":" + port + " for " + (isError ? "error" : "access") + " logs");
             String logFile = isError ? ERROR_LOG : ACCESS_LOG;
+            if (RingFileReader.isEnabled()) {
+                // Same-host generator writing the port to a ring file
+                RingFileReader.copyToLog(port, LOG_DIR, logFile, LOG_RETENTION_DAYS);
+                return;
+            }
             
+            SpoolOffset offset = SpoolOffset.load(LOG_DIR, port);
             while (!Thread.currentThread().isInterrupted()) {
-                try (Socket socket = new Socket(hostName, port);
+                try (PortConnection socket = PortConnection.open(hostName, port);
                      BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
                     
                     // Rotate logs and get the current log file path
                     Path logPath = LogRotationUtil.rotateAndCleanupLogs(LOG_DIR, logFile, LOG_RETENTION_DAYS);
                     logger.info("Writing logs to: " + logPath);
+
+                    // Generators that spool the port replay what was sent while this client was disconnected
+                    offset.resume(socket);
                     
                     // Use try-with-resources for the file writer to ensure it's closed properly
                     try (PrintWriter writer = new PrintWriter(new FileWriter(logPath.toString(), true))) {
                         String line;
                         while ((line = reader.readLine()) != null) {
+                            if (offset.isAcknowledgement(line)) {
+                                continue; // The offset the generator serves this connection from
+                            }
                             // Format with timestamp for Nginx logs if it's an error log
                             String logEntry;
                             if (isError) {
@@ -99,6 +110,7 @@ public class NginxBackendLogClient {
                             // Write to file
                             writer.println(logEntry);
                             writer.flush();
+                            offset.advance(line);
                             
                             // Also output to console for debugging
                             if (isError) {
@@ -109,6 +121,7 @@ public class NginxBackendLogClient {
                         }
                     }
                 } catch (IOException e) {
+                    offset.save();
                     logger.error("Error reading from " + hostName + ":" + port + ", retrying in 5 seconds", e);
                     try {
                         Thread.sleep(5000);
@@ -0,0 +1,63 @@
+package org.davidgeorgehope.client;
+
+import org.davidgeorgehope.nginx.logs.LogSender;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * A client's connection to a log generator port: TCP to {@code host:port}, or the port's Unix domain socket when
+ * the {@code LOG_SOCKET_DIRECTORY} environment variable names the directory the generator was started with
+ * ({@code --socket-dir}), which skips the loopback TCP stack for clients on the same host.
+ */
+public class PortConnection implements Closeable {
+    private static final String SOCKET_DIR = System.getenv("LOG_SOCKET_DIRECTORY");
+
+    private final Closeable connection;
+    private final InputStream in;
+    private final OutputStream out;
+
+    private PortConnection(Closeable connection, InputStream in, OutputStream out) {
+        this.connection = connection;
+        this.in = in;
+        this.out = out;
+    }
+
+    public static PortConnection open(String host, int port) throws IOException {
+        if (SOCKET_DIR != null && !SOCKET_DIR.isEmpty()) {
+            Path path = LogSender.socketPath(Paths.get(SOCKET_DIR), port);
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                channel.connect(UnixDomainSocketAddress.of(path));
+            } catch (IOException e) {
+                channel.close();
+                throw new IOException("Could not connect to " + path, e);
+            }
+            return new PortConnection(channel, Channels.newInputStream(channel), Channels.newOutputStream(channel));
+        }
+        Socket socket = new Socket(host, port);
+        return new PortConnection(socket, socket.getInputStream(), socket.getOutputStream());
+    }
+
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public void close() throws IOException {
+        connection.close();
+    }
+}
@@ -0,0 +1,131 @@
+package org.davidgeorgehope.client;
+
+import org.davidgeorgehope.sink.RingFile;
+import org.davidgeorgehope.sink.RingFileSink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Copies a port's lines from the generator's {@link RingFile} into the log file, for clients on the same host as a
+ * generator started with {@code --ring-dir}. Enabled by setting the {@code LOG_RING_DIRECTORY} environment variable
+ * to the same directory; {@code LOG_RING_READER} picks the reader slot (0 by default) when several clients read
+ * the same ring.
+ *
+ * <p>The bytes go from the mapping to the log file as they are, without decoding them into lines, and the reader's
+ * place is kept in the ring, so a restarted client continues where it stopped. Unlike the TCP clients, the lines
+ * are not echoed to the console. While the ring is empty the reader spins, then yields, then parks for up to a
+ * millisecond.
+ */
+public class RingFileReader {
+    private static final Logger logger = LoggerFactory.getLogger(RingFileReader.class);
+    private static final String RING_DIR = System.getenv("LOG_RING_DIRECTORY");
+    private static final int READER_SLOT = Integer.parseInt(System.getenv().getOrDefault("LOG_RING_READER", "0"));
+    private static final int SPIN_POLLS = 100;
+    private static final int YIELD_POLLS = 200;
+    private static final long MAX_PARK_NANOS = 1_000_000;
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+    public static boolean isEnabled() {
+        return RING_DIR != null && !RING_DIR.isEmpty();
+    }
+
+    /**
+     * Copies the port's ring into the log file until the thread is interrupted, rotating the file daily
+     */
+    public static void copyToLog(int port, String logDir, String logFileName, int retentionDays) {
+        Path ringPath = RingFileSink.ringPath(Paths.get(RING_DIR), port);
+        logger.info("Reading port " + port + " from ring file " + ringPath + " as reader " + READER_SLOT);
+        while (!Thread.currentThread().isInterrupted()) {
+            RingFile ring = awaitRing(ringPath);
+            if (ring == null) {
+                return;
+            }
+            RingFile.Reader reader = ring.reader(READER_SLOT);
+            logger.info("Resuming ring file " + ringPath + " from offset " + reader.getPosition());
+            try {
+                copy(ring, reader, logDir, logFileName, retentionDays);
+            } catch (IOException e) {
+                logger.error("Error writing ring file " + ringPath + " to " + logFileName + ", retrying in 5 seconds",
+                        e);
+                LockSupport.parkNanos(5_000_000_000L);
+            } finally {
+                if (reader.getLostBytes() > 0) {
+                    logger.warn("Ring file " + ringPath + " overwrote " + reader.getLostBytes() +
+                            " bytes before they were read");
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies until the ring is replaced or the thread is interrupted
+     */
+    private static void copy(RingFile ring, RingFile.Reader reader, String logDir, String logFileName,
+                             int retentionDays) throws IOException {
+        while (!Thread.currentThread().isInterrupted()) {
+            Path logPath = LogRotationUtil.rotateAndCleanupLogs(logDir, logFileName, retentionDays);
+            logger.info("Writing logs to: " + logPath);
+            LocalDate day = LocalDate.now();
+            try (FileChannel out = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                int idlePolls = 0;
+                long nextCheck = System.currentTimeMillis() + CHECK_INTERVAL_MILLIS;
+                while (!Thread.currentThread().isInterrupted()) {
+                    if (reader.read(out) > 0) {
+                        idlePolls = 0;
+                    } else if (++idlePolls < SPIN_POLLS) {
+                        Thread.onSpinWait();
+                    } else if (idlePolls < YIELD_POLLS) {
+                        Thread.yield();
+                    } else {
+                        LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, 1000L * (idlePolls - YIELD_POLLS + 1)));
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if (now >= nextCheck) {
+                        nextCheck = now + CHECK_INTERVAL_MILLIS;
+                        if (idlePolls > 0 && ring.isReplaced()) {
+                            logger.info("Ring file was replaced by the generator, reopening");
+                            return;
+                        }
+                        if (!LocalDate.now().equals(day)) {
+                            break; // Rotate
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the generator to create the ring
+     * @return The ring, null when interrupted
+     */
+    private static RingFile awaitRing(Path ringPath) {
+        boolean logged = false;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (Files.exists(ringPath)) {
+                    return RingFile.open(ringPath);
+                }
+            } catch (IOException e) {
+                // Not initialized yet
+            }
+            if (!logged) {
+                logger.info("Waiting for ring file " + ringPath);
+                logged = true;
+            }
+            LockSupport.parkNanos(1_000_000_000L);
+        }
+        return null;
+    }
+}
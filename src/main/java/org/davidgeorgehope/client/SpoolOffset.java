@@ -0,0 +1,119 @@
+package org.davidgeorgehope.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * How many bytes of a log generator port a client has written to its log file. The offset is sent as
+ * {@code RESUME <offset>} when the client connects, so a generator that spools the port replays what the client
+ * missed while it was disconnected. A client without an offset sends {@code LIVE} instead and only gets new lines.
+ * A spooling generator answers either with an {@code OFFSET <offset>} line, the offset of the first byte it serves,
+ * and only offsets counted from that acknowledgement are kept. They are kept in a hidden file in the log directory
+ * and saved at most once a second, so a restarted client resumes where it stopped, repeating at most the last
+ * second of lines.
+ */
+public class SpoolOffset {
+    private static final Logger logger = LoggerFactory.getLogger(SpoolOffset.class);
+    private static final long SAVE_INTERVAL_MILLIS = 1000;
+    private static final String ACKNOWLEDGEMENT = "OFFSET ";
+
+    private final Path file;
+    private long offset; // -1 until the generator acknowledged one
+    private boolean acknowledged = false;
+    private boolean awaitingAcknowledgement = false;
+    private long lastSaveMillis = System.currentTimeMillis();
+
+    private SpoolOffset(Path file, long offset) {
+        this.file = file;
+        this.offset = offset;
+    }
+
+    /**
+     * The saved offset of the port, none when the client never had one acknowledged
+     */
+    public static SpoolOffset load(String logDir, int port) {
+        Path file = Paths.get(logDir, ".port-" + port + ".offset");
+        long offset = -1;
+        try {
+            if (Files.exists(file)) {
+                offset = Long.parseLong(Files.readString(file).trim());
+                logger.info("Resuming port " + port + " from offset " + offset);
+            } else {
+                logger.info("No saved offset for port " + port + ", receiving new lines only");
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Could not read " + file + ", receiving new lines only: " + e.getMessage());
+            offset = -1;
+        }
+        return new SpoolOffset(file, offset);
+    }
+
+    /**
+     * Asks the generator for the lines from the offset on, or for new lines only without one
+     */
+    public void resume(PortConnection socket) throws IOException {
+        String request = offset >= 0 ? "RESUME " + offset : "LIVE";
+        OutputStream out = socket.getOutputStream();
+        out.write((request + "\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        acknowledged = false;
+        awaitingAcknowledgement = true;
+    }
+
+    /**
+     * Whether the first line of the connection is the generator's {@code OFFSET} answer rather than a log line,
+     * taking the offset from it
+     */
+    public boolean isAcknowledgement(String line) {
+        if (!awaitingAcknowledgement) {
+            return false;
+        }
+        awaitingAcknowledgement = false;
+        if (!line.startsWith(ACKNOWLEDGEMENT)) {
+            return false; // The generator doesn't spool the port
+        }
+        try {
+            offset = Long.parseLong(line.substring(ACKNOWLEDGEMENT.length()).trim());
+            acknowledged = true;
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Counts a line written to the log file
+     */
+    public void advance(String line) {
+        if (!acknowledged) {
+            return;
+        }
+        offset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+        long now = System.currentTimeMillis();
+        if (now - lastSaveMillis >= SAVE_INTERVAL_MILLIS) {
+            lastSaveMillis = now;
+            save();
+        }
+    }
+
+    public void save() {
+        if (!acknowledged) {
+            return;
+        }
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.writeString(temporary, Long.toString(offset));
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Could not save " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package org.davidgeorgehope.encoding;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Writes log fields into a byte buffer as ASCII without creating intermediate Strings. Numbers are formatted
+ * by hand, fixed-point values are rounded half-up like {@code String.format("%.3f")} does.
+ */
+public class AsciiEncoder {
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L
+    };
+    private static final byte[] HEX_DIGITS = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+
+    // Non-zero for the Latin-1 characters nginx escapes in log variables
+    private static final byte[] ESCAPED = new byte[0x100];
+
+    static {
+        for (int c = 0; c < 0x100; c++) {
+            ESCAPED[c] = (byte) (c < 0x20 || c >= 0x7F || c == '"' || c == '\\' ? 1 : 0);
+        }
+    }
+
+    /**
+     * Writes the characters of the String, anything outside of ASCII is written as '?'
+     */
+    public static void put(ByteBuffer buffer, String value) {
+        int length = value.length();
+        if (buffer.hasArray() && buffer.remaining() >= length) {
+            // Write straight into the backing array, ByteBuffer.put(byte) checks bounds on every byte
+            byte[] array = buffer.array();
+            int offset = buffer.arrayOffset() + buffer.position();
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                array[offset + i] = c < 0x80 ? (byte) c : (byte) '?';
+            }
+            buffer.position(buffer.position() + length);
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            buffer.put(c < 0x80 ? (byte) c : (byte) '?');
+        }
+    }
+
+    /**
+     * Writes the String into the array the way nginx escapes log variables by default: '"', '\\' and control or
+     * non-ASCII characters become \xXX. Returns the offset after the value.
+     * @throws BufferOverflowException If the value does not fit before {@code limit}
+     */
+    public static int putEscaped(byte[] array, int offset, int limit, String value) {
+        int length = value.length();
+        if (limit - offset >= length) {
+            // Copy optimistically, checking every character without branching, usually nothing needs escaping
+            int escape = 0;
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                array[offset + i] = (byte) c;
+                escape |= ESCAPED[c & 0xFF] | (c >>> 8);
+            }
+            if (escape == 0) {
+                return offset + length;
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c < 0x7F && c != '"' && c != '\\') {
+                if (offset >= limit) {
+                    throw new BufferOverflowException();
+                }
+                array[offset++] = (byte) c;
+            } else {
+                if (limit - offset < 4) {
+                    throw new BufferOverflowException();
+                }
+                int b = c < 0x100 ? c : '?';
+                array[offset++] = '\\';
+                array[offset++] = 'x';
+                array[offset++] = HEX_DIGITS[b >>> 4];
+                array[offset++] = HEX_DIGITS[b & 0xF];
+            }
+        }
+        return offset;
+    }
+
+    public static void put(ByteBuffer buffer, char value) {
+        buffer.put(value < 0x80 ? (byte) value : (byte) '?');
+    }
+
+    public static void putLong(ByteBuffer buffer, long value) {
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                put(buffer, Long.toString(value));
+                return;
+            }
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        putDigits(buffer, value, digitCount(value));
+    }
+
+    /**
+     * Writes a non-negative value into the array, returns the offset after it
+     * @throws BufferOverflowException If the digits do not fit before {@code limit}
+     */
+    public static int putLong(byte[] array, int offset, int limit, long value) {
+        int digits = digitCount(value);
+        int end = offset + digits;
+        if (end > limit) {
+            throw new BufferOverflowException();
+        }
+        for (int i = end - 1; i >= offset; i--) {
+            array[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * Writes the value left-padded with zeros to at least the given width, e.g. 7 as "07"
+     */
+    public static void putPadded(ByteBuffer buffer, long value, int width) {
+        if (value < 0) {
+            putLong(buffer, value);
+            return;
+        }
+        int digits = digitCount(value);
+        for (int i = digits; i < width; i++) {
+            buffer.put((byte) '0');
+        }
+        putDigits(buffer, value, digits);
+    }
+
+    /**
+     * Writes the value with exactly the given number of decimals (at most 9), the equivalent of "%.Nf"
+     */
+    public static void putFixed(ByteBuffer buffer, double value, int decimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= 1e9) {
+            put(buffer, String.format("%." + decimals + "f", value));
+            return;
+        }
+        long scale = POWERS_OF_TEN[decimals];
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) {
+            buffer.put((byte) '-');
+        }
+        putLong(buffer, scaled / scale);
+        if (decimals > 0) {
+            buffer.put((byte) '.');
+            putPadded(buffer, scaled % scale, decimals);
+        }
+    }
+
+    /**
+     * Writes the value rounded to at most the given number of decimals, dropping trailing zeros but keeping at
+     * least one decimal, which matches {@link Double#toString} for values that were already rounded
+     */
+    public static void putDecimal(ByteBuffer buffer, double value, int maxDecimals) {
+        if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= 1e7) {
+            put(buffer, Double.toString(value));
+            return;
+        }
+        long scale = POWERS_OF_TEN[maxDecimals];
+        long scaled = Math.round(Math.abs(value) * scale);
+        int decimals = maxDecimals;
+        long fraction = scaled % scale;
+        while (decimals > 1 && fraction % 10 == 0) {
+            fraction /= 10;
+            decimals--;
+        }
+        if (value < 0 && scaled != 0) {
+            buffer.put((byte) '-');
+        }
+        putLong(buffer, scaled / scale);
+        buffer.put((byte) '.');
+        putPadded(buffer, fraction, decimals);
+    }
+
+    /**
+     * Writes the UUID in its canonical 8-4-4-4-12 lowercase hex form
+     */
+    public static void putUuid(ByteBuffer buffer, UUID uuid) {
+        putUuid(buffer, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    public static void putUuid(ByteBuffer buffer, long mostSigBits, long leastSigBits) {
+        putHex(buffer, mostSigBits >>> 32, 8);
+        buffer.put((byte) '-');
+        putHex(buffer, mostSigBits >>> 16, 4);
+        buffer.put((byte) '-');
+        putHex(buffer, mostSigBits, 4);
+        buffer.put((byte) '-');
+        putHex(buffer, leastSigBits >>> 48, 4);
+        buffer.put((byte) '-');
+        putHex(buffer, leastSigBits, 12);
+    }
+
+    /**
+     * Writes the lowest {@code digits} hex digits of the value
+     */
+    public static void putHex(ByteBuffer buffer, long value, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            buffer.put(HEX_DIGITS[(int) (value >>> shift) & 0xF]);
+        }
+    }
+
+    private static void putDigits(ByteBuffer buffer, long value, int digits) {
+        int end = buffer.position() + digits;
+        if (end > buffer.limit()) {
+            throw new BufferOverflowException();
+        }
+        for (int i = end - 1; i >= end - digits; i--) {
+            buffer.put(i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        buffer.position(end);
+    }
+
+    private static int digitCount(long value) {
+        int digits = 1;
+        while (value >= 10) {
+            value /= 10;
+            digits++;
+        }
+        return digits;
+    }
+}
@@ -0,0 +1,201 @@
+package org.davidgeorgehope.encoding;
+
+import org.davidgeorgehope.LogEntry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A reusable batch of encoded log lines: the bytes of every line back to back, plus where each line ends and
+ * the timestamp of the entry it came from. Entries are encoded straight into the backing array with
+ * {@link LogEntry#encode(ByteBuffer)}, which grows when an entry does not fit.
+ *
+ * <p>Buffers are pooled: take one with {@link #acquire()} for a batch and hand it back with {@link #release()}
+ * once it has been written, so a steady stream does not allocate per batch. Buffers that grew beyond
+ * {@code MAX_POOLED_CAPACITY} for a large batch are left to the garbage collector instead of being pooled.
+ */
+public final class LineBuffer {
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final int INITIAL_LINES = 256;
+    private static final int MAX_POOLED = 64;
+    private static final int MAX_POOLED_CAPACITY = 4 * INITIAL_CAPACITY;
+
+    private static final ConcurrentLinkedQueue<LineBuffer> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+    // Totals over all released buffers, for the average line length
+    private static final LongAdder releasedBytes = new LongAdder();
+    private static final LongAdder releasedLines = new LongAdder();
+
+    private ByteBuffer buffer;
+    private int[] lineEnds;
+    private long[] timestamps;
+    private int lineCount = 0;
+
+    public LineBuffer() {
+        this(INITIAL_CAPACITY, INITIAL_LINES);
+    }
+
+    /**
+     * An unpooled buffer that starts small, for holders that keep one per slot and let it grow to their batches
+     */
+    public LineBuffer(int initialCapacity, int initialLines) {
+        buffer = ByteBuffer.allocate(initialCapacity);
+        lineEnds = new int[Math.max(1, initialLines)];
+        timestamps = new long[Math.max(1, initialLines)];
+    }
+
+    public static LineBuffer acquire() {
+        LineBuffer lines = pool.poll();
+        if (lines == null) {
+            return new LineBuffer();
+        }
+        pooled.decrementAndGet();
+        return lines;
+    }
+
+    /**
+     * Clears the buffer and returns it to the pool, it must not be used afterwards
+     */
+    public void release() {
+        if (lineCount > 0) {
+            releasedBytes.add(buffer.position());
+            releasedLines.add(lineCount);
+        }
+        clear();
+        if (buffer.capacity() > MAX_POOLED_CAPACITY) {
+            // The pool would keep it at its peak size
+            return;
+        }
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            pool.offer(this);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    /**
+     * The average length of the lines written through released buffers so far, or the fallback before any
+     */
+    public static double averageLineBytes(double fallback) {
+        long lines = releasedLines.sum();
+        return lines == 0 ? fallback : (double) releasedBytes.sum() / lines;
+    }
+
+    /**
+     * Encodes the entry as the next line
+     */
+    public void append(LogEntry entry) {
+        int start = buffer.position();
+        while (true) {
+            try {
+                entry.encode(buffer);
+                break;
+            } catch (BufferOverflowException e) {
+                buffer.position(start);
+                grow(buffer.capacity());
+            }
+        }
+        addLine(entry.getTimestampMillis());
+    }
+
+    /**
+     * Copies one line of another buffer as the next line
+     */
+    public void appendLine(LineBuffer source, int line) {
+        int start = source.lineStart(line);
+        int length = source.lineEnds[line] - start;
+        if (buffer.remaining() < length) {
+            grow(length);
+        }
+        buffer.put(source.buffer.array(), start, length);
+        addLine(source.timestamps[line]);
+    }
+
+    /**
+     * Copies all lines of another buffer after the lines of this one
+     */
+    public void appendAll(LineBuffer source) {
+        int length = source.length();
+        if (buffer.remaining() < length) {
+            grow(length);
+        }
+        int offset = buffer.position();
+        buffer.put(source.buffer.array(), 0, length);
+        int count = source.lineCount;
+        if (lineCount + count > lineEnds.length) {
+            int lines = Math.max(lineEnds.length * 2, lineCount + count);
+            lineEnds = Arrays.copyOf(lineEnds, lines);
+            timestamps = Arrays.copyOf(timestamps, lines);
+        }
+        for (int i = 0; i < count; i++) {
+            lineEnds[lineCount + i] = offset + source.lineEnds[i];
+        }
+        System.arraycopy(source.timestamps, 0, timestamps, lineCount, count);
+        lineCount += count;
+    }
+
+    public int lineCount() {
+        return lineCount;
+    }
+
+    public long timestampMillis(int line) {
+        return timestamps[line];
+    }
+
+    public int lineStart(int line) {
+        return line == 0 ? 0 : lineEnds[line - 1];
+    }
+
+    public int lineEnd(int line) {
+        return lineEnds[line];
+    }
+
+    /**
+     * The backing array, holding the encoded lines from offset 0 to {@link #length()}
+     */
+    public byte[] array() {
+        return buffer.array();
+    }
+
+    public int length() {
+        return buffer.position();
+    }
+
+    /**
+     * Size of the backing array, which only grows
+     */
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer.array(), 0, buffer.position());
+    }
+
+    public void clear() {
+        buffer.clear();
+        lineCount = 0;
+    }
+
+    private void addLine(long timestampMillis) {
+        if (lineCount == lineEnds.length) {
+            lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+            timestamps = Arrays.copyOf(timestamps, lineCount * 2);
+        }
+        lineEnds[lineCount] = buffer.position();
+        timestamps[lineCount] = timestampMillis;
+        lineCount++;
+    }
+
+    private void grow(int minimumExtra) {
+        ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() + Math.max(minimumExtra, buffer.capacity()));
+        grown.put(buffer.array(), 0, buffer.position());
+        buffer = grown;
+    }
+}
@@ -1,36 +1,37 @@
 package org.davidgeorgehope.mysql;
 
 import org.davidgeorgehope.AnomalyConfig;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.concurrent.ThreadLocalRandom;
+import org.davidgeorgehope.LogEntry;
+import org.davidgeorgehope.encoding.AsciiEncoder;
+import org.davidgeorgehope.time.LogClock;
+import org.davidgeorgehope.time.TimestampFormat;
+import org.davidgeorgehope.random.LogRandom;
+import java.nio.ByteBuffer;
+import java.time.ZoneId;
+import java.util.random.RandomGenerator;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.List;
 import java.util.ArrayList;
 
-public class MySQLErrorLogEntry {
-    private static final DateTimeFormatter ERROR_LOG_TIMESTAMP_FORMATTER =
-            DateTimeFormatter.ofPattern("yyMMdd HH:mm:ss");
-
-    private String timestamp;
+public class MySQLErrorLogEntry extends LogEntry {
     private String message;
     private boolean isLowStorageWarning;
 
     // Reference to warningStartTime
     private static AtomicLong warningStartTime = MySQLErrorLogGenerator.warningStartTime;
 
-    public MySQLErrorLogEntry(String timestamp, String message, boolean isLowStorageWarning) {
-        this.timestamp = timestamp;
+    public MySQLErrorLogEntry(long timestampMicros, ZoneId zone, String message, boolean isLowStorageWarning) {
+        super(timestampMicros, zone);
         this.message = message;
         this.isLowStorageWarning = isLowStorageWarning;
     }
 
-    public MySQLErrorLogEntry(String timestamp, String message) {
-        this(timestamp, message, false);
+    public MySQLErrorLogEntry(long timestampMicros, ZoneId zone, String message) {
+        this(timestampMicros, zone, message, false);
     }
 
     public static List<MySQLErrorLogEntry> createRandomEntries(boolean anomaliesDisabled) {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RandomGenerator random = LogRandom.current();
         List<MySQLErrorLogEntry> entries = new ArrayList<>();
 
         if (AnomalyConfig.isInduceDatabaseOutage()) {
@@ -55,7 +56,7 @@ public class MySQLErrorLogEntry {
     }
 
     private static double calculateWarningProbability(boolean anomaliesDisabled) {
-        long elapsedTimeInSeconds = (System.currentTimeMillis() - warningStartTime.get()) / 1000;
+        long elapsedTimeInSeconds = (LogClock.currentTimeMillis() - warningStartTime.get()) / 1000;
 
         // No warnings in the first 2 hours (7200 seconds)
         if (anomaliesDisabled || elapsedTimeInSeconds < 7200) {
@@ -70,20 +71,20 @@ public class MySQLErrorLogEntry {
     }
 
     private static MySQLErrorLogEntry createLowStorageWarningEntry() {
-        String timestamp = ZonedDateTime.now().format(ERROR_LOG_TIMESTAMP_FORMATTER);
+        long timestampMicros = LogClock.currentTimeMicros();
         String[] tables = {"users", "orders", "products", "transactions"};
-        String table = tables[ThreadLocalRandom.current().nextInt(tables.length)];
+        String table = tables[LogRandom.current().nextInt(tables.length)];
         String[] messages = {
             "[Warning] Disk space for table '" + table + "' is running low",
             "[Warning] Table '" + table + "' is approaching maximum row count",
             "[Warning] Partition for table '" + table + "' is nearly full"
         };
-        String message = messages[ThreadLocalRandom.current().nextInt(messages.length)];
-        return new MySQLErrorLogEntry(timestamp, message, true);
+        String message = messages[LogRandom.current().nextInt(messages.length)];
+        return new MySQLErrorLogEntry(timestampMicros, LogClock.zone(), message, true);
     }
 
     private static MySQLErrorLogEntry createGeneralLogEntry() {
-        String timestamp = ZonedDateTime.now().format(ERROR_LOG_TIMESTAMP_FORMATTER);
+        long timestampMicros = LogClock.currentTimeMicros();
         String[] messages = {
             "[Note] Plugin 'FEDERATED' is disabled.",
             "[Note] InnoDB: The InnoDB memory heap is disabled",
@@ -94,12 +95,12 @@ public class MySQLErrorLogEntry {
             "[Note] Event Scheduler: Loaded 0 events",
             "[Note] /usr/sbin/mysqld: ready for connections."
         };
-        String message = messages[ThreadLocalRandom.current().nextInt(messages.length)];
-        return new MySQLErrorLogEntry(timestamp, message);
+        String message = messages[LogRandom.current().nextInt(messages.length)];
+        return new MySQLErrorLogEntry(timestampMicros, LogClock.zone(), message);
     }
 
     public static MySQLErrorLogEntry createOutageEntry() {
-        String timestamp = ZonedDateTime.now().format(ERROR_LOG_TIMESTAMP_FORMATTER);
+        long timestampMicros = LogClock.currentTimeMicros();
         String errorLevel = "ERROR";
         int errorCode = 1114; // Error code for ER_RECORD_FILE_FULL
         String sqlState = "HY000";
@@ -107,7 +108,7 @@ public class MySQLErrorLogEntry {
 
         // Include log level in square brackets
         String fullMessage = "[" + errorLevel + "] " + errorCode + " (" + sqlState + "): " + errorMessage;
-        return new MySQLErrorLogEntry(timestamp, fullMessage);
+        return new MySQLErrorLogEntry(timestampMicros, LogClock.zone(), fullMessage);
     }
 
     public boolean isLowStorageWarning() {
@@ -115,7 +116,10 @@ public class MySQLErrorLogEntry {
     }
 
     @Override
-    public String toString() {
-        return timestamp + " " + message + System.lineSeparator();
+    public void encode(ByteBuffer buffer) {
+        TimestampFormat.MYSQL_ERROR.encode(buffer, getTimestampMicros(), getZone());
+        AsciiEncoder.put(buffer, ' ');
+        AsciiEncoder.put(buffer, message);
+        AsciiEncoder.put(buffer, '\n');
     }
 }
@@ -2,25 +2,30 @@ package org.davidgeorgehope.mysql;
 
 import org.davidgeorgehope.AnomalyConfig;
 import org.davidgeorgehope.DataGenerator;
-import org.davidgeorgehope.nginx.logs.LogSender;
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.davidgeorgehope.random.LogRandom;
+import org.davidgeorgehope.sink.LogSink;
+import org.davidgeorgehope.time.LogClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.SplittableRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class MySQLErrorLogGenerator {
     private static final Logger logger = LoggerFactory.getLogger(MySQLErrorLogGenerator.class);
-    public static final AtomicLong warningStartTime = new AtomicLong(System.currentTimeMillis());
+    public static final AtomicLong warningStartTime = new AtomicLong(LogClock.currentTimeMillis());
 
     private static int lowStorageWarningCount = 0;
-    private static int warningThreshold = ThreadLocalRandom.current().nextInt(8, 15); // Random threshold between 8 and 14
+    // Outage timing has its own generator so it never consumes draws from the stream that happens to trigger it
+    private static final SplittableRandom outageRandom = LogRandom.newGenerator("mysql-outage", 0);
+
+    private static int warningThreshold = nextOutageInt(8, 15); // Random threshold between 8 and 14
 
     public static void generateErrorLogs(int logsToGenerate, String filePath, ScheduledExecutorService executor, boolean anomaliesDisabled) {
         generateErrorLogs(logsToGenerate, filePath, executor, anomaliesDisabled, -1);
@@ -47,31 +52,25 @@ public class MySQLErrorLogGenerator {
             }
         }
 
-        // If port is specified, send logs to port only, otherwise write to file
-        boolean usePortLogging = port > 0;
-
-        try (FileWriter writer = usePortLogging ? null : new FileWriter(filePath, true)) {
+        LineBuffer lines = LineBuffer.acquire();
+        try {
             for (MySQLErrorLogEntry entry : entries) {
-                String logEntry = entry.toString();
-                
-                // Send to TCP port if configured, otherwise write to file
-                if (usePortLogging) {
-                    LogSender.sendLog(port, logEntry);
-                } else {
-                    writer.write(logEntry);
-                }
+                lines.append(entry);
             }
+
+            // Send to TCP port if configured, otherwise write to file
+            LogSink.forTarget(filePath, port).write(lines);
         } catch (IOException e) {
-            if (!usePortLogging) {
-                logger.error("Error writing to MySQL error log file: " + filePath, e);
-            }
+            logger.error("Error writing to MySQL error log file: " + filePath, e);
+        } finally {
+            lines.release();
         }
     }
 
     private static void scheduleDatabaseOutageReset(ScheduledExecutorService executor) {
         int minOutageDuration = 180; // Minimum outage duration (3 minutes)
         int maxOutageDuration = 600; // Maximum outage duration (10 minutes)
-        int outageDuration = ThreadLocalRandom.current().nextInt(minOutageDuration, maxOutageDuration + 1);
+        int outageDuration = nextOutageInt(minOutageDuration, maxOutageDuration + 1);
 
         executor.schedule(() -> {
             AnomalyConfig.setInduceDatabaseOutage(false);
@@ -81,13 +80,19 @@ public class MySQLErrorLogGenerator {
             resetLowStorageWarningCount();
 
             // Reset the warning start time
-            warningStartTime.set(System.currentTimeMillis());
+            warningStartTime.set(LogClock.currentTimeMillis());
 
         }, outageDuration, TimeUnit.SECONDS);
     }
 
     public static void resetLowStorageWarningCount() {
         lowStorageWarningCount = 0;
-        warningThreshold = ThreadLocalRandom.current().nextInt(8, 15); // Reset with a new random threshold
+        warningThreshold = nextOutageInt(8, 15); // Reset with a new random threshold
+    }
+
+    private static int nextOutageInt(int origin, int bound) {
+        synchronized (outageRandom) {
+            return outageRandom.nextInt(origin, bound);
+        }
     }
 }
@@ -1,35 +1,37 @@
 package org.davidgeorgehope.mysql;
 
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.concurrent.ThreadLocalRandom;
+import java.nio.ByteBuffer;
+import java.time.ZoneId;
+import java.util.random.RandomGenerator;
 
+import org.davidgeorgehope.LogEntry;
 import org.davidgeorgehope.LogGeneratorUtils;
+import org.davidgeorgehope.encoding.AsciiEncoder;
+import org.davidgeorgehope.random.LogRandom;
+import org.davidgeorgehope.time.LogClock;
+import org.davidgeorgehope.time.TimestampFormat;
 
-public class MySQLGeneralLogEntry {
-    private static final DateTimeFormatter GENERAL_LOG_TIMESTAMP_FORMATTER =
-            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSS");
-
-    private final String timestamp;
+public class MySQLGeneralLogEntry extends LogEntry {
     private final String threadId;
     private final String commandType;
     private final String argument;
 
-    private MySQLGeneralLogEntry(String timestamp, String threadId, String commandType, String argument) {
-        this.timestamp = timestamp;
+    private MySQLGeneralLogEntry(long timestampMicros, ZoneId zone, String threadId, String commandType,
+                                 String argument) {
+        super(timestampMicros, zone);
         this.threadId = threadId;
         this.commandType = commandType;
         this.argument = argument;
     }
 
     public static MySQLGeneralLogEntry createRandomEntry() {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
-        String timestamp = ZonedDateTime.now().format(GENERAL_LOG_TIMESTAMP_FORMATTER);
+        RandomGenerator random = LogRandom.current();
+        long timestampMicros = LogClock.currentTimeMicros();
         String threadId = String.valueOf(random.nextInt(1000, 5000));
         String commandType = getRandomCommandType();
         String argument = getArgumentForCommandType(commandType);
 
-        return new MySQLGeneralLogEntry(timestamp, threadId, commandType, argument);
+        return new MySQLGeneralLogEntry(timestampMicros, LogClock.zone(), threadId, commandType, argument);
     }
 
     private static String getRandomCommandType() {
@@ -38,7 +40,7 @@ public class MySQLGeneralLogEntry {
     }
 
     private static String getArgumentForCommandType(String commandType) {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RandomGenerator random = LogRandom.current();
         switch (commandType) {
             case "Connect":
                 String user = LogGeneratorUtils.getRandomElement(new String[]{"root", "db_user", "app_user"});
@@ -54,7 +56,14 @@ public class MySQLGeneralLogEntry {
     }
 
     @Override
-    public String toString() {
-        return String.format("%s\t%s\t%s\t%s%n", timestamp, threadId, commandType, argument);
+    public void encode(ByteBuffer buffer) {
+        TimestampFormat.MYSQL_GENERAL.encode(buffer, getTimestampMicros(), getZone());
+        AsciiEncoder.put(buffer, '\t');
+        AsciiEncoder.put(buffer, threadId);
+        AsciiEncoder.put(buffer, '\t');
+        AsciiEncoder.put(buffer, commandType);
+        AsciiEncoder.put(buffer, '\t');
+        AsciiEncoder.put(buffer, argument);
+        AsciiEncoder.put(buffer, '\n');
     }
 }
@@ -1,10 +1,10 @@
 package org.davidgeorgehope.mysql;
 
-import org.davidgeorgehope.nginx.logs.LogSender;
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.davidgeorgehope.sink.LogSink;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileWriter;
 import java.io.IOException;
 
 public class MySQLGeneralLogGenerator {
@@ -15,24 +15,18 @@ public class MySQLGeneralLogGenerator {
     }
 
     public static void generateGeneralLogs(int logsCount, String filePath, int port) {
-        // If port is specified, send logs to port only, otherwise write to file
-        boolean usePortLogging = port > 0;
-        
-        try (FileWriter writer = usePortLogging ? null : new FileWriter(filePath, true)) {
+        LineBuffer lines = LineBuffer.acquire();
+        try {
             for (int i = 0; i < logsCount; i++) {
-                String logEntry = MySQLGeneralLogEntry.createRandomEntry().toString();
-                
-                // Send to TCP port if configured, otherwise write to file
-                if (usePortLogging) {
-                    LogSender.sendLog(port, logEntry);
-                } else {
-                    writer.write(logEntry);
-                }
+                lines.append(MySQLGeneralLogEntry.createRandomEntry());
             }
+
+            // Send to TCP port if configured, otherwise write to file
+            LogSink.forTarget(filePath, port).write(lines);
         } catch (IOException e) {
-            if (!usePortLogging) {
-                logger.error("Error writing to MySQL general log file: " + filePath, e);
-            }
+            logger.error("Error writing to MySQL general log file: " + filePath, e);
+        } finally {
+            lines.release();
         }
     }
 }
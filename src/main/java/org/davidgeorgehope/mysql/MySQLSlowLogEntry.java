@@ -1,16 +1,17 @@
 package org.davidgeorgehope.mysql;
 
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.concurrent.ThreadLocalRandom;
+import java.nio.ByteBuffer;
+import java.time.ZoneId;
+import java.util.random.RandomGenerator;
 
+import org.davidgeorgehope.LogEntry;
 import org.davidgeorgehope.LogGeneratorUtils;
+import org.davidgeorgehope.encoding.AsciiEncoder;
+import org.davidgeorgehope.random.LogRandom;
+import org.davidgeorgehope.time.LogClock;
+import org.davidgeorgehope.time.TimestampFormat;
 
-public class MySQLSlowLogEntry {
-    private static final DateTimeFormatter SLOW_LOG_TIMESTAMP_FORMATTER =
-            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-
-    private String timestamp;
+public class MySQLSlowLogEntry extends LogEntry {
     private String user;
     private String host;
     private String ip;
@@ -21,14 +22,13 @@ public class MySQLSlowLogEntry {
     private double lockTime;
     private long rowsSent;
     private long rowsExamined;
-    private long timestampUnix;
     private String query;
 
-    public MySQLSlowLogEntry(String timestamp, String user, String host, String ip,
+    public MySQLSlowLogEntry(long timestampMicros, ZoneId zone, String user, String host, String ip,
                              long threadId, String schema, String qcHit,
                              double queryTime, double lockTime, long rowsSent,
-                             long rowsExamined, long timestampUnix, String query) {
-        this.timestamp = timestamp;
+                             long rowsExamined, String query) {
+        super(timestampMicros, zone);
         this.user = user;
         this.host = host;
         this.ip = ip;
@@ -39,14 +39,13 @@ public class MySQLSlowLogEntry {
         this.lockTime = lockTime;
         this.rowsSent = rowsSent;
         this.rowsExamined = rowsExamined;
-        this.timestampUnix = timestampUnix;
         this.query = query;
     }
 
     public static MySQLSlowLogEntry createRandomEntry() {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RandomGenerator random = LogRandom.current();
 
-        String timestamp = ZonedDateTime.now().format(SLOW_LOG_TIMESTAMP_FORMATTER);
+        long timestampMicros = LogClock.currentTimeMicros();
         String user = LogGeneratorUtils.getRandomElement(new String[]{"app_user", "db_user", "readonly_user"});
         String host = "localhost";
         String ip = LogGeneratorUtils.generateRandomIP(false);
@@ -57,36 +56,57 @@ public class MySQLSlowLogEntry {
         double lockTime = LogGeneratorUtils.round(random.nextDouble(0.0, 0.5), 2);
         long rowsSent = random.nextInt(100, 1000);
         long rowsExamined = random.nextInt(1000, 10000);
-        long timestampUnix = System.currentTimeMillis() / 1000L;
         String query = generateRandomQuery();
 
-        return new MySQLSlowLogEntry(timestamp, user, host, ip, threadId, schema, qcHit,
-                queryTime, lockTime, rowsSent, rowsExamined, timestampUnix, query);
+        return new MySQLSlowLogEntry(timestampMicros, LogClock.zone(), user, host, ip, threadId, schema, qcHit,
+                queryTime, lockTime, rowsSent, rowsExamined, query);
     }
 
     private static String generateRandomQuery() {
-        String[] queries = {
-            "SELECT * FROM orders WHERE customer_id = " + ThreadLocalRandom.current().nextInt(1000, 10000) + ";",
-            "UPDATE products SET stock = stock - 1 WHERE product_id = " + ThreadLocalRandom.current().nextInt(1000, 10000) + ";",
-            "INSERT INTO user_sessions (session_id, user_id) VALUES ('" + LogGeneratorUtils.generateRandomSessionId() + "', " + ThreadLocalRandom.current().nextInt(1000, 10000) + ");",
-            "DELETE FROM carts WHERE created_at < NOW() - INTERVAL 30 DAY;"
-        };
-        return LogGeneratorUtils.getRandomElement(queries);
+        // Pick the query first so only the chosen one is built
+        RandomGenerator random = LogRandom.current();
+        switch (random.nextInt(4)) {
+            case 0:
+                return "SELECT * FROM orders WHERE customer_id = " + random.nextInt(1000, 10000) + ";";
+            case 1:
+                return "UPDATE products SET stock = stock - 1 WHERE product_id = " + random.nextInt(1000, 10000) + ";";
+            case 2:
+                return "INSERT INTO user_sessions (session_id, user_id) VALUES ('" + LogGeneratorUtils.generateRandomSessionId() + "', " + random.nextInt(1000, 10000) + ");";
+            default:
+                return "DELETE FROM carts WHERE created_at < NOW() - INTERVAL 30 DAY;";
+        }
     }
 
     @Override
-    public String toString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("# Time: ").append(timestamp).append(System.lineSeparator());
-        sb.append("# User@Host: ").append(user).append("[").append(user).append("] @ ").append(host)
-            .append(" [").append(ip).append("]").append(System.lineSeparator());
-        sb.append("# Thread_id: ").append(threadId).append("  Schema: ").append(schema).append("  QC_hit: ").append(qcHit)
-            .append(System.lineSeparator());
-        sb.append("# Query_time: ").append(queryTime).append("  Lock_time: ").append(lockTime)
-            .append(" Rows_sent: ").append(rowsSent).append("  Rows_examined: ").append(rowsExamined)
-            .append(System.lineSeparator());
-        sb.append("SET timestamp=").append(timestampUnix).append(";").append(System.lineSeparator());
-        sb.append(query).append(System.lineSeparator());
-        return sb.toString();
+    public void encode(ByteBuffer buffer) {
+        AsciiEncoder.put(buffer, "# Time: ");
+        TimestampFormat.MYSQL_SLOW.encode(buffer, getTimestampMicros(), getZone());
+        AsciiEncoder.put(buffer, "\n# User@Host: ");
+        AsciiEncoder.put(buffer, user);
+        AsciiEncoder.put(buffer, '[');
+        AsciiEncoder.put(buffer, user);
+        AsciiEncoder.put(buffer, "] @ ");
+        AsciiEncoder.put(buffer, host);
+        AsciiEncoder.put(buffer, " [");
+        AsciiEncoder.put(buffer, ip);
+        AsciiEncoder.put(buffer, "]\n# Thread_id: ");
+        AsciiEncoder.putLong(buffer, threadId);
+        AsciiEncoder.put(buffer, "  Schema: ");
+        AsciiEncoder.put(buffer, schema);
+        AsciiEncoder.put(buffer, "  QC_hit: ");
+        AsciiEncoder.put(buffer, qcHit);
+        AsciiEncoder.put(buffer, "\n# Query_time: ");
+        AsciiEncoder.putDecimal(buffer, queryTime, 2);
+        AsciiEncoder.put(buffer, "  Lock_time: ");
+        AsciiEncoder.putDecimal(buffer, lockTime, 2);
+        AsciiEncoder.put(buffer, " Rows_sent: ");
+        AsciiEncoder.putLong(buffer, rowsSent);
+        AsciiEncoder.put(buffer, "  Rows_examined: ");
+        AsciiEncoder.putLong(buffer, rowsExamined);
+        AsciiEncoder.put(buffer, "\nSET timestamp=");
+        AsciiEncoder.putLong(buffer, Math.floorDiv(getTimestampMicros(), 1_000_000L));
+        AsciiEncoder.put(buffer, ";\n");
+        AsciiEncoder.put(buffer, query);
+        AsciiEncoder.put(buffer, '\n');
     }
 }
@@ -1,10 +1,10 @@
 package org.davidgeorgehope.mysql;
 
-import org.davidgeorgehope.nginx.logs.LogSender;
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.davidgeorgehope.sink.LogSink;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileWriter;
 import java.io.IOException;
 
 public class MySQLSlowLogGenerator {
@@ -15,27 +15,18 @@ public class MySQLSlowLogGenerator {
     }
 
     public static void generateSlowLogs(int logsCount, String filePath, int port) {
-        // If port is specified, send logs to port only, otherwise write to file
-        boolean usePortLogging = port > 0;
-        
-        try (FileWriter writer = usePortLogging ? null : new FileWriter(filePath, true)) {
+        LineBuffer lines = LineBuffer.acquire();
+        try {
             for (int i = 0; i < logsCount; i++) {
-                String logEntry = MySQLSlowLogEntry.createRandomEntry().toString();
-                
-                // Send to TCP port if configured, otherwise write to file
-                if (usePortLogging) {
-                    LogSender.sendLog(port, logEntry);
-                } else {
-                    writer.write(logEntry);
-                }
-                
-                // Introduce a slight delay if desired
-                // Thread.sleep(50);
+                lines.append(MySQLSlowLogEntry.createRandomEntry());
             }
+
+            // Send to TCP port if configured, otherwise write to file
+            LogSink.forTarget(filePath, port).write(lines);
         } catch (IOException e) {
-            if (!usePortLogging) {
-                logger.error("Error writing to MySQL slow log file: " + filePath, e);
-            }
+            logger.error("Error writing to MySQL slow log file: " + filePath, e);
+        } finally {
+            lines.release();
         }
     }
 }
@@ -1,53 +1,80 @@
 package org.davidgeorgehope.nginx.logs;
 
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.time.ZoneId;
 import java.util.UUID;
-import java.util.concurrent.ThreadLocalRandom;
-import java.util.stream.Collectors;
+import java.util.random.RandomGenerator;
 
 import org.davidgeorgehope.HttpMethod;
 import org.davidgeorgehope.LogEntry;
 import org.davidgeorgehope.LogGeneratorUtils;
+import org.davidgeorgehope.encoding.AsciiEncoder;
+import org.davidgeorgehope.random.LogRandom;
 import org.davidgeorgehope.UserSessionManager;
+import org.davidgeorgehope.time.LogClock;
+import org.davidgeorgehope.time.TimestampFormat;
 
-public class AccessLogEntry extends LogEntry {
-    private static final DateTimeFormatter ACCESS_LOG_TIMESTAMP_FORMATTER =
-            DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z");
+public class AccessLogEntry extends LogEntry implements AccessLogFields {
+    // Encoded as: ip - user [time] "request" status size "referrer" "agent" response_time "country" "header"...
+    private static final String PROTOCOL = "HTTP/1.1";
+    private static final String[] FIXED_HEADERS = {
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8",
+            "Accept-Encoding: gzip, deflate, br",
+            "Accept-Language: en-US,en;q=0.5"
+    };
 
-    private static final String ACCESS_LOG_TEMPLATE = "%s - %s [%s] \"%s\" %d %d \"%s\" \"%s\" %.3f \"%s\" %s%n";
+    // Replaces the built-in layout when set, see --access-log-format
+    private static volatile NginxLogFormat logFormat;
 
     private final String ip;
     private final String username;
-    private final String timestamp;
-    private final String request;
+    private final HttpMethod method;
+    private final String url;
     private final int status;
     private final int size;
     private final String referrer;
     private final String userAgent;
     private final double responseTime;
     private final String countryCode;
-    private final String headers;
+    private final String host;
+    // Optional headers, null when absent
+    private final String bearerToken;
+    private final UUID requestId;
+    private final String forwardedFor;
 
-    private AccessLogEntry(String ip, String username, String timestamp, String request, int status,
-                           int size, String referrer, String userAgent, double responseTime,
-                           String countryCode, String headers) {
+    private AccessLogEntry(long timestampMicros, ZoneId zone, String ip, String username, HttpMethod method,
+                           String url, int status, int size, String referrer, String userAgent,
+                           double responseTime, String countryCode, String host) {
+        super(timestampMicros, zone);
         this.ip = ip;
         this.username = username;
-        this.timestamp = timestamp;
-        this.request = request;
+        this.method = method;
+        this.url = url;
         this.status = status;
         this.size = size;
         this.referrer = referrer;
         this.userAgent = userAgent;
         this.responseTime = responseTime;
         this.countryCode = countryCode;
-        this.headers = headers;
+        this.host = host;
+
+        // Logged-in users send their token and id, some requests carry a request id or a forwarding address
+        RandomGenerator random = LogRandom.current();
+        this.bearerToken = username.equals("-") ? null : LogGeneratorUtils.generateRandomString(32);
+        this.requestId = random.nextDouble() < 0.5 ? LogGeneratorUtils.randomUUID() : null;
+        this.forwardedFor = random.nextDouble() < 0.3 ? LogGeneratorUtils.generateRandomIP(false) : null;
     }
 
     public static AccessLogEntry createRandomEntry(boolean isFrontend, UserSessionManager userSessionManager) {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return createRandomEntry(isFrontend, userSessionManager, defaultHost(isFrontend));
+    }
+
+    /**
+     * @param host Name of the server that logs the entry, see {@link HostFanOut}
+     */
+    public static AccessLogEntry createRandomEntry(boolean isFrontend, UserSessionManager userSessionManager,
+                                                   String host) {
+        RandomGenerator random = LogRandom.current();
 
         String ip = LogGeneratorUtils.generateRandomIP(false);
         String username = "-";
@@ -55,53 +82,226 @@ public class AccessLogEntry extends LogEntry {
             username = userSessionManager.getOrCreateActiveUser(ip);
         }
         String countryCode = LogGeneratorUtils.getCountryCode(ip);
-        String timestamp = ZonedDateTime.now().format(ACCESS_LOG_TIMESTAMP_FORMATTER);
+        long timestampMicros = LogClock.currentTimeMicros();
         HttpMethod method = LogGeneratorUtils.getRandomHttpMethod();
         String url = LogGeneratorUtils.getRandomURL(username, isFrontend);
-        String protocol = "HTTP/1.1";
-        String request = method + " " + url + " " + protocol;
         int status = LogGeneratorUtils.getStatusCode(ip, false);
         int size = random.nextInt(5000) + 200;
         String referrer = "-";  // No referrer
         String userAgent = LogGeneratorUtils.getRandomUserAgent();
         double responseTime = LogGeneratorUtils.generateResponseTime();
-        List<String> headersList = LogGeneratorUtils.generateHeadersList(username);
-        String headers = headersList.stream()
-                .map(h -> "\"" + h + "\"")
-                .collect(Collectors.joining(" "));
 
-        return new AccessLogEntry(ip, username, timestamp, request, status, size,
-                referrer, userAgent, responseTime, countryCode, headers);
+        return new AccessLogEntry(timestampMicros, LogClock.zone(), ip, username, method, url, status, size,
+                referrer, userAgent, responseTime, countryCode, host);
     }
 
     public static AccessLogEntry createErrorEntry(boolean isFrontend, UserSessionManager userSessionManager) {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return createErrorEntry(isFrontend, userSessionManager, defaultHost(isFrontend));
+    }
+
+    public static AccessLogEntry createErrorEntry(boolean isFrontend, UserSessionManager userSessionManager,
+                                                  String host) {
+        RandomGenerator random = LogRandom.current();
 
         String ip = LogGeneratorUtils.generateRandomIP(false);
         String username = "-"; // Assuming no user is logged in during an error
         String countryCode = LogGeneratorUtils.getCountryCode(ip);
-        String timestamp = ZonedDateTime.now().format(ACCESS_LOG_TIMESTAMP_FORMATTER);
+        long timestampMicros = LogClock.currentTimeMicros();
         HttpMethod method = LogGeneratorUtils.getRandomHttpMethod();
         String url = LogGeneratorUtils.getRandomURL(username, isFrontend); // Use existing method
-        String protocol = "HTTP/1.1";
-        String request = method + " " + url + " " + protocol;
         int status = 500; // Internal Server Error
         int size = random.nextInt(500) + 100;
         String referrer = "-"; // No referrer
         String userAgent = LogGeneratorUtils.getRandomUserAgent();
         double responseTime = LogGeneratorUtils.generateResponseTime();
-        List<String> headersList = LogGeneratorUtils.generateHeadersList(username);
-        String headers = headersList.stream()
-                .map(h -> "\"" + h + "\"")
-                .collect(Collectors.joining(" "));
 
-        return new AccessLogEntry(ip, username, timestamp, request, status, size,
-                referrer, userAgent, responseTime, countryCode, headers);
+        return new AccessLogEntry(timestampMicros, LogClock.zone(), ip, username, method, url, status, size,
+                referrer, userAgent, responseTime, countryCode, host);
+    }
+
+    /**
+     * The server name of a single frontend or backend, matching the error log
+     */
+    static String defaultHost(boolean isFrontend) {
+        return isFrontend ? "frontend.example.com" : "api.example.com";
+    }
+
+    public static void setLogFormat(NginxLogFormat format) {
+        logFormat = format;
+    }
+
+    @Override
+    public void encode(ByteBuffer buffer) {
+        NginxLogFormat format = logFormat;
+        if (format != null) {
+            format.encode(buffer, this);
+            return;
+        }
+        AsciiEncoder.put(buffer, ip);
+        AsciiEncoder.put(buffer, " - ");
+        AsciiEncoder.put(buffer, username);
+        AsciiEncoder.put(buffer, " [");
+        TimestampFormat.NGINX_ACCESS.encode(buffer, getTimestampMicros(), getZone());
+        AsciiEncoder.put(buffer, "] \"");
+        AsciiEncoder.put(buffer, method.name());
+        AsciiEncoder.put(buffer, ' ');
+        AsciiEncoder.put(buffer, url);
+        AsciiEncoder.put(buffer, ' ');
+        AsciiEncoder.put(buffer, PROTOCOL);
+        AsciiEncoder.put(buffer, "\" ");
+        AsciiEncoder.putLong(buffer, status);
+        AsciiEncoder.put(buffer, ' ');
+        AsciiEncoder.putLong(buffer, size);
+        AsciiEncoder.put(buffer, " \"");
+        AsciiEncoder.put(buffer, referrer);
+        AsciiEncoder.put(buffer, "\" \"");
+        AsciiEncoder.put(buffer, userAgent);
+        AsciiEncoder.put(buffer, "\" ");
+        AsciiEncoder.putFixed(buffer, responseTime, 3);
+        AsciiEncoder.put(buffer, " \"");
+        AsciiEncoder.put(buffer, countryCode);
+        AsciiEncoder.put(buffer, '"');
+        encodeHeaders(buffer);
+        AsciiEncoder.put(buffer, '\n');
+    }
+
+    private void encodeHeaders(ByteBuffer buffer) {
+        for (String header : FIXED_HEADERS) {
+            AsciiEncoder.put(buffer, " \"");
+            AsciiEncoder.put(buffer, header);
+            AsciiEncoder.put(buffer, '"');
+        }
+        if (bearerToken != null) {
+            AsciiEncoder.put(buffer, " \"Authorization: Bearer ");
+            AsciiEncoder.put(buffer, bearerToken);
+            AsciiEncoder.put(buffer, "\" \"X-User-ID: ");
+            AsciiEncoder.put(buffer, username);
+            AsciiEncoder.put(buffer, '"');
+        }
+        if (requestId != null) {
+            AsciiEncoder.put(buffer, " \"X-Request-ID: ");
+            AsciiEncoder.putUuid(buffer, requestId);
+            AsciiEncoder.put(buffer, '"');
+        }
+        if (forwardedFor != null) {
+            AsciiEncoder.put(buffer, " \"X-Forwarded-For: ");
+            AsciiEncoder.put(buffer, forwardedFor);
+            AsciiEncoder.put(buffer, '"');
+        }
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return ip;
+    }
+
+    @Override
+    public String getRemoteUser() {
+        return username;
+    }
+
+    @Override
+    public HttpMethod getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public String getRequestUri() {
+        return url;
+    }
+
+    @Override
+    public String getServerProtocol() {
+        return PROTOCOL;
+    }
+
+    @Override
+    public String getHost() {
+        return host;
+    }
+
+    @Override
+    public String getServerName() {
+        return host;
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public int getBodyBytesSent() {
+        return size;
+    }
+
+    @Override
+    public String getHttpReferer() {
+        return referrer;
+    }
+
+    @Override
+    public String getHttpUserAgent() {
+        return userAgent;
+    }
+
+    @Override
+    public double getRequestTime() {
+        return responseTime;
+    }
+
+    @Override
+    public int getRequestLength() {
+        return -1;
+    }
+
+    @Override
+    public String getCountryCode() {
+        return countryCode;
+    }
+
+    @Override
+    public String getBearerToken() {
+        return bearerToken;
+    }
+
+    @Override
+    public String getForwardedFor() {
+        return forwardedFor;
+    }
+
+    @Override
+    public UUID getRequestId() {
+        return requestId;
+    }
+
+    @Override
+    public String getUpstreamName() {
+        return null;
+    }
+
+    @Override
+    public String getUpstreamAlternativeName() {
+        return null;
+    }
+
+    @Override
+    public String getUpstreamAddr() {
+        return null;
+    }
+
+    @Override
+    public int getUpstreamResponseLength() {
+        return -1;
+    }
+
+    @Override
+    public double getUpstreamResponseTime() {
+        return -1;
     }
 
     @Override
-    public String toString() {
-        return String.format(ACCESS_LOG_TEMPLATE, ip, username, timestamp, request,
-                status, size, referrer, userAgent, responseTime, countryCode, headers);
+    public int getUpstreamStatus() {
+        return -1;
     }
 }
@@ -0,0 +1,62 @@
+package org.davidgeorgehope.nginx.logs;
+
+import org.davidgeorgehope.HttpMethod;
+
+import java.time.ZoneId;
+import java.util.UUID;
+
+/**
+ * The request fields an access log entry exposes to a compiled {@link NginxLogFormat}. Values an entry does
+ * not have are null (or negative for numbers) and are rendered as "-", like nginx does for empty variables.
+ */
+public interface AccessLogFields {
+    long getTimestampMicros();
+
+    ZoneId getZone();
+
+    String getRemoteAddr();
+
+    String getRemoteUser();
+
+    HttpMethod getRequestMethod();
+
+    String getRequestUri();
+
+    String getServerProtocol();
+
+    String getHost();
+
+    String getServerName();
+
+    int getStatus();
+
+    int getBodyBytesSent();
+
+    String getHttpReferer();
+
+    String getHttpUserAgent();
+
+    double getRequestTime();
+
+    int getRequestLength();
+
+    String getCountryCode();
+
+    String getBearerToken();
+
+    String getForwardedFor();
+
+    UUID getRequestId();
+
+    String getUpstreamName();
+
+    String getUpstreamAlternativeName();
+
+    String getUpstreamAddr();
+
+    int getUpstreamResponseLength();
+
+    double getUpstreamResponseTime();
+
+    int getUpstreamStatus();
+}
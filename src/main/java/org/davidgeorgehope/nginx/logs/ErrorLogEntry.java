@@ -1,20 +1,21 @@
 package org.davidgeorgehope.nginx.logs;
 
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.concurrent.ThreadLocalRandom;
+import java.nio.ByteBuffer;
+import java.time.ZoneId;
+import java.util.random.RandomGenerator;
 
 import org.davidgeorgehope.HttpMethod;
 import org.davidgeorgehope.LogEntry;
 import org.davidgeorgehope.LogGeneratorUtils;
+import org.davidgeorgehope.encoding.AsciiEncoder;
+import org.davidgeorgehope.random.LogRandom;
+import org.davidgeorgehope.time.LogClock;
+import org.davidgeorgehope.time.TimestampFormat;
 
 public class ErrorLogEntry extends LogEntry {
-    private static final DateTimeFormatter ERROR_LOG_TIMESTAMP_FORMATTER =
-            DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
+    // Encoded as: time [level] pid#tid: *connection message, client: ip, server: name, request: "...", host: "..."
+    private static final String PROTOCOL = "HTTP/1.1";
 
-    private static final String ERROR_LOG_TEMPLATE = "%s [%s] %d#%d: *%d %s, client: %s, server: %s, request: \"%s\", host: \"%s\"%n";
-
-    private final String date;
     private final String level;
     private final int pid;
     private final int tid;
@@ -22,12 +23,14 @@ public class ErrorLogEntry extends LogEntry {
     private final String message;
     private final String clientIP;
     private final String server;
-    private final String request;
+    private final HttpMethod method;
+    private final String url;
     private final String host;
 
-    private ErrorLogEntry(String date, String level, int pid, int tid, int connection, String message,
-                          String clientIP, String server, String request, String host) {
-        this.date = date;
+    private ErrorLogEntry(long timestampMicros, ZoneId zone, String level, int pid, int tid, int connection,
+                          String message, String clientIP, String server, HttpMethod method, String url,
+                          String host) {
+        super(timestampMicros, zone);
         this.level = level;
         this.pid = pid;
         this.tid = tid;
@@ -35,34 +38,61 @@ public class ErrorLogEntry extends LogEntry {
         this.message = message;
         this.clientIP = clientIP;
         this.server = server;
-        this.request = request;
+        this.method = method;
+        this.url = url;
         this.host = host;
     }
 
     public static ErrorLogEntry createRandomEntry(boolean isFrontend) {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return createRandomEntry(isFrontend, AccessLogEntry.defaultHost(isFrontend));
+    }
+
+    /**
+     * @param server Name of the server that logs the entry, see {@link HostFanOut}
+     */
+    public static ErrorLogEntry createRandomEntry(boolean isFrontend, String server) {
+        RandomGenerator random = LogRandom.current();
 
-        String date = ZonedDateTime.now().format(ERROR_LOG_TIMESTAMP_FORMATTER);
+        long timestampMicros = LogClock.currentTimeMicros();
         String level = "error";
         int pid = random.nextInt(10000) + 1000;
         int tid = random.nextInt(10);
         int connection = random.nextInt(10000);
         String clientIP = LogGeneratorUtils.generateRandomIP(false);
-        String server = isFrontend ? "frontend.example.com" : "api.example.com";
         HttpMethod method = LogGeneratorUtils.getRandomHttpMethod();
         String url = LogGeneratorUtils.getRandomURL("-", isFrontend);
-        String protocol = "HTTP/1.1";
-        String request = method + " " + url + " " + protocol;
         String host = server;
         String message = LogGeneratorUtils.getRandomErrorMessage(isFrontend, url);
 
-        return new ErrorLogEntry(date, level, pid, tid, connection, message,
-                clientIP, server, request, host);
+        return new ErrorLogEntry(timestampMicros, LogClock.zone(), level, pid, tid, connection, message,
+                clientIP, server, method, url, host);
     }
 
     @Override
-    public String toString() {
-        return String.format(ERROR_LOG_TEMPLATE, date, level, pid, tid,
-                connection, message, clientIP, server, request, host);
+    public void encode(ByteBuffer buffer) {
+        TimestampFormat.NGINX_ERROR.encode(buffer, getTimestampMicros(), getZone());
+        AsciiEncoder.put(buffer, " [");
+        AsciiEncoder.put(buffer, level);
+        AsciiEncoder.put(buffer, "] ");
+        AsciiEncoder.putLong(buffer, pid);
+        AsciiEncoder.put(buffer, '#');
+        AsciiEncoder.putLong(buffer, tid);
+        AsciiEncoder.put(buffer, ": *");
+        AsciiEncoder.putLong(buffer, connection);
+        AsciiEncoder.put(buffer, ' ');
+        AsciiEncoder.put(buffer, message);
+        AsciiEncoder.put(buffer, ", client: ");
+        AsciiEncoder.put(buffer, clientIP);
+        AsciiEncoder.put(buffer, ", server: ");
+        AsciiEncoder.put(buffer, server);
+        AsciiEncoder.put(buffer, ", request: \"");
+        AsciiEncoder.put(buffer, method.name());
+        AsciiEncoder.put(buffer, ' ');
+        AsciiEncoder.put(buffer, url);
+        AsciiEncoder.put(buffer, ' ');
+        AsciiEncoder.put(buffer, PROTOCOL);
+        AsciiEncoder.put(buffer, "\", host: \"");
+        AsciiEncoder.put(buffer, host);
+        AsciiEncoder.put(buffer, "\"\n");
     }
-}
\ No newline at end of file
+}
@@ -1,11 +1,11 @@
 package org.davidgeorgehope.nginx.logs;
 
 import org.davidgeorgehope.AnomalyConfig;
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.davidgeorgehope.sink.LogSink;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.concurrent.ThreadLocalRandom;
 
 public class ErrorLogGenerator {
     private static final Logger logger = LoggerFactory.getLogger(ErrorLogGenerator.class);
@@ -15,32 +15,30 @@ public class ErrorLogGenerator {
     }
 
     public static void generateErrorLogs(int logsToGenerate, String filePath, boolean isFrontend, int port) {
-        // If port is specified, send logs to port only, otherwise write to file
-        boolean usePortLogging = port > 0;
-        
-        try (FileWriter writer = usePortLogging ? null : new FileWriter(filePath, true)) {
-            int actualLogsCount = logsToGenerate;
+        int actualLogsCount = logsToGenerate;
 
-            if (AnomalyConfig.isInduceDatabaseOutage()) {
-                // Increase error logs during database outage
-                actualLogsCount *= 10; // Increase the count by a factor
-            }
+        if (AnomalyConfig.isInduceDatabaseOutage()) {
+            // Increase error logs during database outage
+            actualLogsCount *= 10; // Increase the count by a factor
+        }
 
+        LineBuffer lines = LineBuffer.acquire();
+        try {
+            if (HostFanOut.isEnabled() && port <= 0) {
+                HostFanOut.write(actualLogsCount, filePath, isFrontend,
+                        server -> ErrorLogEntry.createRandomEntry(isFrontend, server), lines);
+                return;
+            }
             for (int i = 0; i < actualLogsCount; i++) {
-                ErrorLogEntry entry = ErrorLogEntry.createRandomEntry(isFrontend);
-                String logEntry = entry.toString();
-                
-                // Send to TCP port if configured, otherwise write to file
-                if (usePortLogging) {
-                    LogSender.sendLog(port, logEntry);
-                } else {
-                    writer.write(logEntry);
-                }
+                lines.append(ErrorLogEntry.createRandomEntry(isFrontend));
             }
+
+            // Send to TCP port if configured, otherwise write to file
+            LogSink.forTarget(filePath, port).write(lines);
         } catch (IOException e) {
-            if (!usePortLogging) {
-                logger.error("Error writing to error log file: " + filePath, e);
-            }
+            logger.error("Error writing to error log file: " + filePath, e);
+        } finally {
+            lines.release();
         }
     }
 }
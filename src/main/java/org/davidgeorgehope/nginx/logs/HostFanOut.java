@@ -0,0 +1,107 @@
+package org.davidgeorgehope.nginx.logs;
+
+import org.davidgeorgehope.LogEntry;
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.davidgeorgehope.random.LogRandom;
+import org.davidgeorgehope.sink.FileHandleCache;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.random.RandomGenerator;
+
+/**
+ * Spreads the nginx access and error logs over many emulated hosts, each with its own directory next to the
+ * single-host files, e.g. {@code /var/log/nginx_frontend/frontend-00042/access.log}, and its own server name
+ * ({@code frontend-00042.example.com}) in the entries.
+ *
+ * <p>Every entry of a batch goes to a random host of the current window, a block of consecutive hosts that moves
+ * on to the next block every second, so all hosts get entries over time while the files written within a second
+ * stay open. The window holds as many hosts as let their files (access and error, frontend and backend) take half
+ * of the {@link FileHandleCache} budget, the other half covering the uneven spread of the files over its stripes.
+ * The batch is grouped by host so each host's lines reach its file in one write.
+ *
+ * <p>Host files are written straight through the {@link FileHandleCache}, not through a {@link
+ * org.davidgeorgehope.sink.LogSink}, so the options of those sinks (asynchronous rings, rotation, compression,
+ * segments, syslog and Elasticsearch) don't apply to them and are rejected together with {@code --hosts}.
+ */
+public final class HostFanOut {
+    private static final int FILES_PER_WINDOW_HOST = 4; // Access and error log of a frontend and a backend
+    private static final long WINDOW_MILLIS = 1000;
+
+    private static volatile int hostCount = 0; // 0 when every stream writes a single file
+    private static volatile int windowHosts = 0;
+
+    private HostFanOut() {
+    }
+
+    /**
+     * @param hosts Number of hosts to spread the nginx streams over, 0 or less for a single host
+     * @param maxOpenFiles The {@link FileHandleCache} budget the hosts written at once have to fit in
+     */
+    public static void configure(int hosts, int maxOpenFiles) {
+        hostCount = Math.max(0, hosts);
+        windowHosts = Math.max(1, Math.min(hostCount, maxOpenFiles / 2 / FILES_PER_WINDOW_HOST));
+    }
+
+    public static boolean isEnabled() {
+        return hostCount > 0;
+    }
+
+    public static int getHostCount() {
+        return hostCount;
+    }
+
+    /**
+     * The directory name of a host, also the first label of its server name
+     */
+    public static String hostName(boolean isFrontend, int host) {
+        return String.format("%s-%05d", isFrontend ? "frontend" : "backend", host);
+    }
+
+    /**
+     * The server name a host logs its entries under
+     */
+    public static String serverName(boolean isFrontend, int host) {
+        return hostName(isFrontend, host) + ".example.com";
+    }
+
+    /**
+     * Generates the entries of a batch on random hosts of the current window and appends each host's lines to its
+     * copy of the file
+     * @param count Number of entries in the batch
+     * @param filePath The single-host file, whose directory holds the host directories
+     * @param isFrontend Whether the hosts are frontends or backends
+     * @param createEntry Creates one entry for the given server name
+     * @param lines Buffer to encode each host's lines into
+     */
+    static void write(int count, String filePath, boolean isFrontend,
+                      Function<String, ? extends LogEntry> createEntry, LineBuffer lines) throws IOException {
+        if (count <= 0) {
+            return;
+        }
+        RandomGenerator random = LogRandom.current();
+        int window = windowHosts;
+        long firstHost = System.currentTimeMillis() / WINDOW_MILLIS * window;
+        int[] hosts = new int[count];
+        for (int i = 0; i < count; i++) {
+            hosts[i] = (int) ((firstHost + random.nextInt(window)) % hostCount);
+        }
+        Arrays.sort(hosts);
+
+        Path file = Paths.get(filePath);
+        Path directory = file.toAbsolutePath().getParent();
+        String fileName = file.getFileName().toString();
+        for (int i = 0; i < count; ) {
+            int host = hosts[i];
+            String server = serverName(isFrontend, host);
+            lines.clear();
+            for (; i < count && hosts[i] == host; i++) {
+                lines.append(createEntry.apply(server));
+            }
+            FileHandleCache.write(directory.resolve(hostName(isFrontend, host)).resolve(fileName), lines);
+        }
+    }
+}
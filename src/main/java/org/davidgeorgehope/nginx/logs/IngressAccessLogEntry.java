@@ -1,27 +1,33 @@
 package org.davidgeorgehope.nginx.logs;
 
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.ByteBuffer;
+import java.time.ZoneId;
 import java.util.UUID;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
 
 import org.davidgeorgehope.HttpMethod;
 import org.davidgeorgehope.LogEntry;
 import org.davidgeorgehope.LogGeneratorUtils;
+import org.davidgeorgehope.encoding.AsciiEncoder;
+import org.davidgeorgehope.random.LogRandom;
 import org.davidgeorgehope.UserSessionManager;
+import org.davidgeorgehope.time.LogClock;
+import org.davidgeorgehope.time.TimestampFormat;
 
-public class IngressAccessLogEntry extends LogEntry {
-    private static final DateTimeFormatter ACCESS_LOG_TIMESTAMP_FORMATTER =
-            DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z");
+public class IngressAccessLogEntry extends LogEntry implements AccessLogFields {
+    // The format matches the expected pattern in the Elastic ingest pipeline for Nginx Ingress Controller logs:
+    // ip - user [time] "method url HTTP/version" status bytes "referrer" "agent" request_length request_time
+    // [upstream] [alternative] upstream_addr upstream_length upstream_time upstream_status request_id
 
-    // The format matches the expected pattern in the Elastic ingest pipeline for Nginx Ingress Controller logs
-    private static final String INGRESS_LOG_TEMPLATE = 
-        "%s - %s [%s] \"%s %s HTTP/%s\" %d %d \"%s\" \"%s\" %d %.3f [%s] [%s] %s %s %s %s %s";
+    private static final String HTTP_1_1 = "1.1";
+    private static final String PROTOCOL_HTTP_1_1 = "HTTP/1.1";
+
+    // Replaces the built-in layout when set, see --ingress-access-log-format
+    private static volatile NginxLogFormat logFormat;
 
     private final String sourceAddress; // source.address
     private final String userName; // user.name
-    private final String timestamp; // nginx_ingress_controller.access.time
-    private final String httpMethod; // http.request.method
+    private final HttpMethod httpMethod; // http.request.method
     private final String urlOriginal; // url.original
     private final String httpVersion; // http.version
     private final int statusCode; // http.response.status_code
@@ -33,16 +39,17 @@ public class IngressAccessLogEntry extends LogEntry {
     private final String upstreamName; // nginx_ingress_controller.access.upstream.name
     private final String upstreamAlternativeName; // nginx_ingress_controller.access.upstream.alternative_name
     private final String upstreamAddressList; // nginx_ingress_controller.access.upstream_address_list
-    private final String upstreamResponseLengthList; // nginx_ingress_controller.access.upstream.response.length_list
-    private final String upstreamResponseTimeList; // nginx_ingress_controller.access.upstream.response.time_list
-    private final String upstreamResponseStatusCodeList; // nginx_ingress_controller.access.upstream.response.status_code_list
-    private final String requestId; // nginx_ingress_controller.access.http.request.id
+    private final int upstreamResponseLength; // nginx_ingress_controller.access.upstream.response.length_list
+    private final double upstreamResponseTime; // nginx_ingress_controller.access.upstream.response.time_list
+    private final int upstreamResponseStatusCode; // nginx_ingress_controller.access.upstream.response.status_code_list
+    private final UUID requestId; // nginx_ingress_controller.access.http.request.id
 
     private IngressAccessLogEntry(
+            long timestampMicros,
+            ZoneId zone,
             String sourceAddress,
             String userName,
-            String timestamp,
-            String httpMethod,
+            HttpMethod httpMethod,
             String urlOriginal,
             String httpVersion,
             int statusCode,
@@ -54,13 +61,13 @@ public class IngressAccessLogEntry extends LogEntry {
             String upstreamName,
             String upstreamAlternativeName,
             String upstreamAddressList,
-            String upstreamResponseLengthList,
-            String upstreamResponseTimeList,
-            String upstreamResponseStatusCodeList,
-            String requestId) {
+            int upstreamResponseLength,
+            double upstreamResponseTime,
+            int upstreamResponseStatusCode,
+            UUID requestId) {
+        super(timestampMicros, zone);
         this.sourceAddress = sourceAddress;
         this.userName = userName;
-        this.timestamp = timestamp;
         this.httpMethod = httpMethod;
         this.urlOriginal = urlOriginal;
         this.httpVersion = httpVersion;
@@ -73,14 +80,14 @@ public class IngressAccessLogEntry extends LogEntry {
         this.upstreamName = upstreamName;
         this.upstreamAlternativeName = upstreamAlternativeName;
         this.upstreamAddressList = upstreamAddressList;
-        this.upstreamResponseLengthList = upstreamResponseLengthList;
-        this.upstreamResponseTimeList = upstreamResponseTimeList;
-        this.upstreamResponseStatusCodeList = upstreamResponseStatusCodeList;
+        this.upstreamResponseLength = upstreamResponseLength;
+        this.upstreamResponseTime = upstreamResponseTime;
+        this.upstreamResponseStatusCode = upstreamResponseStatusCode;
         this.requestId = requestId;
     }
 
     public static IngressAccessLogEntry createRandomEntry(boolean isFrontend, UserSessionManager userSessionManager) {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RandomGenerator random = LogRandom.current();
 
         String sourceAddress = LogGeneratorUtils.generateRandomIP(false);
         String userName = "-";
@@ -88,11 +95,10 @@ public class IngressAccessLogEntry extends LogEntry {
             userName = userSessionManager.getOrCreateActiveUser(sourceAddress);
         }
         
-        String timestamp = ZonedDateTime.now().format(ACCESS_LOG_TIMESTAMP_FORMATTER);
-        HttpMethod method = LogGeneratorUtils.getRandomHttpMethod();
-        String httpMethod = method.toString();
+        long timestampMicros = LogClock.currentTimeMicros();
+        HttpMethod httpMethod = LogGeneratorUtils.getRandomHttpMethod();
         String urlOriginal = LogGeneratorUtils.getRandomURL(userName, isFrontend);
-        String httpVersion = "1.1";
+        String httpVersion = HTTP_1_1;
         int statusCode = LogGeneratorUtils.getStatusCode(sourceAddress, false);
         int bodyBytesSent = random.nextInt(5000) + 200;
         String httpRequestReferrer = "-";  // No referrer
@@ -112,17 +118,14 @@ public class IngressAccessLogEntry extends LogEntry {
         double upstreamResponseTime = requestTime * 0.8;  // Usually less than request time
         int upstreamResponseStatusCode = statusCode;  // Usually the same as status
         
-        String upstreamResponseLengthList = String.valueOf(upstreamResponseLength);
-        String upstreamResponseTimeList = String.format("%.3f", upstreamResponseTime);
-        String upstreamResponseStatusCodeList = String.valueOf(upstreamResponseStatusCode);
-        
         // Request ID
-        String requestId = UUID.randomUUID().toString();
+        UUID requestId = LogGeneratorUtils.randomUUID();
 
         return new IngressAccessLogEntry(
+                timestampMicros,
+                LogClock.zone(),
                 sourceAddress,
                 userName,
-                timestamp,
                 httpMethod,
                 urlOriginal,
                 httpVersion,
@@ -135,22 +138,21 @@ public class IngressAccessLogEntry extends LogEntry {
                 upstreamName,
                 upstreamAlternativeName,
                 upstreamAddressList,
-                upstreamResponseLengthList,
-                upstreamResponseTimeList,
-                upstreamResponseStatusCodeList,
+                upstreamResponseLength,
+                upstreamResponseTime,
+                upstreamResponseStatusCode,
                 requestId);
     }
 
     public static IngressAccessLogEntry createErrorEntry(boolean isFrontend, UserSessionManager userSessionManager) {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RandomGenerator random = LogRandom.current();
 
         String sourceAddress = LogGeneratorUtils.generateRandomIP(false);
         String userName = "-"; // Assuming no user is logged in during an error
-        String timestamp = ZonedDateTime.now().format(ACCESS_LOG_TIMESTAMP_FORMATTER);
-        HttpMethod method = LogGeneratorUtils.getRandomHttpMethod();
-        String httpMethod = method.toString();
+        long timestampMicros = LogClock.currentTimeMicros();
+        HttpMethod httpMethod = LogGeneratorUtils.getRandomHttpMethod();
         String urlOriginal = LogGeneratorUtils.getRandomURL(userName, isFrontend);
-        String httpVersion = "1.1";
+        String httpVersion = HTTP_1_1;
         int statusCode = 500; // Internal Server Error
         int bodyBytesSent = random.nextInt(500) + 100;
         String httpRequestReferrer = "-"; // No referrer
@@ -170,17 +172,14 @@ public class IngressAccessLogEntry extends LogEntry {
         double upstreamResponseTime = random.nextDouble() * 2.0 + 0.5;  // Longer response time for errors
         int upstreamResponseStatusCode = 500;  // Error status from upstream
         
-        String upstreamResponseLengthList = String.valueOf(upstreamResponseLength);
-        String upstreamResponseTimeList = String.format("%.3f", upstreamResponseTime);
-        String upstreamResponseStatusCodeList = String.valueOf(upstreamResponseStatusCode);
-        
         // Request ID
-        String requestId = UUID.randomUUID().toString();
+        UUID requestId = LogGeneratorUtils.randomUUID();
 
         return new IngressAccessLogEntry(
+                timestampMicros,
+                LogClock.zone(),
                 sourceAddress,
                 userName,
-                timestamp,
                 httpMethod,
                 urlOriginal,
                 httpVersion,
@@ -193,14 +192,14 @@ public class IngressAccessLogEntry extends LogEntry {
                 upstreamName,
                 upstreamAlternativeName,
                 upstreamAddressList,
-                upstreamResponseLengthList,
-                upstreamResponseTimeList,
-                upstreamResponseStatusCodeList,
+                upstreamResponseLength,
+                upstreamResponseTime,
+                upstreamResponseStatusCode,
                 requestId);
     }
 
     private static String generateRandomUpstreamAddr() {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
+        RandomGenerator random = LogRandom.current();
         String[] upstreamAddrs = {
             "10.244.0.17:8080", 
             "10.244.0.18:8080", 
@@ -228,27 +227,169 @@ public class IngressAccessLogEntry extends LogEntry {
         }
     }
 
+    public static void setLogFormat(NginxLogFormat format) {
+        logFormat = format;
+    }
+
     @Override
-    public String toString() {
-        return String.format(INGRESS_LOG_TEMPLATE,
-                sourceAddress,
-                userName,
-                timestamp,
-                httpMethod,
-                urlOriginal,
-                httpVersion,
-                statusCode,
-                bodyBytesSent,
-                httpRequestReferrer,
-                userAgentOriginal,
-                requestLength,
-                requestTime,
-                upstreamName,
-                upstreamAlternativeName,
-                upstreamAddressList,
-                upstreamResponseLengthList,
-                upstreamResponseTimeList,
-                upstreamResponseStatusCodeList,
-                requestId);
+    public void encode(ByteBuffer buffer) {
+        NginxLogFormat format = logFormat;
+        if (format != null) {
+            format.encode(buffer, this);
+            return;
+        }
+        AsciiEncoder.put(buffer, sourceAddress);
+        AsciiEncoder.put(buffer, " - ");
+        AsciiEncoder.put(buffer, userName);
+        AsciiEncoder.put(buffer, " [");
+        TimestampFormat.NGINX_ACCESS.encode(buffer, getTimestampMicros(), getZone());
+        AsciiEncoder.put(buffer, "] \"");
+        AsciiEncoder.put(buffer, httpMethod.name());
+        AsciiEncoder.put(buffer, ' ');
+        AsciiEncoder.put(buffer, urlOriginal);
+        AsciiEncoder.put(buffer, " HTTP/");
+        AsciiEncoder.put(buffer, httpVersion);
+        AsciiEncoder.put(buffer, "\" ");
+        AsciiEncoder.putLong(buffer, statusCode);
+        AsciiEncoder.put(buffer, ' ');
+        AsciiEncoder.putLong(buffer, bodyBytesSent);
+        AsciiEncoder.put(buffer, " \"");
+        AsciiEncoder.put(buffer, httpRequestReferrer);
+        AsciiEncoder.put(buffer, "\" \"");
+        AsciiEncoder.put(buffer, userAgentOriginal);
+        AsciiEncoder.put(buffer, "\" ");
+        AsciiEncoder.putLong(buffer, requestLength);
+        AsciiEncoder.put(buffer, ' ');
+        AsciiEncoder.putFixed(buffer, requestTime, 3);
+        AsciiEncoder.put(buffer, " [");
+        AsciiEncoder.put(buffer, upstreamName);
+        AsciiEncoder.put(buffer, "] [");
+        AsciiEncoder.put(buffer, upstreamAlternativeName);
+        AsciiEncoder.put(buffer, "] ");
+        AsciiEncoder.put(buffer, upstreamAddressList);
+        AsciiEncoder.put(buffer, ' ');
+        AsciiEncoder.putLong(buffer, upstreamResponseLength);
+        AsciiEncoder.put(buffer, ' ');
+        AsciiEncoder.putFixed(buffer, upstreamResponseTime, 3);
+        AsciiEncoder.put(buffer, ' ');
+        AsciiEncoder.putLong(buffer, upstreamResponseStatusCode);
+        AsciiEncoder.put(buffer, ' ');
+        AsciiEncoder.putUuid(buffer, requestId);
+        AsciiEncoder.put(buffer, '\n');
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return sourceAddress;
+    }
+
+    @Override
+    public String getRemoteUser() {
+        return userName;
+    }
+
+    @Override
+    public HttpMethod getRequestMethod() {
+        return httpMethod;
+    }
+
+    @Override
+    public String getRequestUri() {
+        return urlOriginal;
+    }
+
+    @Override
+    public String getServerProtocol() {
+        return HTTP_1_1.equals(httpVersion) ? PROTOCOL_HTTP_1_1 : "HTTP/" + httpVersion;
+    }
+
+    @Override
+    public int getStatus() {
+        return statusCode;
+    }
+
+    @Override
+    public int getBodyBytesSent() {
+        return bodyBytesSent;
+    }
+
+    @Override
+    public String getHttpReferer() {
+        return httpRequestReferrer;
+    }
+
+    @Override
+    public String getHttpUserAgent() {
+        return userAgentOriginal;
+    }
+
+    @Override
+    public double getRequestTime() {
+        return requestTime;
+    }
+
+    @Override
+    public int getRequestLength() {
+        return requestLength;
+    }
+
+    @Override
+    public String getHost() {
+        return null;
+    }
+
+    @Override
+    public String getServerName() {
+        return null;
+    }
+
+    @Override
+    public String getCountryCode() {
+        return LogGeneratorUtils.getCountryCode(sourceAddress);
+    }
+
+    @Override
+    public String getBearerToken() {
+        return null;
+    }
+
+    @Override
+    public String getForwardedFor() {
+        return null;
+    }
+
+    @Override
+    public UUID getRequestId() {
+        return requestId;
+    }
+
+    @Override
+    public String getUpstreamName() {
+        return upstreamName;
+    }
+
+    @Override
+    public String getUpstreamAlternativeName() {
+        return upstreamAlternativeName;
+    }
+
+    @Override
+    public String getUpstreamAddr() {
+        return upstreamAddressList;
+    }
+
+    @Override
+    public int getUpstreamResponseLength() {
+        return upstreamResponseLength;
+    }
+
+    @Override
+    public double getUpstreamResponseTime() {
+        return upstreamResponseTime;
+    }
+
+    @Override
+    public int getUpstreamStatus() {
+        return upstreamResponseStatusCode;
     }
-} 
\ No newline at end of file
+}
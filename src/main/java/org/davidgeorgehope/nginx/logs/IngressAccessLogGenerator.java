@@ -2,11 +2,14 @@ package org.davidgeorgehope.nginx.logs;
 
 import org.davidgeorgehope.AnomalyConfig;
 import org.davidgeorgehope.UserSessionManager;
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.davidgeorgehope.sink.LogSink;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class IngressAccessLogGenerator {
     private static final Logger logger = LoggerFactory.getLogger(IngressAccessLogGenerator.class);
@@ -16,37 +19,41 @@ public class IngressAccessLogGenerator {
     }
 
     public static void generateIngressLogs(int logsToGenerate, String filePath, boolean isFrontend, UserSessionManager userSessionManager, int port) {
-        // If port is specified, send logs to port only, otherwise write to file
-        boolean usePortLogging = port > 0;
-        
-        // Only open file writer if we're not using port logging
-        try (FileWriter writer = usePortLogging ? null : new FileWriter(filePath, true)) {
-            for (int i = 0; i < logsToGenerate; i++) {
-                IngressAccessLogEntry entry;
-                if (AnomalyConfig.isInduceDatabaseOutage()) {
-                    // Generate entries with 500 status codes
-                    entry = IngressAccessLogEntry.createErrorEntry(isFrontend, userSessionManager);
-                } else {
-                    entry = IngressAccessLogEntry.createRandomEntry(isFrontend, userSessionManager);
-                }
-                String logEntry = entry.toString();
-                
-                // Send to TCP port if configured, otherwise write to file
-                if (usePortLogging) {
-                    LogSender.sendLog(port, logEntry);
-                } else {
-                    writer.write(logEntry);
-                }
+        LineBuffer lines = LineBuffer.acquire();
+        try {
+            for (IngressAccessLogEntry entry : createEntries(logsToGenerate, isFrontend, userSessionManager)) {
+                lines.append(entry);
+            }
+            writeLogs(lines, filePath, port);
+        } finally {
+            lines.release();
+        }
+    }
 
-                // If inducing high visitor rate anomaly
-                if (AnomalyConfig.isInduceHighVisitorRate()) {
-                    logsToGenerate *= 5; // Increase the number of logs significantly
-                }
+    /**
+     * Creates ingress access log entries without writing them, so that generator shards can build their slice in parallel
+     */
+    public static List<IngressAccessLogEntry> createEntries(int logsToGenerate, boolean isFrontend, UserSessionManager userSessionManager) {
+        List<IngressAccessLogEntry> entries = new ArrayList<>(logsToGenerate);
+        for (int i = 0; i < logsToGenerate; i++) {
+            IngressAccessLogEntry entry;
+            if (AnomalyConfig.isInduceDatabaseOutage()) {
+                // Generate entries with 500 status codes
+                entry = IngressAccessLogEntry.createErrorEntry(isFrontend, userSessionManager);
+            } else {
+                entry = IngressAccessLogEntry.createRandomEntry(isFrontend, userSessionManager);
             }
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    public static void writeLogs(LineBuffer lines, String filePath, int port) {
+        // If port is specified, send logs to port only, otherwise write to file
+        try {
+            LogSink.forTarget(filePath, port).write(lines);
         } catch (IOException e) {
-            if (!usePortLogging) {
-                logger.error("Error writing to ingress access log file: " + filePath, e);
-            }
+            logger.error("Error writing to ingress access log file: " + filePath, e);
         }
     }
-} 
\ No newline at end of file
+}
@@ -1,12 +1,14 @@
 package org.davidgeorgehope.nginx.logs;
 
-import java.time.LocalDateTime;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.Random;
-import java.util.concurrent.ThreadLocalRandom;
+import java.nio.ByteBuffer;
+import java.time.ZoneId;
+import java.util.random.RandomGenerator;
 
 import org.davidgeorgehope.LogEntry;
+import org.davidgeorgehope.encoding.AsciiEncoder;
+import org.davidgeorgehope.random.LogRandom;
+import org.davidgeorgehope.time.LogClock;
+import org.davidgeorgehope.time.TimestampFormat;
 
 public class IngressErrorLogEntry extends LogEntry {
     // Format matches the expected pattern in the Elastic ingest pipeline for Nginx Ingress Controller error logs
@@ -46,36 +48,21 @@ public class IngressErrorLogEntry extends LogEntry {
     };
     
     private final String logLevel;                // log.level
-    private final int timestampMonth;             // timestamp_month
-    private final int timestampDay;               // timestamp_day
-    private final int timestampHour;              // timestamp_hour
-    private final int timestampMinute;            // timestamp_minute
-    private final int timestampSecond;            // timestamp_second
-    private final int timestampNano;              // timestamp_nano
     private final int threadId;                   // nginx_ingress_controller.error.thread_id
     private final String sourceFile;              // nginx_ingress_controller.error.source.file
     private final int sourceLineNumber;           // nginx_ingress_controller.error.source.line_number
     private final String message;                 // message
 
     private IngressErrorLogEntry(
+            long timestampMicros,
+            ZoneId zone,
             String logLevel,
-            int timestampMonth,
-            int timestampDay,
-            int timestampHour,
-            int timestampMinute,
-            int timestampSecond,
-            int timestampNano,
             int threadId,
             String sourceFile,
             int sourceLineNumber,
             String message) {
+        super(timestampMicros, zone);
         this.logLevel = logLevel;
-        this.timestampMonth = timestampMonth;
-        this.timestampDay = timestampDay;
-        this.timestampHour = timestampHour;
-        this.timestampMinute = timestampMinute;
-        this.timestampSecond = timestampSecond;
-        this.timestampNano = timestampNano;
         this.threadId = threadId;
         this.sourceFile = sourceFile;
         this.sourceLineNumber = sourceLineNumber;
@@ -83,16 +70,10 @@ public class IngressErrorLogEntry extends LogEntry {
     }
 
     public static IngressErrorLogEntry createRandomEntry(boolean isFrontend) {
-        Random random = new Random();
+        RandomGenerator random = LogRandom.current();
         
-        // Get current time components
-        ZonedDateTime now = ZonedDateTime.now();
-        int timestampMonth = now.getMonthValue();
-        int timestampDay = now.getDayOfMonth();
-        int timestampHour = now.getHour();
-        int timestampMinute = now.getMinute();
-        int timestampSecond = now.getSecond();
-        int timestampNano = random.nextInt(1000000); // 6 digits for microseconds
+        // Microsecond timestamp, klog prints all 6 digits
+        long timestampMicros = LogClock.currentTimeMicros();
         
         // Determine log level - bias toward info and warning
         String logLevel;
@@ -118,13 +99,9 @@ public class IngressErrorLogEntry extends LogEntry {
         String message = ERROR_MESSAGES[random.nextInt(ERROR_MESSAGES.length)];
         
         return new IngressErrorLogEntry(
+                timestampMicros,
+                LogClock.zone(),
                 logLevel,
-                timestampMonth,
-                timestampDay,
-                timestampHour,
-                timestampMinute,
-                timestampSecond,
-                timestampNano,
                 threadId,
                 sourceFile,
                 sourceLineNumber,
@@ -132,19 +109,18 @@ public class IngressErrorLogEntry extends LogEntry {
     }
 
     @Override
-    public String toString() {
+    public void encode(ByteBuffer buffer) {
         // Format: E0225 14:10:44.455123 12345 controller.go:142] Error message here
-        return String.format("%s%02d%02d %02d:%02d:%02d.%06d %d %s:%d] %s",
-                logLevel,
-                timestampMonth,
-                timestampDay,
-                timestampHour,
-                timestampMinute,
-                timestampSecond,
-                timestampNano,
-                threadId,
-                sourceFile,
-                sourceLineNumber,
-                message);
+        AsciiEncoder.put(buffer, logLevel);
+        TimestampFormat.INGRESS_ERROR.encode(buffer, getTimestampMicros(), getZone());
+        AsciiEncoder.put(buffer, ' ');
+        AsciiEncoder.putLong(buffer, threadId);
+        AsciiEncoder.put(buffer, ' ');
+        AsciiEncoder.put(buffer, sourceFile);
+        AsciiEncoder.put(buffer, ':');
+        AsciiEncoder.putLong(buffer, sourceLineNumber);
+        AsciiEncoder.put(buffer, "] ");
+        AsciiEncoder.put(buffer, message);
+        AsciiEncoder.put(buffer, '\n');
     }
 } 
\ No newline at end of file
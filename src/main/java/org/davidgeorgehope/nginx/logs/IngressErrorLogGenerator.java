@@ -1,9 +1,10 @@
 package org.davidgeorgehope.nginx.logs;
 
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.davidgeorgehope.sink.LogSink;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileWriter;
 import java.io.IOException;
 
 public class IngressErrorLogGenerator {
@@ -14,25 +15,18 @@ public class IngressErrorLogGenerator {
     }
 
     public static void generateIngressErrorLogs(int count, String filePath, boolean isFrontend, int port) {
-        // If port is specified, send logs to port only, otherwise write to file
-        boolean usePortLogging = port > 0;
-        
-        try (FileWriter writer = usePortLogging ? null : new FileWriter(filePath, true)) {
+        LineBuffer lines = LineBuffer.acquire();
+        try {
             for (int i = 0; i < count; i++) {
-                IngressErrorLogEntry entry = IngressErrorLogEntry.createRandomEntry(isFrontend);
-                String logEntry = entry.toString();
-                
-                // Send to TCP port if configured, otherwise write to file
-                if (usePortLogging) {
-                    LogSender.sendLog(port, logEntry);
-                } else {
-                    writer.write(logEntry);
-                }
+                lines.append(IngressErrorLogEntry.createRandomEntry(isFrontend));
             }
+
+            // Send to TCP port if configured, otherwise write to file
+            LogSink.forTarget(filePath, port).write(lines);
         } catch (IOException e) {
-            if (!usePortLogging) {
-                logger.error("Error writing to ingress error log file: " + filePath, e);
-            }
+            logger.error("Error writing to ingress error log file: " + filePath, e);
+        } finally {
+            lines.release();
         }
     }
-} 
\ No newline at end of file
+}
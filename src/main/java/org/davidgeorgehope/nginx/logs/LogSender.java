@@ -1,25 +1,156 @@
 package org.davidgeorgehope.nginx.logs;
 
+import org.davidgeorgehope.encoding.LineBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 /**
  * Utility class for sending log messages to TCP ports
+ *
+ * <p>All connections are served by one non-blocking event loop thread. A generator thread sending a batch only
+ * copies it once and puts it on the bounded queue of each {@link SenderClient} of the port; the event loop writes
+ * the queues out as the sockets accept them, so a slow or stalled client never holds up the generator or the
+ * port's other clients. What happens to a client whose queue fills up is set by the {@link SlowConsumerPolicy}.
+ * The clients' queue depth, lag and drops are available from {@link #getClients()} and are logged periodically
+ * when a stats interval is set.
+ *
+ * <p>With a spool directory, every batch sealed for a port is also appended to the port's {@link PortSpool}, whose
+ * own writer thread writes it to disk. A client that starts with a {@code RESUME <offset>} line, the offset being
+ * the number of bytes of the port it has already received, is first served the spooled bytes from that offset and
+ * then joins the live clients, so lines sent while it was disconnected are not lost. The spool is read on separate
+ * threads, one chunk per client at a time, and the event loop only writes the chunks they filled. A client that
+ * sends any other line, such as {@code LIVE}, only receives new lines. Either way it is first sent an {@code OFFSET <offset>} line with the offset of the first byte it is
+ * served, to resume from on its next connection. Clients that send nothing within a second only receive new lines.
+ *
+ * <p>With a socket directory, every port also listens on a Unix domain socket in it ({@code port-9001.sock}), for
+ * clients on the same host. Those clients get the same lines as the TCP ones and can resume the same way.
+ *
+ * <p>With a multiplexed port, one connection can carry the output of many ports: its clients subscribe to a set of
+ * ports and receive their batches as {@link MuxFrame}s. Multiplexed clients only receive new lines. With
+ * {@link #registerStream(int)} instead of {@link #initializePort(int)} a port gets no listener of its own, so the
+ * multiplexed port is the only one open.
  */
 public class LogSender {
     private static final Logger logger = LoggerFactory.getLogger(LogSender.class);
-    private static final Map<Integer, ServerSocket> portToServerSocket = new ConcurrentHashMap<>();
-    private static final Map<Integer, ExecutorService> portToExecutorService = new ConcurrentHashMap<>();
-    private static final Map<Integer, Map<Socket, PrintWriter>> portToClients = new ConcurrentHashMap<>();
+    private static final Map<Integer, ServerSocketChannel> portToServerSocket = new ConcurrentHashMap<>();
+    private static final Map<Integer, ServerSocketChannel> portToUnixServer = new ConcurrentHashMap<>();
+    // Coalesces each port's batches and hands them to its live clients
+    private static final Map<Integer, PortBatcher> portToBatcher = new ConcurrentHashMap<>();
+    private static final Map<Integer, PortSpool> portToSpool = new ConcurrentHashMap<>();
+    // Every connected client, including those still in the handshake or catching up
+    private static final Set<SenderClient> clients = ConcurrentHashMap.newKeySet();
+    private static final Queue<Runnable> loopTasks = new ConcurrentLinkedQueue<>();
+    private static final Queue<SenderClient> writeRequests = new ConcurrentLinkedQueue<>();
+    private static final String RESUME = "RESUME ";
+    private static final String OFFSET = "OFFSET ";
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 1000;
+    private static final int MAX_HANDSHAKE_CHARS = 1024;
+    private static final int REPLAY_CHUNK_BYTES = 256 * 1024;
+    private static final long CHECK_INTERVAL_MILLIS = 100;
+    private static volatile boolean virtualThreads = false;
+    private static volatile Path spoolDirectory = null;
+    private static volatile long spoolSegmentBytes = 64L * 1024 * 1024;
+    private static volatile long spoolMaxBytes = 1024L * 1024 * 1024;
+    private static volatile Path socketDirectory = null;
+    private static volatile long maxQueueBytes = 8L * 1024 * 1024;
+    private static volatile SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DISCONNECT;
+    private static volatile long maxLagMillis = 10_000;
+    private static volatile long statsIntervalSeconds = 0;
+    private static volatile int batchBytes = 64 * 1024;
+    private static volatile long lingerMillis = 5;
+    private static volatile int muxPort = 0;
+
+    private static Selector selector;
+    private static Thread eventLoop;
+    private static ExecutorService spoolReader;
+    private static volatile boolean running = false;
+
+    /**
+     * Run the event loop serving the connections on a virtual thread
+     * @param enabled Whether to use virtual threads
+     */
+    public static void setVirtualThreads(boolean enabled) {
+        virtualThreads = enabled;
+    }
+
+    /**
+     * Spools what is sent to the ports initialized after this call
+     * @param directory Directory holding a spool directory per port, null to not spool
+     * @param segmentBytes Size of each spool segment file
+     * @param maxBytes Size of a port's spool beyond which its oldest segments are deleted
+     */
+    public static void configureSpool(Path directory, long segmentBytes, long maxBytes) {
+        spoolDirectory = directory;
+        spoolSegmentBytes = segmentBytes;
+        spoolMaxBytes = maxBytes;
+    }
+
+    /**
+     * Sets how much each client may fall behind, for the clients connecting after this call
+     * @param queueBytes Bytes queued per client beyond which the policy applies
+     * @param policy What to do with a client whose queue is full
+     * @param lagMillis For {@link SlowConsumerPolicy#DISCONNECT}, how long the oldest queued batch may wait
+     * @param statsSeconds Period of logging the clients' counters, 0 or less to not log them
+     */
+    public static void configureClientQueues(long queueBytes, SlowConsumerPolicy policy, long lagMillis,
+                                             long statsSeconds) {
+        maxQueueBytes = queueBytes;
+        slowConsumerPolicy = policy;
+        maxLagMillis = lagMillis;
+        statsIntervalSeconds = statsSeconds;
+    }
+
+    /**
+     * Sets how the batches sent to the ports initialized after this call are coalesced before they are written
+     * @param bytes Size at which a batch is handed to the clients
+     * @param linger How long bytes may wait for a batch to fill up, 0 to hand each send over as it comes
+     */
+    public static void configureBatching(int bytes, long linger) {
+        batchBytes = bytes;
+        lingerMillis = linger;
+    }
+
+    /**
+     * Also listen on a Unix domain socket for the ports initialized after this call
+     * @param directory Directory to create the sockets in, null for TCP only
+     */
+    public static void configureUnixSockets(Path directory) {
+        socketDirectory = directory;
+    }
+
+    /**
+     * The Unix domain socket a port listens on
+     */
+    public static Path socketPath(Path directory, int port) {
+        return directory.resolve("port-" + port + ".sock");
+    }
 
     /**
      * Initialize a server socket for a specific port
@@ -32,109 +163,526 @@ public class LogSender {
         }
 
         try {
-            ServerSocket serverSocket = new ServerSocket(port);
+            registerStream(port);
+            ServerSocketChannel serverSocket = ServerSocketChannel.open();
+            serverSocket.bind(new InetSocketAddress(port));
             portToServerSocket.put(port, serverSocket);
-            portToClients.put(port, new ConcurrentHashMap<>());
-            
-            // Create an executor for handling client connections
-            ExecutorService executor = Executors.newCachedThreadPool();
-            portToExecutorService.put(port, executor);
-            
-            // Start a thread to accept client connections
-            executor.submit(() -> {
-                while (!serverSocket.isClosed()) {
-                    try {
-                        Socket client = serverSocket.accept();
-                        logger.info("Client connected to port " + port);
-                        portToClients.get(port).put(client, new PrintWriter(client.getOutputStream(), true));
-                    } catch (IOException e) {
-                        if (!serverSocket.isClosed()) {
-                            logger.error("Error accepting client connection on port " + port, e);
-                        }
-                    }
-                }
-            });
-            
+            listen(port, serverSocket);
             logger.info("Initialized log server on port " + port);
+
+            if (socketDirectory != null) {
+                Path path = socketPath(socketDirectory, port);
+                Files.createDirectories(socketDirectory);
+                // A socket file left by a previous run would fail the bind
+                Files.deleteIfExists(path);
+                ServerSocketChannel unixServer = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                unixServer.bind(UnixDomainSocketAddress.of(path));
+                portToUnixServer.put(port, unixServer);
+                listen(port, unixServer);
+                logger.info("Initialized log server on port " + port + " at " + path);
+            }
         } catch (IOException e) {
             logger.error("Failed to initialize server socket for port " + port, e);
         }
     }
-    
+
+    /**
+     * Sets up the batching and spool of a port without listening on it, so only the multiplexed port serves it.
+     * The port number is the stream id its {@link MuxFrame}s carry.
+     * @param port The port whose logs to serve
+     */
+    public static void registerStream(int port) throws IOException {
+        if (portToBatcher.containsKey(port)) {
+            return;
+        }
+        startEventLoop();
+        PortSpool spool = null;
+        if (spoolDirectory != null) {
+            spool = new PortSpool(port, spoolDirectory.resolve("port-" + port), spoolSegmentBytes, spoolMaxBytes);
+            portToSpool.put(port, spool);
+        }
+        portToBatcher.put(port, new PortBatcher(port, batchBytes, lingerMillis, writeRequests::add, spool));
+    }
+
+    /**
+     * Initialize the multiplexed port, whose clients subscribe to the ports initialized or registered so far
+     * @param port The port to listen on
+     */
+    public static void initializeMuxPort(int port) {
+        if (portToServerSocket.containsKey(port) || portToBatcher.containsKey(port)) {
+            logger.error("Multiplexed port " + port + " is already used by a log port");
+            return;
+        }
+
+        try {
+            startEventLoop();
+            ServerSocketChannel serverSocket = ServerSocketChannel.open();
+            serverSocket.bind(new InetSocketAddress(port));
+            portToServerSocket.put(port, serverSocket);
+            muxPort = port;
+            listen(port, serverSocket);
+            logger.info("Initialized multiplexed log server on port " + port + " for ports " +
+                    portToBatcher.keySet());
+        } catch (IOException e) {
+            logger.error("Failed to initialize server socket for multiplexed port " + port, e);
+        }
+    }
+
     /**
      * Send a log message to a specific port
      * @param port The port to send the log to
-     * @param message The log message to send
+     * @param message The log message to send, a newline is added if it does not end with one
      */
     public static void sendLog(int port, String message) {
-        if (port <= 0) {
+        String line = message.endsWith("\n") ? message : message + "\n";
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        sendBytes(port, bytes, 0, bytes.length, 1);
+    }
+
+    /**
+     * Send a batch of encoded log lines to a specific port in a single write per client
+     * @param port The port to send the logs to
+     * @param lines The encoded lines to send
+     */
+    public static void sendLines(int port, LineBuffer lines) {
+        sendBytes(port, lines.array(), 0, lines.length(), lines.lineCount());
+    }
+
+    /**
+     * The connected clients of every port, with their queue and drop counters
+     */
+    public static List<SenderClient> getClients() {
+        return new ArrayList<>(clients);
+    }
+
+    /**
+     * The bytes sent to the ports and not yet written to their clients: the pending batches plus, for every port,
+     * the longest client queue, since a port's clients share the queued batches
+     */
+    public static long queuedBytes() {
+        long total = 0;
+        for (PortBatcher batcher : portToBatcher.values()) {
+            total += batcher.pendingBytes();
+        }
+        Map<Integer, Long> longestQueues = new HashMap<>();
+        for (SenderClient client : clients) {
+            longestQueues.merge(client.getPort(), client.getQueuedBytes(), Math::max);
+        }
+        for (long queued : longestQueues.values()) {
+            total += queued;
+        }
+        return total;
+    }
+
+    private static void sendBytes(int port, byte[] bytes, int offset, int length, int lines) {
+        if (port <= 0 || length == 0) {
             // Port not configured, skip
             return;
         }
-        
-        Map<Socket, PrintWriter> clients = portToClients.get(port);
-        if (clients == null || clients.isEmpty()) {
-            // No clients connected, skip
+
+        PortSpool spool = portToSpool.get(port);
+        if (spool != null) {
+            // The batcher spools what it seals, this only holds the generator back when the disk can't keep up
+            spool.awaitWriter();
+        }
+        PortBatcher batcher = portToBatcher.get(port);
+        if (batcher != null && batcher.append(bytes, offset, length, lines, System.currentTimeMillis())) {
+            selector.wakeup();
+        }
+    }
+
+    private static synchronized void startEventLoop() throws IOException {
+        if (eventLoop != null) {
+            return;
+        }
+        selector = Selector.open();
+        running = true;
+        eventLoop = virtualThreads
+                ? Thread.ofVirtual().name("log-sender").unstarted(LogSender::runEventLoop)
+                : new Thread(LogSender::runEventLoop, "log-sender");
+        eventLoop.setDaemon(true);
+        eventLoop.start();
+        spoolReader = virtualThreads
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newCachedThreadPool(runnable -> {
+                    Thread thread = new Thread(runnable, "spool-reader");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    private static void listen(int port, ServerSocketChannel server) throws IOException {
+        server.configureBlocking(false);
+        runOnEventLoop(() -> {
+            try {
+                server.register(selector, SelectionKey.OP_ACCEPT, port);
+            } catch (ClosedChannelException e) {
+                // Shut down before the loop got to it
+            }
+        });
+    }
+
+    private static void runOnEventLoop(Runnable task) {
+        loopTasks.add(task);
+        selector.wakeup();
+    }
+
+    private static void runEventLoop() {
+        long nextCheck = System.currentTimeMillis() + CHECK_INTERVAL_MILLIS;
+        long nextStats = System.currentTimeMillis() + statsIntervalSeconds * 1000;
+        while (running) {
+            try {
+                selector.select(selectTimeout());
+                Runnable task;
+                while ((task = loopTasks.poll()) != null) {
+                    task.run();
+                }
+                long sealTime = System.currentTimeMillis();
+                for (PortBatcher batcher : portToBatcher.values()) {
+                    batcher.sealIfDue(sealTime);
+                }
+                SenderClient requested;
+                while ((requested = writeRequests.poll()) != null) {
+                    write(requested);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept((ServerSocketChannel) key.channel(), (Integer) key.attachment());
+                        continue;
+                    }
+                    SenderClient client = (SenderClient) key.attachment();
+                    if (key.isReadable()) {
+                        read(client);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(client);
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now >= nextCheck) {
+                    nextCheck = now + CHECK_INTERVAL_MILLIS;
+                    checkClients(now);
+                }
+                if (statsIntervalSeconds > 0 && now >= nextStats) {
+                    nextStats = now + statsIntervalSeconds * 1000;
+                    clients.forEach(client -> logger.info(client.toString()));
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.error("Error in the log sender event loop", e);
+            }
+        }
+    }
+
+    /**
+     * Until the next pending batch is due, at most the client check interval
+     */
+    private static long selectTimeout() {
+        long now = System.currentTimeMillis();
+        long timeout = CHECK_INTERVAL_MILLIS;
+        for (PortBatcher batcher : portToBatcher.values()) {
+            timeout = Math.min(timeout, batcher.nextDueMillis() - now);
+        }
+        // 0 would wait forever
+        return Math.max(1, timeout);
+    }
+
+    private static void accept(ServerSocketChannel server, int port) throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            SocketAddress remote = channel.getRemoteAddress();
+            String address = String.valueOf(remote instanceof UnixDomainSocketAddress
+                    ? server.getLocalAddress() : remote);
+            SenderClient client = new SenderClient(port, address, channel, maxQueueBytes, slowConsumerPolicy,
+                    maxLagMillis);
+            // Reading shows when the client goes away, and its resume request
+            client.key = channel.register(selector, SelectionKey.OP_READ, client);
+            clients.add(client);
+            logger.info("Client " + address + " connected to port " + port);
+            if (port == muxPort || portToSpool.containsKey(port)) {
+                client.handshakeDeadlineMillis = System.currentTimeMillis() + HANDSHAKE_TIMEOUT_MILLIS;
+            } else {
+                portToBatcher.get(port).addClient(client);
+            }
+        }
+    }
+
+    private static void read(SenderClient client) {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        try {
+            int read;
+            while ((read = client.channel().read(buffer)) > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining() && client.handshakeDeadlineMillis > 0) {
+                    byte b = buffer.get();
+                    if (b == '\n' || client.handshake.length() >= MAX_HANDSHAKE_CHARS) {
+                        endHandshake(client, client.handshake.toString());
+                    } else {
+                        client.handshake.append((char) b);
+                    }
+                }
+                // Anything else a client sends is ignored
+                buffer.clear();
+            }
+            if (read < 0) {
+                close(client, "disconnected");
+            }
+        } catch (IOException e) {
+            close(client, "disconnected: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts serving the client from the offset it asked for
+     */
+    private static void endHandshake(SenderClient client, String request) throws IOException {
+        client.handshakeDeadlineMillis = 0;
+        if (client.getPort() == muxPort) {
+            subscribe(client, request);
+            return;
+        }
+        PortSpool spool = portToSpool.get(client.getPort());
+        client.replayPosition = spool.resumeOffset(parseResumeOffset(request, spool));
+        if (!request.isEmpty()) {
+            // Clients that asked for something also learn where they are served from
+            byte[] acknowledgement = (OFFSET + client.replayPosition + "\n").getBytes(StandardCharsets.US_ASCII);
+            client.enqueueReplay(ByteBuffer.wrap(acknowledgement), System.currentTimeMillis());
+        }
+        // Writing starts the replay once the acknowledgement is out
+        client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Adds a multiplexed client to the ports of its {@code SUBSCRIBE} line, or to every port when it didn't send one
+     */
+    private static void subscribe(SenderClient client, String line) {
+        String request = line.trim();
+        String streams = request.startsWith(MuxFrame.SUBSCRIBE)
+                ? request.substring(MuxFrame.SUBSCRIBE.length()).trim() : MuxFrame.ALL_STREAMS;
+        if (streams.isEmpty() || streams.equals(MuxFrame.ALL_STREAMS)) {
+            portToBatcher.values().forEach(batcher -> batcher.addFrameClient(client));
+            logger.info("Client " + client.getAddress() + " subscribed to ports " + portToBatcher.keySet());
             return;
         }
-        
-        // Send to all connected clients
-        clients.entrySet().removeIf(entry -> {
+        List<Integer> subscribed = new ArrayList<>();
+        for (String stream : streams.split(",")) {
+            PortBatcher batcher = null;
             try {
-                PrintWriter writer = entry.getValue();
-                writer.println(message);
-                if (writer.checkError()) {
-                    throw new IOException("Error writing to client");
+                int port = Integer.parseInt(stream.trim());
+                batcher = portToBatcher.get(port);
+                if (batcher != null) {
+                    batcher.addFrameClient(client);
+                    subscribed.add(port);
+                }
+            } catch (NumberFormatException e) {
+                // Logged below
+            }
+            if (batcher == null) {
+                logger.warn("Client " + client.getAddress() + " subscribed to unknown stream " + stream.trim());
+            }
+        }
+        logger.info("Client " + client.getAddress() + " subscribed to ports " + subscribed);
+    }
+
+    /**
+     * Has the next chunk of spooled bytes read for a client catching up, or adds it to the live clients once it
+     * has caught up. Only called while the client's queue is empty.
+     */
+    private static void replay(SenderClient client) {
+        PortSpool spool = portToSpool.get(client.getPort());
+        while (client.replayPosition >= 0) {
+            long end = spool.writtenEnd();
+            if (client.replayPosition < end) {
+                // Nothing to write until the chunk is read
+                client.key.interestOps(SelectionKey.OP_READ);
+                if (!client.replayReading) {
+                    client.replayReading = true;
+                    long from = client.replayPosition;
+                    long to = Math.min(end, from + REPLAY_CHUNK_BYTES);
+                    spoolReader.execute(() -> readReplayChunk(client, spool, from, to));
                 }
-                return false;
-            } catch (Exception e) {
-                try {
-                    entry.getKey().close();
-                } catch (IOException ex) {
-                    // Ignore
+                return;
+            }
+            // The rest is still in memory, unless the writer got to it first and it has to be read after all
+            if (portToBatcher.get(client.getPort()).addReplayedClient(client, client.replayPosition,
+                    System.currentTimeMillis())) {
+                client.replayPosition = -1;
+                if (client.getQueuedBytes() > 0) {
+                    client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
                 }
-                return true;
             }
+        }
+        if (client.replayedBytes > 0) {
+            logger.info("Replayed " + client.replayedBytes + " spooled bytes to client " + client.getAddress() +
+                    " on port " + client.getPort());
+        }
+    }
+
+    /**
+     * Reads a chunk of the spool on a spool reader thread and hands it to the event loop to queue for the client
+     */
+    private static void readReplayChunk(SenderClient client, PortSpool spool, long from, long to) {
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream((int) (to - from));
+        long next;
+        try {
+            next = spool.copyTo(from, to, chunk);
+        } catch (IOException e) {
+            runOnEventLoop(() -> close(client, "disconnected, could not read the spool: " + e.getMessage()));
+            return;
+        }
+        runOnEventLoop(() -> {
+            client.replayReading = false;
+            if (!client.channel().isOpen()) {
+                return;
+            }
+            client.replayPosition = next;
+            client.replayedBytes += chunk.size();
+            client.enqueueReplay(ByteBuffer.wrap(chunk.toByteArray()), System.currentTimeMillis());
+            client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
         });
     }
-    
+
+    private static void write(SenderClient client) {
+        if (!client.channel().isOpen()) {
+            return;
+        }
+        String reason = client.getDisconnectReason();
+        if (reason != null) {
+            close(client, "disconnected by the slow consumer policy, " + reason);
+            return;
+        }
+        try {
+            if (!client.flush()) {
+                client.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } else if (client.replayPosition >= 0 && client.handshakeDeadlineMillis == 0) {
+                replay(client);
+            } else {
+                client.key.interestOps(SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            close(client, "disconnected: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ends the handshakes that timed out and disconnects the clients too far behind
+     */
+    private static void checkClients(long now) throws IOException {
+        for (SenderClient client : clients) {
+            if (client.handshakeDeadlineMillis > 0) {
+                if (now >= client.handshakeDeadlineMillis) {
+                    // A client that only reads
+                    endHandshake(client, "");
+                }
+            } else if (client.isTooFarBehind(now)) {
+                close(client, "disconnected by the slow consumer policy, " + client.getDisconnectReason());
+            }
+        }
+    }
+
+    private static void close(SenderClient client, String reason) {
+        if (client.getPort() == muxPort) {
+            portToBatcher.values().forEach(batcher -> batcher.removeClient(client));
+        } else {
+            PortBatcher batcher = portToBatcher.get(client.getPort());
+            if (batcher != null) {
+                batcher.removeClient(client);
+            }
+        }
+        clients.remove(client);
+        logger.info("Client " + client.getAddress() + " of port " + client.getPort() + " " + reason + " (" +
+                client.getSentBytes() + " bytes sent, " + client.getDroppedBatches() + " batches dropped)");
+        client.close();
+    }
+
+    /**
+     * The offset in the client's {@code RESUME <offset>} line, or the spool's end when it didn't send one
+     */
+    private static long parseResumeOffset(String line, PortSpool spool) {
+        String request = line.trim();
+        if (!request.startsWith(RESUME)) {
+            return spool.end();
+        }
+        try {
+            return Long.parseLong(request.substring(RESUME.length()).trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring malformed resume request: " + request);
+            return spool.end();
+        }
+    }
+
     /**
      * Shutdown all server sockets and client connections
      */
     public static void shutdown() {
-        for (Map.Entry<Integer, ServerSocket> entry : portToServerSocket.entrySet()) {
+        Thread loop;
+        synchronized (LogSender.class) {
+            loop = eventLoop;
+            eventLoop = null;
+        }
+        if (loop != null) {
+            running = false;
+            selector.wakeup();
+            try {
+                loop.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            spoolReader.shutdownNow();
+        }
+
+        for (Map.Entry<Integer, ServerSocketChannel> entry : portToServerSocket.entrySet()) {
             try {
                 Integer port = entry.getKey();
                 logger.info("Shutting down log server on port " + port);
-                
-                // Close all client connections
-                Map<Socket, PrintWriter> clients = portToClients.get(port);
-                if (clients != null) {
-                    for (Socket client : clients.keySet()) {
-                        try {
-                            client.close();
-                        } catch (IOException e) {
-                            // Ignore
-                        }
-                    }
-                    clients.clear();
-                }
-                
+
                 // Close server socket
                 entry.getValue().close();
-                
-                // Shutdown executor
-                ExecutorService executor = portToExecutorService.get(port);
-                if (executor != null) {
-                    executor.shutdownNow();
+                ServerSocketChannel unixServer = portToUnixServer.get(port);
+                if (unixServer != null) {
+                    unixServer.close();
+                    Files.deleteIfExists(socketPath(socketDirectory, port));
                 }
             } catch (IOException e) {
                 logger.error("Error shutting down server socket", e);
             }
         }
-        
+
+        // Close all client connections, handing them what fits in their socket buffers first
+        for (PortBatcher batcher : portToBatcher.values()) {
+            batcher.sealIfDue(Long.MAX_VALUE);
+        }
+        for (SenderClient client : clients) {
+            try {
+                client.flush();
+            } catch (IOException e) {
+                // Ignore
+            }
+            client.close();
+        }
+
+        for (PortSpool spool : portToSpool.values()) {
+            spool.close();
+        }
+
+        if (selector != null) {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
         portToServerSocket.clear();
-        portToExecutorService.clear();
-        portToClients.clear();
+        portToUnixServer.clear();
+        portToBatcher.clear();
+        portToSpool.clear();
+        clients.clear();
     }
-} 
\ No newline at end of file
+}
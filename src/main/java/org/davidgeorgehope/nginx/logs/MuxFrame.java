@@ -0,0 +1,44 @@
+package org.davidgeorgehope.nginx.logs;
+
+/**
+ * The framed protocol of the {@link LogSender} multiplexed port, which carries the output of many ports over one
+ * connection.
+ *
+ * <p>A client connects and sends {@code SUBSCRIBE <stream>,<stream>,...} followed by a newline, where the streams
+ * are the port numbers the generator was configured with (e.g. {@code SUBSCRIBE 9005,9006}); {@code SUBSCRIBE *},
+ * or sending nothing within a second, subscribes to every stream. The generator then sends one frame per batch of
+ * whole lines, all fields big-endian:
+ * <pre>
+ *   int  length      bytes that follow this field: 16 + the size of the lines
+ *   int  stream      the port the lines were sent to
+ *   long sequence    the stream's batch number, counting from 1; a gap means batches were dropped
+ *   int  lineCount   number of lines
+ *   byte lines[]     the lines, each ending in '\n'
+ * </pre>
+ */
+public final class MuxFrame {
+    public static final int HEADER_BYTES = 20;
+    public static final String SUBSCRIBE = "SUBSCRIBE ";
+    public static final String ALL_STREAMS = "*";
+
+    private MuxFrame() {
+    }
+
+    /**
+     * Writes the header at the start of the buffer, in front of the lines already at {@link #HEADER_BYTES}
+     */
+    static void writeHeader(byte[] frame, int linesBytes, int stream, long sequence, int lineCount) {
+        putInt(frame, 0, 16 + linesBytes);
+        putInt(frame, 4, stream);
+        putInt(frame, 8, (int) (sequence >>> 32));
+        putInt(frame, 12, (int) sequence);
+        putInt(frame, 16, lineCount);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
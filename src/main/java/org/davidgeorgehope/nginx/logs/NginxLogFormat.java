@@ -0,0 +1,301 @@
+package org.davidgeorgehope.nginx.logs;
+
+import org.davidgeorgehope.encoding.AsciiEncoder;
+import org.davidgeorgehope.time.TimestampFormat;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * An nginx {@code log_format} string compiled into a line renderer, e.g.
+ * {@code $remote_addr - $remote_user [$time_local] "$request" $status $body_bytes_sent}.
+ *
+ * <p>The format is parsed once into precomputed literal bytes alternating with variables, so rendering a line
+ * only copies the literals and writes the matching {@link AccessLogFields} values in order. Variables are escaped
+ * like nginx's default {@code escape=default} and empty values are written as "-". Unknown variables are rejected
+ * when compiling.
+ */
+public class NginxLogFormat {
+    /** The access layout nginx ships as "combined" */
+    public static final String COMBINED = "$remote_addr - $remote_user [$time_local] \"$request\" $status "
+            + "$body_bytes_sent \"$http_referer\" \"$http_user_agent\"";
+    /** The ingress-nginx controller's default upstream layout */
+    public static final String INGRESS_UPSTREAMINFO = "$remote_addr - $remote_user [$time_local] \"$request\" "
+            + "$status $body_bytes_sent \"$http_referer\" \"$http_user_agent\" $request_length $request_time "
+            + "[$proxy_upstream_name] [$proxy_alternative_upstream_name] $upstream_addr "
+            + "$upstream_response_length $upstream_response_time $upstream_status $req_id";
+
+    /** The variables a format can use, rendered by {@link #writeVariable} */
+    private enum Variable {
+        REMOTE_ADDR, REMOTE_USER, TIME_LOCAL, TIME_ISO8601, MSEC, REQUEST, REQUEST_METHOD, REQUEST_URI, URI, ARGS,
+        SERVER_PROTOCOL, HOST, SERVER_NAME, STATUS, BODY_BYTES_SENT, REQUEST_LENGTH, REQUEST_TIME, HTTP_REFERER, HTTP_USER_AGENT,
+        HTTP_X_FORWARDED_FOR, REQUEST_ID, HTTP_AUTHORIZATION, COUNTRY_CODE, PROXY_UPSTREAM_NAME,
+        PROXY_ALTERNATIVE_UPSTREAM_NAME, UPSTREAM_ADDR, UPSTREAM_RESPONSE_LENGTH, UPSTREAM_RESPONSE_TIME,
+        UPSTREAM_STATUS
+    }
+
+    private static final byte[] BEARER = "Bearer ".getBytes(StandardCharsets.US_ASCII);
+    private static final Map<String, Variable> VARIABLES = new HashMap<>();
+
+    static {
+        for (Variable variable : Variable.values()) {
+            VARIABLES.put(variable.name().toLowerCase(), variable);
+        }
+        // nginx names for the same values
+        VARIABLES.put("req_id", Variable.REQUEST_ID);
+        VARIABLES.put("http_x_request_id", Variable.REQUEST_ID);
+        VARIABLES.put("geoip_country_code", Variable.COUNTRY_CODE);
+        VARIABLES.put("geoip2_data_country_code", Variable.COUNTRY_CODE);
+        VARIABLES.remove("country_code");
+    }
+
+    private final String format;
+    // literals[i] is written before variables[i], the last literal ends the line
+    private final byte[][] literals;
+    private final Variable[] variables;
+
+    private NginxLogFormat(String format, byte[][] literals, Variable[] variables) {
+        this.format = format;
+        this.literals = literals;
+        this.variables = variables;
+    }
+
+    /**
+     * Compiles a {@code log_format} string, variables are written as {@code $name} or {@code ${name}}
+     * @throws IllegalArgumentException If the format uses a variable this generator has no value for
+     */
+    public static NginxLogFormat compile(String format) {
+        List<byte[]> literals = new ArrayList<>();
+        List<Variable> variables = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < format.length()) {
+            char c = format.charAt(i);
+            if (c != '$') {
+                literal.append(c);
+                i++;
+                continue;
+            }
+
+            int start = i + 1;
+            int end;
+            String name;
+            if (start < format.length() && format.charAt(start) == '{') {
+                end = format.indexOf('}', start);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unterminated variable at offset " + i + " in: " + format);
+                }
+                name = format.substring(start + 1, end);
+                end++;
+            } else {
+                end = start;
+                while (end < format.length() && isVariableChar(format.charAt(end))) {
+                    end++;
+                }
+                name = format.substring(start, end);
+            }
+            if (name.isEmpty()) {
+                // A lone '$' is literal text
+                literal.append(c);
+                i++;
+                continue;
+            }
+
+            Variable variable = VARIABLES.get(name.toLowerCase());
+            if (variable == null) {
+                throw new IllegalArgumentException("Unsupported log_format variable $" + name
+                        + ", supported are: " + new TreeSet<>(VARIABLES.keySet()));
+            }
+            literals.add(toBytes(literal));
+            variables.add(variable);
+            i = end;
+        }
+        literal.append('\n');
+        literals.add(toBytes(literal));
+        return new NginxLogFormat(format, literals.toArray(new byte[0][]), variables.toArray(new Variable[0]));
+    }
+
+    /**
+     * Renders one line, ending with a newline
+     * @throws BufferOverflowException If the line does not fit, the buffer's position is left unchanged
+     */
+    public void encode(ByteBuffer buffer, AccessLogFields fields) {
+        if (!buffer.hasArray()) {
+            ByteBuffer heap = ByteBuffer.allocate(buffer.remaining());
+            encode(heap, fields);
+            buffer.put(heap.flip());
+            return;
+        }
+
+        // Most values are written straight into the backing array, the position is only synced for the few
+        // written through the buffer
+        byte[] array = buffer.array();
+        int base = buffer.arrayOffset();
+        int limit = base + buffer.limit();
+        int start = buffer.position();
+        int offset = base + start;
+        try {
+            for (int i = 0; i < variables.length; i++) {
+                offset = putLiteral(array, offset, limit, literals[i]);
+                offset = writeVariable(buffer, array, offset, limit, variables[i], fields);
+            }
+            offset = putLiteral(array, offset, limit, literals[variables.length]);
+        } catch (BufferOverflowException e) {
+            buffer.position(start);
+            throw e;
+        }
+        buffer.position(offset - base);
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    private static byte[] toBytes(StringBuilder literal) {
+        byte[] bytes = literal.toString().getBytes(StandardCharsets.US_ASCII);
+        literal.setLength(0);
+        return bytes;
+    }
+
+    private static boolean isVariableChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * Writes the variable at the array offset, returns the offset after it
+     */
+    private static int writeVariable(ByteBuffer buffer, byte[] array, int offset, int limit, Variable variable,
+                                     AccessLogFields fields) {
+        return switch (variable) {
+            case REMOTE_ADDR -> putString(array, offset, limit, fields.getRemoteAddr());
+            case REMOTE_USER -> putString(array, offset, limit, fields.getRemoteUser());
+            case REQUEST -> {
+                offset = putString(array, offset, limit, fields.getRequestMethod().name());
+                offset = putByte(array, offset, limit, ' ');
+                offset = putString(array, offset, limit, fields.getRequestUri());
+                offset = putByte(array, offset, limit, ' ');
+                yield putString(array, offset, limit, fields.getServerProtocol());
+            }
+            case REQUEST_METHOD -> putString(array, offset, limit, fields.getRequestMethod().name());
+            case REQUEST_URI -> putString(array, offset, limit, fields.getRequestUri());
+            case URI -> putString(array, offset, limit, path(fields.getRequestUri()));
+            case ARGS -> putString(array, offset, limit, query(fields.getRequestUri()));
+            case SERVER_PROTOCOL -> putString(array, offset, limit, fields.getServerProtocol());
+            case HOST -> putString(array, offset, limit, fields.getHost());
+            case SERVER_NAME -> putString(array, offset, limit, fields.getServerName());
+            case HTTP_REFERER -> putString(array, offset, limit, fields.getHttpReferer());
+            case HTTP_USER_AGENT -> putString(array, offset, limit, fields.getHttpUserAgent());
+            case HTTP_X_FORWARDED_FOR -> putString(array, offset, limit, fields.getForwardedFor());
+            case HTTP_AUTHORIZATION -> {
+                String token = fields.getBearerToken();
+                if (token == null) {
+                    yield putByte(array, offset, limit, '-');
+                }
+                yield putString(array, putLiteral(array, offset, limit, BEARER), limit, token);
+            }
+            case COUNTRY_CODE -> putString(array, offset, limit, fields.getCountryCode());
+            case PROXY_UPSTREAM_NAME -> putString(array, offset, limit, fields.getUpstreamName());
+            case PROXY_ALTERNATIVE_UPSTREAM_NAME ->
+                    putString(array, offset, limit, fields.getUpstreamAlternativeName());
+            case UPSTREAM_ADDR -> putString(array, offset, limit, fields.getUpstreamAddr());
+            case TIME_LOCAL -> putLiteral(array, offset, limit,
+                    TimestampFormat.NGINX_ACCESS.secondBytes(fields.getTimestampMicros(), fields.getZone()));
+            case TIME_ISO8601 -> putLiteral(array, offset, limit,
+                    TimestampFormat.ISO8601.secondBytes(fields.getTimestampMicros(), fields.getZone()));
+            case STATUS -> putNumber(array, offset, limit, fields.getStatus());
+            case BODY_BYTES_SENT -> putNumber(array, offset, limit, fields.getBodyBytesSent());
+            case REQUEST_LENGTH -> putNumber(array, offset, limit, fields.getRequestLength());
+            case UPSTREAM_RESPONSE_LENGTH -> putNumber(array, offset, limit, fields.getUpstreamResponseLength());
+            case UPSTREAM_STATUS -> putNumber(array, offset, limit, fields.getUpstreamStatus());
+            default -> {
+                // Values written through the buffer
+                int base = buffer.arrayOffset();
+                buffer.position(offset - base);
+                writeBufferVariable(buffer, variable, fields);
+                yield base + buffer.position();
+            }
+        };
+    }
+
+    private static void writeBufferVariable(ByteBuffer buffer, Variable variable, AccessLogFields fields) {
+        switch (variable) {
+            case MSEC -> {
+                long micros = fields.getTimestampMicros();
+                AsciiEncoder.putLong(buffer, Math.floorDiv(micros, 1_000_000L));
+                AsciiEncoder.put(buffer, '.');
+                AsciiEncoder.putPadded(buffer, Math.floorMod(micros, 1_000_000L) / 1000, 3);
+            }
+            case REQUEST_TIME -> putSeconds(buffer, fields.getRequestTime());
+            case REQUEST_ID -> putUuid(buffer, fields.getRequestId());
+            case UPSTREAM_RESPONSE_TIME -> putSeconds(buffer, fields.getUpstreamResponseTime());
+            default -> throw new IllegalStateException("Not a buffer variable: " + variable);
+        }
+    }
+
+    private static int putLiteral(byte[] array, int offset, int limit, byte[] literal) {
+        int length = literal.length;
+        if (limit - offset < length) {
+            throw new BufferOverflowException();
+        }
+        // Most literals are a few separator bytes, too short to be worth System.arraycopy
+        for (int i = 0; i < length; i++) {
+            array[offset + i] = literal[i];
+        }
+        return offset + length;
+    }
+
+    private static int putByte(byte[] array, int offset, int limit, char c) {
+        if (offset >= limit) {
+            throw new BufferOverflowException();
+        }
+        array[offset] = (byte) c;
+        return offset + 1;
+    }
+
+    private static int putString(byte[] array, int offset, int limit, String value) {
+        if (value == null || value.isEmpty()) {
+            return putByte(array, offset, limit, '-');
+        }
+        return AsciiEncoder.putEscaped(array, offset, limit, value);
+    }
+
+    private static String path(String uri) {
+        int query = uri == null ? -1 : uri.indexOf('?');
+        return query < 0 ? uri : uri.substring(0, query);
+    }
+
+    private static String query(String uri) {
+        int query = uri == null ? -1 : uri.indexOf('?');
+        return query < 0 ? null : uri.substring(query + 1);
+    }
+
+    private static int putNumber(byte[] array, int offset, int limit, long value) {
+        if (value < 0) {
+            return putByte(array, offset, limit, '-');
+        }
+        return AsciiEncoder.putLong(array, offset, limit, value);
+    }
+
+    private static void putSeconds(ByteBuffer buffer, double seconds) {
+        if (seconds < 0 || Double.isNaN(seconds)) {
+            AsciiEncoder.put(buffer, '-');
+        } else {
+            AsciiEncoder.putFixed(buffer, seconds, 3);
+        }
+    }
+
+    private static void putUuid(ByteBuffer buffer, UUID uuid) {
+        if (uuid == null) {
+            AsciiEncoder.put(buffer, '-');
+        } else {
+            AsciiEncoder.putUuid(buffer, uuid);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package org.davidgeorgehope.nginx.logs;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces what the generators send to a {@link LogSender} port into large batches, and hands each batch to all
+ * the port's live clients as one shared buffer.
+ *
+ * <p>A batch is sealed when it reaches {@code batchBytes} or when its oldest bytes have waited
+ * {@code lingerMillis}, whichever comes first; the event loop seals the batches that are due. With a linger of 0
+ * every send is handed over as it comes. Sealing and adding a client hold the batcher's monitor, so a client that
+ * joins gets exactly the batches sealed after it joined.
+ *
+ * <p>Batches are built with room for a {@link MuxFrame} header in front of the lines, so the clients of the
+ * multiplexed port that subscribed to this port get the same buffer, header included, without another copy.
+ *
+ * <p>With a {@link PortSpool}, every sealed batch is also appended to it, still under the monitor, so the spool's
+ * offsets follow the order the live clients get the batches in. A client catching up from the spool joins with
+ * {@link #addReplayedClient} once it has read the files up to the spool's writer, and is handed the bytes the
+ * writer has not written yet from memory.
+ */
+final class PortBatcher {
+    private final int port;
+    private final List<SenderClient> clients = new CopyOnWriteArrayList<>();
+    private final List<SenderClient> frameClients = new CopyOnWriteArrayList<>();
+    private final int batchBytes;
+    private final long lingerMillis;
+    private final Consumer<SenderClient> requestWrite;
+    private final PortSpool spool; // Null when the port is not spooled
+
+    private byte[] buffer;
+    private int length = 0; // Bytes of lines in the buffer, after the frame header
+    private int lineCount = 0;
+    private long firstMillis; // When the oldest pending byte was added
+    private long sequence = 0;
+
+    /**
+     * @param requestWrite Tells the event loop that a client has bytes to write
+     * @param spool The port's spool, null to not spool
+     */
+    PortBatcher(int port, int batchBytes, long lingerMillis, Consumer<SenderClient> requestWrite, PortSpool spool) {
+        this.port = port;
+        this.batchBytes = Math.max(1, batchBytes);
+        this.lingerMillis = lingerMillis;
+        this.requestWrite = requestWrite;
+        this.spool = spool;
+    }
+
+    /**
+     * Adds whole lines to the pending batch, sealing it when full
+     * @return Whether the event loop has to be woken up, for a client to write or a new batch to seal in time
+     */
+    synchronized boolean append(byte[] bytes, int offset, int count, int lines, long nowMillis) {
+        if (spool == null && clients.isEmpty() && frameClients.isEmpty()) {
+            // No clients connected, skip
+            return false;
+        }
+        boolean wakeup = false;
+        if (length > 0 && length + count > batchBytes) {
+            wakeup = seal();
+        }
+        if (lingerMillis <= 0 || count >= batchBytes) {
+            byte[] frame = new byte[MuxFrame.HEADER_BYTES + count];
+            System.arraycopy(bytes, offset, frame, MuxFrame.HEADER_BYTES, count);
+            return dispatch(frame, count, lines, nowMillis) || wakeup;
+        }
+        if (length == 0) {
+            buffer = new byte[MuxFrame.HEADER_BYTES + batchBytes];
+            firstMillis = nowMillis;
+            wakeup = true;
+        }
+        System.arraycopy(bytes, offset, buffer, MuxFrame.HEADER_BYTES + length, count);
+        length += count;
+        lineCount += lines;
+        return wakeup;
+    }
+
+    /**
+     * Seals the pending batch if it has lingered long enough. Runs on the event loop.
+     */
+    synchronized void sealIfDue(long nowMillis) {
+        if (length > 0 && nowMillis - firstMillis >= lingerMillis) {
+            seal();
+        }
+    }
+
+    /**
+     * Bytes of lines in the pending batch
+     */
+    synchronized int pendingBytes() {
+        return length;
+    }
+
+    /**
+     * When the pending batch is due, {@link Long#MAX_VALUE} when there is none
+     */
+    synchronized long nextDueMillis() {
+        return length > 0 ? firstMillis + lingerMillis : Long.MAX_VALUE;
+    }
+
+    /**
+     * Adds a client to the live clients, after handing the pending batch to the current ones
+     */
+    synchronized void addClient(SenderClient client) {
+        seal();
+        clients.add(client);
+    }
+
+    /**
+     * Adds a client that has replayed the spool up to an offset to the live clients, queuing the spooled bytes
+     * from there that the spool's writer has not written yet
+     * @return Whether the client joined, false when the writer wrote some of those bytes in the meantime and the
+     *         client has to read them from the files first
+     */
+    synchronized boolean addReplayedClient(SenderClient client, long from, long nowMillis) {
+        seal();
+        List<ByteBuffer> unwritten = spool.unwrittenFrom(from);
+        if (unwritten == null) {
+            return false;
+        }
+        for (ByteBuffer bytes : unwritten) {
+            client.enqueueReplay(bytes, nowMillis);
+        }
+        clients.add(client);
+        return true;
+    }
+
+    /**
+     * Adds a client of the multiplexed port, which receives the batches as frames
+     */
+    synchronized void addFrameClient(SenderClient client) {
+        seal();
+        frameClients.add(client);
+    }
+
+    void removeClient(SenderClient client) {
+        clients.remove(client);
+        frameClients.remove(client);
+    }
+
+    private boolean seal() {
+        if (length == 0) {
+            return false;
+        }
+        boolean requested = dispatch(buffer, length, lineCount, firstMillis);
+        buffer = null;
+        length = 0;
+        lineCount = 0;
+        return requested;
+    }
+
+    /**
+     * @param frame The lines, after room for the frame header
+     */
+    private boolean dispatch(byte[] frame, int linesBytes, int lines, long enqueuedMillis) {
+        if (spool != null) {
+            // The header in front is written below, the spool only keeps the lines
+            spool.append(frame, MuxFrame.HEADER_BYTES, linesBytes);
+        }
+        boolean requested = false;
+        if (!clients.isEmpty()) {
+            requested = enqueue(clients, ByteBuffer.wrap(frame, MuxFrame.HEADER_BYTES, linesBytes).slice(),
+                    enqueuedMillis);
+        }
+        sequence++;
+        if (!frameClients.isEmpty()) {
+            MuxFrame.writeHeader(frame, linesBytes, port, sequence, lines);
+            requested |= enqueue(frameClients, ByteBuffer.wrap(frame, 0, MuxFrame.HEADER_BYTES + linesBytes),
+                    enqueuedMillis);
+        }
+        return requested;
+    }
+
+    private boolean enqueue(List<SenderClient> receivers, ByteBuffer batch, long enqueuedMillis) {
+        ByteBuffer shared = batch.asReadOnlyBuffer();
+        boolean requested = false;
+        for (SenderClient client : receivers) {
+            if (client.enqueue(shared, enqueuedMillis)) {
+                requestWrite.accept(client);
+                requested = true;
+            }
+        }
+        return requested;
+    }
+}
@@ -0,0 +1,400 @@
+package org.davidgeorgehope.nginx.logs;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+
+/**
+ * The append-only on-disk record of everything sent to one {@link LogSender} port, so that a client that was not
+ * connected can be served the lines it missed.
+ *
+ * <p>Every byte sent to the port has an offset that keeps counting across segments and restarts. The bytes are
+ * stored in segment files of about {@code segmentBytes} named after the offset of their first byte
+ * ({@code 00000000000000000000.spool}), and the oldest segments are deleted once the spool holds more than
+ * {@code maxBytes}. A client replaying from an offset is served by {@link #copyTo}, which reads the segments
+ * sequentially; the live path only ever appends.
+ *
+ * <p>Appending only queues the bytes and gives them their offsets; a writer thread per spool writes them to the
+ * files, so the threads appending never wait on the disk unless the writer falls {@code MAX_UNWRITTEN_BYTES}
+ * behind. Bytes that are queued but not yet written are served from memory by {@link #unwrittenFrom}. Appends
+ * must be serialized by the caller ({@link PortBatcher} appends each batch it seals under its monitor), reads may
+ * run concurrently with them. Bytes the writer fails to write are lost from the spool and counted, and their
+ * offsets are skipped by the readers.
+ */
+class PortSpool {
+    private static final Logger logger = LoggerFactory.getLogger(PortSpool.class);
+    private static final String SUFFIX = ".spool";
+    private static final int READ_BYTES = 64 * 1024;
+    private static final long MAX_UNWRITTEN_BYTES = 16L * 1024 * 1024;
+    private static final long ERROR_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final int port;
+    private final Path directory;
+    private final long segmentBytes;
+    private final long maxBytes;
+    // Segment files by the offset of their first byte
+    private final ConcurrentSkipListMap<Long, Path> segments = new ConcurrentSkipListMap<>();
+    // Appended bytes the writer has not written yet, in offset order
+    private final Queue<Unwritten> unwritten = new ConcurrentLinkedQueue<>();
+    private final AtomicLong unwrittenBytes = new AtomicLong();
+    private final AtomicLong lostBytes = new AtomicLong();
+    private final Thread writer;
+    private FileChannel current; // Null after a failed write, until the next write opens a segment
+    private volatile long end; // Offset after the last byte appended
+    private volatile long writtenEnd; // Offset after the last byte written
+    private volatile boolean closing = false;
+    private volatile boolean writerParked = false;
+    private long nextErrorLogNanos = System.nanoTime();
+    private long nextBehindLogNanos = System.nanoTime();
+
+    PortSpool(int port, Path directory, long segmentBytes, long maxBytes) throws IOException {
+        this.port = port;
+        this.directory = directory;
+        this.segmentBytes = Math.max(1, segmentBytes);
+        this.maxBytes = Math.max(this.segmentBytes, maxBytes);
+        Files.createDirectories(directory);
+        recover();
+        // A platform thread, file writes would pin a virtual one to its carrier anyway
+        writer = new Thread(this::write, "spool-writer-" + port);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues whole lines for the writer. The array is kept until they are written, so it must not be reused.
+     */
+    void append(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return;
+        }
+        unwritten.add(new Unwritten(bytes, offset, length, end));
+        unwrittenBytes.addAndGet(length);
+        end += length;
+        if (writerParked) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Waits while the writer is too far behind, so that a disk slower than the generators bounds the memory the
+     * unwritten bytes take. Called before appending, outside any lock the writer or the event loop needs.
+     */
+    void awaitWriter() {
+        if (unwrittenBytes.get() <= MAX_UNWRITTEN_BYTES) {
+            return;
+        }
+        long start = System.nanoTime();
+        while (unwrittenBytes.get() > MAX_UNWRITTEN_BYTES && !closing && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(100_000);
+        }
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (now - nextBehindLogNanos >= 0) {
+                nextBehindLogNanos = now + ERROR_LOG_INTERVAL_NANOS;
+                logger.warn("Spool writer of port " + port + " fell " + MAX_UNWRITTEN_BYTES + " bytes behind, " +
+                        "sending waited " + TimeUnit.NANOSECONDS.toMillis(now - start) + " ms for it");
+            }
+        }
+    }
+
+    /**
+     * Offset after the last byte appended, written or not
+     */
+    long end() {
+        return end;
+    }
+
+    /**
+     * Offset after the last byte written to the segment files, up to which {@link #copyTo} can read
+     */
+    long writtenEnd() {
+        return writtenEnd;
+    }
+
+    /**
+     * Bytes the writer failed to write since the spool was opened
+     */
+    long lostBytes() {
+        return lostBytes.get();
+    }
+
+    /**
+     * The appended bytes from an offset to the end that are not written yet, so a client that has read the
+     * segment files up to the writer can be handed the rest without waiting for it. Must be called while no
+     * append can run.
+     * @return The bytes as buffers of their own, or null when the writer wrote the bytes at {@code from} in the
+     *         meantime, so they have to be read from the files
+     */
+    List<ByteBuffer> unwrittenFrom(long from) {
+        List<ByteBuffer> buffers = new ArrayList<>();
+        if (from >= end) {
+            return buffers;
+        }
+        for (Unwritten pending : unwritten) {
+            if (pending.position + pending.length <= from) {
+                continue;
+            }
+            if (buffers.isEmpty() && pending.position > from) {
+                return null;
+            }
+            int skip = (int) Math.max(0, from - pending.position);
+            buffers.add(ByteBuffer.wrap(pending.bytes, pending.offset + skip, pending.length - skip).slice());
+        }
+        return buffers.isEmpty() ? null : buffers;
+    }
+
+    /**
+     * Offset of the oldest byte still in the spool
+     */
+    long start() {
+        Map.Entry<Long, Path> first = segments.firstEntry();
+        return first != null ? first.getKey() : end;
+    }
+
+    /**
+     * Writes the spooled bytes from one offset up to another to the client, reading the segments in order
+     * @return The offset after the last byte written, later than {@code from} when retention deleted the bytes
+     *         at {@code from} before they were read
+     */
+    long copyTo(long from, long to, OutputStream out) throws IOException {
+        byte[] bytes = new byte[READ_BYTES];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long position = from;
+        while (position < to) {
+            Map.Entry<Long, Path> segment = segments.floorEntry(position);
+            if (segment == null) {
+                position = skipTo(position, start());
+                continue;
+            }
+            Long next = segments.higherKey(segment.getKey());
+            long segmentEnd = Math.min(to, next != null ? next : writtenEnd);
+            try (FileChannel channel = FileChannel.open(segment.getValue(), StandardOpenOption.READ)) {
+                while (position < segmentEnd) {
+                    buffer.clear().limit((int) Math.min(READ_BYTES, segmentEnd - position));
+                    int read = channel.read(buffer, position - segment.getKey());
+                    if (read < 0) {
+                        // Ends early where a failed write lost bytes
+                        position = skipTo(position, segmentEnd);
+                        break;
+                    }
+                    out.write(bytes, 0, read);
+                    position += read;
+                }
+            } catch (NoSuchFileException e) {
+                // Deleted by retention while the client was catching up, or by hand, which leaves it in the map
+                segments.remove(segment.getKey(), segment.getValue());
+                position = skipTo(position, segmentEnd);
+            }
+        }
+        out.flush();
+        return position;
+    }
+
+    /**
+     * The offset a client asking for the given one is served from: the oldest spooled byte when those before it
+     * have been deleted, the end when it is past the end (e.g. a spool that was wiped)
+     */
+    long resumeOffset(long requested) {
+        long oldest = start();
+        if (requested < oldest) {
+            return skipTo(requested, oldest);
+        }
+        if (requested > end) {
+            logger.warn("Client on port " + port + " asked for offset " + requested + " past the spool end " + end +
+                    ", serving new lines only");
+            return end;
+        }
+        return requested;
+    }
+
+    /**
+     * Stops the writer once it has written what was appended, and closes the current segment
+     */
+    void close() {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            if (current != null) {
+                current.close();
+            }
+        } catch (IOException e) {
+            logger.warn("Error closing spool of port " + port + ": " + e.getMessage());
+        }
+    }
+
+    private void write() {
+        while (true) {
+            Unwritten pending = unwritten.peek();
+            if (pending != null) {
+                write(pending);
+                // Readable from the files before it leaves the queue, see unwrittenFrom
+                writtenEnd = pending.position + pending.length;
+                unwritten.poll();
+                unwrittenBytes.addAndGet(-pending.length);
+                continue;
+            }
+            if (closing) {
+                return;
+            }
+            writerParked = true;
+            if (unwritten.peek() == null && !closing) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            }
+            writerParked = false;
+        }
+    }
+
+    private void write(Unwritten pending) {
+        long before = -1;
+        try {
+            if (current == null) {
+                openSegment(pending.position);
+            } else if (current.position() > 0 && current.position() + pending.length > segmentBytes) {
+                roll(pending.position);
+            }
+            before = current.position();
+            ByteBuffer buffer = ByteBuffer.wrap(pending.bytes, pending.offset, pending.length);
+            while (buffer.hasRemaining()) {
+                current.write(buffer);
+            }
+        } catch (IOException e) {
+            lost(pending, before, e);
+        }
+    }
+
+    /**
+     * Drops the current segment at the last whole write, so the next write starts a segment past the lost bytes
+     */
+    private void lost(Unwritten pending, long before, IOException e) {
+        long lost = lostBytes.addAndGet(pending.length);
+        if (current != null) {
+            try {
+                if (before >= 0) {
+                    current.truncate(before);
+                }
+                current.close();
+            } catch (IOException closeError) {
+                // Reported with the write error
+            }
+            current = null;
+        }
+        long now = System.nanoTime();
+        if (now - nextErrorLogNanos >= 0) {
+            nextErrorLogNanos = now + ERROR_LOG_INTERVAL_NANOS;
+            logger.error("Error spooling logs of port " + port + ", " + lost + " bytes lost so far: " +
+                    e.getMessage());
+        }
+    }
+
+    private long skipTo(long requested, long oldest) {
+        if (requested > 0) {
+            logger.warn("Spool of port " + port + " no longer holds offsets " + requested + " to " + oldest +
+                    ", " + (oldest - requested) + " bytes are skipped");
+        }
+        return oldest;
+    }
+
+    private void roll(long base) throws IOException {
+        current.close();
+        current = null;
+        openSegment(base);
+        long total = base - start();
+        while (total > maxBytes && segments.size() > 1) {
+            Map.Entry<Long, Path> oldest = segments.pollFirstEntry();
+            Files.deleteIfExists(oldest.getValue());
+            total = base - start();
+        }
+    }
+
+    private void openSegment(long base) throws IOException {
+        Path path = directory.resolve(String.format("%020d", base) + SUFFIX);
+        // Readable too, recovery looks for the last line end in it
+        current = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        current.position(current.size());
+        segments.put(base, path);
+    }
+
+    /**
+     * Picks up the segments of a previous run, trimming a last segment that ends in a partial line
+     */
+    private void recover() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().matches("\\d{20}" + SUFFIX.replace(".", "\\.")))
+                    .forEach(file -> {
+                        String name = file.getFileName().toString();
+                        segments.put(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())), file);
+                    });
+        }
+        if (segments.isEmpty()) {
+            openSegment(0);
+            end = 0;
+            writtenEnd = 0;
+            return;
+        }
+        long base = segments.lastKey();
+        openSegment(base);
+        current.truncate(lastLineEnd(current));
+        current.position(current.size());
+        end = base + current.size();
+        writtenEnd = end;
+        logger.info("Spool of port " + port + " holds offsets " + start() + " to " + end);
+    }
+
+    private static long lastLineEnd(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(READ_BYTES);
+        long position = channel.size();
+        while (position > 0) {
+            int length = (int) Math.min(READ_BYTES, position);
+            buffer.clear().limit(length);
+            while (buffer.hasRemaining() && channel.read(buffer, position - length + buffer.position()) >= 0) {
+                // Read the whole block
+            }
+            for (int i = length - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return position - length + i + 1;
+                }
+            }
+            position -= length;
+        }
+        return 0;
+    }
+
+    private static final class Unwritten {
+        final byte[] bytes;
+        final int offset;
+        final int length;
+        final long position; // Spool offset of the first byte
+
+        Unwritten(byte[] bytes, int offset, int length, long position) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+            this.position = position;
+        }
+    }
+}
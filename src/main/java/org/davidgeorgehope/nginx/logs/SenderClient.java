@@ -0,0 +1,268 @@
+package org.davidgeorgehope.nginx.logs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * One client connection of a {@link LogSender} port and its bounded queue of outbound bytes.
+ *
+ * <p>Generator threads only {@link #enqueue} batches; the sender's event loop thread writes them with
+ * {@link #flush} whenever the socket accepts more. When a batch doesn't fit the queue, the port's
+ * {@link SlowConsumerPolicy} decides between dropping old bytes, dropping the batch or disconnecting. Batches are
+ * dropped whole, so the client always receives whole lines. The queue is guarded by the client's monitor.
+ */
+public final class SenderClient {
+    private static final int MAX_GATHER = 64; // Queued batches written per call, well under IOV_MAX
+
+    private final int port;
+    private final String address;
+    private final SocketChannel channel;
+    private final long maxQueueBytes;
+    private final SlowConsumerPolicy policy;
+    private final long maxLagMillis;
+
+    private final ArrayDeque<Batch> queue = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private long queuedBytes = 0;
+    private boolean writeRequested = false;
+    private boolean closed = false;
+    private String disconnectReason = null; // Set when the policy disconnects the client
+
+    private long sentBytes = 0;
+    private long writeCalls = 0;
+    private long droppedBatches = 0;
+    private long droppedBytes = 0;
+
+    // Event loop state
+    SelectionKey key;
+    final StringBuilder handshake = new StringBuilder();
+    long handshakeDeadlineMillis = 0; // 0 once the handshake is over
+    long replayPosition = -1; // Next spool offset to replay, -1 once the client receives the live batches
+    long replayedBytes = 0;
+    boolean replayReading = false; // A chunk of the spool is being read for the client
+
+    SenderClient(int port, String address, SocketChannel channel, long maxQueueBytes, SlowConsumerPolicy policy,
+                 long maxLagMillis) {
+        this.port = port;
+        this.address = address;
+        this.channel = channel;
+        this.maxQueueBytes = Math.max(1, maxQueueBytes);
+        this.policy = policy;
+        this.maxLagMillis = maxLagMillis;
+    }
+
+    /**
+     * Queues a batch of whole lines, shared read-only with the port's other clients
+     * @return Whether the event loop has to be told that the client has bytes to write
+     */
+    synchronized boolean enqueue(ByteBuffer batch, long nowMillis) {
+        if (closed || disconnectReason != null) {
+            return false;
+        }
+        int length = batch.remaining();
+        if (queuedBytes + length > maxQueueBytes) {
+            switch (policy) {
+                case DROP_OLDEST:
+                    dropOldest(queuedBytes + length - maxQueueBytes);
+                    if (queuedBytes + length > maxQueueBytes) {
+                        drop(length); // Larger than what can be dropped
+                        return false;
+                    }
+                    break;
+                case DROP_NEWEST:
+                    drop(length);
+                    return false;
+                default:
+                    return disconnect("its queue of " + maxQueueBytes + " bytes is full");
+            }
+        } else if (policy == SlowConsumerPolicy.DISCONNECT && lagMillis(nowMillis) > maxLagMillis) {
+            return disconnect("it is " + lagMillis(nowMillis) + " ms behind");
+        }
+        queue.add(new Batch(batch.duplicate(), nowMillis));
+        queuedBytes += length;
+        return requestWrite();
+    }
+
+    /**
+     * Queues replayed spool bytes, which are not subject to the policy: the replay only reads more once the queue
+     * is empty
+     */
+    synchronized void enqueueReplay(ByteBuffer bytes, long nowMillis) {
+        queue.add(new Batch(bytes, nowMillis));
+        queuedBytes += bytes.remaining();
+    }
+
+    /**
+     * Writes queued bytes until the queue is empty or the socket's buffer is full, gathering up to
+     * {@link #MAX_GATHER} batches into each write. Runs on the event loop.
+     * @return Whether the queue was emptied
+     */
+    synchronized boolean flush() throws IOException {
+        while (!queue.isEmpty()) {
+            int count = 0;
+            long remaining = 0;
+            for (Batch batch : queue) {
+                remaining += batch.bytes.remaining();
+                gather[count++] = batch.bytes;
+                if (count == MAX_GATHER) {
+                    break;
+                }
+            }
+            long written;
+            try {
+                written = channel.write(gather, 0, count);
+            } finally {
+                Arrays.fill(gather, 0, count, null);
+            }
+            writeCalls++;
+            sentBytes += written;
+            queuedBytes -= written;
+            while (!queue.isEmpty() && !queue.peek().bytes.hasRemaining()) {
+                queue.poll();
+            }
+            if (written < remaining) {
+                // The socket's buffer is full
+                return false;
+            }
+        }
+        writeRequested = false;
+        return true;
+    }
+
+    /**
+     * Whether the policy disconnects the client because its oldest queued batch is too old, for clients that
+     * stopped reading while nothing new is sent. Runs on the event loop.
+     */
+    synchronized boolean isTooFarBehind(long nowMillis) {
+        if (disconnectReason == null && policy == SlowConsumerPolicy.DISCONNECT &&
+                lagMillis(nowMillis) > maxLagMillis) {
+            disconnectReason = "it is " + lagMillis(nowMillis) + " ms behind";
+        }
+        return disconnectReason != null;
+    }
+
+    synchronized String getDisconnectReason() {
+        return disconnectReason;
+    }
+
+    synchronized void close() {
+        closed = true;
+        queue.clear();
+        queuedBytes = 0;
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public synchronized long getQueuedBytes() {
+        return queuedBytes;
+    }
+
+    /**
+     * How long the oldest byte still queued for the client has been waiting, 0 when the queue is empty
+     */
+    public synchronized long getLagMillis() {
+        return lagMillis(System.currentTimeMillis());
+    }
+
+    public synchronized long getSentBytes() {
+        return sentBytes;
+    }
+
+    /**
+     * Number of socket writes, each carrying one or more batches
+     */
+    public synchronized long getWriteCalls() {
+        return writeCalls;
+    }
+
+    public synchronized long getDroppedBatches() {
+        return droppedBatches;
+    }
+
+    public synchronized long getDroppedBytes() {
+        return droppedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "client " + address + " of port " + port + ": " + queuedBytes + " bytes queued, lag " +
+                lagMillis(System.currentTimeMillis()) + " ms, " + sentBytes + " bytes sent in " + writeCalls +
+                " writes, " + droppedBatches + " batches (" + droppedBytes + " bytes) dropped";
+    }
+
+    private long lagMillis(long nowMillis) {
+        Batch oldest = queue.peek();
+        return oldest != null ? Math.max(0, nowMillis - oldest.enqueuedMillis) : 0;
+    }
+
+    /**
+     * Drops queued batches from the oldest until at least the given number of bytes are freed. A batch the event
+     * loop has started writing is kept, so the client never gets part of a line.
+     */
+    private void dropOldest(long bytes) {
+        long freed = 0;
+        Iterator<Batch> batches = queue.iterator();
+        while (freed < bytes && batches.hasNext()) {
+            Batch batch = batches.next();
+            if (batch.bytes.position() > 0) {
+                continue;
+            }
+            int length = batch.bytes.remaining();
+            batches.remove();
+            queuedBytes -= length;
+            freed += length;
+            drop(length);
+        }
+    }
+
+    private void drop(int length) {
+        droppedBatches++;
+        droppedBytes += length;
+    }
+
+    private boolean disconnect(String reason) {
+        disconnectReason = reason;
+        return requestWrite();
+    }
+
+    private boolean requestWrite() {
+        if (writeRequested) {
+            return false;
+        }
+        writeRequested = true;
+        return true;
+    }
+
+    private static final class Batch {
+        final ByteBuffer bytes;
+        final long enqueuedMillis;
+
+        Batch(ByteBuffer bytes, long enqueuedMillis) {
+            this.bytes = bytes;
+            this.enqueuedMillis = enqueuedMillis;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.davidgeorgehope.nginx.logs;
+
+import java.util.Locale;
+
+/**
+ * What {@link LogSender} does with a client that doesn't read as fast as the port is written
+ */
+public enum SlowConsumerPolicy {
+    /** Drops the oldest queued batches to make room for the new one */
+    DROP_OLDEST,
+    /** Drops the new batch while the client's queue is full */
+    DROP_NEWEST,
+    /** Disconnects the client once its queue is full or its oldest queued batch is too old */
+    DISCONNECT;
+
+    /**
+     * @param name The policy, e.g. {@code drop-oldest} or {@code DROP_OLDEST}
+     */
+    public static SlowConsumerPolicy parse(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+}
@@ -1,6 +1,8 @@
 package org.davidgeorgehope.nginx.metrics;
 
-import java.util.Random;
+import java.util.random.RandomGenerator;
+
+import org.davidgeorgehope.random.LogRandom;
 
 public class BackendMetricsServer extends MetricsServer {
 
@@ -15,7 +17,7 @@ public class BackendMetricsServer extends MetricsServer {
 
     @Override
     protected void updateMetrics() {
-        Random rand = new Random();
+        RandomGenerator rand = LogRandom.current();
         activeConnections = rand.nextInt(500) + 100;
         acceptedConnections += rand.nextInt(100) + 50;
         handledConnections += rand.nextInt(100) + 50;
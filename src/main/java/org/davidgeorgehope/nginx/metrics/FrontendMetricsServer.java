@@ -4,11 +4,13 @@ import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.util.Random;
+import java.util.random.RandomGenerator;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import org.davidgeorgehope.random.LogRandom;
+
 public class FrontendMetricsServer extends MetricsServer {
 
     public FrontendMetricsServer(int port) {
@@ -22,7 +24,7 @@ public class FrontendMetricsServer extends MetricsServer {
 
     @Override
     protected void updateMetrics() {
-        Random rand = new Random();
+        RandomGenerator rand = LogRandom.current();
         activeConnections = rand.nextInt(1000) + 200;
         acceptedConnections += rand.nextInt(200) + 100;
         handledConnections += rand.nextInt(200) + 100;
@@ -4,12 +4,13 @@ import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.Executors;
 
 // Import the AnomalyConfig class
 import org.davidgeorgehope.AnomalyConfig;
+import org.davidgeorgehope.random.LogRandom;
 
 public abstract class MetricsServer {
     protected final int port;
@@ -42,8 +43,18 @@ public abstract class MetricsServer {
             System.out.println(getServerName() + " Metrics Server started on port " + port);
 
             // Update metrics every second
+            RandomGenerator random = LogRandom.isSeeded() ? LogRandom.newGenerator("metrics-" + getServerName(), 0) : null;
             Executors.newSingleThreadScheduledExecutor().scheduleAtFixedRate(
-                this::updateMetrics,
+                () -> {
+                    if (random != null) {
+                        LogRandom.bind(random);
+                    }
+                    try {
+                        updateMetrics();
+                    } finally {
+                        LogRandom.unbind();
+                    }
+                },
                 0,
                 1,
                 TimeUnit.SECONDS
@@ -56,7 +67,7 @@ public abstract class MetricsServer {
     protected abstract String getServerName();
 
     protected void updateMetrics() {
-        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        RandomGenerator rand = LogRandom.current();
 
         if (AnomalyConfig.isInduceDatabaseOutage()) {
             // Simulate metrics during database outage
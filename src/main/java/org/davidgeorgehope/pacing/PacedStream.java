@@ -0,0 +1,108 @@
+package org.davidgeorgehope.pacing;
+
+import org.davidgeorgehope.LogGeneratorUtils;
+import org.davidgeorgehope.random.LogRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+import java.util.random.RandomGenerator;
+
+/**
+ * A log stream driven by a {@link TokenBucketPacer}. The stream is meant to be ticked at a short fixed
+ * interval (see {@code --pacing-tick-ms}); each tick emits only the events that have become due since the
+ * previous one, so a stream's rate is spread evenly across the second instead of arriving as one burst.
+ *
+ * <p>Once per second the target rate is re-derived from the base rate, optionally scaled by the anomaly
+ * envelope of the {@link SurgeController} and by the Pareto burst model from
+ * {@link LogGeneratorUtils#getParetoBurstFactor()}. The events due on a tick are then admitted by the surge
+ * controller, which keeps all streams together under its events per second and in-flight byte ceilings.
+ */
+public class PacedStream implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(PacedStream.class);
+    private static final long RATE_UPDATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double MAX_CATCH_UP_SECONDS = 1.0;
+
+    private final String name;
+    private final double baseRatePerSecond;
+    private final boolean paretoBursts;
+    private final boolean anomalyScaled;
+    private final IntConsumer emitter;
+    private final SurgeController surge;
+    private final TokenBucketPacer pacer;
+    private final RandomGenerator random; // Only set in seeded runs
+    private long nextRateUpdateNanos;
+
+    /**
+     * @param name Stream name, used for logging
+     * @param baseRatePerSecond Steady target rate in events per second
+     * @param paretoBursts Whether to layer the Pareto burst model on top of the steady rate
+     * @param anomalyScaled Whether the high visitor / low request rate anomalies apply to this stream
+     * @param emitter Called with the number of events to generate on each tick
+     * @param surge Shapes the anomaly multipliers and caps what the stream may emit
+     */
+    public PacedStream(String name, double baseRatePerSecond, boolean paretoBursts, boolean anomalyScaled,
+                       IntConsumer emitter, SurgeController surge) {
+        this.name = name;
+        this.baseRatePerSecond = baseRatePerSecond;
+        this.paretoBursts = paretoBursts;
+        this.anomalyScaled = anomalyScaled;
+        this.emitter = emitter;
+        this.surge = surge;
+        this.random = LogRandom.isSeeded() ? LogRandom.newGenerator(name, 0) : null;
+
+        long now = System.nanoTime();
+        this.pacer = new TokenBucketPacer(baseRatePerSecond, MAX_CATCH_UP_SECONDS, now);
+        this.nextRateUpdateNanos = now;
+    }
+
+    @Override
+    public void run() {
+        // Runs of a stream never overlap, so the stream's generator can be bound to whichever thread runs it
+        if (random != null) {
+            LogRandom.bind(random);
+        }
+        try {
+            long now = System.nanoTime();
+            if (now - nextRateUpdateNanos >= 0) {
+                pacer.setRatePerSecond(currentTargetRate(now));
+                nextRateUpdateNanos = now + RATE_UPDATE_INTERVAL_NANOS;
+            }
+
+            int due = pacer.acquire(now);
+            int admitted = due > 0 ? surge.admit(due, now) : 0;
+            if (admitted > 0) {
+                try {
+                    emitter.accept(admitted);
+                } finally {
+                    surge.release(admitted);
+                }
+            }
+        } catch (RuntimeException e) {
+            // An exception would silently cancel the periodic task, so log it and keep the stream alive
+            logger.error("Error generating logs for stream " + name, e);
+        } finally {
+            LogRandom.unbind();
+        }
+    }
+
+    private double currentTargetRate(long nowNanos) {
+        double rate = baseRatePerSecond;
+        if (anomalyScaled) {
+            rate *= surge.multiplier(nowNanos);
+        }
+        if (paretoBursts) {
+            rate *= LogGeneratorUtils.getParetoBurstFactor();
+        }
+        return surge.limitRate(name, rate);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getCurrentRatePerSecond() {
+        return pacer.getRatePerSecond();
+    }
+}
@@ -0,0 +1,162 @@
+package org.davidgeorgehope.pacing;
+
+import org.davidgeorgehope.LogEntry;
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.davidgeorgehope.random.LogRandom;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.random.RandomGenerator;
+
+/**
+ * Splits the events due on each tick of a stream across a fixed number of generator shards. Every shard owns
+ * a single thread, so it builds and renders its slice on its own core with its own random generator: the shard
+ * thread's ThreadLocalRandom, or a generator split from the seed in seeded runs (with virtual threads the shard
+ * thread is virtual and the cores are the carrier threads). Seeded output then depends on the shard count, which
+ * is why DataGenerator refuses {@code --seed} together with {@code --stream-shards}.
+ * The slices are encoded on the shards and merged in timestamp order before being handed to the stream's writer, which keeps
+ * the output ordered like a single generator would have produced it.
+ */
+public class ShardedStream implements IntConsumer {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedStream.class);
+
+    private final String name;
+    private final ExecutorService[] shards;
+    private final RandomGenerator[] shardRandoms; // Only set in seeded runs
+    private final IntFunction<? extends List<? extends LogEntry>> entryFactory;
+    private final Consumer<LineBuffer> writer;
+    private int remainderOffset = 0;
+
+    /**
+     * @param name Stream name, used for thread names and logging
+     * @param shardCount Number of shards, each with its own thread
+     * @param threadFactory Creates the shard threads, see {@link StreamScheduler#newThreadFactory(String)}
+     * @param entryFactory Creates the given number of entries on the calling shard thread
+     * @param writer Receives the merged, encoded lines of every tick, and must not keep them after returning
+     */
+    public ShardedStream(String name, int shardCount, ThreadFactory threadFactory,
+                         IntFunction<? extends List<? extends LogEntry>> entryFactory, Consumer<LineBuffer> writer) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be at least 1: " + shardCount);
+        }
+        this.name = name;
+        this.entryFactory = entryFactory;
+        this.writer = writer;
+        this.shards = new ExecutorService[shardCount];
+        this.shardRandoms = new RandomGenerator[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = Executors.newSingleThreadExecutor(threadFactory);
+            if (LogRandom.isSeeded()) {
+                shardRandoms[i] = LogRandom.newGenerator(name, i + 1);
+            }
+        }
+        logger.info("Stream " + name + " generating with " + shardCount + " shards");
+    }
+
+    @Override
+    public void accept(int logsToGenerate) {
+        int shardCount = shards.length;
+        int baseSlice = logsToGenerate / shardCount;
+        int remainder = logsToGenerate % shardCount;
+
+        // Rotate which shards receive the remainder so small ticks are spread over all shards
+        int offset = remainderOffset;
+        remainderOffset = (remainderOffset + remainder) % shardCount;
+
+        List<Future<LineBuffer>> futures = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            int slice = baseSlice + (Math.floorMod(i - offset, shardCount) < remainder ? 1 : 0);
+            if (slice > 0) {
+                RandomGenerator random = shardRandoms[i];
+                futures.add(shards[i].submit(() -> {
+                    if (random != null) {
+                        LogRandom.bind(random);
+                    }
+                    try {
+                        return encode(entryFactory.apply(slice));
+                    } finally {
+                        LogRandom.unbind();
+                    }
+                }));
+            }
+        }
+
+        List<LineBuffer> slices = new ArrayList<>(futures.size());
+        try {
+            for (Future<LineBuffer> future : futures) {
+                slices.add(future.get());
+            }
+            LineBuffer merged = merge(slices);
+            writer.accept(merged);
+            if (!slices.contains(merged)) {
+                merged.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Shard failed to generate logs for stream " + name, e.getCause());
+        } finally {
+            for (LineBuffer slice : slices) {
+                slice.release();
+            }
+        }
+    }
+
+    /**
+     * K-way merge of the shard slices by timestamp. Each slice is already in timestamp order, and ties keep
+     * shard order, so the merge is stable.
+     */
+    private static LineBuffer merge(List<LineBuffer> slices) {
+        if (slices.size() == 1) {
+            return slices.get(0);
+        }
+
+        int total = 0;
+        for (LineBuffer slice : slices) {
+            total += slice.lineCount();
+        }
+
+        LineBuffer merged = LineBuffer.acquire();
+        int[] positions = new int[slices.size()];
+        for (int n = 0; n < total; n++) {
+            int next = -1;
+            long nextTimestamp = Long.MAX_VALUE;
+            for (int s = 0; s < slices.size(); s++) {
+                LineBuffer slice = slices.get(s);
+                if (positions[s] < slice.lineCount() && slice.timestampMillis(positions[s]) < nextTimestamp) {
+                    next = s;
+                    nextTimestamp = slice.timestampMillis(positions[s]);
+                }
+            }
+            merged.appendLine(slices.get(next), positions[next]++);
+        }
+        return merged;
+    }
+
+    public void shutdown() {
+        for (ExecutorService shard : shards) {
+            shard.shutdownNow();
+        }
+    }
+
+    /**
+     * Encodes one shard's entries, on the shard thread
+     */
+    private static LineBuffer encode(List<? extends LogEntry> entries) {
+        LineBuffer lines = LineBuffer.acquire();
+        for (LogEntry entry : entries) {
+            lines.append(entry);
+        }
+        return lines;
+    }
+}
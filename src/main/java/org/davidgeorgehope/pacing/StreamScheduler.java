@@ -0,0 +1,121 @@
+package org.davidgeorgehope.pacing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the periodic stream tasks in one of two execution modes:
+ * <ul>
+ *   <li>{@link ExecutionMode#PLATFORM}: tasks run directly on a small scheduled platform thread pool, so a
+ *   stream blocked on a file or socket write holds one of the pool threads.</li>
+ *   <li>{@link ExecutionMode#VIRTUAL}: a single timer thread only decides when a task is due and hands each run
+ *   to its own virtual thread. A blocked write parks the virtual thread and frees its carrier for the other
+ *   streams.</li>
+ * </ul>
+ */
+public class StreamScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(StreamScheduler.class);
+
+    public enum ExecutionMode {
+        PLATFORM, VIRTUAL
+    }
+
+    private final ExecutionMode mode;
+    private final ScheduledExecutorService timer;
+    private final ExecutorService workers;
+
+    public StreamScheduler(ExecutionMode mode, int platformThreads) {
+        this.mode = mode;
+        if (mode == ExecutionMode.VIRTUAL) {
+            this.timer = Executors.newSingleThreadScheduledExecutor();
+            this.workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("stream-", 0).factory());
+            logger.info("Running streams on virtual threads");
+        } else {
+            this.timer = Executors.newScheduledThreadPool(platformThreads);
+            this.workers = null;
+            logger.info("Running streams on " + platformThreads + " platform threads");
+        }
+    }
+
+    /**
+     * Schedules a stream task. In virtual mode a run is skipped while the previous run of the same task is still
+     * in progress; paced streams make up the skipped events on their next run.
+     */
+    public void scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if (workers == null) {
+            timer.scheduleAtFixedRate(task, initialDelay, period, unit);
+            return;
+        }
+
+        AtomicBoolean running = new AtomicBoolean(false);
+        timer.scheduleAtFixedRate(() -> {
+            if (running.compareAndSet(false, true)) {
+                workers.execute(() -> {
+                    try {
+                        task.run();
+                    } finally {
+                        running.set(false);
+                    }
+                });
+            }
+        }, initialDelay, period, unit);
+    }
+
+    /**
+     * The scheduler used for timing-only work such as anomaly windows and outage resets
+     */
+    public ScheduledExecutorService getTimer() {
+        return timer;
+    }
+
+    /**
+     * Thread factory matching the execution mode, for threads that belong to a stream (e.g. generator shards)
+     */
+    public ThreadFactory newThreadFactory(String namePrefix) {
+        if (mode == ExecutionMode.VIRTUAL) {
+            return Thread.ofVirtual().name(namePrefix + "-", 0).factory();
+        }
+        return newPlatformThreadFactory(namePrefix);
+    }
+
+    public ExecutionMode getMode() {
+        return mode;
+    }
+
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        timer.shutdown();
+        if (workers != null) {
+            workers.shutdown();
+        }
+        if (!timer.awaitTermination(timeout, unit)) {
+            timer.shutdownNow();
+        }
+        if (workers != null && !workers.awaitTermination(timeout, unit)) {
+            workers.shutdownNow();
+        }
+    }
+
+    public void shutdownNow() {
+        timer.shutdownNow();
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    private static ThreadFactory newPlatformThreadFactory(String namePrefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, namePrefix + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
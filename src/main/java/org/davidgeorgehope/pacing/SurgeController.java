@@ -0,0 +1,153 @@
+package org.davidgeorgehope.pacing;
+
+import org.davidgeorgehope.LogGeneratorUtils;
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Shapes the anomaly rate multipliers into a bounded envelope and enforces hard ceilings for all paced streams.
+ *
+ * <p>When an anomaly changes the target multiplier (e.g. 10x for a high visitor rate), the multiplier doesn't
+ * jump: it ramps towards the target over {@code rampSeconds}, stays there while the anomaly lasts and decays
+ * back over {@code decaySeconds} once it ends. The envelope moves linearly in log space, so a ramp to 10x grows
+ * the rate by the same factor every second, and a ramp down to 0.1x mirrors it.
+ *
+ * <p>Whatever the envelope and burst model ask for, all streams together stay under an events per second
+ * ceiling: when the rates the streams ask for add up to more, every stream's rate is scaled down by the same
+ * factor, and a shared token bucket cuts off anything that still gets through while the rates catch up. The
+ * events a stream may emit are also capped by the bytes in flight: the events handed to a generator and not yet
+ * handed to a sink, estimated from the average encoded line length, plus the bytes the sinks still hold in their
+ * queues. Events over either ceiling are shed, not queued.
+ */
+public class SurgeController {
+    private static final Logger logger = LoggerFactory.getLogger(SurgeController.class);
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+    private static final long SHED_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final double DEFAULT_LINE_BYTES = 512;
+
+    private final double rampSeconds;
+    private final double decaySeconds;
+    private final long maxInFlightBytes;
+    private final double maxEventsPerSecond;
+    private final TokenBucketPacer eventCeiling; // Null when the rate is unbounded
+    private final LongSupplier queuedBytes;
+    private final Map<String, Double> requestedRates = new ConcurrentHashMap<>();
+
+    // Current envelope segment: from startLevel to targetLevel (natural logs of the multiplier)
+    private double startLevel = 0;
+    private double targetLevel = 0;
+    private long segmentStartNanos;
+    private double segmentSeconds = 1;
+
+    private final AtomicLong inFlightEvents = new AtomicLong();
+    private final AtomicLong shedEvents = new AtomicLong();
+    private volatile long nextShedLogNanos;
+
+    /**
+     * @param rampSeconds Time to move from 1x to an anomaly's multiplier
+     * @param decaySeconds Time to move back to 1x after the anomaly ends
+     * @param maxEventsPerSecond Ceiling on the events of all streams together, 0 or less for none
+     * @param maxInFlightBytes Ceiling on the estimated bytes being generated plus the bytes queued in the sinks
+     * @param queuedBytes The bytes the sinks have taken but not yet written
+     */
+    public SurgeController(double rampSeconds, double decaySeconds, double maxEventsPerSecond,
+                           long maxInFlightBytes, LongSupplier queuedBytes) {
+        long now = System.nanoTime();
+        this.rampSeconds = rampSeconds;
+        this.decaySeconds = decaySeconds;
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.maxEventsPerSecond = maxEventsPerSecond;
+        this.queuedBytes = queuedBytes;
+        this.eventCeiling = maxEventsPerSecond > 0 ? new TokenBucketPacer(maxEventsPerSecond, 1.0, now) : null;
+        this.segmentStartNanos = now;
+        this.nextShedLogNanos = now;
+    }
+
+    /**
+     * The anomaly multiplier at the given instant, following the target from
+     * {@link LogGeneratorUtils#getAnomalyRateMultiplier()} along the envelope
+     */
+    public synchronized double multiplier(long nowNanos) {
+        double level = levelAt(nowNanos);
+        double target = Math.log(LogGeneratorUtils.getAnomalyRateMultiplier());
+        if (target != targetLevel) {
+            // Start a new segment from wherever the envelope is now. Moving away from 1x is a ramp,
+            // moving back towards it is a decay
+            startLevel = level;
+            targetLevel = target;
+            segmentStartNanos = nowNanos;
+            boolean ramp = Math.abs(target) > Math.abs(level);
+            segmentSeconds = ramp ? rampSeconds : decaySeconds;
+        }
+        return Math.exp(level);
+    }
+
+    /**
+     * Records the rate a stream asks for and returns its share of the events per second ceiling
+     */
+    public double limitRate(String stream, double requestedRate) {
+        requestedRates.put(stream, requestedRate);
+        if (eventCeiling == null) {
+            return requestedRate;
+        }
+        double total = 0;
+        for (double rate : requestedRates.values()) {
+            total += rate;
+        }
+        return total > maxEventsPerSecond ? requestedRate * maxEventsPerSecond / total : requestedRate;
+    }
+
+    private double levelAt(long nowNanos) {
+        double elapsed = (nowNanos - segmentStartNanos) / NANOS_PER_SECOND;
+        if (segmentSeconds <= 0 || elapsed >= segmentSeconds) {
+            return targetLevel;
+        }
+        return startLevel + (targetLevel - startLevel) * Math.max(0, elapsed) / segmentSeconds;
+    }
+
+    /**
+     * Takes as many of the due events as the ceilings allow. Every admitted event must be given back with
+     * {@link #release(int)} once its lines have been handed to the sink; from then on the sink's queue accounts
+     * for them.
+     * @return Number of events the stream may generate now
+     */
+    public int admit(int due, long nowNanos) {
+        int admitted = due;
+        if (eventCeiling != null) {
+            admitted = eventCeiling.acquire(nowNanos, admitted);
+        }
+
+        double lineBytes = LineBuffer.averageLineBytes(DEFAULT_LINE_BYTES);
+        long maxEvents = (long) (Math.max(0, maxInFlightBytes - queuedBytes.getAsLong()) / lineBytes);
+        long inFlight = inFlightEvents.addAndGet(admitted);
+        if (inFlight > maxEvents) {
+            int over = (int) Math.min(admitted, inFlight - maxEvents);
+            inFlightEvents.addAndGet(-over);
+            admitted -= over;
+        }
+
+        if (admitted < due) {
+            long shed = shedEvents.addAndGet(due - admitted);
+            if (nowNanos - nextShedLogNanos >= 0) {
+                nextShedLogNanos = nowNanos + SHED_LOG_INTERVAL_NANOS;
+                logger.warn("Surge ceiling reached, " + shed + " events shed so far");
+            }
+        }
+        return admitted;
+    }
+
+    public void release(int admitted) {
+        inFlightEvents.addAndGet(-admitted);
+    }
+
+    public long getShedEvents() {
+        return shedEvents.get();
+    }
+}
@@ -0,0 +1,67 @@
+package org.davidgeorgehope.pacing;
+
+/**
+ * Token bucket that converts a target events-per-second rate into the number of events due at a given instant.
+ * Tokens accrue from elapsed monotonic time rather than from the number of ticks, so a late or skipped tick
+ * is made up on the next call instead of drifting. Catch-up is capped at {@code maxBurstSeconds} worth of
+ * events so that a long pause (GC, suspended container) doesn't turn into one enormous batch.
+ */
+public class TokenBucketPacer {
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private final double maxBurstSeconds;
+    private volatile double ratePerSecond;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucketPacer(double ratePerSecond, double maxBurstSeconds, long startNanos) {
+        if (ratePerSecond < 0) {
+            throw new IllegalArgumentException("Rate must not be negative: " + ratePerSecond);
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.maxBurstSeconds = maxBurstSeconds;
+        this.lastRefillNanos = startNanos;
+        // Start with one token so every stream emits immediately, like the old initial delay of 0
+        this.tokens = 1.0;
+    }
+
+    /**
+     * Refills the bucket up to {@code nowNanos} and takes every whole token available.
+     * @param nowNanos Current {@link System#nanoTime()} value
+     * @return Number of events that are due now
+     */
+    public int acquire(long nowNanos) {
+        return acquire(nowNanos, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #acquire(long)} but takes at most {@code max} tokens, the rest stay in the bucket
+     */
+    public synchronized int acquire(long nowNanos, int max) {
+        long elapsedNanos = nowNanos - lastRefillNanos;
+        if (elapsedNanos > 0) {
+            double rate = ratePerSecond;
+            double capacity = Math.max(1.0, rate * maxBurstSeconds);
+            tokens = Math.min(capacity, tokens + rate * elapsedNanos / NANOS_PER_SECOND);
+            lastRefillNanos = nowNanos;
+        }
+
+        if (tokens < 1.0) {
+            return 0;
+        }
+        int due = (int) Math.min(tokens, max);
+        tokens -= due;
+        return due;
+    }
+
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    public void setRatePerSecond(double ratePerSecond) {
+        if (ratePerSecond < 0) {
+            throw new IllegalArgumentException("Rate must not be negative: " + ratePerSecond);
+        }
+        this.ratePerSecond = ratePerSecond;
+    }
+}
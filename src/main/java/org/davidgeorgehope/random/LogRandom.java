@@ -0,0 +1,79 @@
+package org.davidgeorgehope.random;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * Source of randomness for everything that ends up in a log line.
+ *
+ * <p>Without a seed, {@link #current()} is simply {@link ThreadLocalRandom}. With {@code --seed}, every stream,
+ * shard and backfill slice gets its own {@link SplittableRandom} derived from the seed and its identity
+ * (stream id plus shard or slice index), and binds it to the thread that generates its entries. The random
+ * values a stream sees then depend only on the seed and on which entries it generates, never on which thread
+ * ran it or how many threads there are. Live generation decides how many entries to generate from the wall clock,
+ * so only backfill and bulk file runs are reproducible, and shards split a stream's entries by shard count.
+ */
+public class LogRandom {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private static volatile boolean seeded = false;
+    private static volatile long seed = 0;
+    private static final ThreadLocal<RandomGenerator> boundGenerator = new ThreadLocal<>();
+
+    /**
+     * The generator for the calling thread: the bound generator if there is one, otherwise ThreadLocalRandom
+     */
+    public static RandomGenerator current() {
+        RandomGenerator generator = boundGenerator.get();
+        return generator != null ? generator : ThreadLocalRandom.current();
+    }
+
+    public static void setSeed(long value) {
+        seed = value;
+        seeded = true;
+    }
+
+    public static boolean isSeeded() {
+        return seeded;
+    }
+
+    /**
+     * Generator for one stream, or one shard / slice of a stream. Seeded runs always return the same sequence
+     * for the same key and index; unseeded runs get an independent randomly seeded generator.
+     * @param key Stream id or other stable name
+     * @param index Shard or slice index, 0 for the stream itself
+     */
+    public static SplittableRandom newGenerator(String key, long index) {
+        if (!seeded) {
+            return new SplittableRandom(ThreadLocalRandom.current().nextLong());
+        }
+        return new SplittableRandom(mix64(mix64(seed ^ key.hashCode() * GOLDEN_GAMMA) + (index + 1) * GOLDEN_GAMMA));
+    }
+
+    /**
+     * Deterministic value for a key, so that shared lookups (e.g. the user behind an IP) give the same answer
+     * no matter which stream or thread asks first
+     */
+    public static long stableHash(String key) {
+        return mix64(seed ^ key.hashCode() * GOLDEN_GAMMA);
+    }
+
+    /**
+     * Binds a generator to the calling thread until {@link #unbind()} is called
+     */
+    public static void bind(RandomGenerator generator) {
+        boundGenerator.set(generator);
+    }
+
+    public static void unbind() {
+        boundGenerator.remove();
+    }
+
+    // Stafford variant 13 of the MurmurHash3 finalizer, as used by SplittableRandom
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
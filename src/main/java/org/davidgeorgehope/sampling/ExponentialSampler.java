@@ -0,0 +1,32 @@
+package org.davidgeorgehope.sampling;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Exponential distribution by inverse transform, optionally truncated to a maximum value. The truncation
+ * constant is computed once instead of per sample.
+ */
+public class ExponentialSampler {
+    private final double mean;
+    private final double truncatedMass;
+
+    public ExponentialSampler(double mean) {
+        this(mean, Double.POSITIVE_INFINITY);
+    }
+
+    /**
+     * @param mean Mean of the untruncated distribution
+     * @param max Largest value returned, samples are drawn from the distribution conditioned on being below it
+     */
+    public ExponentialSampler(double mean, double max) {
+        if (mean <= 0 || max <= 0) {
+            throw new IllegalArgumentException("Mean and max must be positive: " + mean + ", " + max);
+        }
+        this.mean = mean;
+        this.truncatedMass = 1 - Math.exp(-max / mean);
+    }
+
+    public double sample(RandomGenerator random) {
+        return -mean * Math.log(1 - random.nextDouble() * truncatedMass);
+    }
+}
@@ -0,0 +1,27 @@
+package org.davidgeorgehope.sampling;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Pareto distribution by inverse transform, with the shape's reciprocal computed once
+ */
+public class ParetoSampler {
+    private final double scale;
+    private final double inverseShape;
+
+    public ParetoSampler(double scale, double shape) {
+        if (scale <= 0 || shape <= 0) {
+            throw new IllegalArgumentException("Scale and shape must be positive: " + scale + ", " + shape);
+        }
+        this.scale = scale;
+        this.inverseShape = 1.0 / shape;
+    }
+
+    /**
+     * @return A value of at least the scale
+     */
+    public double sample(RandomGenerator random) {
+        // 1 - u lies in (0, 1], so the result is always finite
+        return scale / Math.pow(1.0 - random.nextDouble(), inverseShape);
+    }
+}
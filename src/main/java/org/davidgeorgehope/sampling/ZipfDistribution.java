@@ -0,0 +1,42 @@
+package org.davidgeorgehope.sampling;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * Zipf distribution over ranks 0..n-1, where rank k has weight 1 / (k + 1)^exponent. The cumulative
+ * distribution is computed once, so each sample is a single draw and a binary search.
+ */
+public class ZipfDistribution {
+    private final double[] cumulative;
+
+    public ZipfDistribution(int size, double exponent) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Size must be at least 1: " + size);
+        }
+        cumulative = new double[size];
+        double harmonic = 0;
+        for (int i = 0; i < size; i++) {
+            harmonic += 1.0 / Math.pow(i + 1, exponent);
+            cumulative[i] = harmonic;
+        }
+        for (int i = 0; i < size; i++) {
+            cumulative[i] /= harmonic;
+        }
+        cumulative[size - 1] = 1.0;
+    }
+
+    /**
+     * @return A rank, 0 being the most frequent
+     */
+    public int sample(RandomGenerator random) {
+        double u = random.nextDouble();
+        int index = Arrays.binarySearch(cumulative, u);
+        // Either an exact hit or the insertion point, i.e. the first rank whose cumulative probability is >= u
+        return index >= 0 ? index : -index - 1;
+    }
+
+    public int size() {
+        return cumulative.length;
+    }
+}
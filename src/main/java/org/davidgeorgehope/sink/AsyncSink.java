@@ -0,0 +1,260 @@
+package org.davidgeorgehope.sink;
+
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Decouples the generators from a slow file or socket: producers copy their lines into a {@link LineRing} and
+ * return, and a dedicated consumer thread drains the ring in order into the target sink. A producer that finds
+ * the ring full drops its batch and counts it rather than waiting, so one stalled target never holds up the
+ * scheduler threads that generate the other streams.
+ *
+ * <p>Enabled with {@link #configure}; {@link LogSink#forTarget(String, int)} then wraps every target in one
+ * AsyncSink. Depth, lag and drops are available from the getters and are logged periodically when a stats
+ * interval is set.
+ */
+public final class AsyncSink implements LogSink {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncSink.class);
+    private static final long DROP_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final Map<String, AsyncSink> sinks = new ConcurrentHashMap<>();
+
+    private static volatile boolean enabled = false;
+    private static volatile int ringSize = 1024;
+    private static volatile WaitStrategy waitStrategy = WaitStrategy.PARK;
+    private static volatile long statsIntervalSeconds = 0;
+    private static ScheduledExecutorService statsReporter;
+
+    private final String name;
+    private final LogSink target;
+    private final LineRing ring;
+    private final WaitStrategy wait;
+    private final Thread consumer;
+    private volatile boolean closing = false;
+    private volatile boolean consumerParked = false;
+
+    private final AtomicLong writtenBatches = new AtomicLong();
+    private final AtomicLong droppedBatches = new AtomicLong();
+    private final AtomicLong droppedLines = new AtomicLong();
+    private volatile long nextDropLogNanos = System.nanoTime();
+
+    private AsyncSink(String name, LogSink target) {
+        this.name = name;
+        this.target = target;
+        this.ring = new LineRing(ringSize);
+        this.wait = waitStrategy;
+        this.consumer = new Thread(this::consume, "sink-" + name);
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    /**
+     * Routes the sinks opened after this call through rings
+     * @param async Whether to route writes through a ring and consumer thread per target
+     * @param ringBatches Number of batches each ring holds, rounded up to a power of two
+     * @param strategy How the consumers wait for batches
+     * @param statsSeconds Period of logging the ring counters, 0 or less to not log them
+     */
+    public static synchronized void configure(boolean async, int ringBatches, WaitStrategy strategy,
+                                              long statsSeconds) {
+        enabled = async;
+        ringSize = ringBatches;
+        waitStrategy = strategy;
+        statsIntervalSeconds = statsSeconds;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    static AsyncSink get(String name) {
+        return sinks.get(name);
+    }
+
+    /**
+     * The ring in front of the given target, started on first use
+     */
+    static synchronized AsyncSink register(String name, LogSink target) {
+        AsyncSink sink = sinks.get(name);
+        if (sink == null) {
+            sink = new AsyncSink(name, target);
+            sinks.put(name, sink);
+            startStatsReporter();
+        }
+        return sink;
+    }
+
+    /**
+     * Copies the lines into the ring, or drops them when it is full
+     */
+    @Override
+    public void write(LineBuffer lines) throws IOException {
+        if (lines.lineCount() == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (closing || !ring.tryPublish(lines, now)) {
+            drop(lines, now);
+            return;
+        }
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Waits until the consumer has taken every batch published before this call, then flushes the target
+     */
+    @Override
+    public void flush() throws IOException {
+        long published = ring.claimedSequence();
+        while (ring.consumedSequence() < published && consumer.isAlive()) {
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(100_000);
+        }
+        target.flush();
+    }
+
+    /**
+     * Stops taking batches and waits for the consumer to drain the ring. The target stays open, it is closed
+     * with the other sinks of its kind.
+     */
+    @Override
+    public void close() throws IOException {
+        closing = true;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logStats();
+    }
+
+    /**
+     * Drains and stops every ring, for shutdown before the targets are closed
+     */
+    public static synchronized void closeAll() {
+        if (statsReporter != null) {
+            statsReporter.shutdownNow();
+            statsReporter = null;
+        }
+        for (AsyncSink sink : sinks.values()) {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                logger.error("Error closing " + sink.name, e);
+            }
+        }
+        sinks.clear();
+    }
+
+    /**
+     * Batches published but not yet taken by the consumer
+     */
+    public long getDepth() {
+        return ring.depth();
+    }
+
+    /**
+     * Bytes of the batches published but not yet taken by the consumer
+     */
+    public long getQueuedBytes() {
+        return ring.queuedBytes();
+    }
+
+    /**
+     * The bytes waiting in all rings
+     */
+    static long totalQueuedBytes() {
+        long total = 0;
+        for (AsyncSink sink : sinks.values()) {
+            total += sink.getQueuedBytes();
+        }
+        return total;
+    }
+
+    /**
+     * How long the oldest waiting batch has been in the ring
+     */
+    public long getLagNanos() {
+        return ring.lagNanos(System.nanoTime());
+    }
+
+    public long getWrittenBatches() {
+        return writtenBatches.get();
+    }
+
+    public long getDroppedBatches() {
+        return droppedBatches.get();
+    }
+
+    public long getDroppedLines() {
+        return droppedLines.get();
+    }
+
+    private void consume() {
+        while (true) {
+            LineBuffer batch = ring.peek();
+            if (batch != null) {
+                try {
+                    target.write(batch);
+                } catch (IOException e) {
+                    logger.error("Error writing to " + name, e);
+                }
+                ring.advance();
+                writtenBatches.incrementAndGet();
+                continue;
+            }
+            if (closing && ring.depth() == 0) {
+                return;
+            }
+            if (wait == WaitStrategy.PARK) {
+                consumerParked = true;
+                if (ring.peek() == null && !closing) {
+                    wait.idle();
+                }
+                consumerParked = false;
+            } else {
+                wait.idle();
+            }
+        }
+    }
+
+    private void drop(LineBuffer lines, long nowNanos) {
+        droppedBatches.incrementAndGet();
+        long dropped = droppedLines.addAndGet(lines.lineCount());
+        if (nowNanos - nextDropLogNanos >= 0) {
+            nextDropLogNanos = nowNanos + DROP_LOG_INTERVAL_NANOS;
+            logger.warn("Ring for " + name + " is full, " + dropped + " lines dropped so far");
+        }
+    }
+
+    private void logStats() {
+        logger.info(name + ": depth " + getDepth() + "/" + ring.capacity() + ", lag " +
+                TimeUnit.NANOSECONDS.toMillis(getLagNanos()) + " ms, " + getWrittenBatches() + " batches written, " +
+                getDroppedBatches() + " batches (" + getDroppedLines() + " lines) dropped");
+    }
+
+    private static void startStatsReporter() {
+        if (statsReporter != null || statsIntervalSeconds <= 0) {
+            return;
+        }
+        statsReporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sink-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        statsReporter.scheduleAtFixedRate(() -> sinks.values().forEach(AsyncSink::logStats),
+                statsIntervalSeconds, statsIntervalSeconds, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,196 @@
+package org.davidgeorgehope.sink;
+
+import org.davidgeorgehope.time.TimestampFormat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * The NDJSON body of one {@code _bulk} request: a {@code create} action and a document per line, the documents
+ * holding the line as {@code message} and the entry's time as {@code @timestamp}. Keeps where each item starts, so
+ * the items Elasticsearch rejected can be sent again on their own.
+ */
+final class BulkBatch {
+    private static final byte[] ACTION = "{\"create\":{}}\n{\"@timestamp\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MESSAGE = "\",\"message\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] documentEnd; // Fields after the message, closing the document and its line
+    private byte[] body;
+    private int length = 0;
+    private int[] itemStarts = new int[256];
+    private int itemCount = 0;
+    private final long createdMillis = System.currentTimeMillis();
+    int attempts = 0;
+
+    /**
+     * @param documentEnd What follows the message in every document, e.g. {@code "}\n}
+     */
+    BulkBatch(byte[] documentEnd, int initialBytes) {
+        this.documentEnd = documentEnd;
+        this.body = new byte[Math.max(1024, initialBytes)];
+    }
+
+    /**
+     * Adds an item for the line, without its newline
+     */
+    void add(byte[] line, int offset, int lineLength, long timestampMillis) {
+        // Escaping at most sextuples a byte
+        ensureCapacity(ACTION.length + 24 + MESSAGE.length + lineLength * 6 + documentEnd.length);
+        addItemStart();
+        put(ACTION);
+        length = TimestampFormat.RFC3339_MILLIS.encode(body, length, timestampMillis * 1000, ZoneOffset.UTC);
+        put(MESSAGE);
+        for (int i = offset; i < offset + lineLength; i++) {
+            byte b = line[i];
+            if (b == '"' || b == '\\') {
+                body[length++] = '\\';
+                body[length++] = b;
+            } else if (b >= 0 && b < 0x20) {
+                putControl(b);
+            } else {
+                // Multi-byte UTF-8 sequences go through as they are
+                body[length++] = b;
+            }
+        }
+        put(documentEnd);
+    }
+
+    /**
+     * A batch with the given items of this one, to retry them
+     */
+    BulkBatch retain(int[] items, int count) {
+        BulkBatch retry = new BulkBatch(documentEnd, 0);
+        for (int i = 0; i < count; i++) {
+            int item = items[i];
+            int start = itemStarts[item];
+            int end = item + 1 < itemCount ? itemStarts[item + 1] : length;
+            retry.ensureCapacity(end - start);
+            retry.addItemStart();
+            System.arraycopy(body, start, retry.body, retry.length, end - start);
+            retry.length += end - start;
+        }
+        retry.attempts = attempts;
+        return retry;
+    }
+
+    byte[] body() {
+        return body;
+    }
+
+    int length() {
+        return length;
+    }
+
+    int itemCount() {
+        return itemCount;
+    }
+
+    long createdMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * The status of every item in a {@code _bulk} response, in order, 0 for the items it has none for. Only looks
+     * at the {@code status} of each item's action object, so it works with and without {@code filter_path}.
+     */
+    static int[] itemStatuses(byte[] response, int items) {
+        int[] statuses = new int[items];
+        int depth = 0;
+        int item = -1;
+        boolean inItems = false;
+        for (int i = 0; i < response.length; i++) {
+            byte c = response[i];
+            if (c == '"') {
+                int start = i + 1;
+                i = start;
+                while (i < response.length && response[i] != '"') {
+                    i += response[i] == '\\' ? 2 : 1;
+                }
+                int end = i;
+                int next = i + 1;
+                while (next < response.length && response[next] <= ' ') {
+                    next++;
+                }
+                if (next >= response.length || response[next] != ':') {
+                    continue; // A value
+                }
+                if (depth == 1) {
+                    inItems = matches(response, start, end, "items");
+                } else if (inItems && depth == 4 && item < items && matches(response, start, end, "status")) {
+                    int value = 0;
+                    for (i = next + 1; i < response.length && response[i] <= ' '; i++) {
+                        // Skip whitespace
+                    }
+                    for (; i < response.length && response[i] >= '0' && response[i] <= '9'; i++) {
+                        value = value * 10 + response[i] - '0';
+                    }
+                    statuses[item] = value;
+                    i--;
+                } else {
+                    i = end;
+                }
+            } else if (c == '{' || c == '[') {
+                depth++;
+                if (c == '{' && inItems && depth == 3) {
+                    item++;
+                }
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        }
+        return statuses;
+    }
+
+    private static boolean matches(byte[] bytes, int start, int end, String key) {
+        if (end - start != key.length()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (bytes[start + i] != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addItemStart() {
+        if (itemCount == itemStarts.length) {
+            itemStarts = Arrays.copyOf(itemStarts, itemCount * 2);
+        }
+        itemStarts[itemCount++] = length;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > body.length) {
+            body = Arrays.copyOf(body, Math.max(body.length * 2, length + extra));
+        }
+    }
+
+    private void put(byte[] bytes) {
+        System.arraycopy(bytes, 0, body, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void putControl(byte b) {
+        body[length++] = '\\';
+        switch (b) {
+            case '\n':
+                body[length++] = 'n';
+                break;
+            case '\r':
+                body[length++] = 'r';
+                break;
+            case '\t':
+                body[length++] = 't';
+                break;
+            default:
+                body[length++] = 'u';
+                body[length++] = '0';
+                body[length++] = '0';
+                body[length++] = HEX[b >> 4];
+                body[length++] = HEX[b & 0xf];
+        }
+    }
+}
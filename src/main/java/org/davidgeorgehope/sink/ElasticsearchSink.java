@@ -0,0 +1,432 @@
+package org.davidgeorgehope.sink;
+
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Indexes the lines of a log file straight into an Elasticsearch data stream with {@code _bulk} requests instead of
+ * writing the file, to measure ingest without a shipper in between. Enabled for every stream with
+ * {@link #configure}.
+ *
+ * <p>Each stream goes to the data stream of its type, e.g. {@code logs-nginx.access-default} for the nginx access
+ * logs; every document has the line as {@code message}, the entry's time as {@code @timestamp} and the file the
+ * line would have gone to as {@code log.file.path}. A stream's lines are batched until the batch reaches the
+ * configured bytes or documents, or for at most {@value #FLUSH_INTERVAL_MILLIS} ms, and the batch is then sent
+ * with the JDK {@link HttpClient}, gzipped when compression is on. Up to the configured number of requests are in
+ * flight over all streams; a generator sending a batch beyond that waits for one to finish.
+ *
+ * <p>When Elasticsearch rejects items with 429, or the response has no status for them, only those items are sent
+ * again, after a backoff; a request
+ * rejected as a whole with 429 or 5xx, or failing to connect, is sent again entirely. Items rejected for other
+ * reasons, or still rejected after {@value #MAX_ATTEMPTS} attempts, are counted as failed. The accepted documents
+ * per second and the bulk latency are logged periodically when a stats interval is set.
+ */
+public final class ElasticsearchSink implements LogSink {
+    private static final Logger logger = LoggerFactory.getLogger(ElasticsearchSink.class);
+    private static final Map<String, ElasticsearchSink> sinks = new ConcurrentHashMap<>();
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final int MAX_ATTEMPTS = 10;
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 10_000;
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private static volatile URI endpoint = null; // null to write the files
+    private static volatile String apiKey = null;
+    private static volatile String namespace = "default";
+    private static volatile int maxBatchBytes = 5 * 1024 * 1024;
+    private static volatile int maxBatchDocs = 5000;
+    private static volatile int maxInFlight = 4;
+    private static volatile boolean gzip = false;
+    private static volatile long statsIntervalSeconds = 0;
+    private static HttpClient client;
+    private static Semaphore inFlight;
+    private static ScheduledExecutorService scheduler;
+
+    // Totals over all streams, the interval ones are reset when logged
+    private static final LongAdder acceptedDocs = new LongAdder();
+    private static final LongAdder retriedDocs = new LongAdder();
+    private static final LongAdder failedDocs = new LongAdder();
+    private static final LongAdder requests = new LongAdder();
+    private static final LongAdder sentBytes = new LongAdder();
+    private static final LongAdder intervalAcceptedDocs = new LongAdder();
+    private static final LongAdder intervalRequests = new LongAdder();
+    private static final LongAdder intervalLatencyMillis = new LongAdder();
+    private static final LongAccumulator intervalMaxLatencyMillis = new LongAccumulator(Math::max, 0);
+    private static final AtomicLong queuedBytes = new AtomicLong(); // Of the batches not sent or not yet done
+    private static final AtomicLong lastStatsNanos = new AtomicLong(System.nanoTime());
+
+    private final String filePath;
+    private final URI bulkUri;
+    private final byte[] documentEnd;
+    private BulkBatch batch;
+
+    private ElasticsearchSink(String filePath) {
+        this.filePath = filePath;
+        this.bulkUri = endpoint.resolve(dataStream(filePath) + "/_bulk?filter_path=errors,items.*.status");
+        this.documentEnd = ("\",\"log\":{\"file\":{\"path\":\"" + filePath.replace("\\", "\\\\").replace("\"", "\\\"") +
+                "\"}}}\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Indexes the streams opened after this call into Elasticsearch instead of writing their files
+     * @param url Elasticsearch, e.g. {@code http://localhost:9200}, null to write the files
+     * @param key API key sent as {@code Authorization: ApiKey}, null for none
+     * @param dataStreamNamespace Namespace of the data streams
+     * @param batchBytes Uncompressed size at which a batch is sent
+     * @param batchDocs Number of documents at which a batch is sent
+     * @param concurrentRequests Number of bulk requests in flight over all streams
+     * @param compress Whether to gzip the request bodies
+     * @param statsSeconds Period of logging the ingest rate and latency, 0 or less to not log them
+     */
+    public static synchronized void configure(String url, String key, String dataStreamNamespace, int batchBytes,
+                                              int batchDocs, int concurrentRequests, boolean compress,
+                                              long statsSeconds) {
+        if (url == null) {
+            endpoint = null;
+            return;
+        }
+        endpoint = URI.create(url.endsWith("/") ? url : url + "/");
+        apiKey = key;
+        namespace = dataStreamNamespace;
+        maxBatchBytes = Math.max(1024, batchBytes);
+        maxBatchDocs = Math.max(1, batchDocs);
+        maxInFlight = Math.max(1, concurrentRequests);
+        gzip = compress;
+        statsIntervalSeconds = statsSeconds;
+    }
+
+    public static boolean isEnabled() {
+        return endpoint != null;
+    }
+
+    /**
+     * Bytes of the batches being filled, waiting for an in-flight slot or in flight, retries included
+     */
+    static long queuedBytes() {
+        return queuedBytes.get();
+    }
+
+    static ElasticsearchSink forPath(String filePath) {
+        return sinks.computeIfAbsent(filePath, path -> {
+            start();
+            ElasticsearchSink sink = new ElasticsearchSink(path);
+            logger.info("Indexing " + path + " into " + sink.bulkUri.getPath().replace("/_bulk", "") + " at " +
+                    endpoint);
+            return sink;
+        });
+    }
+
+    /**
+     * Sends the pending batches and waits for the requests in flight, for shutdown
+     */
+    static synchronized void closeAll() {
+        if (scheduler == null) {
+            return;
+        }
+        for (ElasticsearchSink sink : sinks.values()) {
+            sink.flush();
+        }
+        try {
+            if (!inFlight.tryAcquire(maxInFlight, CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                logger.warn("Elasticsearch bulk requests still in flight after " + CLOSE_TIMEOUT_SECONDS +
+                        " seconds, abandoning them");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler.shutdownNow();
+        logger.info("Elasticsearch: " + acceptedDocs.sum() + " documents accepted in " + requests.sum() +
+                " bulk requests (" + sentBytes.sum() + " bytes sent), " + retriedDocs.sum() + " retried, " +
+                failedDocs.sum() + " failed");
+    }
+
+    @Override
+    public void write(LineBuffer lines) {
+        byte[] bytes = lines.array();
+        for (int i = 0; i < lines.lineCount(); i++) {
+            int start = lines.lineStart(i);
+            int end = lines.lineEnd(i);
+            if (end > start && bytes[end - 1] == '\n') {
+                end--;
+            }
+            BulkBatch full = null;
+            synchronized (this) {
+                if (batch == null) {
+                    batch = new BulkBatch(documentEnd, Math.min(maxBatchBytes, 64 * 1024));
+                }
+                int before = batch.length();
+                batch.add(bytes, start, end - start, lines.timestampMillis(i));
+                queuedBytes.addAndGet(batch.length() - before);
+                if (batch.length() >= maxBatchBytes || batch.itemCount() >= maxBatchDocs) {
+                    full = batch;
+                    batch = null;
+                }
+            }
+            if (full != null) {
+                // Outside the monitor, the other generators of the stream keep filling the next batch
+                send(full);
+            }
+        }
+    }
+
+    /**
+     * Sends the pending batch
+     */
+    @Override
+    public void flush() {
+        BulkBatch pending;
+        synchronized (this) {
+            pending = batch;
+            batch = null;
+        }
+        if (pending != null) {
+            send(pending);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    /**
+     * Sends the pending batch once it is {@value #FLUSH_INTERVAL_MILLIS} ms old and an in-flight slot is free.
+     * Runs on the scheduler, which must not wait for a slot: it runs the retries that free them.
+     */
+    private void flushIfDue(long nowMillis) {
+        BulkBatch pending;
+        synchronized (this) {
+            if (batch == null || nowMillis - batch.createdMillis() < FLUSH_INTERVAL_MILLIS || !inFlight.tryAcquire()) {
+                return;
+            }
+            pending = batch;
+            batch = null;
+        }
+        submit(pending);
+    }
+
+    /**
+     * Takes an in-flight slot, waiting for one when all are taken, and sends the batch. The slot is held through
+     * the batch's retries.
+     */
+    private void send(BulkBatch full) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failedDocs.add(full.itemCount());
+            queuedBytes.addAndGet(-full.length());
+            return;
+        }
+        submit(full);
+    }
+
+    private void submit(BulkBatch pending) {
+        pending.attempts++;
+        HttpRequest.Builder request = HttpRequest.newBuilder(bulkUri)
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/x-ndjson");
+        int bodyBytes = pending.length();
+        if (gzip) {
+            byte[] body;
+            try {
+                body = compress(pending);
+            } catch (IOException e) {
+                logger.error("Could not compress a bulk request for " + filePath, e);
+                finish(pending, pending.itemCount());
+                return;
+            }
+            bodyBytes = body.length;
+            request.header("Content-Encoding", "gzip").POST(HttpRequest.BodyPublishers.ofByteArray(body));
+        } else {
+            request.POST(HttpRequest.BodyPublishers.ofByteArray(pending.body(), 0, pending.length()));
+        }
+        if (apiKey != null) {
+            request.header("Authorization", "ApiKey " + apiKey);
+        }
+        long startNanos = System.nanoTime();
+        requests.increment();
+        sentBytes.add(bodyBytes);
+        client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray())
+                .whenComplete((response, error) -> {
+                    try {
+                        long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                        intervalRequests.increment();
+                        intervalLatencyMillis.add(latencyMillis);
+                        intervalMaxLatencyMillis.accumulate(latencyMillis);
+                        if (error != null) {
+                            retryAll(pending, "failed: " + error.getMessage());
+                        } else {
+                            handleResponse(pending, response);
+                        }
+                    } catch (RuntimeException e) {
+                        logger.error("Error handling the bulk response for " + filePath, e);
+                        finish(pending, pending.itemCount());
+                    }
+                });
+    }
+
+    private void handleResponse(BulkBatch pending, HttpResponse<byte[]> response) {
+        int status = response.statusCode();
+        if (status == 429 || status >= 500) {
+            retryAll(pending, "was rejected with status " + status);
+            return;
+        }
+        if (status >= 300) {
+            logger.error("Bulk request for " + filePath + " failed with status " + status + ": " +
+                    new String(response.body(), 0, Math.min(response.body().length, 500), StandardCharsets.UTF_8));
+            finish(pending, pending.itemCount());
+            return;
+        }
+
+        int[] statuses = BulkBatch.itemStatuses(response.body(), pending.itemCount());
+        int[] rejected = new int[pending.itemCount()];
+        int rejectedCount = 0;
+        int accepted = 0;
+        int failed = 0;
+        for (int i = 0; i < statuses.length; i++) {
+            if (statuses[i] >= 200 && statuses[i] < 300) {
+                accepted++;
+            } else if (statuses[i] == 429 || statuses[i] == 0) {
+                // Without a status the item's fate is unknown, a resent one may end up indexed twice
+                rejected[rejectedCount++] = i;
+            } else {
+                failed++;
+            }
+        }
+        acceptedDocs.add(accepted);
+        intervalAcceptedDocs.add(accepted);
+        failedDocs.add(failed);
+        if (rejectedCount == 0) {
+            finish(pending, 0);
+        } else if (pending.attempts >= MAX_ATTEMPTS) {
+            logger.warn(rejectedCount + " items for " + filePath + " still rejected after " + MAX_ATTEMPTS +
+                    " attempts, dropping them");
+            finish(pending, rejectedCount);
+        } else {
+            retriedDocs.add(rejectedCount);
+            BulkBatch retry = pending.retain(rejected, rejectedCount);
+            queuedBytes.addAndGet(retry.length() - pending.length());
+            scheduler.schedule(() -> submit(retry), backoffMillis(retry.attempts), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void retryAll(BulkBatch pending, String reason) {
+        if (pending.attempts >= MAX_ATTEMPTS) {
+            logger.error("Bulk request for " + filePath + " " + reason + ", dropping its " + pending.itemCount() +
+                    " items after " + MAX_ATTEMPTS + " attempts");
+            finish(pending, pending.itemCount());
+            return;
+        }
+        long backoff = backoffMillis(pending.attempts);
+        logger.warn("Bulk request for " + filePath + " " + reason + ", retrying in " + backoff + " ms");
+        retriedDocs.add(pending.itemCount());
+        scheduler.schedule(() -> submit(pending), backoff, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Counts the items as failed and frees the batch's in-flight slot
+     */
+    private static void finish(BulkBatch done, int failedItems) {
+        failedDocs.add(failedItems);
+        queuedBytes.addAndGet(-done.length());
+        inFlight.release();
+    }
+
+    /**
+     * Exponential backoff with jitter
+     */
+    private static long backoffMillis(int attempts) {
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(attempts - 1, 20));
+        return backoff / 2 + (long) (Math.random() * backoff / 2);
+    }
+
+    private static byte[] compress(BulkBatch pending) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(pending.length() / 8 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed, 64 * 1024)) {
+            out.write(pending.body(), 0, pending.length());
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * The data stream of a log file, after the Elastic integrations' datasets
+     */
+    private static String dataStream(String filePath) {
+        Path path = Paths.get(filePath);
+        String fileName = path.getFileName().toString();
+        String directory = path.getParent() != null && path.getParent().getFileName() != null
+                ? path.getParent().getFileName().toString() : "generator";
+        String dataset;
+        if (directory.startsWith("nginx_ingress")) {
+            dataset = "nginx_ingress_controller." + (fileName.contains("error") ? "error" : "access");
+        } else if (directory.startsWith("nginx")) {
+            dataset = "nginx." + (fileName.contains("error") ? "error" : "access");
+        } else if (directory.startsWith("mysql")) {
+            dataset = fileName.contains("error") ? "mysql.error" : fileName.contains("slow") ? "mysql.slowlog"
+                    : "mysql.general";
+        } else {
+            dataset = directory + "." + fileName.replace(".log", "");
+        }
+        return "logs-" + dataset + "-" + namespace;
+    }
+
+    private static synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        inFlight = new Semaphore(maxInFlight);
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "elasticsearch-sink");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(() -> {
+            long now = System.currentTimeMillis();
+            sinks.values().forEach(sink -> sink.flushIfDue(now));
+        }, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS / 4, TimeUnit.MILLISECONDS);
+        if (statsIntervalSeconds > 0) {
+            scheduler.scheduleAtFixedRate(ElasticsearchSink::logStats, statsIntervalSeconds, statsIntervalSeconds,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    private static void logStats() {
+        long now = System.nanoTime();
+        double seconds = (now - lastStatsNanos.getAndSet(now)) / 1e9;
+        long docs = intervalAcceptedDocs.sumThenReset();
+        long bulks = intervalRequests.sumThenReset();
+        long latency = intervalLatencyMillis.sumThenReset();
+        long maxLatency = intervalMaxLatencyMillis.getThenReset();
+        logger.info(String.format("Elasticsearch: %.0f docs/s accepted, %d bulk requests, latency avg %d ms " +
+                        "max %d ms, %d in flight, %d retried and %d failed in total", docs / seconds, bulks,
+                bulks > 0 ? latency / bulks : 0, maxLatency, maxInFlight - inFlight.availablePermits(),
+                retriedDocs.sum(), failedDocs.sum()));
+    }
+}
@@ -0,0 +1,176 @@
+package org.davidgeorgehope.sink;
+
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes to many log files (e.g. one per emulated host) through a bounded number of open channels.
+ *
+ * <p>Channels are kept open in least-recently-used order and the least recently written one is closed when a file
+ * that isn't open has to be written, so the process never holds more than {@code maxOpenFiles} descriptors for
+ * these files however many there are. The cache is split into stripes by path, each with its own lock and share
+ * of the budget, so writers to different files rarely wait for each other. A write holds its stripe while it
+ * runs, so a channel is never closed under a writer.
+ *
+ * <p>Lines are written straight through: there is no per-file buffer, so the memory doesn't grow with the number
+ * of files. Callers should hand over all the lines a batch has for a file in one write.
+ */
+public final class FileHandleCache {
+    private static final Logger logger = LoggerFactory.getLogger(FileHandleCache.class);
+    private static final int MAX_STRIPES = 16;
+
+    private static volatile int maxOpenFiles = 512;
+    private static volatile Stripe[] stripes;
+
+    private static final AtomicLong writes = new AtomicLong();
+    private static final AtomicLong opens = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+
+    private FileHandleCache() {
+    }
+
+    /**
+     * Sets the handle budget, before the first write
+     * @param openFiles Maximum number of files held open at once, keep it well under {@code ulimit -n}
+     */
+    public static synchronized void configure(int openFiles) {
+        maxOpenFiles = Math.max(1, openFiles);
+    }
+
+    /**
+     * Appends the lines to the file, creating it and its directory if needed
+     */
+    public static void write(Path file, LineBuffer lines) throws IOException {
+        if (lines.length() == 0) {
+            return;
+        }
+        writes.incrementAndGet();
+        stripeFor(file).write(file, ByteBuffer.wrap(lines.array(), 0, lines.length()));
+    }
+
+    /**
+     * Closes every open channel and logs how well the budget fit the files written
+     */
+    public static synchronized void closeAll() {
+        if (stripes == null) {
+            return;
+        }
+        for (Stripe stripe : stripes) {
+            stripe.closeAll();
+        }
+        stripes = null;
+        long total = writes.get();
+        logger.info("File handle cache: " + total + " writes, " + opens.get() + " opens (" +
+                String.format("%.1f", total == 0 ? 0 : 100.0 * (total - opens.get()) / total) + "% hits), " +
+                evictions.get() + " evictions, budget " + maxOpenFiles);
+    }
+
+    public static long getWrites() {
+        return writes.get();
+    }
+
+    public static long getOpens() {
+        return opens.get();
+    }
+
+    public static long getEvictions() {
+        return evictions.get();
+    }
+
+    private static Stripe stripeFor(Path file) {
+        Stripe[] current = stripes;
+        if (current == null) {
+            current = createStripes();
+        }
+        return current[Math.floorMod(file.hashCode(), current.length)];
+    }
+
+    private static synchronized Stripe[] createStripes() {
+        if (stripes == null) {
+            int count = Math.min(MAX_STRIPES, maxOpenFiles);
+            Stripe[] created = new Stripe[count];
+            for (int i = 0; i < count; i++) {
+                // Spread the budget, the first stripes take the remainder
+                created[i] = new Stripe(maxOpenFiles / count + (i < maxOpenFiles % count ? 1 : 0));
+            }
+            stripes = created;
+        }
+        return stripes;
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        try {
+            return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        } catch (NoSuchFileException e) {
+            Files.createDirectories(file.getParent());
+            return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+    }
+
+    /**
+     * One lock's worth of open channels, in access order
+     */
+    private static final class Stripe {
+        private final Map<Path, FileChannel> channels;
+
+        Stripe(int capacity) {
+            this.channels = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Path, FileChannel> eldest) {
+                    if (size() <= capacity) {
+                        return false;
+                    }
+                    closeQuietly(eldest.getKey(), eldest.getValue());
+                    evictions.incrementAndGet();
+                    return true;
+                }
+            };
+        }
+
+        synchronized void write(Path file, ByteBuffer bytes) throws IOException {
+            FileChannel channel = channels.get(file);
+            if (channel == null) {
+                channel = open(file);
+                opens.incrementAndGet();
+                channels.put(file, channel);
+            }
+            try {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            } catch (IOException e) {
+                // Reopened on the next write
+                channels.remove(file);
+                closeQuietly(file, channel);
+                throw e;
+            }
+        }
+
+        synchronized void closeAll() {
+            channels.forEach(FileHandleCache::closeQuietly);
+            channels.clear();
+        }
+    }
+
+    private static void closeQuietly(Path file, FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Error closing " + file + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package org.davidgeorgehope.sink;
+
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * A long-lived, append-only writer for one log file, shared by every producer of that file.
+ *
+ * <p>Lines are copied into a direct buffer and reach the file with a single channel write when the buffer
+ * holds {@code flushBytes}, when it is full, or at the latest every {@code flushIntervalMillis}. With an fsync
+ * interval the file is also forced to disk on that period, so a single fsync covers the writes of all producers
+ * since the previous one (group commit) and producers never wait for it.
+ *
+ * <p>The sink can also rotate its file when it reaches {@code rotateBytes}, at every wall-clock multiple of
+ * {@code rotateIntervalMillis}, or both, keeping the newest {@code rotateKeep} rotated files named
+ * {@code access.log.yyyyMMdd-HHmmssSSS}. Rotation runs on a background thread: the producers only hold the sink
+ * while the buffer is written out and the file is renamed and reopened, or, with copytruncate, while the lines
+ * that arrived during the copy are appended and the file is truncated.
+ *
+ * <p>Sinks are opened on first use with {@link #forPath(String)} and live until {@link #closeAll()}; call
+ * {@link #configure} and {@link #configureRotation} before the first sink is opened.
+ */
+public final class FileSink implements LogSink {
+    private static final Logger logger = LoggerFactory.getLogger(FileSink.class);
+    private static final Map<Path, FileSink> sinks = new ConcurrentHashMap<>();
+
+    private static volatile int bufferBytes = 1024 * 1024;
+    private static volatile int flushBytes = 1024 * 1024;
+    private static volatile long flushIntervalMillis = 1000;
+    private static volatile long fsyncIntervalMillis = 0; // 0 leaves syncing to the OS
+    private static ScheduledExecutorService flusher;
+
+    private static final String ROTATED_SUFFIX_PATTERN = "yyyyMMdd-HHmmssSSS";
+    private static final DateTimeFormatter ROTATED_SUFFIX = DateTimeFormatter.ofPattern(ROTATED_SUFFIX_PATTERN);
+    private static final long ROTATION_CHECK_MILLIS = 1000;
+    private static volatile long rotateBytes = 0; // 0 to not rotate on size
+    private static volatile long rotateIntervalMillis = 0; // 0 to not rotate on time
+    private static volatile RotationStrategy rotationStrategy = RotationStrategy.RENAME;
+    private static volatile int rotateKeep = 10;
+    private static ScheduledExecutorService rotator;
+
+    private final Path path;
+    private volatile FileChannel channel;
+    private final ByteBuffer buffer;
+    private boolean closed = false;
+
+    private long fileBytes; // Written to the current file, guarded by the sink
+    private long nextRotationMillis;
+    private boolean rotationPending = false;
+
+    private FileSink(Path path) throws IOException {
+        this.path = path;
+        this.channel = open(path);
+        this.buffer = ByteBuffer.allocateDirect(bufferBytes);
+        this.fileBytes = channel.size();
+        this.nextRotationMillis = nextBoundary(System.currentTimeMillis());
+        SegmentCompactor.submitExisting(path.getParent(), this::isRotation);
+    }
+
+    /**
+     * Sets the flush policy of the sinks opened after this call
+     * @param bufferSize Size of each sink's direct buffer
+     * @param flushThreshold Buffered bytes that trigger a write to the file, capped at the buffer size
+     * @param flushInterval Maximum time in milliseconds that lines stay buffered, 0 or less to only flush on size
+     * @param fsyncInterval Period in milliseconds of forcing the files to disk, 0 or less to never force them
+     */
+    public static synchronized void configure(int bufferSize, int flushThreshold, long flushInterval,
+                                              long fsyncInterval) {
+        bufferBytes = Math.max(4096, bufferSize);
+        flushBytes = Math.max(1, Math.min(flushThreshold, bufferBytes));
+        flushIntervalMillis = flushInterval;
+        fsyncIntervalMillis = fsyncInterval;
+    }
+
+    /**
+     * Sets the rotation of the sinks opened after this call
+     * @param maxBytes Size at which the file is rotated, 0 or less to not rotate on size
+     * @param intervalMillis Rotates at every wall-clock multiple of this interval (e.g. 3600000 on the hour),
+     *                       0 or less to not rotate on time
+     * @param strategy Whether to rename and reopen the file or copy and truncate it
+     * @param keep Number of rotated files to keep, older ones are deleted
+     */
+    public static synchronized void configureRotation(long maxBytes, long intervalMillis, RotationStrategy strategy,
+                                                      int keep) {
+        rotateBytes = maxBytes;
+        rotateIntervalMillis = intervalMillis;
+        rotationStrategy = strategy;
+        rotateKeep = Math.max(1, keep);
+    }
+
+    /**
+     * The sink for the given file, opening it in append mode if no producer has written to it yet
+     */
+    public static FileSink forPath(String filePath) throws IOException {
+        Path path = Paths.get(filePath).toAbsolutePath().normalize();
+        FileSink sink = sinks.get(path);
+        if (sink != null) {
+            return sink;
+        }
+        synchronized (FileSink.class) {
+            sink = sinks.get(path);
+            if (sink == null) {
+                sink = new FileSink(path);
+                sinks.put(path, sink);
+                startFlusher();
+                startRotator();
+            }
+            return sink;
+        }
+    }
+
+    /**
+     * Appends the lines to the file. They are buffered unless this fills the buffer up to the flush threshold.
+     */
+    @Override
+    public synchronized void write(LineBuffer lines) throws IOException {
+        if (closed) {
+            throw new IOException("Sink is closed: " + path);
+        }
+        byte[] array = lines.array();
+        int length = lines.length();
+        if (length > buffer.remaining()) {
+            drain();
+            if (length > buffer.capacity()) {
+                writeFully(ByteBuffer.wrap(array, 0, length));
+                return;
+            }
+        }
+        buffer.put(array, 0, length);
+        if (buffer.position() >= flushBytes) {
+            drain();
+        }
+    }
+
+    /**
+     * Writes the buffered lines to the file
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (!closed) {
+            drain();
+        }
+    }
+
+    /**
+     * Flushes the buffered lines and forces the file to disk. The producers are only blocked for the flush,
+     * they keep appending to the buffer while the fsync runs.
+     */
+    public void sync() throws IOException {
+        flush();
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // Rotated or closed meanwhile, either of which forces the file first
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            drain();
+            if (fsyncIntervalMillis > 0) {
+                channel.force(false);
+            }
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    /**
+     * Flushes and closes every open sink, for shutdown
+     */
+    public static synchronized void closeAll() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flusher = null;
+        }
+        if (rotator != null) {
+            // Let a rotation in progress finish, it holds lines that were moved out of the file
+            rotator.shutdown();
+            try {
+                rotator.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            rotator = null;
+        }
+        for (FileSink sink : sinks.values()) {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                logger.error("Error closing log file: " + sink.path, e);
+            }
+        }
+        sinks.clear();
+    }
+
+    private void drain() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            writeFully(buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        fileBytes += source.remaining();
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+        if (rotateBytes > 0 && fileBytes >= rotateBytes) {
+            requestRotation();
+        }
+    }
+
+    private void requestRotation() {
+        ScheduledExecutorService executor = rotator;
+        if (rotationPending || executor == null) {
+            return;
+        }
+        rotationPending = true;
+        executor.execute(this::rotate);
+    }
+
+    /**
+     * Rotates the file on the rotator thread, then deletes the rotated files beyond the ones to keep
+     */
+    private void rotate() {
+        try {
+            Path rotated = rotatedPath();
+            boolean done = rotationStrategy == RotationStrategy.COPYTRUNCATE
+                    ? copyTruncate(rotated)
+                    : renameAndReopen(rotated);
+            if (!done) {
+                return;
+            }
+            logger.info("Rotated " + path + " to " + rotated.getFileName());
+            SegmentCompactor.submit(rotated);
+            deleteOldRotations();
+        } catch (IOException e) {
+            logger.error("Error rotating log file: " + path, e);
+        } finally {
+            synchronized (this) {
+                rotationPending = false;
+            }
+        }
+    }
+
+    private boolean renameAndReopen(Path rotated) throws IOException {
+        FileChannel previous;
+        synchronized (this) {
+            if (closed || fileBytes == 0) {
+                return false;
+            }
+            drain();
+            Files.move(path, rotated);
+            previous = channel;
+            channel = open(path);
+            fileBytes = 0;
+        }
+        if (fsyncIntervalMillis > 0) {
+            previous.force(false);
+        }
+        previous.close();
+        return true;
+    }
+
+    /**
+     * Copies the file without holding the sink, then appends what was written during the copy and truncates
+     * the file while holding it, so no line is lost between the copy and the truncate
+     */
+    private boolean copyTruncate(Path rotated) throws IOException {
+        long copied;
+        synchronized (this) {
+            if (closed || fileBytes == 0) {
+                return false;
+            }
+            drain();
+            copied = channel.size();
+        }
+        try (FileChannel source = FileChannel.open(path, StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(rotated, StandardOpenOption.CREATE_NEW,
+                     StandardOpenOption.WRITE)) {
+            transfer(source, target, 0, copied);
+            synchronized (this) {
+                if (closed) {
+                    // The lines copied so far are still in the file
+                    Files.delete(rotated);
+                    return false;
+                }
+                drain();
+                transfer(source, target, copied, channel.size());
+                channel.truncate(0);
+                fileBytes = 0;
+            }
+            if (fsyncIntervalMillis > 0) {
+                target.force(false);
+            }
+        }
+        return true;
+    }
+
+    private static void transfer(FileChannel source, FileChannel target, long from, long to) throws IOException {
+        long position = from;
+        while (position < to) {
+            position += source.transferTo(position, to - position, target);
+        }
+    }
+
+    private Path rotatedPath() {
+        String name = path.getFileName().toString();
+        LocalDateTime now = LocalDateTime.now();
+        Path rotated = path.resolveSibling(name + "." + now.format(ROTATED_SUFFIX));
+        while (Files.exists(rotated)) {
+            now = now.plusNanos(1_000_000);
+            rotated = path.resolveSibling(name + "." + now.format(ROTATED_SUFFIX));
+        }
+        return rotated;
+    }
+
+    /**
+     * Deletes the oldest rotated files beyond the ones to keep, whether they have been compressed yet or not
+     */
+    private void deleteOldRotations() throws IOException {
+        List<Path> rotations = new ArrayList<>();
+        collectRotations(path.getParent(), rotations);
+        collectRotations(SegmentCompactor.archiveDirectory(path.getParent()), rotations);
+        // The suffixes sort by time
+        rotations.sort(Comparator.comparing(SegmentCompactor::uncompressedName));
+        for (int i = 0; i < rotations.size() - rotateKeep; i++) {
+            Files.deleteIfExists(rotations.get(i));
+            logger.info("Deleted rotated log file: " + rotations.get(i).getFileName());
+        }
+    }
+
+    private void collectRotations(Path directory, List<Path> rotations) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> isRotation(SegmentCompactor.uncompressedName(file))).forEach(rotations::add);
+        }
+    }
+
+    private boolean isRotation(String name) {
+        String prefix = path.getFileName().toString() + ".";
+        return name.startsWith(prefix) && name.length() == prefix.length() + ROTATED_SUFFIX_PATTERN.length() &&
+                name.charAt(prefix.length() + 8) == '-';
+    }
+
+    private long nextBoundary(long nowMillis) {
+        long interval = rotateIntervalMillis;
+        return interval > 0 ? (nowMillis / interval + 1) * interval : Long.MAX_VALUE;
+    }
+
+    private synchronized void rotateIfDue(long nowMillis) {
+        if (nowMillis >= nextRotationMillis) {
+            nextRotationMillis = nextBoundary(nowMillis);
+            requestRotation();
+        }
+    }
+
+    private static FileChannel open(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static void startRotator() {
+        if (rotator != null || (rotateBytes <= 0 && rotateIntervalMillis <= 0)) {
+            return;
+        }
+        rotator = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "file-sink-rotator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (rotateIntervalMillis > 0) {
+            rotator.scheduleAtFixedRate(() -> {
+                long now = System.currentTimeMillis();
+                for (FileSink sink : sinks.values()) {
+                    sink.rotateIfDue(now);
+                }
+            }, ROTATION_CHECK_MILLIS, ROTATION_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void startFlusher() {
+        if (flusher != null || (flushIntervalMillis <= 0 && fsyncIntervalMillis <= 0)) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "file-sink-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (flushIntervalMillis > 0) {
+            flusher.scheduleAtFixedRate(() -> forEachSink(false), flushIntervalMillis, flushIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+        if (fsyncIntervalMillis > 0) {
+            flusher.scheduleAtFixedRate(() -> forEachSink(true), fsyncIntervalMillis, fsyncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void forEachSink(boolean sync) {
+        for (FileSink sink : sinks.values()) {
+            try {
+                if (sync) {
+                    sink.sync();
+                } else {
+                    sink.flush();
+                }
+            } catch (IOException e) {
+                logger.error("Error flushing log file: " + sink.path, e);
+            }
+        }
+    }
+}
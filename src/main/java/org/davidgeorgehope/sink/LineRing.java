@@ -0,0 +1,128 @@
+package org.davidgeorgehope.sink;
+
+import org.davidgeorgehope.encoding.LineBuffer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded multi-producer, single-consumer ring of line batches. Every slot holds its own {@link LineBuffer},
+ * allocated up front and reused, so publishing copies the producer's lines into the slot instead of handing
+ * the producer's buffer over. A slot that grew past {@code MAX_SLOT_BYTES} for a large batch is put back to a
+ * small buffer once the batch is consumed, so a burst does not leave every slot it went through at its size.
+ *
+ * <p>Producers claim a sequence with a CAS on {@code claimed}, fill the slot and mark it available by storing
+ * the sequence in {@code available}. The consumer takes slots strictly in sequence order and frees them by
+ * advancing {@code consumed}. Nothing blocks: a producer that finds the ring full gets {@code false} back.
+ */
+final class LineRing {
+    private static final int INITIAL_SLOT_BYTES = 4096;
+    private static final int INITIAL_SLOT_LINES = 32;
+    private static final int MAX_SLOT_BYTES = 64 * 1024;
+
+    private final int mask;
+    private final LineBuffer[] slots;
+    private final long[] publishedNanos;
+    private final AtomicLongArray available; // Sequence last published into each slot
+    private final AtomicLong claimed = new AtomicLong(); // Next sequence to claim
+    private volatile long consumed = 0; // Next sequence to consume, every slot before it is free
+    private final AtomicLong queuedBytes = new AtomicLong(); // Bytes published and not yet consumed
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of two
+     */
+    LineRing(int capacity) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        slots = new LineBuffer[size];
+        publishedNanos = new long[size];
+        available = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new LineBuffer(INITIAL_SLOT_BYTES, INITIAL_SLOT_LINES);
+            available.set(i, -1);
+        }
+    }
+
+    /**
+     * Copies the lines into the next free slot
+     * @return Whether there was a free slot
+     */
+    boolean tryPublish(LineBuffer lines, long nowNanos) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= slots.length) {
+                return false;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        int index = (int) sequence & mask;
+        LineBuffer slot = slots[index];
+        slot.clear();
+        slot.appendAll(lines);
+        publishedNanos[index] = nowNanos;
+        queuedBytes.addAndGet(slot.length());
+        available.lazySet(index, sequence);
+        return true;
+    }
+
+    /**
+     * The oldest published batch, or null when the next one isn't published yet. Consumer only.
+     */
+    LineBuffer peek() {
+        long sequence = consumed;
+        int index = (int) sequence & mask;
+        return available.get(index) == sequence ? slots[index] : null;
+    }
+
+    /**
+     * Frees the batch returned by {@link #peek()}. Consumer only.
+     */
+    void advance() {
+        int index = (int) consumed & mask;
+        queuedBytes.addAndGet(-slots[index].length());
+        if (slots[index].capacity() > MAX_SLOT_BYTES) {
+            // Producers only see the slot again after the volatile write of consumed below
+            slots[index] = new LineBuffer(INITIAL_SLOT_BYTES, INITIAL_SLOT_LINES);
+        }
+        consumed = consumed + 1;
+    }
+
+    /**
+     * Number of claimed batches the consumer hasn't taken yet
+     */
+    long depth() {
+        return Math.max(0, claimed.get() - consumed);
+    }
+
+    /**
+     * Time the oldest published batch has been waiting for the consumer
+     */
+    long lagNanos(long nowNanos) {
+        long sequence = consumed;
+        int index = (int) sequence & mask;
+        if (available.get(index) != sequence) {
+            return 0;
+        }
+        return Math.max(0, nowNanos - publishedNanos[index]);
+    }
+
+    /**
+     * Bytes of the published batches the consumer hasn't taken yet
+     */
+    long queuedBytes() {
+        return queuedBytes.get();
+    }
+
+    long claimedSequence() {
+        return claimed.get();
+    }
+
+    long consumedSequence() {
+        return consumed;
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+}
@@ -0,0 +1,119 @@
+package org.davidgeorgehope.sink;
+
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.davidgeorgehope.nginx.logs.LogSender;
+
+import java.io.IOException;
+
+/**
+ * Where the generators write the encoded lines of one log file or port. A sink is shared by all producers of its
+ * target.
+ */
+public interface LogSink {
+
+    /**
+     * Appends the lines to the target, they may stay buffered until the sink's next flush
+     */
+    void write(LineBuffer lines) throws IOException;
+
+    void flush() throws IOException;
+
+    void close() throws IOException;
+
+    /**
+     * The sink for a generator's output: Elasticsearch when {@link ElasticsearchSink} is enabled, otherwise the
+     * syslog collector when {@link SyslogSink} is enabled, otherwise the TCP port when one is configured, otherwise
+     * the file
+     */
+    static LogSink forTarget(String filePath, int port) throws IOException {
+        if (ElasticsearchSink.isEnabled()) {
+            return forElasticsearch(filePath);
+        }
+        if (SyslogSink.isEnabled()) {
+            return forSyslog(filePath);
+        }
+        return port > 0 ? forPort(port) : forPath(filePath);
+    }
+
+    /**
+     * The sink indexing the given file's lines into Elasticsearch. Behind a ring when {@link AsyncSink} is enabled.
+     */
+    static LogSink forElasticsearch(String filePath) {
+        if (AsyncSink.isEnabled()) {
+            String name = "elasticsearch-" + filePath;
+            AsyncSink sink = AsyncSink.get(name);
+            return sink != null ? sink : AsyncSink.register(name, ElasticsearchSink.forPath(filePath));
+        }
+        return ElasticsearchSink.forPath(filePath);
+    }
+
+    /**
+     * The sink sending the given file's lines to the syslog collector. Behind a ring when {@link AsyncSink} is
+     * enabled.
+     */
+    static LogSink forSyslog(String filePath) {
+        if (AsyncSink.isEnabled()) {
+            String name = "syslog-" + filePath;
+            AsyncSink sink = AsyncSink.get(name);
+            return sink != null ? sink : AsyncSink.register(name, SyslogSink.forPath(filePath));
+        }
+        return SyslogSink.forPath(filePath);
+    }
+
+    /**
+     * The sink for the given file: memory-mapped segments when they were enabled for the path with
+     * {@link MappedSegmentSink#enable(String)}, otherwise a {@link FileSink}. Behind a ring when
+     * {@link AsyncSink} is enabled.
+     */
+    static LogSink forPath(String filePath) throws IOException {
+        if (AsyncSink.isEnabled()) {
+            AsyncSink sink = AsyncSink.get(filePath);
+            return sink != null ? sink : AsyncSink.register(filePath, openPath(filePath));
+        }
+        return openPath(filePath);
+    }
+
+    /**
+     * The sink for the clients of a {@link org.davidgeorgehope.nginx.logs.LogSender} port, or of the port's
+     * {@link RingFile} when {@link RingFileSink} is enabled. Behind a ring when {@link AsyncSink} is enabled.
+     */
+    static LogSink forPort(int port) {
+        if (AsyncSink.isEnabled()) {
+            String name = "port-" + port;
+            AsyncSink sink = AsyncSink.get(name);
+            return sink != null ? sink : AsyncSink.register(name, openPort(port));
+        }
+        return openPort(port);
+    }
+
+    /**
+     * The bytes handed to the sinks that they still hold in memory: in the {@link AsyncSink} rings, the
+     * {@link LogSender} client queues and the pending Elasticsearch requests
+     */
+    static long queuedBytes() {
+        return AsyncSink.totalQueuedBytes() + LogSender.queuedBytes() + ElasticsearchSink.queuedBytes();
+    }
+
+    /**
+     * Drains the rings, then flushes and closes every open sink, for shutdown
+     */
+    static void closeAll() {
+        AsyncSink.closeAll();
+        ElasticsearchSink.closeAll();
+        SyslogSink.closeAll();
+        MappedSegmentSink.closeAll();
+        FileSink.closeAll();
+        FileHandleCache.closeAll();
+    }
+
+    private static LogSink openPort(int port) {
+        return RingFileSink.isEnabled() ? RingFileSink.forPort(port) : PortSink.forPort(port);
+    }
+
+    private static LogSink openPath(String filePath) throws IOException {
+        if (MappedSegmentSink.isEnabled(filePath)) {
+            return MappedSegmentSink.forPath(filePath);
+        }
+        return FileSink.forPath(filePath);
+    }
+}
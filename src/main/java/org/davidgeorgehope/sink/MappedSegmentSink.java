@@ -0,0 +1,461 @@
+package org.davidgeorgehope.sink;
+
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Writes a high-rate log file as a series of fixed-size, memory-mapped segments, so appending a batch of lines
+ * is a copy into the mapping instead of a system call.
+ *
+ * <p>A mapping extends its file to the full segment size, and the part not yet written reads as zeros, so the
+ * segment being written lives under a hidden name ({@code .access.log.000042.open}) that the tailers' globs
+ * ({@code access.log*}) don't match. The sink tracks the published length, the end of the last line copied into
+ * the segment. When the segment is full, or has been open for {@code publishIntervalMillis}, it is truncated to
+ * that length and renamed to {@code access.log.000042}, so a tailer only ever sees complete segments ending
+ * on a complete line. Segments left open by a crash are trimmed to their last newline and published when the
+ * sink is opened again. Only the newest {@code keepSegments} published segments are kept, counting the ones the
+ * {@link SegmentCompactor} has moved to the archive, like the rotated files of a {@link FileSink}.
+ *
+ * <p>The first write to each page of a fresh segment faults it in and allocates its disk block, which costs
+ * about as much as writing the page with a system call. A background thread therefore maps the next segment
+ * and touches all its pages while the current one fills up, so the producers only copy.
+ */
+public final class MappedSegmentSink implements LogSink {
+    private static final Logger logger = LoggerFactory.getLogger(MappedSegmentSink.class);
+    private static final Set<Path> enabledPaths = ConcurrentHashMap.newKeySet();
+    private static final Map<Path, MappedSegmentSink> sinks = new ConcurrentHashMap<>();
+    private static final String OPEN_SUFFIX = ".open";
+    private static final String PREPARED_SUFFIX = ".prepared";
+    private static final int PAGE_SIZE = 4096;
+
+    private static volatile long segmentBytes = 64L * 1024 * 1024;
+    private static volatile long publishIntervalMillis = 5000;
+    private static volatile int keepSegments = 10;
+    private static ScheduledExecutorService publisher;
+    private static ExecutorService preparer;
+
+    private final Path directory;
+    private final String baseName;
+    private final Pattern segmentPattern;
+    private final Path preparedPath;
+    private int nextSegment;
+    private CompletableFuture<PreparedSegment> prepared;
+
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private Path openPath;
+    private int segmentIndex;
+    private long publishedLength;
+    private long openedNanos;
+    private boolean closed = false;
+
+    private MappedSegmentSink(Path path) throws IOException {
+        this.directory = path.getParent();
+        this.baseName = path.getFileName().toString();
+        this.segmentPattern = Pattern.compile("(\\.?)" + Pattern.quote(baseName) + "\\.(\\d{6,})(" +
+                Pattern.quote(OPEN_SUFFIX) + ")?");
+        this.preparedPath = directory.resolve("." + baseName + PREPARED_SUFFIX);
+        this.nextSegment = recover() + 1;
+    }
+
+    /**
+     * A mapped segment file whose pages have all been touched, waiting to become the next segment
+     */
+    private static final class PreparedSegment {
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        PreparedSegment(FileChannel channel, MappedByteBuffer buffer) {
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Sets the segment size and publish interval of the sinks opened after this call
+     * @param segmentSize Size of each segment file, segments are published as soon as they are full
+     * @param publishInterval Maximum time in milliseconds that written lines stay in the unpublished segment
+     * @param keep Number of published segments to keep, older ones are deleted whether archived or not
+     */
+    public static synchronized void configure(long segmentSize, long publishInterval, int keep) {
+        segmentBytes = Math.max(64 * 1024, Math.min(segmentSize, Integer.MAX_VALUE));
+        publishIntervalMillis = publishInterval;
+        keepSegments = Math.max(1, keep);
+    }
+
+    /**
+     * Writes the given file as memory-mapped segments instead of through a {@link FileSink}
+     */
+    public static void enable(String filePath) {
+        enabledPaths.add(normalize(filePath));
+    }
+
+    public static boolean isEnabled(String filePath) {
+        return !enabledPaths.isEmpty() && enabledPaths.contains(normalize(filePath));
+    }
+
+    public static MappedSegmentSink forPath(String filePath) throws IOException {
+        Path path = normalize(filePath);
+        MappedSegmentSink sink = sinks.get(path);
+        if (sink != null) {
+            return sink;
+        }
+        synchronized (MappedSegmentSink.class) {
+            sink = sinks.get(path);
+            if (sink == null) {
+                sink = new MappedSegmentSink(path);
+                sinks.put(path, sink);
+                startThreads();
+            }
+            return sink;
+        }
+    }
+
+    /**
+     * Copies the lines into the current segment. Lines that don't fit go into the next segment, after the
+     * current one is published.
+     */
+    @Override
+    public synchronized void write(LineBuffer lines) throws IOException {
+        if (closed) {
+            throw new IOException("Sink is closed: " + directory.resolve(baseName));
+        }
+        int count = lines.lineCount();
+        int line = 0;
+        while (line < count) {
+            int start = lines.lineStart(line);
+            if (segment == null) {
+                open(lines.lineEnd(line) - start);
+            }
+            int end = line;
+            while (end < count && lines.lineEnd(end) - start <= segment.remaining()) {
+                end++;
+            }
+            if (end == line) {
+                publish();
+                continue;
+            }
+            segment.put(lines.array(), start, lines.lineEnd(end - 1) - start);
+            publishedLength = segment.position();
+            line = end;
+        }
+    }
+
+    /**
+     * Publishes the current segment, making everything written so far visible to the tailers
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (!closed) {
+            publish();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            publish();
+        } finally {
+            closed = true;
+            discardPrepared();
+        }
+    }
+
+    /**
+     * Publishes and closes every open sink, for shutdown
+     */
+    public static synchronized void closeAll() {
+        if (publisher != null) {
+            publisher.shutdownNow();
+            publisher = null;
+        }
+        for (MappedSegmentSink sink : sinks.values()) {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                logger.error("Error publishing log segment of " + sink.baseName, e);
+            }
+        }
+        sinks.clear();
+        if (preparer != null) {
+            preparer.shutdownNow();
+            preparer = null;
+        }
+    }
+
+    /**
+     * Starts a new segment of at least the given size, taking the prepared one when it is ready
+     */
+    private void open(int minimumSize) throws IOException {
+        long size = Math.max(segmentBytes, minimumSize);
+        segmentIndex = nextSegment++;
+        openPath = directory.resolve("." + segmentName(segmentIndex) + OPEN_SUFFIX);
+        PreparedSegment ready = takePrepared(size);
+        if (ready != null) {
+            Files.move(preparedPath, openPath, StandardCopyOption.ATOMIC_MOVE);
+            channel = ready.channel;
+            segment = ready.buffer;
+        } else {
+            channel = FileChannel.open(openPath, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        publishedLength = 0;
+        openedNanos = System.nanoTime();
+        if (prepared == null && preparer != null) {
+            prepared = CompletableFuture.supplyAsync(this::prepare, preparer);
+        }
+    }
+
+    /**
+     * The prepared segment if it is ready and large enough; the producers never wait for one
+     */
+    private PreparedSegment takePrepared(long size) {
+        if (prepared == null || !prepared.isDone()) {
+            return null;
+        }
+        PreparedSegment ready;
+        try {
+            ready = prepared.join();
+        } catch (RuntimeException e) {
+            logger.warn("Could not prepare the next segment of " + baseName + ": " + e.getMessage());
+            prepared = null;
+            return null;
+        }
+        if (ready.buffer.capacity() < size) {
+            return null;
+        }
+        prepared = null;
+        return ready;
+    }
+
+    private PreparedSegment prepare() {
+        try {
+            FileChannel file = FileChannel.open(preparedPath, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            for (int offset = 0; offset < buffer.capacity(); offset += PAGE_SIZE) {
+                buffer.put(offset, (byte) 0);
+            }
+            return new PreparedSegment(file, buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void discardPrepared() throws IOException {
+        if (prepared == null) {
+            return;
+        }
+        try {
+            prepared.join().channel.close();
+        } catch (RuntimeException e) {
+            // Nothing was prepared
+        } finally {
+            prepared = null;
+        }
+        Files.deleteIfExists(preparedPath);
+    }
+
+    /**
+     * Trims the current segment to its published length and renames it into the tailed name. The mapping
+     * itself is released by the garbage collector, nothing touches it past the new end of file.
+     */
+    private void publish() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        Path published = directory.resolve(segmentName(segmentIndex));
+        try {
+            channel.truncate(publishedLength);
+        } finally {
+            segment = null;
+            channel.close();
+            channel = null;
+        }
+        if (publishedLength == 0) {
+            Files.delete(openPath);
+        } else {
+            Files.move(openPath, published, StandardCopyOption.ATOMIC_MOVE);
+            SegmentCompactor.submit(published);
+            // Listing the directories is left to the preparer thread, off the producers
+            ExecutorService executor = preparer;
+            if (executor != null) {
+                executor.execute(this::deleteOldSegments);
+            } else {
+                deleteOldSegments();
+            }
+        }
+    }
+
+    /**
+     * Deletes the oldest published segments beyond the ones to keep, whether they have been compressed yet or not
+     */
+    private void deleteOldSegments() {
+        try {
+            List<Path> segments = new ArrayList<>();
+            collectSegments(directory, segments);
+            collectSegments(SegmentCompactor.archiveDirectory(directory), segments);
+            segments.sort(Comparator.comparingLong(this::segmentNumber));
+            for (int i = 0; i < segments.size() - keepSegments; i++) {
+                Files.deleteIfExists(segments.get(i));
+                logger.info("Deleted log segment: " + segments.get(i).getFileName());
+            }
+        } catch (IOException e) {
+            logger.error("Error deleting old log segments of " + baseName, e);
+        }
+    }
+
+    private void collectSegments(Path from, List<Path> segments) throws IOException {
+        if (!Files.isDirectory(from)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(from)) {
+            files.filter(file -> segmentNumber(file) >= 0).forEach(segments::add);
+        }
+    }
+
+    /**
+     * @return The number of the published segment, compressed or not, or -1 for any other file
+     */
+    private long segmentNumber(Path file) {
+        Matcher matcher = segmentPattern.matcher(SegmentCompactor.uncompressedName(file));
+        if (!matcher.matches() || !matcher.group(1).isEmpty() || matcher.group(3) != null) {
+            return -1;
+        }
+        return Long.parseLong(matcher.group(2));
+    }
+
+    private synchronized void publishIfDue(long nowNanos) {
+        if (closed || segment == null || publishedLength == 0 ||
+                nowNanos - openedNanos < TimeUnit.MILLISECONDS.toNanos(publishIntervalMillis)) {
+            return;
+        }
+        try {
+            publish();
+        } catch (IOException e) {
+            logger.error("Error publishing log segment of " + baseName, e);
+        }
+    }
+
+    /**
+     * Publishes the segments a previous run left open, queues the published ones for compression and returns
+     * the highest segment number in use, compressed segments included
+     */
+    private int recover() throws IOException {
+        Files.deleteIfExists(preparedPath);
+        int highest = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = segmentPattern.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                boolean open = matcher.group(3) != null;
+                if (open != matcher.group(1).isEmpty()) {
+                    int index = Integer.parseInt(matcher.group(2));
+                    highest = Math.max(highest, index);
+                    Path published = open ? recoverOpenSegment(file, directory.resolve(segmentName(index))) : file;
+                    if (published != null) {
+                        SegmentCompactor.submit(published);
+                    }
+                }
+            }
+        }
+        Path archive = SegmentCompactor.archiveDirectory(directory);
+        if (Files.isDirectory(archive)) {
+            try (Stream<Path> files = Files.list(archive)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Matcher matcher = segmentPattern.matcher(SegmentCompactor.uncompressedName(file));
+                    if (matcher.matches() && matcher.group(1).isEmpty() && matcher.group(3) == null) {
+                        highest = Math.max(highest, Integer.parseInt(matcher.group(2)));
+                    }
+                }
+            }
+        }
+        return highest;
+    }
+
+    /**
+     * @return The published segment, or null when the open one held no complete line
+     */
+    private static Path recoverOpenSegment(Path openFile, Path published) throws IOException {
+        long length;
+        try (FileChannel channel = FileChannel.open(openFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            length = contents.limit();
+            while (length > 0 && contents.get((int) length - 1) != '\n') {
+                length--;
+            }
+            channel.truncate(length);
+        }
+        if (length == 0) {
+            Files.delete(openFile);
+            return null;
+        }
+        Files.move(openFile, published, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Published " + length + " bytes left in unfinished segment " + published.getFileName());
+        return published;
+    }
+
+    private String segmentName(int index) {
+        return String.format("%s.%06d", baseName, index);
+    }
+
+    private static void startThreads() {
+        if (preparer == null) {
+            preparer = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "segment-preparer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (publisher != null || publishIntervalMillis <= 0) {
+            return;
+        }
+        publisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segment-publisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, publishIntervalMillis / 4);
+        publisher.scheduleAtFixedRate(() -> {
+            long now = System.nanoTime();
+            for (MappedSegmentSink sink : sinks.values()) {
+                sink.publishIfDue(now);
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static Path normalize(String filePath) {
+        return Paths.get(filePath).toAbsolutePath().normalize();
+    }
+}
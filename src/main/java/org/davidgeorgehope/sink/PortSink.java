@@ -0,0 +1,37 @@
+package org.davidgeorgehope.sink;
+
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.davidgeorgehope.nginx.logs.LogSender;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends the lines to the clients connected to a {@link LogSender} port
+ */
+final class PortSink implements LogSink {
+    private static final Map<Integer, PortSink> sinks = new ConcurrentHashMap<>();
+
+    private final int port;
+
+    private PortSink(int port) {
+        this.port = port;
+    }
+
+    static PortSink forPort(int port) {
+        return sinks.computeIfAbsent(port, PortSink::new);
+    }
+
+    @Override
+    public void write(LineBuffer lines) {
+        LogSender.sendLines(port, lines);
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
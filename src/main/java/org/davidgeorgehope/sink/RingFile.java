@@ -0,0 +1,342 @@
+package org.davidgeorgehope.sink;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A byte ring in a memory-mapped file, through which the generator hands its lines to log clients running on the
+ * same host (e.g. containers of one pod sharing an {@code emptyDir}).
+ *
+ * <p>The file starts with a 4 KiB header: a magic number, the capacity of the data area that follows, the
+ * writer's cursor and reservation, and a fixed number of reader slots, each with the reader's cursor and a
+ * heartbeat. Cursors count bytes since the ring was created; byte {@code n} lives at {@code n & (capacity - 1)} in
+ * the data area. The writer reserves the bytes it is about to write, copies whole lines in, then publishes its
+ * cursor with a release store; a reader copies the bytes between its cursor and the published one in chunks of at
+ * most {@value #READ_CHUNK_BYTES} bytes, publishing its own cursor and heartbeat after each. Neither side makes a
+ * system call while there is data: the cursors are plain memory accesses on the shared mapping.
+ *
+ * <p>The writer doesn't overwrite bytes an active reader hasn't read yet, it waits for the reader instead, for at
+ * most the wait the caller allows; after that it overwrites them anyway and counts them in
+ * {@link #getOverrunBytes()}, so a reader that keeps its heartbeat but falls behind can't stall the generator. A
+ * reader whose heartbeat is older than {@link #STALE_MILLIS} is considered gone and no longer holds the writer
+ * back. Since such a reader may still be copying, it copies each chunk into its own buffer first and checks the
+ * writer's reservation afterwards, like a seqlock: a chunk the writer may have overwritten meanwhile is counted as
+ * lost and not kept, and the reader continues with the newest bytes. A reader the writer stopped waiting for
+ * notices the same way.
+ */
+public final class RingFile {
+    public static final int MAX_READERS = 16;
+    public static final long STALE_MILLIS = 2000;
+    public static final int READ_CHUNK_BYTES = 1024 * 1024;
+
+    private static final long MAGIC = 0x4C4F4752494E4731L; // "LOGRING1"
+    private static final int HEADER_BYTES = 4096;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int WRITE_CURSOR_OFFSET = 64; // Own cache line
+    private static final int WRITE_RESERVE_OFFSET = 72; // End of the bytes the writer may be overwriting
+    private static final int READER_SLOTS_OFFSET = 128;
+    private static final int READER_SLOT_BYTES = 64;
+    private static final int HEARTBEAT_OFFSET = 8; // Within a reader slot
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+
+    private final Path path;
+    private final Object fileKey;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer data;
+    private final int capacity;
+    private final long mask;
+    private long overrunBytes; // Written by the writer only
+
+    private RingFile(Path path, FileChannel channel, int capacity) throws IOException {
+        this.path = path;
+        this.fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+        this.data = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES, capacity);
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Opens the ring for writing, reusing the file of a previous run when it has the same capacity so that its
+     * readers keep their place, and otherwise replacing it
+     * @param requestedCapacity Size of the data area, rounded up to a power of two of at most 1 GiB
+     */
+    public static RingFile create(Path path, int requestedCapacity) throws IOException {
+        int capacity = Integer.highestOneBit(Math.min(1 << 30, Math.max(4096, requestedCapacity) - 1)) << 1;
+        if (Files.exists(path) && Files.size(path) == HEADER_BYTES + (long) capacity) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                RingFile ring = new RingFile(path, channel, capacity);
+                if ((long) LONG.getVolatile(ring.header, MAGIC_OFFSET) == MAGIC &&
+                        (long) LONG.getVolatile(ring.header, CAPACITY_OFFSET) == capacity) {
+                    return ring;
+                }
+            }
+        }
+
+        // A new file is renamed into place, so readers of the old one never see it half initialized
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        Path temporary = path.resolveSibling("." + path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(1), HEADER_BYTES + (long) capacity - 1);
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            LONG.set(header, CAPACITY_OFFSET, (long) capacity);
+            LONG.setVolatile(header, MAGIC_OFFSET, MAGIC);
+            header.force();
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new RingFile(path, channel, capacity);
+        }
+    }
+
+    /**
+     * Opens an existing ring for reading
+     * @throws IOException If the file isn't a ring (yet)
+     */
+    public static RingFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException(path + " is not a ring file");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            long capacity = (long) LONG.getVolatile(header, CAPACITY_OFFSET);
+            if ((long) LONG.getVolatile(header, MAGIC_OFFSET) != MAGIC || capacity <= 0 ||
+                    channel.size() != HEADER_BYTES + capacity) {
+                throw new IOException(path + " is not a ring file");
+            }
+            return new RingFile(path, channel, (int) capacity);
+        }
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long writeCursor() {
+        return (long) LONG.getAcquire(header, WRITE_CURSOR_OFFSET);
+    }
+
+    /**
+     * Whether the path now holds a different file, e.g. because the writer replaced the ring with one of another
+     * size. Makes a system call, readers check it only while idle.
+     */
+    public boolean isReplaced() {
+        try {
+            return !fileKey.equals(Files.readAttributes(path,
+                    BasicFileAttributes.class).fileKey());
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Copies whole lines into the ring and publishes them, waiting while an active reader hasn't read the bytes
+     * they would overwrite. Only one thread may write.
+     * @param length At most the capacity
+     * @param maxWaitNanos How long to wait for the slowest reader before overwriting what it hasn't read
+     * @return How long the writer waited for readers, in nanoseconds
+     */
+    public long write(byte[] bytes, int offset, int length, long maxWaitNanos) {
+        long write = (long) LONG.get(header, WRITE_CURSOR_OFFSET);
+        long waitStart = 0;
+        long overrun;
+        while ((overrun = write + length - slowestReader(write) - capacity) > 0) {
+            long now = System.nanoTime();
+            if (waitStart == 0) {
+                waitStart = now;
+            } else if (now - waitStart >= maxWaitNanos) {
+                // The reader finds its bytes overwritten and skips them
+                overrunBytes += overrun;
+                break;
+            }
+            LockSupport.parkNanos(50_000);
+        }
+        // Visible before any of the bytes, so a reader that copied them while they were overwritten knows it
+        LONG.setVolatile(header, WRITE_RESERVE_OFFSET, write + length);
+        VarHandle.storeStoreFence();
+        int index = (int) (write & mask);
+        int first = Math.min(length, capacity - index);
+        data.put(index, bytes, offset, first);
+        if (first < length) {
+            data.put(0, bytes, offset + first, length - first);
+        }
+        LONG.setRelease(header, WRITE_CURSOR_OFFSET, write + length);
+        return waitStart == 0 ? 0 : System.nanoTime() - waitStart;
+    }
+
+    /**
+     * Unread bytes of active readers the writer overwrote after waiting for them as long as it was allowed to
+     */
+    public long getOverrunBytes() {
+        return overrunBytes;
+    }
+
+    /**
+     * The cursor of the slowest active reader, or the write cursor when no reader is active
+     */
+    private long slowestReader(long write) {
+        long now = System.currentTimeMillis();
+        long slowest = write;
+        for (int slot = 0; slot < MAX_READERS; slot++) {
+            int base = READER_SLOTS_OFFSET + slot * READER_SLOT_BYTES;
+            if (now - (long) LONG.getAcquire(header, base + HEARTBEAT_OFFSET) <= STALE_MILLIS) {
+                slowest = Math.min(slowest, (long) LONG.getAcquire(header, base));
+            }
+        }
+        return slowest;
+    }
+
+    /**
+     * Claims a reader slot, resuming from the slot's cursor when its bytes are still in the ring
+     * @param slot Reader slot from 0 to {@link #MAX_READERS} - 1, one per reading process
+     */
+    public Reader reader(int slot) {
+        if (slot < 0 || slot >= MAX_READERS) {
+            throw new IllegalArgumentException("Reader slot must be between 0 and " + (MAX_READERS - 1));
+        }
+        return new Reader(READER_SLOTS_OFFSET + slot * READER_SLOT_BYTES);
+    }
+
+    /**
+     * One reader's cursor. Not thread safe.
+     */
+    public final class Reader {
+        private final int base;
+        private final ByteBuffer chunk;
+        private long position;
+        private long lostBytes;
+
+        private Reader(int base) {
+            this.base = base;
+            this.chunk = ByteBuffer.allocateDirect(Math.min(READ_CHUNK_BYTES, capacity));
+            long saved = (long) LONG.getVolatile(header, base);
+            long write = writeCursor();
+            if (saved <= write && write - saved <= capacity) {
+                this.position = saved;
+            } else {
+                // A new slot, or one whose bytes were overwritten while its reader was gone
+                this.lostBytes = saved > 0 && saved < write ? write - saved : 0;
+                this.position = write;
+            }
+            publish();
+        }
+
+        /**
+         * Copies the bytes published since the last call to the channel, a chunk at a time
+         * @return Number of bytes copied, 0 when there were none
+         */
+        public int read(WritableByteChannel out) throws IOException {
+            long write = writeCursor();
+            if (write == position) {
+                heartbeat();
+                return 0;
+            }
+            int copied = 0;
+            while (position != write) {
+                if (write < position || write - position > capacity) {
+                    // The ring was recreated, or overwritten while this reader was gone
+                    skipTo(write);
+                    return copied;
+                }
+                int length = copyChunk(write);
+                // Only keep the chunk if the writer can't have overwritten it while it was copied
+                VarHandle.loadLoadFence();
+                long reserved = Math.max((long) LONG.getVolatile(header, WRITE_RESERVE_OFFSET), writeCursor());
+                if (reserved - position > capacity) {
+                    skipTo(writeCursor());
+                    return copied;
+                }
+                writeFully(out, chunk);
+                position += length;
+                copied += length;
+                publish();
+            }
+            return copied;
+        }
+
+        /**
+         * Copies the next chunk into the reader's buffer, ending it on a line boundary unless it holds the last
+         * published byte or a single line longer than a chunk
+         * @return Number of bytes in the chunk
+         */
+        private int copyChunk(long write) {
+            int length = (int) Math.min(write - position, chunk.capacity());
+            int index = (int) (position & mask);
+            int first = Math.min(length, capacity - index);
+            chunk.clear();
+            chunk.put(data.slice(index, first));
+            if (first < length) {
+                chunk.put(data.slice(0, length - first));
+            }
+            if (position + length < write) {
+                int end = length;
+                while (end > 0 && chunk.get(end - 1) != '\n') {
+                    end--;
+                }
+                length = end > 0 ? end : length;
+            }
+            chunk.flip().limit(length);
+            return length;
+        }
+
+        private void skipTo(long write) {
+            lostBytes += write > position ? write - position : 0;
+            position = write;
+            publish();
+        }
+
+        /**
+         * Offset of the next byte to read
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        /**
+         * Bytes skipped because the writer overwrote them before this reader got to them
+         */
+        public long getLostBytes() {
+            return lostBytes;
+        }
+
+        /**
+         * Keeps the slot active while the reader is idle
+         */
+        public void heartbeat() {
+            LONG.setRelease(header, base + HEARTBEAT_OFFSET, System.currentTimeMillis());
+        }
+
+        /**
+         * Marks the slot inactive so the writer no longer waits for it
+         */
+        public void release() {
+            LONG.setRelease(header, base + HEARTBEAT_OFFSET, 0L);
+        }
+
+        private void publish() {
+            LONG.setRelease(header, base, position);
+            heartbeat();
+        }
+
+        private void writeFully(WritableByteChannel out, ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.davidgeorgehope.sink;
+
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands the lines of a port to the clients on the same host through a {@link RingFile} named after the port
+ * ({@code port-9001.ring}) instead of a TCP connection. Enabled for every port with {@link #configure}.
+ *
+ * <p>A reader that falls a ring behind holds the writer back for at most the configured wait, after which its
+ * unread bytes are overwritten. Both are logged at most every 10 seconds.
+ */
+public final class RingFileSink implements LogSink {
+    private static final Logger logger = LoggerFactory.getLogger(RingFileSink.class);
+    private static final Map<Integer, RingFileSink> sinks = new ConcurrentHashMap<>();
+    private static final long WAIT_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private static volatile Path directory = null; // null to send the ports over TCP
+    private static volatile int capacity = 64 * 1024 * 1024;
+    private static volatile long maxWaitNanos = TimeUnit.SECONDS.toNanos(1);
+
+    private final int port;
+    private final RingFile ring;
+    private long waitedNanos = 0; // Since the last log
+    private long nextWaitLogNanos = System.nanoTime();
+
+    private RingFileSink(int port, RingFile ring) {
+        this.port = port;
+        this.ring = ring;
+    }
+
+    /**
+     * @param ringDirectory Directory shared with the clients, null to send the ports over TCP
+     * @param ringBytes Size of each port's ring
+     * @param maxWaitMillis How long a write waits for a reader a ring behind before overwriting its unread bytes
+     */
+    public static void configure(Path ringDirectory, int ringBytes, long maxWaitMillis) {
+        directory = ringDirectory;
+        capacity = ringBytes;
+        maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    public static boolean isEnabled() {
+        return directory != null;
+    }
+
+    /**
+     * The ring file of a port, shared with the clients
+     */
+    public static Path ringPath(Path ringDirectory, int port) {
+        return ringDirectory.resolve("port-" + port + ".ring");
+    }
+
+    static RingFileSink forPort(int port) {
+        return sinks.computeIfAbsent(port, p -> {
+            Path path = ringPath(directory, p);
+            try {
+                RingFile ring = RingFile.create(path, capacity);
+                logger.info("Writing port " + p + " to ring file " + path + " of " + ring.capacity() + " bytes");
+                return new RingFileSink(p, ring);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not create ring file " + path, e);
+            }
+        });
+    }
+
+    /**
+     * Copies the lines into the ring, at most a ring's worth at a time and always ending on a line boundary, so
+     * readers only ever see whole lines
+     */
+    @Override
+    public synchronized void write(LineBuffer lines) {
+        byte[] bytes = lines.array();
+        int length = lines.length();
+        int start = 0;
+        while (start < length) {
+            int end = Math.min(length, start + ring.capacity());
+            if (end < length) {
+                int lineEnd = end;
+                while (lineEnd > start && bytes[lineEnd - 1] != '\n') {
+                    lineEnd--;
+                }
+                // A single line longer than the ring goes in pieces
+                end = lineEnd > start ? lineEnd : end;
+            }
+            waitedNanos += ring.write(bytes, start, end - start, maxWaitNanos);
+            start = end;
+        }
+        if (waitedNanos > 0) {
+            logWait();
+        }
+    }
+
+    private void logWait() {
+        long now = System.nanoTime();
+        if (now - nextWaitLogNanos < 0) {
+            return;
+        }
+        nextWaitLogNanos = now + WAIT_LOG_INTERVAL_NANOS;
+        logger.warn("Writer of port " + port + " was blocked " + TimeUnit.NANOSECONDS.toMillis(waitedNanos) +
+                " ms by slow ring readers, " + ring.getOverrunBytes() + " unread bytes overwritten so far");
+        waitedNanos = 0;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,14 @@
+package org.davidgeorgehope.sink;
+
+/**
+ * How a {@link FileSink} rotates its file
+ */
+public enum RotationStrategy {
+    /** Renames the file to its rotated name and reopens a new file under the original name */
+    RENAME,
+    /**
+     * Copies the file to its rotated name and truncates it in place, for readers that keep the original file
+     * open and don't follow renames
+     */
+    COPYTRUNCATE
+}
@@ -0,0 +1,354 @@
+package org.davidgeorgehope.sink;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses closed log files (rotated files and published segments) in the background, on a fixed number of
+ * low-priority threads.
+ *
+ * <p>A file is compressed {@code delayMillis} after it is submitted, so a tailer can finish reading it first. It
+ * is streamed through a fixed-size buffer into a hidden temporary file in the {@code archive} directory next to
+ * it, which is then renamed to {@code archive/<name>.gz} (or {@code .zz} for zlib deflate) before the original
+ * is deleted. The archive directory keeps the compressed files out of the tailers' globs
+ * (e.g. {@code /var/log/nginx_frontend/access.log*}). Only submitted files are ever touched, never a live file.
+ *
+ * <p>Throughput and backlog are logged every {@code statsSeconds}, with a warning while the backlog grows, i.e.
+ * while the compactor doesn't keep up with the files being rotated.
+ */
+public final class SegmentCompactor {
+    private static final Logger logger = LoggerFactory.getLogger(SegmentCompactor.class);
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final String ARCHIVE_DIRECTORY = "archive";
+
+    public enum Format {
+        GZIP(".gz"), DEFLATE(".zz");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private static volatile Format format = null; // Null when compression is disabled
+    private static volatile int level = Deflater.DEFAULT_COMPRESSION;
+    private static volatile int threads = 1;
+    private static volatile long delayMillis = 60_000;
+    private static volatile long statsSeconds = 60;
+    private static ScheduledThreadPoolExecutor workers;
+    private static ScheduledExecutorService statsReporter;
+
+    private static final AtomicLong backlogFiles = new AtomicLong();
+    private static final AtomicLong backlogBytes = new AtomicLong();
+    private static final AtomicLong submittedBytes = new AtomicLong();
+    private static final AtomicLong compressedFiles = new AtomicLong();
+    private static final AtomicLong bytesIn = new AtomicLong();
+    private static final AtomicLong bytesOut = new AtomicLong();
+    private static final AtomicLong busyNanos = new AtomicLong();
+
+    private SegmentCompactor() {
+    }
+
+    /**
+     * Enables compression of the files submitted after this call
+     * @param compression Format to compress to, null to leave files uncompressed
+     * @param compressionLevel Deflate level from 1 (fastest) to 9 (smallest), or -1 for the default
+     * @param threadCount Number of threads compressing in parallel
+     * @param delay Milliseconds to wait after a file is submitted before compressing it
+     * @param reportSeconds Period of logging throughput and backlog, 0 or less to not log them
+     */
+    public static synchronized void configure(Format compression, int compressionLevel, int threadCount, long delay,
+                                              long reportSeconds) {
+        format = compression;
+        level = compressionLevel;
+        threads = Math.max(1, threadCount);
+        delayMillis = Math.max(0, delay);
+        statsSeconds = reportSeconds;
+    }
+
+    public static boolean isEnabled() {
+        return format != null;
+    }
+
+    /**
+     * Queues a closed file for compression. The caller must not write to it anymore.
+     */
+    public static void submit(Path file) {
+        Format target = format;
+        if (target == null) {
+            return;
+        }
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            logger.warn("Not compressing " + file + ": " + e.getMessage());
+            return;
+        }
+        backlogFiles.incrementAndGet();
+        backlogBytes.addAndGet(size);
+        submittedBytes.addAndGet(size);
+        workers().schedule(() -> compress(file, size, target), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queues the files in the directory whose names match, e.g. files rotated by a previous run
+     */
+    public static void submitExisting(Path directory, Predicate<String> closedFileName) {
+        if (!isEnabled() || !Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> Files.isRegularFile(file) && closedFileName.test(file.getFileName().toString()))
+                    .sorted()
+                    .forEach(SegmentCompactor::submit);
+        } catch (IOException e) {
+            logger.warn("Could not list " + directory + " for compression: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The directory the compressed files of the given log directory are moved to
+     */
+    public static Path archiveDirectory(Path logDirectory) {
+        return logDirectory.resolve(ARCHIVE_DIRECTORY);
+    }
+
+    /**
+     * The name a file had before it was compressed, so retention can treat both the same
+     */
+    public static String uncompressedName(Path file) {
+        String name = file.getFileName().toString();
+        for (Format candidate : Format.values()) {
+            if (name.endsWith(candidate.extension)) {
+                return name.substring(0, name.length() - candidate.extension.length());
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Stops compressing. Files still waiting stay uncompressed and are picked up again on the next start.
+     */
+    public static synchronized void shutdown() {
+        if (statsReporter != null) {
+            statsReporter.shutdownNow();
+            statsReporter = null;
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+            workers = null;
+        }
+    }
+
+    public static long getBacklogFiles() {
+        return backlogFiles.get();
+    }
+
+    public static long getBacklogBytes() {
+        return backlogBytes.get();
+    }
+
+    public static long getCompressedFiles() {
+        return compressedFiles.get();
+    }
+
+    /**
+     * Uncompressed bytes per second of the time the threads spent compressing
+     */
+    public static double getThroughputBytesPerSecond() {
+        long busy = busyNanos.get();
+        return busy == 0 ? 0 : bytesIn.get() * 1e9 / busy;
+    }
+
+    private static void compress(Path file, long size, Format target) {
+        long start = System.nanoTime();
+        Path archive = archiveDirectory(file.getParent());
+        Path temporary = archive.resolve("." + file.getFileName() + target.extension + ".tmp");
+        try {
+            Files.createDirectories(archive);
+            Path compressed = archivePath(archive, file.getFileName().toString(), target);
+            long written = writeCompressed(file, temporary, target);
+            // The original is deleted next, so the compressed copy must be on disk first
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temporary, compressed, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(file);
+            compressedFiles.incrementAndGet();
+            bytesIn.addAndGet(size);
+            bytesOut.addAndGet(written);
+        } catch (NoSuchFileException e) {
+            // Deleted by retention while it was waiting
+            deleteQuietly(temporary);
+        } catch (IOException e) {
+            if (!Thread.currentThread().isInterrupted()) {
+                // Interrupted means shut down, the file is compressed on the next start
+                logger.error("Error compressing " + file, e);
+            }
+            deleteQuietly(temporary);
+        } finally {
+            busyNanos.addAndGet(System.nanoTime() - start);
+            backlogFiles.decrementAndGet();
+            backlogBytes.addAndGet(-size);
+        }
+    }
+
+    private static long writeCompressed(Path file, Path temporary, Format target) throws IOException {
+        Deflater deflater = new Deflater(level, false);
+        try (InputStream in = Files.newInputStream(file);
+             OutputStream out = Files.newOutputStream(temporary)) {
+            CountingOutputStream counted = new CountingOutputStream(out);
+            try (DeflaterOutputStream compressed = target == Format.GZIP
+                    ? new LeveledGzipOutputStream(counted, level)
+                    : new DeflaterOutputStream(counted, deflater, BUFFER_BYTES)) {
+                byte[] buffer = new byte[BUFFER_BYTES];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    compressed.write(buffer, 0, read);
+                }
+            }
+            return counted.count;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * A free name in the archive: the file's own name, or with a counter when an earlier file of the same name
+     * was already compressed (e.g. a daily rotation that ran twice)
+     */
+    private static Path archivePath(Path archive, String name, Format target) {
+        Path compressed = archive.resolve(name + target.extension);
+        for (int i = 1; Files.exists(compressed); i++) {
+            compressed = archive.resolve(name + "." + i + target.extension);
+        }
+        return compressed;
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Left for the next run
+        }
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor workers() {
+        if (workers == null) {
+            AtomicInteger counter = new AtomicInteger();
+            workers = new ScheduledThreadPoolExecutor(threads, runnable -> {
+                Thread thread = new Thread(runnable, "segment-compactor-" + counter.getAndIncrement());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+            startStatsReporter();
+        }
+        return workers;
+    }
+
+    private static void startStatsReporter() {
+        if (statsReporter != null || statsSeconds <= 0) {
+            return;
+        }
+        statsReporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "compactor-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] previous = new long[3]; // Backlog bytes, submitted bytes and compressed bytes at the last report
+        statsReporter.scheduleAtFixedRate(() -> {
+            long backlog = backlogBytes.get();
+            long submitted = submittedBytes.get();
+            long compressed = bytesIn.get();
+            if (submitted == previous[1] && compressed == previous[2]) {
+                return;
+            }
+            String message = "Compressed " + compressedFiles.get() + " files, " + megabytes(compressed) + " MB to " +
+                    megabytes(bytesOut.get()) + " MB at " + megabytes((long) getThroughputBytesPerSecond()) +
+                    " MB/s; in the last " + statsSeconds + " s " + megabytes(submitted - previous[1]) +
+                    " MB rotated and " + megabytes(compressed - previous[2]) + " MB compressed; backlog " +
+                    backlogFiles.get() + " files, " + megabytes(backlog) + " MB";
+            if (backlog > previous[0] && backlog > 0) {
+                logger.warn(message + ", growing");
+            } else {
+                logger.info(message);
+            }
+            previous[0] = backlog;
+            previous[1] = submitted;
+            previous[2] = compressed;
+        }, statsSeconds, statsSeconds, TimeUnit.SECONDS);
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1f", bytes / (1024.0 * 1024.0));
+    }
+
+    /**
+     * GZIPOutputStream with a deflate level and a larger buffer
+     */
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_BYTES);
+            def.setLevel(level);
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package org.davidgeorgehope.sink;
+
+import org.davidgeorgehope.encoding.LineBuffer;
+import org.davidgeorgehope.time.TimestampFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneOffset;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pushes the lines of a log file to a syslog collector as RFC 5424 messages instead of writing the file. Enabled
+ * for every stream with {@link #configure}.
+ *
+ * <p>Each stream gets its own connection. Its messages use facility local0, severity err for the error logs and
+ * info for the others, the log's directory as APP-NAME ({@code nginx_frontend}) and its file name as MSGID
+ * ({@code access}), and the entry's timestamp in UTC:
+ * <pre>
+ *   &lt;134&gt;1 2024-05-01T12:00:00.123Z generator-host nginx_frontend - access - 10.0.0.1 - - [01/May/2024...
+ * </pre>
+ *
+ * <p>Over TCP the messages are octet-counted (RFC 6587, {@code <length> <message>}), gathered into one write per
+ * {@value #TCP_BUFFER_BYTES} bytes. Over UDP there is one message per datagram (RFC 5426), truncated to what fits
+ * the MTU; with packing, as many newline-separated messages as fit the MTU share a datagram, for collectors that
+ * split datagrams on newlines. Packing breaks up multi-line entries such as the MySQL slow log's.
+ *
+ * <p>Lines that can't be sent while the collector is unreachable are dropped and counted; TCP reconnects on the
+ * next write, at most every {@value #RECONNECT_INTERVAL_MILLIS} ms. The connection is established without blocking
+ * the producers: lines are dropped until it completes, and it is given up after {@value #CONNECT_TIMEOUT_MILLIS} ms.
+ */
+public final class SyslogSink implements LogSink {
+    private static final Logger logger = LoggerFactory.getLogger(SyslogSink.class);
+    private static final Map<String, SyslogSink> sinks = new ConcurrentHashMap<>();
+    private static final int FACILITY_LOCAL0 = 16;
+    private static final int SEVERITY_ERROR = 3;
+    private static final int SEVERITY_INFO = 6;
+    private static final int TCP_BUFFER_BYTES = 64 * 1024;
+    private static final long RECONNECT_INTERVAL_MILLIS = 5000;
+    private static final long CONNECT_TIMEOUT_MILLIS = 3000;
+    private static final int TIMESTAMP_BYTES = "yyyy-MM-ddTHH:mm:ss.SSSZ".length();
+    private static final int MAX_NAME_CHARS = 48;
+    private static final int MAX_PRIORITY_BYTES = "<191>1 ".length();
+
+    private static volatile InetSocketAddress collector = null; // null to write the files
+    private static volatile boolean tcp = false;
+    private static volatile int mtu = 1500;
+    private static volatile boolean packDatagrams = false;
+    private static volatile String hostName = "-";
+
+    private final String stream;
+    private final byte[] priority;
+    private final byte[] header; // " HOSTNAME APP-NAME PROCID MSGID STRUCTURED-DATA "
+    private final int maxDatagramBytes;
+    private final ByteBuffer out;
+    private int pendingMessages = 0; // Messages in out
+    private ByteChannel channel;
+    private SocketChannel connecting; // TCP connection not established yet
+    private long connectDeadlineMillis;
+    private long nextConnectMillis = 0;
+    private boolean closed = false;
+
+    private long sentMessages = 0;
+    private long sentPackets = 0;
+    private long droppedMessages = 0;
+    private long truncatedMessages = 0;
+
+    private SyslogSink(String filePath) {
+        Path path = Paths.get(filePath);
+        String fileName = path.getFileName().toString();
+        String appName = path.getParent() != null && path.getParent().getFileName() != null
+                ? path.getParent().getFileName().toString() : "-";
+        String msgId = fileName.endsWith(".log") ? fileName.substring(0, fileName.length() - 4) : fileName;
+        int severity = fileName.contains("error") ? SEVERITY_ERROR : SEVERITY_INFO;
+
+        this.stream = appName + "/" + msgId;
+        this.priority = ("<" + (FACILITY_LOCAL0 * 8 + severity) + ">1 ").getBytes(StandardCharsets.US_ASCII);
+        this.header = (" " + hostName + " " + syslogName(appName) + " - " + syslogName(msgId) + " - ")
+                .getBytes(StandardCharsets.US_ASCII);
+        this.maxDatagramBytes = maxDatagramBytes(mtu, collector);
+        this.out = ByteBuffer.allocate(tcp ? TCP_BUFFER_BYTES : maxDatagramBytes);
+    }
+
+    /**
+     * Sends the streams opened after this call to a syslog collector instead of their files
+     * @param target {@code udp://host:port} or {@code tcp://host:port}, null to write the files
+     * @param mtuBytes MTU of the path to the collector, bounding the UDP datagrams; it must leave room for the
+     *                 message header after the IP and UDP headers
+     * @param pack Whether to pack several newline-separated messages into each UDP datagram
+     */
+    public static synchronized void configure(String target, int mtuBytes, boolean pack) {
+        if (target == null) {
+            collector = null;
+            return;
+        }
+        URI uri = URI.create(target);
+        String scheme = String.valueOf(uri.getScheme()).toLowerCase(Locale.ROOT);
+        if (!scheme.equals("udp") && !scheme.equals("tcp") || uri.getHost() == null) {
+            throw new IllegalArgumentException("Syslog target must be udp://host:port or tcp://host:port: " + target);
+        }
+        InetSocketAddress address = new InetSocketAddress(uri.getHost(), uri.getPort() > 0 ? uri.getPort() : 514);
+        String localName;
+        try {
+            localName = syslogName(InetAddress.getLocalHost().getHostName());
+        } catch (UnknownHostException e) {
+            localName = "-";
+        }
+        boolean overTcp = scheme.equals("tcp");
+        // The longest header any stream can have: priority, timestamp, host name, APP-NAME and MSGID
+        int headerBytes = MAX_PRIORITY_BYTES + TIMESTAMP_BYTES + localName.length() + 2 * MAX_NAME_CHARS + 8;
+        if (!overTcp && maxDatagramBytes(mtuBytes, address) < headerBytes) {
+            throw new IllegalArgumentException("Syslog MTU " + mtuBytes + " can't hold the " + headerBytes +
+                    " byte message header in a datagram, it must be at least " +
+                    (headerBytes + mtuBytes - maxDatagramBytes(mtuBytes, address)));
+        }
+        tcp = overTcp;
+        collector = address;
+        mtu = mtuBytes;
+        packDatagrams = pack;
+        hostName = localName;
+    }
+
+    /**
+     * What the IP and UDP headers leave of the MTU
+     */
+    private static int maxDatagramBytes(int mtuBytes, InetSocketAddress address) {
+        return mtuBytes - (address.getAddress() instanceof Inet6Address ? 48 : 28);
+    }
+
+    public static boolean isEnabled() {
+        return collector != null;
+    }
+
+    static SyslogSink forPath(String filePath) {
+        return sinks.computeIfAbsent(filePath, path -> {
+            SyslogSink sink = new SyslogSink(path);
+            logger.info("Sending " + path + " to syslog collector " + (tcp ? "tcp" : "udp") + "://" +
+                    collector.getHostString() + ":" + collector.getPort());
+            return sink;
+        });
+    }
+
+    /**
+     * Flushes and closes every open sink, for shutdown
+     */
+    static void closeAll() {
+        for (SyslogSink sink : sinks.values()) {
+            sink.close();
+        }
+        sinks.clear();
+    }
+
+    @Override
+    public synchronized void write(LineBuffer lines) throws IOException {
+        if (closed) {
+            throw new IOException("Sink is closed: " + stream);
+        }
+        if (channel == null && !connect()) {
+            droppedMessages += lines.lineCount();
+            return;
+        }
+        byte[] bytes = lines.array();
+        for (int i = 0; i < lines.lineCount(); i++) {
+            if (channel == null) {
+                // The connection was lost while sending
+                droppedMessages += lines.lineCount() - i;
+                return;
+            }
+            int start = lines.lineStart(i);
+            int end = lines.lineEnd(i);
+            if (end > start && bytes[end - 1] == '\n') {
+                end--;
+            }
+            if (tcp) {
+                appendFramed(bytes, start, end - start, lines.timestampMillis(i));
+            } else {
+                appendDatagram(bytes, start, end - start, lines.timestampMillis(i));
+            }
+        }
+        send();
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (channel != null) {
+            send();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flush();
+        if (channel != null) {
+            closeChannel();
+        }
+        if (connecting != null) {
+            closeConnecting();
+        }
+        logger.info("Syslog stream " + stream + ": " + sentMessages + " messages sent in " + sentPackets +
+                (tcp ? " writes, " : " datagrams, ") + droppedMessages + " dropped, " + truncatedMessages +
+                " truncated");
+    }
+
+    public synchronized long getSentMessages() {
+        return sentMessages;
+    }
+
+    public synchronized long getDroppedMessages() {
+        return droppedMessages;
+    }
+
+    /**
+     * Appends {@code <length> <message>}, writing the buffer out first when the message doesn't fit
+     */
+    private void appendFramed(byte[] bytes, int offset, int length, long timestampMillis) {
+        int messageBytes = messageBytes(length);
+        int frameBytes = Integer.toString(messageBytes).length() + 1 + messageBytes;
+        if (out.remaining() < frameBytes) {
+            send();
+            if (channel == null) {
+                droppedMessages++;
+                return;
+            }
+            if (out.remaining() < frameBytes) {
+                // Longer than the buffer, write it on its own
+                ByteBuffer frame = ByteBuffer.allocate(frameBytes);
+                putFrame(frame, messageBytes, bytes, offset, length, timestampMillis);
+                frame.flip();
+                writeFully(frame, 1);
+                return;
+            }
+        }
+        putFrame(out, messageBytes, bytes, offset, length, timestampMillis);
+        pendingMessages++;
+    }
+
+    private void putFrame(ByteBuffer buffer, int messageBytes, byte[] bytes, int offset, int length,
+                          long timestampMillis) {
+        putDecimal(buffer, messageBytes);
+        buffer.put((byte) ' ');
+        putMessage(buffer, bytes, offset, length, timestampMillis);
+    }
+
+    /**
+     * Adds the message to the pending datagram, or sends the pending one first when packing and it doesn't fit
+     */
+    private void appendDatagram(byte[] bytes, int offset, int length, long timestampMillis) {
+        int messageBytes = messageBytes(length);
+        if (messageBytes > maxDatagramBytes) {
+            // RFC 5426 lets the sender truncate what exceeds the path MTU
+            length -= messageBytes - maxDatagramBytes;
+            messageBytes = maxDatagramBytes;
+            truncatedMessages++;
+        }
+        if (out.position() > 0 && (!packDatagrams || out.remaining() < messageBytes + 1)) {
+            send();
+            if (channel == null) {
+                droppedMessages++;
+                return;
+            }
+        }
+        if (out.position() > 0) {
+            out.put((byte) '\n');
+        }
+        putMessage(out, bytes, offset, Math.max(0, length), timestampMillis);
+        pendingMessages++;
+    }
+
+    private int messageBytes(int lineBytes) {
+        return priority.length + TIMESTAMP_BYTES + header.length + lineBytes;
+    }
+
+    private void putMessage(ByteBuffer buffer, byte[] bytes, int offset, int length, long timestampMillis) {
+        buffer.put(priority);
+        TimestampFormat.RFC3339_MILLIS.encode(buffer, timestampMillis * 1000, ZoneOffset.UTC);
+        buffer.put(header);
+        buffer.put(bytes, offset, length);
+    }
+
+    private static void putDecimal(ByteBuffer buffer, int value) {
+        int divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+
+    /**
+     * Writes the pending bytes, one write or datagram
+     */
+    private void send() {
+        if (out.position() == 0) {
+            return;
+        }
+        out.flip();
+        writeFully(out, pendingMessages);
+        out.clear();
+        pendingMessages = 0;
+    }
+
+    private void writeFully(ByteBuffer buffer, int messages) {
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            sentPackets++;
+            sentMessages += messages;
+        } catch (IOException e) {
+            if (tcp) {
+                logger.error("Lost the connection to syslog collector " + collector + " for " + stream +
+                        ", reconnecting in " + RECONNECT_INTERVAL_MILLIS + " ms: " + e.getMessage());
+                closeChannel();
+            }
+            // Over UDP, e.g. ICMP port unreachable while the collector is down
+            droppedMessages += messages;
+        }
+    }
+
+    /**
+     * Opens the channel, or for TCP starts connecting and checks on it at the next writes
+     * @return Whether the channel is ready to write to
+     */
+    private boolean connect() {
+        long now = System.currentTimeMillis();
+        if (connecting != null) {
+            return finishConnect(now);
+        }
+        if (now < nextConnectMillis) {
+            return false;
+        }
+        nextConnectMillis = now + RECONNECT_INTERVAL_MILLIS;
+        try {
+            if (!tcp) {
+                channel = DatagramChannel.open().connect(collector);
+                return true;
+            }
+            connecting = SocketChannel.open();
+            connecting.configureBlocking(false);
+            connecting.connect(collector);
+            connectDeadlineMillis = now + CONNECT_TIMEOUT_MILLIS;
+            return finishConnect(now);
+        } catch (IOException e) {
+            connectFailed(e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean finishConnect(long now) {
+        try {
+            if (!connecting.finishConnect()) {
+                if (now < connectDeadlineMillis) {
+                    return false;
+                }
+                throw new IOException("timed out after " + CONNECT_TIMEOUT_MILLIS + " ms");
+            }
+            // Writes block on a full socket buffer like the file sinks' on a slow disk
+            connecting.configureBlocking(true);
+            channel = connecting;
+            connecting = null;
+            return true;
+        } catch (IOException e) {
+            connectFailed(e.getMessage());
+            return false;
+        }
+    }
+
+    private void connectFailed(String reason) {
+        if (connecting != null) {
+            closeConnecting();
+        }
+        nextConnectMillis = System.currentTimeMillis() + RECONNECT_INTERVAL_MILLIS;
+        logger.error("Could not connect to syslog collector " + collector + " for " + stream + ", retrying in " +
+                RECONNECT_INTERVAL_MILLIS + " ms: " + reason);
+    }
+
+    private void closeConnecting() {
+        try {
+            connecting.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        connecting = null;
+    }
+
+    private void closeChannel() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        channel = null;
+    }
+
+    /**
+     * A header field: printable US-ASCII without spaces, "-" when empty
+     */
+    private static String syslogName(String name) {
+        StringBuilder field = new StringBuilder(name.length());
+        for (int i = 0; i < name.length() && field.length() < MAX_NAME_CHARS; i++) {
+            char c = name.charAt(i);
+            field.append(c > ' ' && c < 127 ? c : '_');
+        }
+        return field.length() == 0 ? "-" : field.toString();
+    }
+}
@@ -0,0 +1,31 @@
+package org.davidgeorgehope.sink;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How an {@link AsyncSink} consumer waits while its ring is empty
+ */
+public enum WaitStrategy {
+    /** Busy-spins: lowest latency, but burns a core per consumer */
+    SPIN,
+    /** Yields the core between checks */
+    YIELD,
+    /** Parks until a producer publishes, or for at most a millisecond */
+    PARK;
+
+    private static final long MAX_PARK_NANOS = 1_000_000;
+
+    void idle() {
+        switch (this) {
+            case SPIN:
+                Thread.onSpinWait();
+                break;
+            case YIELD:
+                Thread.yield();
+                break;
+            default:
+                LockSupport.parkNanos(MAX_PARK_NANOS);
+                break;
+        }
+    }
+}
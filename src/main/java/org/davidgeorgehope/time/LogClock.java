@@ -0,0 +1,64 @@
+package org.davidgeorgehope.time;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * Source of "now" for every log entry. Entries normally follow the system clock, but a thread can install its
+ * own {@link Clock} (for example a {@link SyntheticClock} during a backfill) so that the entries it generates
+ * are stamped with synthetic time instead, and the default clock can be replaced for the whole process (for
+ * example by a {@link WarpedClock}). Entries render the time they read here with {@link TimestampFormat}.
+ */
+public class LogClock {
+    private static volatile Clock defaultClock = Clock.systemDefaultZone();
+    private static final ThreadLocal<Clock> threadClock = new ThreadLocal<>();
+
+    public static Clock current() {
+        Clock clock = threadClock.get();
+        return clock != null ? clock : defaultClock;
+    }
+
+    public static ZonedDateTime now() {
+        return ZonedDateTime.now(current());
+    }
+
+    public static long currentTimeMillis() {
+        return current().millis();
+    }
+
+    /**
+     * Current time in epoch microseconds, the resolution the entries keep their timestamps in
+     */
+    public static long currentTimeMicros() {
+        Clock clock = current();
+        if (clock instanceof SyntheticClock) {
+            return Math.floorDiv(((SyntheticClock) clock).getEpochNanos(), 1000L);
+        }
+        Instant now = clock.instant();
+        return now.getEpochSecond() * 1_000_000L + now.getNano() / 1000;
+    }
+
+    public static ZoneId zone() {
+        return current().getZone();
+    }
+
+    /**
+     * Replaces the clock used by threads that have not installed their own clock
+     */
+    public static void setDefaultClock(Clock clock) {
+        defaultClock = clock;
+    }
+
+    /**
+     * Installs a clock for the calling thread only
+     */
+    public static void setThreadClock(Clock clock) {
+        threadClock.set(clock);
+    }
+
+    public static void clearThreadClock() {
+        threadClock.remove();
+    }
+}
@@ -0,0 +1,49 @@
+package org.davidgeorgehope.time;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * A clock that only moves when it is told to. It is not thread safe and is meant to be installed on a single
+ * generator thread with {@link LogClock#setThreadClock(Clock)}.
+ */
+public class SyntheticClock extends Clock {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final ZoneId zone;
+    private long epochNanos;
+
+    public SyntheticClock(ZoneId zone, long epochNanos) {
+        this.zone = zone;
+        this.epochNanos = epochNanos;
+    }
+
+    public void setEpochNanos(long epochNanos) {
+        this.epochNanos = epochNanos;
+    }
+
+    public long getEpochNanos() {
+        return epochNanos;
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return new SyntheticClock(zone, epochNanos);
+    }
+
+    @Override
+    public long millis() {
+        return Math.floorDiv(epochNanos, 1_000_000L);
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochSecond(Math.floorDiv(epochNanos, NANOS_PER_SECOND), Math.floorMod(epochNanos, NANOS_PER_SECOND));
+    }
+}
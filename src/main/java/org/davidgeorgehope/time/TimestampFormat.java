@@ -0,0 +1,158 @@
+package org.davidgeorgehope.time;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * The timestamp layouts used by the log entries, rendered through a shared cache.
+ *
+ * <p>Each layout is formatted with its {@link DateTimeFormatter} at most once per second (and zone) into cached
+ * ASCII bytes. The sub-second layouts cache everything up to the decimal point and only splice in the three or six
+ * sub-second digits per line, followed by the layout's fixed suffix. The cache is a small direct-mapped table of immutable entries, so threads working
+ * on different seconds (e.g. parallel backfill slices) mostly don't evict each other and no locking is needed.
+ */
+public enum TimestampFormat {
+    /** nginx access log, e.g. 25/Feb/2025:14:10:44 +0000 */
+    NGINX_ACCESS("dd/MMM/yyyy:HH:mm:ss Z", false),
+    /** nginx $time_iso8601, e.g. 2025-02-25T14:10:44+00:00 */
+    ISO8601("yyyy-MM-dd'T'HH:mm:ssxxx", false),
+    /** nginx error log, e.g. 2025/02/25 14:10:44 */
+    NGINX_ERROR("yyyy/MM/dd HH:mm:ss", false),
+    /** Ingress controller (klog) error log after the level letter, e.g. 0225 14:10:44.455123 */
+    INGRESS_ERROR("MMdd HH:mm:ss.", true),
+    /** MySQL error log, e.g. 250225 14:10:44 */
+    MYSQL_ERROR("yyMMdd HH:mm:ss", false),
+    /** MySQL slow query log, e.g. 2025-02-25 14:10:44 */
+    MYSQL_SLOW("yyyy-MM-dd HH:mm:ss", false),
+    /** MySQL general query log, e.g. 2025-02-25 14:10:44.455123 */
+    MYSQL_GENERAL("yyyy-MM-dd HH:mm:ss.", true),
+    /**
+     * RFC 3339 with milliseconds, e.g. 2025-02-25T14:10:44.455Z, for syslog and Elasticsearch. The suffix is
+     * always Z, so render it with {@link ZoneOffset#UTC}.
+     */
+    RFC3339_MILLIS("yyyy-MM-dd'T'HH:mm:ss.", 3, "Z");
+
+    private static final int CACHE_SLOTS = 64;
+    private static final int MICRO_DIGITS = 6;
+
+    private final DateTimeFormatter formatter;
+    private final int fractionDigits; // Sub-second digits after the cached part, 0 for second resolution
+    private final byte[] suffix;
+    private final CachedSecond[] cache = new CachedSecond[CACHE_SLOTS];
+
+    TimestampFormat(String pattern, boolean microseconds) {
+        this(pattern, microseconds ? MICRO_DIGITS : 0, "");
+    }
+
+    TimestampFormat(String pattern, int fractionDigits, String suffix) {
+        this.formatter = DateTimeFormatter.ofPattern(pattern);
+        this.fractionDigits = fractionDigits;
+        this.suffix = suffix.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Renders the timestamp as a String. Second resolution layouts return the cached String itself.
+     */
+    public String format(long epochMicros, ZoneId zone) {
+        CachedSecond second = cachedSecond(Math.floorDiv(epochMicros, 1_000_000L), zone);
+        if (fractionDigits == 0 && suffix.length == 0) {
+            return second.text;
+        }
+        byte[] bytes = new byte[second.bytes.length + fractionDigits + suffix.length];
+        encode(bytes, 0, epochMicros, zone);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Cached ASCII bytes for the second containing the timestamp (the part before the sub-second digits).
+     * The returned array is shared and must not be modified.
+     */
+    public byte[] secondBytes(long epochMicros, ZoneId zone) {
+        return cachedSecond(Math.floorDiv(epochMicros, 1_000_000L), zone).bytes;
+    }
+
+    /**
+     * Writes the timestamp as ASCII at the buffer's position
+     */
+    public void encode(ByteBuffer buffer, long epochMicros, ZoneId zone) {
+        buffer.put(cachedSecond(Math.floorDiv(epochMicros, 1_000_000L), zone).bytes);
+        int micros = (int) Math.floorMod(epochMicros, 1_000_000L);
+        int divisor = 100_000;
+        for (int i = 0; i < fractionDigits; i++) {
+            buffer.put((byte) ('0' + micros / divisor % 10));
+            divisor /= 10;
+        }
+        buffer.put(suffix);
+    }
+
+    /**
+     * Writes the timestamp as ASCII into the array, which must have room for it
+     * @return The offset after the timestamp
+     */
+    public int encode(byte[] dest, int offset, long epochMicros, ZoneId zone) {
+        byte[] second = cachedSecond(Math.floorDiv(epochMicros, 1_000_000L), zone).bytes;
+        System.arraycopy(second, 0, dest, offset, second.length);
+        int position = offset + second.length;
+        int micros = (int) Math.floorMod(epochMicros, 1_000_000L);
+        int divisor = 100_000;
+        for (int i = 0; i < fractionDigits; i++) {
+            dest[position++] = (byte) ('0' + micros / divisor % 10);
+            divisor /= 10;
+        }
+        System.arraycopy(suffix, 0, dest, position, suffix.length);
+        return position + suffix.length;
+    }
+
+    public boolean hasMicroseconds() {
+        return fractionDigits == MICRO_DIGITS;
+    }
+
+    /**
+     * Writes the six microsecond digits of the timestamp
+     */
+    public static void writeMicros(byte[] dest, int offset, long epochMicros) {
+        int micros = (int) Math.floorMod(epochMicros, 1_000_000L);
+        for (int i = offset + MICRO_DIGITS - 1; i >= offset; i--) {
+            dest[i] = (byte) ('0' + micros % 10);
+            micros /= 10;
+        }
+    }
+
+    private CachedSecond cachedSecond(long epochSecond, ZoneId zone) {
+        int slot = (int) (mix(epochSecond) & (CACHE_SLOTS - 1));
+        CachedSecond cached = cache[slot];
+        if (cached != null && cached.epochSecond == epochSecond && cached.zone.equals(zone)) {
+            return cached;
+        }
+        String text = formatter.format(Instant.ofEpochSecond(epochSecond).atZone(zone));
+        cached = new CachedSecond(epochSecond, zone, text);
+        cache[slot] = cached;
+        return cached;
+    }
+
+    private static long mix(long value) {
+        value *= 0x9E3779B97F4A7C15L;
+        return value ^ (value >>> 32);
+    }
+
+    /**
+     * Immutable cache entry, safely published through its final fields
+     */
+    private static final class CachedSecond {
+        private final long epochSecond;
+        private final ZoneId zone;
+        private final String text;
+        private final byte[] bytes;
+
+        private CachedSecond(long epochSecond, ZoneId zone, String text) {
+            this.epochSecond = epochSecond;
+            this.zone = zone;
+            this.text = text;
+            this.bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.davidgeorgehope.time;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+
+/**
+ * A clock that starts at a chosen instant and runs at a multiple of real time, for time-warp runs
+ * ({@code --clock-start} / {@code --clock-speed}).
+ */
+public class WarpedClock extends Clock {
+    private final Instant origin;
+    private final double speed;
+    private final ZoneId zone;
+    private final long originNanos;
+
+    public WarpedClock(Instant origin, double speed, ZoneId zone) {
+        this(origin, speed, zone, System.nanoTime());
+    }
+
+    private WarpedClock(Instant origin, double speed, ZoneId zone, long originNanos) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("Clock speed must be positive: " + speed);
+        }
+        this.origin = origin;
+        this.speed = speed;
+        this.zone = zone;
+        this.originNanos = originNanos;
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return new WarpedClock(origin, speed, zone, originNanos);
+    }
+
+    @Override
+    public Instant instant() {
+        long elapsedNanos = (long) ((System.nanoTime() - originNanos) * speed);
+        return origin.plusNanos(elapsedNanos);
+    }
+}
@@ -0,0 +1,193 @@
+package org.davidgeorgehope.nginx.logs;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PortSpoolTest {
+    private static final int LINE_BYTES = 10;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rollsToSegmentsNamedByTheirFirstOffset() throws IOException {
+        PortSpool spool = new PortSpool(9001, directory, 100, 10_000);
+        byte[] bytes = lines(0, 25);
+        appendInBatches(spool, bytes, 5);
+
+        assertEquals(List.of("00000000000000000000.spool", "00000000000000000100.spool",
+                "00000000000000000200.spool"), segmentNames());
+        assertEquals(0, spool.start());
+        assertEquals(bytes.length, spool.end());
+        assertArrayEquals(bytes, copy(spool, 0, spool.end()));
+        spool.close();
+    }
+
+    @Test
+    void retentionDeletesTheOldestSegments() throws IOException {
+        PortSpool spool = new PortSpool(9001, directory, 100, 300);
+        byte[] bytes = lines(0, 100);
+        appendInBatches(spool, bytes, 5);
+
+        // Whole segments go, and at least maxBytes stay until the current segment is rolled
+        assertEquals(600, spool.start());
+        assertEquals(4, segmentNames().size());
+        assertArrayEquals(Arrays.copyOfRange(bytes, 600, bytes.length), copy(spool, 600, spool.end()));
+        spool.close();
+    }
+
+    @Test
+    void resumeOffsetIsClampedToTheSpool() throws IOException {
+        PortSpool spool = new PortSpool(9001, directory, 100, 300);
+        appendInBatches(spool, lines(0, 100), 5);
+
+        assertEquals(spool.start(), spool.resumeOffset(0));
+        assertEquals(spool.start(), spool.resumeOffset(spool.start() - 1));
+        assertEquals(750, spool.resumeOffset(750));
+        assertEquals(spool.end(), spool.resumeOffset(spool.end()));
+        assertEquals(spool.end(), spool.resumeOffset(spool.end() + 1000));
+        spool.close();
+    }
+
+    @Test
+    void resumesAfterARestartWithTheOldestSegmentsDeleted() throws IOException {
+        PortSpool before = new PortSpool(9001, directory, 100, 300);
+        byte[] bytes = lines(0, 100);
+        appendInBatches(before, bytes, 5);
+        before.close();
+
+        PortSpool spool = new PortSpool(9001, directory, 100, 300);
+        assertEquals(600, spool.start());
+        assertEquals(bytes.length, spool.end());
+        assertEquals(600, spool.resumeOffset(200));
+
+        byte[] more = lines(100, 10);
+        appendInBatches(spool, more, 5);
+        // Writing on rolled past the segments of the previous run, so retention deleted another one
+        assertEquals(700, spool.resumeOffset(200));
+        assertArrayEquals(concat(Arrays.copyOfRange(bytes, 700, bytes.length), more),
+                copy(spool, 700, spool.end()));
+        spool.close();
+    }
+
+    @Test
+    void recoveryTrimsThePartialLastLine() throws IOException {
+        PortSpool before = new PortSpool(9001, directory, 100, 10_000);
+        byte[] bytes = lines(0, 15);
+        appendInBatches(before, bytes, 5);
+        before.close();
+        // A crash in the middle of a write
+        Files.write(directory.resolve("00000000000000000100.spool"), "line 9".getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.APPEND);
+
+        PortSpool spool = new PortSpool(9001, directory, 100, 10_000);
+
+        assertEquals(bytes.length, spool.end());
+        assertEquals(50, Files.size(directory.resolve("00000000000000000100.spool")));
+        byte[] more = lines(15, 5);
+        appendInBatches(spool, more, 5);
+        assertArrayEquals(concat(bytes, more), copy(spool, 0, spool.end()));
+        spool.close();
+    }
+
+    @Test
+    void copySkipsSegmentsDeletedWhileReading() throws IOException {
+        PortSpool spool = new PortSpool(9001, directory, 100, 300);
+        byte[] bytes = lines(0, 30);
+        appendInBatches(spool, bytes, 10);
+        byte[] more = lines(30, 40);
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                super.write(b, off, len);
+                if (size() == len) {
+                    // Retention deletes the rest of what is being copied after the first read
+                    appendInBatches(spool, more, 10);
+                }
+            }
+        };
+
+        long next = spool.copyTo(0, bytes.length, out);
+
+        assertEquals(bytes.length, next);
+        assertEquals(300, spool.start());
+        assertArrayEquals(Arrays.copyOfRange(bytes, 0, 100), out.toByteArray());
+        spool.close();
+    }
+
+    @Test
+    void copySkipsSegmentFilesRemovedByHand() throws IOException {
+        PortSpool spool = new PortSpool(9001, directory, 100, 10_000);
+        byte[] bytes = lines(0, 30);
+        appendInBatches(spool, bytes, 10);
+        Files.delete(directory.resolve("00000000000000000100.spool"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(bytes.length, spool.copyTo(0, bytes.length, out));
+
+        assertArrayEquals(concat(Arrays.copyOfRange(bytes, 0, 100), Arrays.copyOfRange(bytes, 200, 300)),
+                out.toByteArray());
+        spool.close();
+    }
+
+    /**
+     * Appends the lines a few at a time, the way the batcher seals them, and waits until they are written
+     */
+    private static void appendInBatches(PortSpool spool, byte[] bytes, int linesPerBatch) {
+        int batchBytes = linesPerBatch * LINE_BYTES;
+        for (int start = 0; start < bytes.length; start += batchBytes) {
+            byte[] batch = Arrays.copyOfRange(bytes, start, Math.min(bytes.length, start + batchBytes));
+            spool.append(batch, 0, batch.length);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (spool.writtenEnd() < spool.end() && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(1_000_000);
+        }
+        assertEquals(spool.end(), spool.writtenEnd());
+    }
+
+    private static byte[] copy(PortSpool spool, long from, long to) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(to, spool.copyTo(from, to, out));
+        return out.toByteArray();
+    }
+
+    /**
+     * Lines of {@value #LINE_BYTES} bytes, numbered from the first one
+     */
+    private static byte[] lines(int first, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = first; i < first + count; i++) {
+            text.append(String.format("line %04d\n", i));
+        }
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+
+    private List<String> segmentNames() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.davidgeorgehope.sink;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class BulkBatchTest {
+    private static final byte[] DOCUMENT_END = "\"}\n".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void itemStatusesOfFilteredResponse() {
+        String response = "{\"errors\":true,\"items\":[{\"create\":{\"status\":201}},{\"create\":{\"status\":429}}," +
+                "{\"create\":{\"status\":201}},{\"create\":{\"status\":400}}]}";
+
+        assertArrayEquals(new int[]{201, 429, 201, 400}, BulkBatch.itemStatuses(bytes(response), 4));
+    }
+
+    @Test
+    void itemStatusesOfUnfilteredResponse() {
+        // Pretty printed, with nested objects and an error whose fields mention status too
+        String response = "{\n" +
+                "  \"took\" : 30,\n" +
+                "  \"errors\" : true,\n" +
+                "  \"items\" : [\n" +
+                "    { \"create\" : { \"_index\" : \".ds-logs-nginx.access-default\", \"_id\" : \"a1\",\n" +
+                "        \"_version\" : 1, \"result\" : \"created\",\n" +
+                "        \"_shards\" : { \"total\" : 2, \"successful\" : 1, \"failed\" : 0 },\n" +
+                "        \"_seq_no\" : 0, \"_primary_term\" : 1, \"status\" : 201 } },\n" +
+                "    { \"create\" : { \"_index\" : \".ds-logs-nginx.access-default\", \"status\" : 429,\n" +
+                "        \"error\" : { \"type\" : \"es_rejected_execution_exception\",\n" +
+                "          \"reason\" : \"rejected, \\\"status\\\": 503\" } } },\n" +
+                "    { \"create\" : { \"_index\" : \".ds-logs-nginx.access-default\",\n" +
+                "        \"error\" : { \"type\" : \"mapper_parsing_exception\", \"reason\" : \"failed to parse\",\n" +
+                "          \"caused_by\" : { \"type\" : \"illegal_argument_exception\", \"status\" : 500 } },\n" +
+                "        \"status\" : 400 } }\n" +
+                "  ]\n" +
+                "}";
+
+        assertArrayEquals(new int[]{201, 429, 400}, BulkBatch.itemStatuses(bytes(response), 3));
+    }
+
+    @Test
+    void itemStatusesOf429MixedResponse() {
+        String response = "{\"errors\":true,\"items\":[{\"create\":{\"status\":429}},{\"create\":{\"status\":201}}," +
+                "{\"create\":{\"status\":429}},{\"create\":{\"status\":201}},{\"create\":{\"status\":429}}]}";
+
+        assertArrayEquals(new int[]{429, 201, 429, 201, 429}, BulkBatch.itemStatuses(bytes(response), 5));
+    }
+
+    @Test
+    void itemStatusesAreZeroForMissingItems() {
+        String response = "{\"errors\":false,\"items\":[{\"create\":{\"status\":201}},{\"create\":{}}]}";
+
+        assertArrayEquals(new int[]{201, 0, 0}, BulkBatch.itemStatuses(bytes(response), 3));
+    }
+
+    @Test
+    void itemStatusesIgnoreItemsBeyondTheBatch() {
+        String response = "{\"items\":[{\"create\":{\"status\":201}},{\"create\":{\"status\":201}}]}";
+
+        assertArrayEquals(new int[]{201}, BulkBatch.itemStatuses(bytes(response), 1));
+    }
+
+    @Test
+    void addWritesActionAndEscapedDocument() {
+        BulkBatch batch = new BulkBatch(DOCUMENT_END, 0);
+        byte[] line = bytes("GET \"/a\\b\"\tok");
+        batch.add(line, 0, line.length, 1_700_000_000_123L);
+
+        assertEquals("{\"create\":{}}\n{\"@timestamp\":\"2023-11-14T22:13:20.123Z\"," +
+                "\"message\":\"GET \\\"/a\\\\b\\\"\\tok\"}\n", body(batch));
+        assertEquals(1, batch.itemCount());
+    }
+
+    @Test
+    void retainKeepsTheGivenItemsInOrder() {
+        BulkBatch batch = new BulkBatch(DOCUMENT_END, 0);
+        for (int i = 0; i < 4; i++) {
+            byte[] line = bytes("line " + i);
+            batch.add(line, 0, line.length, i);
+        }
+        batch.attempts = 3;
+
+        BulkBatch retry = batch.retain(new int[]{1, 3}, 2);
+
+        assertEquals(2, retry.itemCount());
+        assertEquals(3, retry.attempts);
+        assertEquals(document("1970-01-01T00:00:00.001Z", "line 1") +
+                document("1970-01-01T00:00:00.003Z", "line 3"), body(retry));
+
+        BulkBatch last = retry.retain(new int[]{1}, 1);
+        assertEquals(document("1970-01-01T00:00:00.003Z", "line 3"), body(last));
+    }
+
+    private static String document(String timestamp, String message) {
+        return "{\"create\":{}}\n{\"@timestamp\":\"" + timestamp + "\",\"message\":\"" + message + "\"}\n";
+    }
+
+    private static String body(BulkBatch batch) {
+        return new String(batch.body(), 0, batch.length(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
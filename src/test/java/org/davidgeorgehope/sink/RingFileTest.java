@@ -0,0 +1,219 @@
+package org.davidgeorgehope.sink;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RingFileTest {
+    private static final int MIB = 1024 * 1024;
+    private static final long NO_WAIT = 0;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsAcrossTheEndOfTheRing() throws IOException {
+        RingFile writer = RingFile.create(directory.resolve("port-9001.ring"), 4096);
+        RingFile.Reader reader = RingFile.open(directory.resolve("port-9001.ring")).reader(0);
+        Capture out = new Capture();
+
+        byte[] first = lines(0, 3000);
+        writer.write(first, 0, first.length, NO_WAIT);
+        assertEquals(first.length, reader.read(out));
+        // Starts near the end of the data area and continues at its start
+        byte[] second = lines(1000, 3000);
+        writer.write(second, 0, second.length, NO_WAIT);
+        assertEquals(second.length, reader.read(out));
+
+        assertArrayEquals(concat(first, second), out.bytes());
+        assertEquals(first.length + second.length, reader.getPosition());
+        assertEquals(0, reader.getLostBytes());
+    }
+
+    @Test
+    void chunksEndOnLineBoundaries() throws IOException {
+        RingFile writer = RingFile.create(directory.resolve("port-9001.ring"), 2 * MIB);
+        RingFile.Reader reader = writer.reader(0);
+        Capture out = new Capture();
+
+        byte[] bytes = lines(0, 3 * MIB / 2);
+        writer.write(bytes, 0, bytes.length, NO_WAIT);
+        assertEquals(bytes.length, reader.read(out));
+
+        assertEquals(2, out.writes.size());
+        byte[] chunk = out.writes.get(0);
+        assertTrue(chunk.length <= RingFile.READ_CHUNK_BYTES);
+        assertEquals('\n', chunk[chunk.length - 1]);
+        assertArrayEquals(bytes, out.bytes());
+    }
+
+    @Test
+    void dropsChunkOverwrittenWhileCopying() throws IOException {
+        RingFile writer = RingFile.create(directory.resolve("port-9001.ring"), 2 * MIB);
+        RingFile.Reader reader = writer.reader(0);
+        byte[] bytes = lines(0, 2 * MIB - 4096);
+        writer.write(bytes, 0, bytes.length, NO_WAIT);
+        byte[] overwrite = lines(1, 3 * MIB / 2);
+        Capture out = new Capture() {
+            @Override
+            public int write(ByteBuffer source) {
+                int written = super.write(source);
+                if (writes.size() == 1) {
+                    // The writer stops waiting for the reader while it is busy with its first chunk
+                    writer.write(overwrite, 0, overwrite.length, NO_WAIT);
+                }
+                return written;
+            }
+        };
+
+        int copied = reader.read(out);
+
+        // Only the first chunk was kept, the second one may have been overwritten while it was copied
+        assertEquals(1, out.writes.size());
+        assertEquals(out.writes.get(0).length, copied);
+        assertArrayEquals(Arrays.copyOf(bytes, copied), out.bytes());
+        assertEquals(writer.writeCursor(), reader.getPosition());
+        assertEquals(bytes.length + overwrite.length - copied, reader.getLostBytes());
+        assertTrue(writer.getOverrunBytes() > 0);
+    }
+
+    @Test
+    void writerWaitsForSlowReaderAtMostTheGivenTime() throws IOException {
+        RingFile writer = RingFile.create(directory.resolve("port-9001.ring"), 4096);
+        RingFile.Reader reader = writer.reader(0);
+        byte[] bytes = lines(0, 3000);
+        writer.write(bytes, 0, bytes.length, NO_WAIT);
+
+        long waited = writer.write(bytes, 0, bytes.length, TimeUnit.MILLISECONDS.toNanos(50));
+
+        assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(50), "waited " + waited + " ns");
+        assertEquals(2L * bytes.length - 4096, writer.getOverrunBytes());
+        // The reader finds itself more than a ring behind and continues with the newest bytes
+        assertEquals(0, reader.read(new Capture()));
+        assertEquals(2L * bytes.length, reader.getLostBytes());
+    }
+
+    @Test
+    void releasedReaderDoesNotHoldTheWriterBack() throws IOException {
+        RingFile writer = RingFile.create(directory.resolve("port-9001.ring"), 4096);
+        writer.reader(0).release();
+        byte[] bytes = lines(0, 3000);
+        writer.write(bytes, 0, bytes.length, NO_WAIT);
+
+        assertEquals(0, writer.write(bytes, 0, bytes.length, TimeUnit.SECONDS.toNanos(10)));
+        assertEquals(0, writer.getOverrunBytes());
+    }
+
+    @Test
+    void slotResumesWhereItsLastReaderStopped() throws IOException {
+        Path path = directory.resolve("port-9001.ring");
+        RingFile writer = RingFile.create(path, 4096);
+        RingFile.Reader first = RingFile.open(path).reader(3);
+        byte[] read = lines(0, 1000);
+        writer.write(read, 0, read.length, NO_WAIT);
+        first.read(new Capture());
+        first.release();
+        byte[] missed = lines(1, 2000);
+        writer.write(missed, 0, missed.length, NO_WAIT);
+
+        RingFile.Reader resumed = RingFile.open(path).reader(3);
+        Capture out = new Capture();
+        resumed.read(out);
+
+        assertArrayEquals(missed, out.bytes());
+        assertEquals(0, resumed.getLostBytes());
+    }
+
+    @Test
+    void slotWhoseBytesWereOverwrittenStartsAtTheNewest() throws IOException {
+        Path path = directory.resolve("port-9001.ring");
+        RingFile writer = RingFile.create(path, 4096);
+        RingFile.Reader first = RingFile.open(path).reader(3);
+        byte[] read = lines(0, 1000);
+        writer.write(read, 0, read.length, NO_WAIT);
+        first.read(new Capture());
+        first.release();
+        for (int i = 1; i <= 3; i++) {
+            byte[] missed = lines(i, 3000);
+            writer.write(missed, 0, missed.length, NO_WAIT);
+        }
+
+        RingFile.Reader resumed = RingFile.open(path).reader(3);
+
+        assertEquals(writer.writeCursor(), resumed.getPosition());
+        assertEquals(writer.writeCursor() - read.length, resumed.getLostBytes());
+        assertEquals(0, resumed.read(new Capture()));
+    }
+
+    @Test
+    void reopeningKeepsTheRingOfTheSameCapacity() throws IOException {
+        Path path = directory.resolve("port-9001.ring");
+        RingFile writer = RingFile.create(path, 4096);
+        byte[] bytes = lines(0, 1000);
+        writer.write(bytes, 0, bytes.length, NO_WAIT);
+
+        assertEquals(bytes.length, RingFile.create(path, 4096).writeCursor());
+        assertEquals(0, RingFile.create(path, 8192).writeCursor());
+    }
+
+    /**
+     * Whole numbered lines of about the given length in total
+     */
+    private static byte[] lines(int seed, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < length - 40; i++) {
+            text.append("line ").append(seed).append('-').append(i).append(" of the ring test\n");
+        }
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+
+    /**
+     * Keeps what the reader writes, one array per write call
+     */
+    private static class Capture implements WritableByteChannel {
+        final List<byte[]> writes = new ArrayList<>();
+
+        @Override
+        public int write(ByteBuffer source) {
+            byte[] bytes = new byte[source.remaining()];
+            source.get(bytes);
+            writes.add(bytes);
+            return bytes.length;
+        }
+
+        byte[] bytes() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writes.forEach(out::writeBytes);
+            return out.toByteArray();
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}